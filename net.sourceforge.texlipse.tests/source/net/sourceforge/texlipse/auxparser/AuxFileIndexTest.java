@@ -0,0 +1,154 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.auxparser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sourceforge.texlipse.texparser.LatexLexer;
+import net.sourceforge.texlipse.texparser.node.EOF;
+import net.sourceforge.texlipse.texparser.node.TArgument;
+import net.sourceforge.texlipse.texparser.node.TCcite;
+import net.sourceforge.texlipse.texparser.node.TCword;
+import net.sourceforge.texlipse.texparser.node.TWord;
+import net.sourceforge.texlipse.texparser.node.Token;
+
+import org.junit.Test;
+
+/**
+ * Tests the line scanner of <code>AuxFileIndex</code>, comparing the
+ * citations and the labels with those the LaTeX lexer finds.
+ */
+public class AuxFileIndexTest {
+
+    private static final String AUX =
+        "\\relax \n"
+        + "\\citation{knuth84}\n"
+        + "\\@writefile{toc}{\\contentsline {section}{\\numberline {1}Intro}{1}}\n"
+        + "\\newlabel{intro}{{1}{1}}\n"
+        + "\\citation{lamport94}\n"
+        + "\\@input{chapter.aux}\n"
+        + "\\bibstyle{plain}\n"
+        + "\\newlabel{results}{{2.1}{3}{Results}{subsection.2.1}{}}\n"
+        + "\\bibdata{refs}\n"
+        + "\\bibcite{knuth84}{1}\n";
+
+    private static AuxFileIndex parse(String text) throws IOException {
+        AuxFileIndex index = new AuxFileIndex();
+        index.parse(new StringReader(text));
+        return index;
+    }
+
+    /**
+     * Collects the first arguments of the command the way the parser
+     * did with the LaTeX lexer before the scanner was written.
+     */
+    private static List<String> lex(String text, String command) throws Exception {
+        LatexLexer lexer = new LatexLexer(new PushbackReader(new StringReader(text), 4096));
+        List<String> results = new ArrayList<String>();
+        Token prevCommand = null;
+        for (Token t = lexer.next(); !(t instanceof EOF); t = lexer.next()) {
+            if (prevCommand == null) {
+                if ((t instanceof TCword || t instanceof TCcite)
+                        && t.getText().equalsIgnoreCase(command)) {
+                    prevCommand = t;
+                }
+            } else if (t instanceof TWord || t instanceof TArgument) {
+                results.add(t.getText());
+                prevCommand = null;
+            }
+        }
+        return results;
+    }
+
+    private static List<String> collect(AuxFileIndex index, String command) {
+        List<String> results = new ArrayList<String>();
+        for (int i = 0; i < index.size(); i++) {
+            if (index.getCommand(i) == command) {
+                results.add(index.getArguments(i)[0]);
+            }
+        }
+        return results;
+    }
+
+    @Test
+    public void findsSameCommandsAsLexer() throws Exception {
+        AuxFileIndex index = parse(AUX);
+        assertEquals(lex(AUX, AuxFileIndex.CITATION), collect(index, AuxFileIndex.CITATION));
+        assertEquals(lex(AUX, AuxFileIndex.NEWLABEL), collect(index, AuxFileIndex.NEWLABEL));
+        assertEquals(2, collect(index, AuxFileIndex.CITATION).size());
+    }
+
+    @Test
+    public void readsLabelNumberAndPage() throws Exception {
+        AuxFileIndex index = parse(AUX);
+        List<String[]> labels = new ArrayList<String[]>();
+        List<String> inputs = new ArrayList<String>();
+        for (int i = 0; i < index.size(); i++) {
+            if (index.getCommand(i) == AuxFileIndex.NEWLABEL) {
+                labels.add(index.getArguments(i));
+            } else if (index.getCommand(i) == AuxFileIndex.INPUT) {
+                inputs.add(index.getArguments(i)[0]);
+            }
+        }
+        assertEquals(2, labels.size());
+        assertArrayEquals(new String[] { "intro", "1", "1" }, labels.get(0));
+        assertArrayEquals(new String[] { "results", "2.1", "3" }, labels.get(1));
+        assertEquals("chapter.aux", inputs.get(0));
+    }
+
+    @Test
+    public void joinsArgumentsOverLines() throws Exception {
+        AuxFileIndex index = parse("\\newlabel{long}{{1}\n{2}}\r\n\\citation{a,\r\nb}\r\n");
+        assertEquals(2, index.size());
+        assertArrayEquals(new String[] { "long", "1", "2" }, index.getArguments(0));
+        assertEquals("a,\nb", index.getArguments(1)[0]);
+    }
+
+    @Test
+    public void skipsMalformedLines() throws Exception {
+        AuxFileIndex index = parse("\\citation knuth\n"
+                + "\\citationx{no}\n"
+                + "\\citation{open\n"
+                + "\\citation{after}\n"
+                + "  \\citation{indented}");
+        assertEquals(2, index.size());
+        assertEquals("after", index.getArguments(0)[0]);
+        assertEquals("indented", index.getArguments(1)[0]);
+    }
+
+    @Test
+    public void readsLinesOverBufferBoundaries() throws Exception {
+        // lines of different lengths, so commands end up split by the
+        // 8192 char buffer at every offset
+        StringBuilder text = new StringBuilder();
+        List<String> keys = new ArrayList<String>();
+        for (int i = 0; text.length() < 40000; i++) {
+            text.append("\\@writefile{lof}{");
+            for (int j = 0; j < i % 13; j++) {
+                text.append('x');
+            }
+            text.append("}\n");
+            String key = "key" + i;
+            keys.add(key);
+            text.append("\\citation{").append(key).append("}\n");
+        }
+        String aux = text.toString();
+        AuxFileIndex index = parse(aux);
+        assertEquals(keys, collect(index, AuxFileIndex.CITATION));
+        assertEquals(lex(aux, AuxFileIndex.CITATION), collect(index, AuxFileIndex.CITATION));
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.bibparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PushbackReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import net.sourceforge.texlipse.bibparser.analysis.DepthFirstAdapter;
+import net.sourceforge.texlipse.bibparser.node.AStrbraceStringEntry;
+import net.sourceforge.texlipse.bibparser.node.AStrparenStringEntry;
+import net.sourceforge.texlipse.bibparser.node.Start;
+import net.sourceforge.texlipse.bibparser.parser.Parser;
+import net.sourceforge.texlipse.model.ParseErrorMessage;
+import net.sourceforge.texlipse.model.ReferenceEntry;
+
+import org.junit.Test;
+
+/**
+ * Tests that <code>BibReader</code> finds the same entries, abbreviations,
+ * warnings and tasks as the SableCC generated parser with the
+ * <code>EntryRetriever</code> visitor.
+ */
+public class BibReaderTest {
+
+    /**
+     * The results of one parse, as strings that can be compared
+     */
+    static final class Result {
+        final List<String> entries = new ArrayList<String>();
+        final List<String> abbrevs = new ArrayList<String>();
+        List<String> warnings;
+        List<String> tasks;
+
+        Result(List<ReferenceEntry> entries, List<ReferenceEntry> abbrevs,
+                List<ParseErrorMessage> warnings, List<ParseErrorMessage> tasks) {
+            for (ReferenceEntry e : entries) {
+                this.entries.add(e.key + " [" + e.startLine + "-" + e.endLine + "] "
+                        + e.author + " / " + e.journal + " / " + e.year + "\n" + e.info);
+            }
+            for (ReferenceEntry a : abbrevs) {
+                this.abbrevs.add(a.key + "=" + a.info);
+            }
+            this.warnings = messages(warnings);
+            this.tasks = messages(tasks);
+        }
+
+        void assertSame(Result expected) {
+            assertEquals(expected.entries, entries);
+            assertEquals(expected.abbrevs, abbrevs);
+            assertEquals(expected.warnings, warnings);
+            assertEquals(expected.tasks, tasks);
+        }
+    }
+
+    /**
+     * Returns the messages ordered by position, the order in which
+     * <code>BibParser</code> reports them.
+     */
+    private static List<String> messages(List<ParseErrorMessage> messages) {
+        List<ParseErrorMessage> sorted = new ArrayList<ParseErrorMessage>(messages);
+        Collections.sort(sorted, new Comparator<ParseErrorMessage>() {
+            public int compare(ParseErrorMessage m1, ParseErrorMessage m2) {
+                if (m1.getLine() != m2.getLine()) {
+                    return m1.getLine() < m2.getLine() ? -1 : 1;
+                }
+                return m1.getPos() - m2.getPos();
+            }
+        });
+        List<String> result = new ArrayList<String>();
+        for (ParseErrorMessage m : sorted) {
+            result.add(m.getLine() + ":" + m.getPos() + ":" + m.getLength() + " "
+                    + m.getMsg() + " (" + m.getSeverity() + ")");
+        }
+        return result;
+    }
+
+    private static BibLexer lexer(String text) {
+        return new BibLexer(new PushbackReader(new StringReader(text), 1024));
+    }
+
+    /**
+     * Parses the text the way <code>BibParser</code> did before
+     * <code>BibReader</code> was written.
+     */
+    static Result parseTree(String text) throws Exception {
+        Start ast = new Parser(lexer(text)).parse();
+        EntryRetriever er = new EntryRetriever();
+        ast.apply(er);
+        er.finishParse();
+        final List<ReferenceEntry> abbrevs = new ArrayList<ReferenceEntry>();
+        ast.apply(new DepthFirstAdapter() {
+            public void inAStrbraceStringEntry(AStrbraceStringEntry node) {
+                abbrevs.add(new ReferenceEntry(node.getIdentifier().getText(),
+                        node.getStringLiteral().getText()));
+            }
+            public void inAStrparenStringEntry(AStrparenStringEntry node) {
+                abbrevs.add(new ReferenceEntry(node.getIdentifier().getText(),
+                        node.getStringLiteral().getText()));
+            }
+        });
+        return new Result(er.getEntries(), abbrevs, er.getWarnings(), er.getTasks());
+    }
+
+    private static Result read(String text) throws Exception {
+        EntryRetriever er = new EntryRetriever();
+        BibReader reader = new BibReader(lexer(text), er);
+        reader.read();
+        er.finishParse();
+        return new Result(er.getEntries(), reader.getAbbrevs(), er.getWarnings(), er.getTasks());
+    }
+
+    /**
+     * Returns a file with the given number of entries. It has
+     * abbreviations and cross references that are used far from where
+     * they are defined, duplicate keys, missing fields, tasks, and values
+     * with lines starting with @ inside braces.
+     */
+    static String bibFile(int count) {
+        StringBuilder text = new StringBuilder();
+        text.append("@string{jacm = \"Journal of the ACM\"}\n");
+        text.append("% TODO check the years\n");
+        for (int i = 0; i < count; i++) {
+            if (i % 150 == 75) {
+                text.append("@string(pub").append(i).append(" = {Publisher ").append(i).append("})\n");
+            }
+            if (i % 211 == 100) {
+                // a task is only found right after an entry, otherwise it
+                // is part of the comment before the next entry
+                while (Character.isWhitespace(text.charAt(text.length() - 1))) {
+                    text.setLength(text.length() - 1);
+                }
+                text.append("% TODO entry ").append(i).append('\n');
+            }
+            String key = i % 397 == 396 ? "key" + (i - 300) : "key" + i;
+            switch (i % 4) {
+            case 0:
+                text.append("@article{").append(key).append(",\n")
+                    .append("  author = {Author ").append(i).append(" and Other},\n")
+                    .append("  title = \"Title ").append(i).append("\",\n")
+                    .append("  journal = jacm,\n")
+                    .append("  year = ").append(1950 + i % 60).append('\n')
+                    .append("}\n\n");
+                break;
+            case 1:
+                text.append("@inproceedings(").append(key).append(",\n")
+                    .append("  author = \"A. Writer\" # { and B. Writer},\n")
+                    .append("  title = {On {T}opic ").append(i).append("},\n")
+                    .append("  crossref = {key").append(i > 600 ? i - 597 : i + 3).append("},\n")
+                    .append("  abstract = {First line\n@ starts a line\n  @also}\n")
+                    .append(")\n\n");
+                break;
+            case 2:
+                // missing the year
+                text.append("@book{").append(key).append(",\n")
+                    .append("  editor = {Editor ").append(i).append("},\n")
+                    .append("  title = {Book ").append(i).append("},\n")
+                    .append("  publisher = ").append(i > 75 ? "pub75" : "jacm").append(",\n")
+                    .append("}\n");
+                break;
+            default:
+                text.append("@Misc{").append(key).append(", note = {Misc ").append(i)
+                    .append("}, howpublished = jacm # \" online\"}\r\n\r\n");
+                break;
+            }
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void readsSameAsTreeParser() throws Exception {
+        String text = bibFile(400);
+        Result expected = parseTree(text);
+        assertTrue(expected.warnings.size() > 0);
+        assertTrue(expected.tasks.size() > 1);
+        read(text).assertSame(expected);
+    }
+
+    @Test
+    public void readsSmallFilesLikeTreeParser() throws Exception {
+        String[] texts = {
+            "",
+            "% only a comment\n",
+            "@string{a = \"b\"}",
+            "@article{k, title = {T}, author = a # \"x\" # 1984}",
+            "@article(k, title = {T},)% TODO later\n@misc{k, note = \"n\"}",
+        };
+        for (String text : texts) {
+            read(text).assertSame(parseTree(text));
+        }
+    }
+}
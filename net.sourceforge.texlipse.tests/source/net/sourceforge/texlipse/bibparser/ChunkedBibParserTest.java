@@ -0,0 +1,63 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.bibparser;
+
+import static org.junit.Assert.assertTrue;
+
+import net.sourceforge.texlipse.bibparser.BibReaderTest.Result;
+
+import org.junit.Test;
+
+/**
+ * Tests that <code>ChunkedBibParser</code> finds the same entries,
+ * abbreviations, warnings and tasks as parsing the whole file with the
+ * SableCC generated parser.
+ */
+public class ChunkedBibParserTest {
+
+    private static Result parseChunks(String text) {
+        ChunkedBibParser parser = new ChunkedBibParser(text);
+        assertTrue(parser.parse());
+        return new Result(parser.getEntries(), parser.getAbbrevs(),
+                parser.getWarnings(), parser.getTasks());
+    }
+
+    @Test
+    public void parsesChunksSameAsTreeParser() throws Exception {
+        // several chunks of at least 128k chars
+        String text = BibReaderTest.bibFile(4000);
+        assertTrue(text.length() > 3 * 128 * 1024);
+        parseChunks(text).assertSame(BibReaderTest.parseTree(text));
+    }
+
+    @Test
+    public void parsesEntriesAtEveryChunkBoundary() throws Exception {
+        // the same entries after padding of different lengths, so the
+        // chunks start at different kinds of entries
+        String text = BibReaderTest.bibFile(2000);
+        for (int shift = 0; shift < 4; shift++) {
+            StringBuilder padded = new StringBuilder();
+            for (int i = 0; i < shift; i++) {
+                padded.append("@misc{pad").append(i).append(", note = {")
+                        .append(new String(new char[2000]).replace('\0', 'x'))
+                        .append("}}\n");
+            }
+            padded.append(text);
+            String s = padded.toString();
+            parseChunks(s).assertSame(BibReaderTest.parseTree(s));
+        }
+    }
+
+    @Test
+    public void needsAtLeastTwoChunks() {
+        String text = BibReaderTest.bibFile(100);
+        assertTrue(!new ChunkedBibParser(text).parse());
+    }
+}
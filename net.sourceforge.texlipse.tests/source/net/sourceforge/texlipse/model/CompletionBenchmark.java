@@ -0,0 +1,253 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.model;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the lookups of <code>SortedReferences</code>, which search the
+ * cached lower case keys, with the binary searches that converted the key
+ * of each probed entry to lower case. Run it as a Java application; the
+ * optional argument is the number of keys (default 100000).
+ *
+ * Both lookups are first checked to find the same entries, then each is
+ * warmed up and timed in a few rounds. The bytes allocated per lookup are
+ * reported as well, if the virtual machine can measure them.
+ */
+public class CompletionBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    private static final String[] PREFIXES = { "sec", "fig", "tab", "eq", "chap",
+        "thm", "lem", "Knuth", "lamport", "smith" };
+
+    private final List<ReferenceEntry> entries;
+    private final SortedReferences index;
+    private final String[] queries;
+    private final String[] starts;
+
+    /**
+     * The sum of the results, printed so that the lookups are not
+     * optimized away
+     */
+    private long sink;
+
+    CompletionBenchmark(int count) {
+        Random random = new Random(5);
+        List<ReferenceEntry> list = new ArrayList<ReferenceEntry>(count);
+        for (int i = 0; i < count; i++) {
+            String prefix = PREFIXES[random.nextInt(PREFIXES.length)];
+            list.add(new ReferenceEntry(prefix + ':' + Integer.toString(random.nextInt(), 36)));
+        }
+        Collections.sort(list, new Comparator<ReferenceEntry>() {
+            public int compare(ReferenceEntry a, ReferenceEntry b) {
+                return a.key.toLowerCase().compareTo(b.key.toLowerCase());
+            }
+        });
+        entries = list;
+        index = new SortedReferences(list);
+
+        // the keys of \ref and \cite commands, half of them missing
+        queries = new String[4096];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = random.nextBoolean()
+                    ? list.get(random.nextInt(count)).key
+                    : PREFIXES[random.nextInt(PREFIXES.length)] + ":x" + i;
+        }
+        // what is typed while completing
+        starts = new String[4096];
+        for (int i = 0; i < starts.length; i++) {
+            String key = list.get(random.nextInt(count)).key;
+            starts[i] = key.substring(0, Math.min(key.length(), 1 + random.nextInt(8)));
+        }
+    }
+
+    /**
+     * The exact lookup of <code>PartialRetriever.getEntry()</code> before
+     * the lower case keys were cached.
+     */
+    private static int getEntryConverting(String entryname, List<ReferenceEntry> entries) {
+        String lEntryname = entryname.toLowerCase();
+        int start = 0;
+        int end = entries.size();
+        while (end - start > 1
+                && !entries.get((start + end) / 2).key.toLowerCase().equals(lEntryname)) {
+            int c = entries.get((start + end) / 2).key.toLowerCase().compareTo(lEntryname);
+            if (c < 0) start = (start + end) / 2;
+            else end = (start + end) / 2;
+        }
+        int m = (start + end) / 2;
+        if (!entries.get(m).key.toLowerCase().equals(lEntryname)) return -1;
+        m--;
+        while (m >= 0 && entries.get(m).key.toLowerCase().equals(lEntryname)) m--;
+        m++;
+        while (m < entries.size() && entries.get(m).key.toLowerCase().equals(lEntryname)) {
+            if (entries.get(m).key.equals(entryname)) return m;
+            m++;
+        }
+        return -1;
+    }
+
+    /**
+     * The prefix search of <code>PartialRetriever.getCompletionsBin()</code>
+     * before the lower case keys were cached.
+     */
+    private static int[] getCompletionsConverting(String start, List<ReferenceEntry> entries) {
+        int[] bounds = new int[] {-1, -1};
+        int left = 0, right = entries.size() - 1;
+        int middle = right / 2;
+        if (left > right) return bounds;
+        start = start.toLowerCase();
+
+        if (entries.get(left).key.toLowerCase().startsWith(start))
+            right = middle = left;
+        while (left < middle) {
+            if (entries.get(middle).key.toLowerCase().compareTo(start) >= 0) {
+                right = middle;
+                middle = (left + middle) / 2;
+            } else {
+                left = middle;
+                middle = (middle + right) / 2;
+            }
+        }
+        if (!entries.get(right).key.toLowerCase().startsWith(start))
+            return bounds;
+        bounds[0] = right;
+
+        left = right;
+        right = entries.size() - 1;
+        if (entries.get(right).key.toLowerCase().startsWith(start)) {
+            bounds[1] = right + 1;
+            return bounds;
+        }
+        middle = (left + right) / 2;
+        while (left < middle) {
+            if (entries.get(middle).key.toLowerCase().startsWith(start)) {
+                left = middle;
+                middle = (right + middle) / 2;
+            } else {
+                right = middle;
+                middle = (middle + left) / 2;
+            }
+        }
+        bounds[1] = right;
+        return bounds;
+    }
+
+    /**
+     * Checks that both lookups find the same entries.
+     */
+    void check() {
+        for (String query : queries) {
+            int i = getEntryConverting(query, entries);
+            ReferenceEntry expected = i >= 0 ? entries.get(i) : null;
+            if (index.getEntry(query) != expected) {
+                throw new IllegalStateException("Different entry for " + query);
+            }
+        }
+        for (String start : starts) {
+            int[] bounds = getCompletionsConverting(start, entries);
+            List<ReferenceEntry> expected = bounds[0] >= 0
+                    ? entries.subList(bounds[0], bounds[1]) : null;
+            List<ReferenceEntry> actual = index.getCompletions(start);
+            if (expected == null ? actual != null : !expected.equals(actual)) {
+                throw new IllegalStateException("Different completions for " + start);
+            }
+        }
+    }
+
+    long lookupConverting() {
+        long found = 0;
+        for (String query : queries) {
+            found += getEntryConverting(query, entries);
+        }
+        for (String start : starts) {
+            int[] bounds = getCompletionsConverting(start, entries);
+            found += bounds[1] - bounds[0];
+        }
+        return found;
+    }
+
+    long lookupCached() {
+        long found = 0;
+        for (String query : queries) {
+            if (index.getEntry(query) != null) {
+                found++;
+            }
+        }
+        for (String start : starts) {
+            int first = index.getCompletionsStart(start);
+            found += index.getCompletionsEnd(start, first) - first;
+        }
+        return found;
+    }
+
+    /**
+     * Returns the average time of one round in nanoseconds.
+     */
+    private long time(boolean cached) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += cached ? lookupCached() : lookupConverting();
+        }
+        long time = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            sink += cached ? lookupCached() : lookupConverting();
+        }
+        return (System.nanoTime() - time) / ROUNDS;
+    }
+
+    /**
+     * Returns the bytes allocated by this thread in one round, or -1 if
+     * they cannot be measured.
+     */
+    private long allocated(boolean cached) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+        long id = Thread.currentThread().getId();
+        long bytes = sunThreads.getThreadAllocatedBytes(id);
+        if (bytes < 0) {
+            return -1;
+        }
+        sink += cached ? lookupCached() : lookupConverting();
+        return sunThreads.getThreadAllocatedBytes(id) - bytes;
+    }
+
+    private static String bytes(long bytes, int lookups) {
+        return bytes < 0 ? "allocation unknown"
+                : String.format("%.1f bytes/lookup", (double) bytes / lookups);
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        CompletionBenchmark benchmark = new CompletionBenchmark(count);
+        benchmark.check();
+        int lookups = benchmark.queries.length + benchmark.starts.length;
+        long converting = benchmark.time(false);
+        long cached = benchmark.time(true);
+        long convertingBytes = benchmark.allocated(false);
+        long cachedBytes = benchmark.allocated(true);
+        System.out.println(count + " keys, " + lookups + " lookups per round");
+        System.out.println("converting keys: " + converting / lookups + " ns/lookup, "
+                + bytes(convertingBytes, lookups));
+        System.out.println("cached keys:     " + cached / lookups + " ns/lookup, "
+                + bytes(cachedBytes, lookups));
+        System.out.println("(" + benchmark.sink + ")");
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests <code>CompletionIndex</code> against a linear search of a sorted
+ * list of the same entries.
+ */
+public class CompletionIndexTest {
+
+    private static final int ALL = Integer.MAX_VALUE;
+
+    private static final String[] WORDS = { "sec", "fig", "tab", "eq", "Intro",
+        "intro", "introduction", "in", "i", "s", "se", "section", "Sec:A" };
+
+    /**
+     * Returns entries with random keys built from common parts, so that
+     * many keys share prefixes and some are equal.
+     */
+    private static List<ReferenceEntry> entries(Random random, int count) {
+        List<ReferenceEntry> entries = new ArrayList<ReferenceEntry>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder key = new StringBuilder();
+            int parts = 1 + random.nextInt(3);
+            for (int p = 0; p < parts; p++) {
+                if (p > 0) {
+                    key.append(random.nextBoolean() ? ':' : '-');
+                }
+                key.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            entries.add(new ReferenceEntry(key.toString()));
+        }
+        return entries;
+    }
+
+    /**
+     * Sorts the entries by their lower case key, keeping the order of
+     * entries with the same key.
+     */
+    private static List<ReferenceEntry> sorted(List<ReferenceEntry> entries) {
+        List<ReferenceEntry> sorted = new ArrayList<ReferenceEntry>(entries);
+        Collections.sort(sorted, new Comparator<ReferenceEntry>() {
+            public int compare(ReferenceEntry a, ReferenceEntry b) {
+                return a.getkey(true).compareTo(b.getkey(true));
+            }
+        });
+        return sorted;
+    }
+
+    private static List<ReferenceEntry> prefixMatches(List<ReferenceEntry> sorted, String prefix) {
+        List<ReferenceEntry> result = new ArrayList<ReferenceEntry>();
+        for (ReferenceEntry entry : sorted) {
+            if (entry.getkey(true).startsWith(prefix.toLowerCase())) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    private static List<ReferenceEntry> substringMatches(List<ReferenceEntry> sorted, String part) {
+        List<ReferenceEntry> result = new ArrayList<ReferenceEntry>();
+        for (ReferenceEntry entry : sorted) {
+            if (entry.getkey(true).contains(part.toLowerCase())) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    private static int distance(String a, String b) {
+        int[] prev = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            prev[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            int[] cur = new int[b.length() + 1];
+            cur[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                cur[j] = Math.min(Math.min(prev[j] + 1, cur[j - 1] + 1), prev[j - 1] + cost);
+            }
+            prev = cur;
+        }
+        return prev[b.length()];
+    }
+
+    private static List<ReferenceEntry> fuzzyMatches(List<ReferenceEntry> sorted, String word,
+            int maxDistance) {
+        List<ReferenceEntry> result = new ArrayList<ReferenceEntry>();
+        word = word.toLowerCase();
+        for (ReferenceEntry entry : sorted) {
+            String key = entry.getkey(true);
+            for (int end = 0; end <= key.length(); end++) {
+                if (distance(key.substring(0, end), word) <= maxDistance) {
+                    result.add(entry);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static final String[] QUERIES = { "", "s", "Se", "sec", "sec:", "intro",
+        "INTRO", "x", "tion", "n:s", "introductio", "fgi", "seciton", "tab-eq" };
+
+    private static void assertMatches(CompletionIndex<ReferenceEntry> index,
+            List<ReferenceEntry> entries) {
+        List<ReferenceEntry> sorted = sorted(entries);
+        assertEquals(entries.size(), index.size());
+        for (String query : QUERIES) {
+            assertEquals(query, prefixMatches(sorted, query), index.getPrefixMatches(query, ALL));
+            assertEquals(query, substringMatches(sorted, query),
+                    index.getSubstringMatches(query, ALL));
+            for (int d = 1; d <= 2; d++) {
+                assertEquals(query, fuzzyMatches(sorted, query, d),
+                        index.getFuzzyMatches(query, d, ALL));
+            }
+        }
+    }
+
+    @Test
+    public void findsSameEntriesAsLinearSearch() {
+        List<ReferenceEntry> entries = entries(new Random(1), 300);
+        assertMatches(new CompletionIndex<ReferenceEntry>(entries), entries);
+    }
+
+    @Test
+    public void keepsMatchesAfterRemoval() {
+        Random random = new Random(2);
+        List<ReferenceEntry> entries = entries(random, 300);
+        CompletionIndex<ReferenceEntry> index = new CompletionIndex<ReferenceEntry>(entries);
+        for (int i = 0; i < 150; i++) {
+            ReferenceEntry entry = entries.remove(random.nextInt(entries.size()));
+            assertTrue(index.remove(entry));
+            assertFalse(index.remove(entry));
+        }
+        assertMatches(index, entries);
+
+        List<ReferenceEntry> added = entries(random, 100);
+        index.addAll(added);
+        entries.addAll(added);
+        assertMatches(index, entries);
+    }
+
+    @Test
+    public void removesOnlySameObject() {
+        CompletionIndex<ReferenceEntry> index = new CompletionIndex<ReferenceEntry>();
+        ReferenceEntry entry = new ReferenceEntry("sec:a");
+        index.add(entry);
+        assertFalse(index.remove(new ReferenceEntry("sec:a")));
+        assertFalse(index.remove(new ReferenceEntry("sec")));
+        assertTrue(index.remove(entry));
+        assertEquals(0, index.size());
+        assertEquals(0, index.getPrefixMatches("", ALL).size());
+    }
+
+    @Test
+    public void stopsAtLimit() {
+        List<ReferenceEntry> entries = entries(new Random(3), 200);
+        CompletionIndex<ReferenceEntry> index = new CompletionIndex<ReferenceEntry>(entries);
+        List<ReferenceEntry> all = prefixMatches(sorted(entries), "s");
+        assertEquals(all.subList(0, 5), index.getPrefixMatches("s", 5));
+        assertEquals(substringMatches(sorted(entries), "o").subList(0, 7),
+                index.getSubstringMatches("o", 7));
+    }
+}
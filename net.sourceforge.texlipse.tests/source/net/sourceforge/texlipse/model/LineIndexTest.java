@@ -0,0 +1,145 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests <code>LineIndex</code> against reading the lines with
+ * <code>BufferedReader.readLine()</code>, which is how the label infos
+ * were created before.
+ */
+public class LineIndexTest {
+
+    private static final String[] TEXTS = {
+        "",
+        "one line",
+        "ends with newline\n",
+        "a\nb\r\nc\rd",
+        "\n\n\n",
+        "\r\n\r\n",
+        "\r\r\n\n\r",
+        "\\begin{figure}\n\\label{fig:a}\r\n\\end{figure}\n\ntext\r\n",
+    };
+
+    private static List<String> readLines(String text) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new StringReader(text));
+        for (String line; (line = in.readLine()) != null;) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the lines the way <code>ReferenceEntry.setLabelInfo()</code>
+     * extracted them before the line index was used.
+     */
+    private static String readLines(String text, int first, int last) throws IOException {
+        StringBuilder extract = new StringBuilder();
+        BufferedReader in = new BufferedReader(new StringReader(text));
+        int currentLine = 0;
+        for (String str; (str = in.readLine()) != null && currentLine <= last; currentLine++) {
+            if (currentLine >= first) {
+                extract.append(str);
+                extract.append(System.getProperty("line.separator"));
+            }
+        }
+        return extract.toString();
+    }
+
+    private static String generated() {
+        StringBuilder text = new StringBuilder();
+        String[] delimiters = { "\n", "\r\n", "\r" };
+        for (int i = 0; i < 500; i++) {
+            for (int j = 0; j < i % 7; j++) {
+                text.append("word").append(j).append(' ');
+            }
+            text.append(delimiters[i % 3]);
+        }
+        return text.toString();
+    }
+
+    private static void assertSameLines(String text) throws IOException {
+        LineIndex index = new LineIndex(text);
+        List<String> lines = readLines(text);
+        assertEquals(lines.size(), index.getLineCount());
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals(lines.get(i), index.getLine(i));
+        }
+        for (int first = -3; first <= lines.size() + 1; first++) {
+            assertEquals(readLines(text, first, first + 4), index.getLines(first, first + 4));
+        }
+    }
+
+    /**
+     * Checks that the range of the lines, which the project index stores
+     * instead of the text, contains the same lines.
+     */
+    private static void assertSameRange(String text) {
+        LineIndex index = new LineIndex(text);
+        for (int first = -6; first <= index.getLineCount() + 1; first++) {
+            int start = index.getLinesStart(first);
+            int end = Math.max(start, index.getLinesEnd(first + 4));
+            LineIndex range = new LineIndex(text.substring(start, end));
+            assertEquals(index.getLines(first, first + 4),
+                    range.getLines(0, range.getLineCount() - 1));
+        }
+    }
+
+    @Test
+    public void findsSameLinesAsReader() throws IOException {
+        for (String text : TEXTS) {
+            assertSameLines(text);
+        }
+        assertSameLines(generated());
+    }
+
+    @Test
+    public void findsSameLinesInRange() {
+        for (String text : TEXTS) {
+            assertSameRange(text);
+        }
+        assertSameRange(generated());
+    }
+
+    @Test
+    public void findsLineOfOffset() {
+        String text = generated();
+        LineIndex index = new LineIndex(text);
+        for (int offset = 0; offset < text.length(); offset++) {
+            int line = index.getLineOfOffset(offset);
+            assertTrue(index.getLineOffset(line) <= offset);
+            assertTrue(line + 1 == index.getLineCount()
+                    || index.getLineOffset(line + 1) > offset);
+        }
+    }
+
+    @Test
+    public void createsSameLabelInfo() throws IOException {
+        String text = TEXTS[TEXTS.length - 1] + generated();
+        LineIndex index = new LineIndex(text);
+        for (int line = 0; line < 40; line++) {
+            ReferenceEntry label = new ReferenceEntry("fig:a");
+            label.startLine = line;
+            label.setLabelInfo(index);
+            assertEquals(readLines(text, line - 2, line + 2), label.getInfo());
+        }
+    }
+}
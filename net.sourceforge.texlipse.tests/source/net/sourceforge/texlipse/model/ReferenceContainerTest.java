@@ -0,0 +1,235 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests that the incremental updates of <code>ReferenceContainer</code>,
+ * which replace the runs of changed entries in the sorted array, give
+ * the same array as sorting all the references again.
+ */
+public class ReferenceContainerTest {
+
+    private final Random random = new Random(4);
+
+    /**
+     * The current references of each source
+     */
+    private final Map<String, List<ReferenceEntry>> sources =
+        new HashMap<String, List<ReferenceEntry>>();
+
+    private int nextKey;
+
+    private ReferenceEntry entry(int line) {
+        // a few upper case keys and common prefixes
+        String key = (random.nextInt(5) == 0 ? "Ref" : "ref") + (nextKey++ % 97);
+        ReferenceEntry entry = new ReferenceEntry(key, "info " + key);
+        entry.startLine = line;
+        entry.endLine = line + 2;
+        return entry;
+    }
+
+    private List<ReferenceEntry> source(int count) {
+        List<ReferenceEntry> refs = new ArrayList<ReferenceEntry>();
+        while (refs.size() < count) {
+            ReferenceEntry entry = entry(refs.size() * 4 + 1);
+            if (!hasKey(refs, entry.key)) {
+                refs.add(entry);
+            }
+        }
+        return refs;
+    }
+
+    private static boolean hasKey(List<ReferenceEntry> refs, String key) {
+        for (ReferenceEntry r : refs) {
+            if (r.key.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns an edited copy of the references: some entries are removed,
+     * some added, some changed and the rest are parsed again, possibly at
+     * a new line.
+     */
+    private List<ReferenceEntry> edit(List<ReferenceEntry> refs) {
+        List<ReferenceEntry> result = new ArrayList<ReferenceEntry>();
+        int shift = 0;
+        for (ReferenceEntry r : refs) {
+            int op = random.nextInt(10);
+            if (op == 0) {
+                shift -= 4;
+                continue;
+            }
+            ReferenceEntry copy = (ReferenceEntry) r.copy();
+            copy.startLine += shift;
+            copy.endLine += shift;
+            if (op == 1) {
+                copy.info = "changed " + random.nextInt();
+            }
+            result.add(copy);
+            if (op == 2) {
+                ReferenceEntry added = entry(copy.endLine + 1);
+                if (!hasKey(result, added.key) && !hasKey(refs, added.key)) {
+                    result.add(added);
+                    shift += 4;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static List<ReferenceEntry> sortAll(Map<String, List<ReferenceEntry>> sources) {
+        List<ReferenceEntry> all = new ArrayList<ReferenceEntry>();
+        for (List<ReferenceEntry> refs : sources.values()) {
+            all.addAll(refs);
+        }
+        Collections.sort(all, new Comparator<ReferenceEntry>() {
+            public int compare(ReferenceEntry o1, ReferenceEntry o2) {
+                return o1.getkey(true).compareTo(o2.getkey(true));
+            }
+        });
+        return all;
+    }
+
+    private static List<String> keys(List<ReferenceEntry> refs) {
+        List<String> keys = new ArrayList<String>();
+        for (ReferenceEntry r : refs) {
+            keys.add(r.getkey(true));
+        }
+        return keys;
+    }
+
+    /**
+     * Checks that the sorted array has the keys of the full sort and
+     * entries equal to the current ones of the sources, and that the
+     * lookups find them.
+     */
+    private void assertSorted(ReferenceContainer container) {
+        List<ReferenceEntry> expected = sortAll(sources);
+        List<ReferenceEntry> actual = container.getSortedReferences();
+        assertEquals(keys(expected), keys(actual));
+        Map<String, ReferenceEntry> byKey = new HashMap<String, ReferenceEntry>();
+        for (ReferenceEntry r : expected) {
+            byKey.put(r.fileName + '/' + r.key, r);
+        }
+        Map<ReferenceEntry, Boolean> seen = new IdentityHashMap<ReferenceEntry, Boolean>();
+        for (ReferenceEntry r : actual) {
+            assertTrue(seen.put(r, Boolean.TRUE) == null);
+            ReferenceEntry e = byKey.get(r.fileName + '/' + r.key);
+            assertEquals(r.key, e.info, r.info);
+            assertEquals(r.key, e.startLine, r.startLine);
+        }
+        // the lower case keys of the lookups are copied with the entries
+        SortedReferences snapshot = container.getSnapshot();
+        List<String> keys = keys(actual);
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(keys.indexOf(keys.get(i)), snapshot.getCompletionsStart(keys.get(i)));
+            assertTrue(snapshot.indexOf(actual.get(i).key) >= 0);
+        }
+    }
+
+    @Test
+    public void updatedSourcesGiveSameOrderAsFullSort() {
+        ReferenceContainer container = new ReferenceContainer();
+        for (int i = 0; i < 5; i++) {
+            String name = "file" + i + ".bib";
+            List<ReferenceEntry> refs = source(40);
+            sources.put(name, refs);
+            container.addRefSource(name, new ArrayList<ReferenceEntry>(refs));
+        }
+        container.organize();
+        assertSorted(container);
+
+        for (int round = 0; round < 50; round++) {
+            String name = "file" + random.nextInt(5) + ".bib";
+            List<ReferenceEntry> refs = edit(sources.get(name));
+            sources.put(name, refs);
+            for (ReferenceEntry r : refs) {
+                r.fileName = name;
+            }
+            assertTrue(container.updateRefSource(name, new ArrayList<ReferenceEntry>(refs)));
+            assertSorted(container);
+        }
+    }
+
+    @Test
+    public void replacedSourcesGiveSameOrderAsFullSort() {
+        ReferenceContainer container = new ReferenceContainer();
+        for (int round = 0; round < 30; round++) {
+            // up to 12 sources at a time, so both the incremental update
+            // and the full sort are used
+            int count = 1 + random.nextInt(12);
+            for (int i = 0; i < count; i++) {
+                String name = "file" + random.nextInt(15) + ".tex";
+                List<ReferenceEntry> refs = source(random.nextInt(20));
+                for (ReferenceEntry r : refs) {
+                    r.fileName = name;
+                }
+                sources.put(name, refs);
+                container.addRefSource(name, new ArrayList<ReferenceEntry>(refs));
+            }
+            container.organize();
+            assertSorted(container);
+        }
+    }
+
+    @Test
+    public void keepsPublishedSnapshot() {
+        ReferenceContainer container = new ReferenceContainer();
+        List<ReferenceEntry> refs = source(30);
+        sources.put("refs.bib", refs);
+        container.addRefSource("refs.bib", new ArrayList<ReferenceEntry>(refs));
+        container.organize();
+
+        SortedReferences snapshot = container.getSnapshot();
+        List<ReferenceEntry> before = new ArrayList<ReferenceEntry>(snapshot.getEntries());
+        int[] lines = new int[before.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = before.get(i).startLine;
+        }
+
+        // moves every entry down by a line
+        List<ReferenceEntry> moved = new ArrayList<ReferenceEntry>();
+        for (ReferenceEntry r : refs) {
+            ReferenceEntry copy = (ReferenceEntry) r.copy();
+            copy.startLine++;
+            copy.endLine++;
+            moved.add(copy);
+        }
+        sources.put("refs.bib", moved);
+        container.updateRefSource("refs.bib", moved);
+        assertSorted(container);
+        assertNotSame(snapshot, container.getSnapshot());
+
+        assertEquals(before, snapshot.getEntries());
+        for (int i = 0; i < lines.length; i++) {
+            assertSame(before.get(i), snapshot.getEntries().get(i));
+            assertEquals(lines[i], before.get(i).startLine);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the lookups of <code>SortedReferences</code>, which compare the
+ * searched key with the lower case keys one character at a time, against
+ * a linear search with <code>toLowerCase()</code>.
+ */
+public class SortedReferencesTest {
+
+    private static final String[] PARTS = { "sec", "Sec", "SEC", "fig", "Fig", "a", "B",
+        "\u00e4", "\u00c4", "\u00df", "z", "_", "-", ":" };
+
+    private static SortedReferences references(Random random, int count) {
+        List<ReferenceEntry> entries = new ArrayList<ReferenceEntry>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder key = new StringBuilder();
+            for (int p = 1 + random.nextInt(4); p > 0; p--) {
+                key.append(PARTS[random.nextInt(PARTS.length)]);
+            }
+            entries.add(new ReferenceEntry(key.toString()));
+        }
+        Collections.sort(entries, new Comparator<ReferenceEntry>() {
+            public int compare(ReferenceEntry a, ReferenceEntry b) {
+                return a.getkey(true).compareTo(b.getkey(true));
+            }
+        });
+        return new SortedReferences(entries);
+    }
+
+    private static List<String> queries(Random random, SortedReferences refs) {
+        List<String> queries = new ArrayList<String>();
+        queries.add("");
+        for (int i = 0; i < 300; i++) {
+            String key = refs.get(random.nextInt(refs.size())).key;
+            queries.add(key);
+            queries.add(key.substring(0, random.nextInt(key.length() + 1)));
+            queries.add(key.toUpperCase());
+            queries.add(key + PARTS[random.nextInt(PARTS.length)]);
+        }
+        return queries;
+    }
+
+    @Test
+    public void findsSameEntriesAsLinearSearch() {
+        Random random = new Random(5);
+        SortedReferences refs = references(random, 400);
+        List<ReferenceEntry> entries = refs.getEntries();
+        for (String query : queries(random, refs)) {
+            ReferenceEntry exact = null;
+            List<ReferenceEntry> completions = new ArrayList<ReferenceEntry>();
+            for (ReferenceEntry e : entries) {
+                if (exact == null && e.key.equals(query)) {
+                    exact = e;
+                }
+                if (e.getkey(true).startsWith(query.toLowerCase())) {
+                    completions.add(e);
+                }
+            }
+            assertSame(query, exact, refs.getEntry(query));
+            assertEquals(query, exact == null ? -1 : entries.indexOf(exact), refs.indexOf(query));
+
+            int first = refs.getCompletionsStart(query);
+            int end = refs.getCompletionsEnd(query, first);
+            assertEquals(query, completions, entries.subList(first, end));
+            if (completions.isEmpty()) {
+                assertNull(query, refs.getCompletions(query));
+            } else {
+                assertEquals(query, completions, refs.getCompletions(query));
+            }
+        }
+    }
+
+    @Test
+    public void findsNothingInEmptyReferences() {
+        assertEquals(-1, SortedReferences.EMPTY.indexOf("a"));
+        assertNull(SortedReferences.EMPTY.getEntry("a"));
+        assertEquals(0, SortedReferences.EMPTY.getCompletionsStart("a"));
+        assertEquals(0, SortedReferences.EMPTY.getCompletionsEnd("a", 0));
+    }
+}
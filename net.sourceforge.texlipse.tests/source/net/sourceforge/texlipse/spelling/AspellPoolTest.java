@@ -0,0 +1,220 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.spelling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that <code>AspellPool</code> reuses the processes returned to it
+ * and checks the ranges of a document in the order of the lines. The
+ * processes run a shell script that answers like aspell in terse mode,
+ * reporting each line as one misspelled word, and writes the commands
+ * it gets to a log file.
+ */
+public class AspellPoolTest {
+
+    private File script;
+    private File log;
+    private AspellPool pool;
+    private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+
+    private final AspellPool.Console console = new AspellPool.Console() {
+        public void starting(String command) {
+            messages.add("starting " + command);
+        }
+        public void print(String message) {
+            messages.add(message);
+        }
+        public void startFailed(Exception e) {
+            messages.add("failed");
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        assumeTrue(new File("/bin/sh").canExecute());
+        script = File.createTempFile("aspell", ".sh");
+        log = File.createTempFile("aspell", ".log");
+        Writer w = new FileWriter(script);
+        try {
+            w.write("echo '@(#) International Ispell Version 3.1.20 (but really Aspell 0.60)'\n"
+                    + "while IFS= read -r line; do\n"
+                    + "  printf '%s %s\\n' $$ \"$line\" >> " + log.getAbsolutePath() + "\n"
+                    + "  case \"$line\" in ^*) printf '# %s 1\\n\\n' \"${line#^}\";; esac\n"
+                    + "done\n");
+        } finally {
+            w.close();
+        }
+        pool = new AspellPool(console, 4);
+    }
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.dispose();
+        }
+        if (script != null) {
+            script.delete();
+        }
+        if (log != null) {
+            log.delete();
+        }
+    }
+
+    private String command() {
+        return "/bin/sh " + script.getAbsolutePath();
+    }
+
+    /**
+     * Returns the commands each process got, in the order the processes
+     * were started.
+     */
+    private List<List<String>> readLog() throws IOException {
+        Map<String, List<String>> processes = new LinkedHashMap<String, List<String>>();
+        for (String line : Files.readAllLines(log.toPath())) {
+            int space = line.indexOf(' ');
+            String pid = line.substring(0, space);
+            List<String> commands = processes.get(pid);
+            if (commands == null) {
+                commands = new ArrayList<String>();
+                processes.put(pid, commands);
+            }
+            commands.add(line.substring(space + 1));
+        }
+        return new ArrayList<List<String>>(processes.values());
+    }
+
+    private static void check(AspellProcess p, String line) throws InterruptedException {
+        p.send(line);
+        List<String> result = p.take();
+        assertNotSame(AspellProcess.END, result);
+        assertEquals(1, result.size());
+        assertEquals("# " + line + " 1", result.get(0));
+    }
+
+    @Test
+    public void reusesReleasedProcess() throws Exception {
+        AspellProcess p = pool.acquire(command(), null, "UTF-8");
+        assertNotNull(p);
+        check(p, "\\section{One}");
+        pool.release(p);
+
+        AspellProcess q = pool.acquire(command(), null, "UTF-8");
+        assertSame(p, q);
+        check(q, "text");
+        pool.release(q);
+    }
+
+    @Test
+    public void resetsFilterBetweenChecks() throws Exception {
+        AspellProcess p = pool.acquire(command(), null, "UTF-8");
+        check(p, "\\cite{a");
+        pool.release(p);
+        p = pool.acquire(command(), null, "UTF-8");
+        check(p, "text");
+        pool.release(p);
+        pool.dispose();
+        pool = null;
+
+        List<List<String>> processes = readLog();
+        assertEquals(1, processes.size());
+        List<String> lines = processes.get(0);
+        assertEquals("!", lines.get(0));
+        assertEquals("^\\cite{a", lines.get(1));
+        assertEquals("-", lines.get(2));
+        assertEquals("^text", lines.get(3));
+    }
+
+    @Test
+    public void checksRangesInOrder() throws Exception {
+        // paragraphs of 7 lines, more than the send-ahead window in each range
+        int count = 4 * AspellPool.MIN_RANGE_LINES + 13;
+        String[] lines = new String[count];
+        int[] paragraphs = new int[count];
+        int paragraphCount = 0;
+        for (int i = 0; i < count; i++) {
+            lines[i] = "line " + i;
+            if (i > 0 && i % 7 == 0) {
+                paragraphs[paragraphCount++] = i;
+            }
+        }
+        List<List<String>> results = pool.checkLines(command(), null, "UTF-8",
+                lines, count, paragraphs, paragraphCount, new NullProgressMonitor());
+        assertEquals(count, results.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(Collections.singletonList("# line " + i + " 1"), results.get(i));
+        }
+
+        // the ranges were checked by processes of their own, each
+        // starting at a paragraph and getting the lines in order
+        List<List<String>> processes = readLog();
+        assertEquals(4, processes.size());
+        int checked = 0;
+        for (List<String> commands : processes) {
+            assertEquals("!", commands.get(0));
+            int first = Integer.parseInt(commands.get(1).substring("^line ".length()));
+            assertEquals(0, first % 7);
+            for (int i = 1; i < commands.size(); i++) {
+                assertEquals("^line " + (first + i - 1), commands.get(i));
+            }
+            checked += commands.size() - 1;
+        }
+        assertEquals(count, checked);
+    }
+
+    @Test
+    public void checksShortDocumentWithOneProcess() throws Exception {
+        String[] lines = { "one", "two", "three" };
+        List<List<String>> results = pool.checkLines(command(), null, "UTF-8",
+                lines, lines.length, new int[] { 2 }, 1, new NullProgressMonitor());
+        assertEquals(3, results.size());
+        assertEquals("# three 1", results.get(2).get(0));
+        assertEquals(1, readLog().size());
+    }
+
+    @Test
+    public void reportsProgramThatCannotStart() {
+        assertNull(pool.acquire("/nonexistent/aspell -a", null, "UTF-8"));
+        assertEquals("failed", messages.get(messages.size() - 1));
+    }
+
+    @Test
+    public void startsNewProcessAfterClear() throws Exception {
+        AspellProcess p = pool.acquire(command(), null, "UTF-8");
+        check(p, "text");
+        pool.release(p);
+        pool.clear();
+
+        AspellProcess q = pool.acquire(command(), null, "UTF-8");
+        assertNotSame(p, q);
+        pool.release(q);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.spelling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.swabunga.spell.event.AbstractWordFinder;
+import com.swabunga.spell.event.Word;
+import com.swabunga.spell.event.WordFinder;
+
+/**
+ * Tests the command trie of the word finder, and that the word finder
+ * finds the same words as the finder that matched each command with a
+ * regular expression.
+ */
+public class CommandTableTest {
+
+    /**
+     * The word finder before the command table, which compared the text
+     * at a backslash to each command and matched the arguments with a
+     * regular expression.
+     */
+    private static final class RegexWordFinder extends AbstractWordFinder {
+
+        private static final Pattern MAND_ARG = Pattern.compile("\\A\\s*\\{[^\\}]+\\}");
+        private static final Pattern OPT_MAND_ARG = Pattern.compile("\\A\\s*(\\[[^\\]]+\\])?\\s*\\{[^\\}]+\\}");
+
+        private static final String[] MAND_COMMANDS = { "\\newcounter", "\\setcounter",
+            "\\addtocounter", "\\value", "\\arabic", "\\stepcounter", "\\newenvironment",
+            "\\renewenvironment", "\\ref", "\\vref", "\\eqref", "\\pageref", "\\label",
+            "\\tag", "\\begin", "\\end" };
+
+        // like in the word finder, this is still false when the
+        // constructor of the super class finds the first word
+        private boolean ignoreComments = true;
+
+        RegexWordFinder(String text) {
+            super(text);
+        }
+
+        public Word next() {
+            currentWord.copy(nextWord);
+            int i = currentWord.getEnd();
+            boolean finished = false;
+            boolean started = false;
+            while (i < text.length() && !finished) {
+                if (!started && isWordChar(i)) {
+                    nextWord.setStart(i++);
+                    started = true;
+                    continue;
+                } else if (started) {
+                    if (isWordChar(i)) {
+                        i++;
+                        continue;
+                    }
+                    nextWord.setText(text.substring(nextWord.getStart(), i));
+                    finished = true;
+                    break;
+                }
+                int j = i;
+                if (ignoreComments) j = ignore(j, '%', '\n');
+                if (j < text.length() && text.charAt(j) == '\\') {
+                    j = ignore(j, "\\documentclass", OPT_MAND_ARG);
+                    j = ignore(j, "\\usepackage", OPT_MAND_ARG);
+                    for (String command : MAND_COMMANDS) {
+                        j = ignore(j, command, MAND_ARG);
+                    }
+                    j = ignore(j, "\\cite", OPT_MAND_ARG);
+                    j = ignore(j, '\\');
+                }
+                if (i != j) {
+                    i = j;
+                    continue;
+                }
+                i++;
+            }
+            if (!started) {
+                nextWord = null;
+            } else if (!finished) {
+                nextWord.setText(text.substring(nextWord.getStart(), i));
+            }
+            return currentWord;
+        }
+
+        private int ignore(int index, String command, Pattern p) {
+            if (!text.startsWith(command, index)) {
+                return index;
+            }
+            int i = index + command.length();
+            Matcher m = p.matcher(text.substring(i));
+            return m.find() ? i + m.end() - 1 : index;
+        }
+    }
+
+    private static List<String> words(WordFinder finder) {
+        List<String> words = new ArrayList<String>();
+        while (finder.hasNext()) {
+            words.add(finder.next().getText());
+        }
+        return words;
+    }
+
+    private static int skip(String text) {
+        return CommandTable.get(null).skip(text, text.indexOf('\\'));
+    }
+
+    @Test
+    public void skipsArgumentsOfCommands() {
+        assertEquals(9, skip("\\ref{sec}"));
+        assertEquals(14, skip("\\label {a b c} text"));
+        assertEquals(18, skip("\\cite[p.~5]{knuth} text"));
+        assertEquals(16, skip("\\begin{document}\n\ntext"));
+        assertEquals(32, skip("\\documentclass[a4paper]{article}\n"));
+        assertEquals(17, skip("\\setcounter{page}{1}"));
+    }
+
+    @Test
+    public void skipsOnlyNameOfOtherCommands() {
+        assertEquals(8, skip("\\section{Title}"));
+        assertEquals(5, skip("\\refx{a}"));
+        assertEquals(3, skip("\\re{a}"));
+        assertEquals(5, skip("\\emph text"));
+        assertEquals(1, skip("\\\\ text"));
+    }
+
+    @Test
+    public void skipsNameOfIncompleteCommands() {
+        assertEquals(4, skip("\\ref"));
+        assertEquals(4, skip("\\ref text"));
+        assertEquals(4, skip("\\ref{unclosed"));
+        assertEquals(5, skip("\\cite[note]"));
+        assertEquals(6, skip("\\label}{a}"));
+    }
+
+    @Test
+    public void skipsNestedAndStarredArguments() {
+        assertEquals(13, skip("\\label{a{b}c} text"));
+        assertEquals(12, skip("\\label{a\\}b} c"));
+        assertEquals(11, skip("\\cite*{key} text"));
+        assertEquals(21, skip("\\cite[see][p.~3]{key} text"));
+        // a bracket in braces does not end the optional argument
+        assertEquals(24, skip("\\cite[see][p.~{]}3]{key} text"));
+    }
+
+    @Test
+    public void skipsAllGroupsOfUserCommands() {
+        String text = "\\mymacro[a]{b} {c}[d] text";
+        assertEquals(21, CommandTable.get("\\mymacro, other").skip(text, 0));
+        assertEquals(8, CommandTable.get(null).skip(text, 0));
+        assertEquals(6, CommandTable.get("other").skip("\\other text", 0));
+        // the built-in commands are kept
+        assertEquals(9, CommandTable.get("other").skip("\\ref{sec}", 0));
+    }
+
+    @Test
+    public void reusesTables() {
+        assertSame(CommandTable.get(null), CommandTable.get(" "));
+        CommandTable table = CommandTable.get("a,b");
+        assertSame(table, CommandTable.get("a,b"));
+    }
+
+    /**
+     * Returns a text of fragments where both finders give the same words,
+     * ie. the arguments contain no nested braces.
+     */
+    private static String document(Random random, int count) {
+        String[] fragments = { "Some text with words. ", "\\ref{sec:intro} ", "\\label{fig:one}",
+            "\\cite{knuth84} ", "\\cite[p.~5]{lamport} ", "\\begin{itemize}\n", "\\end{itemize}\n",
+            "\\section{Real title}\n", "\\emph{emphasized words} ", "% a comment line\n",
+            "\\usepackage[utf8]{inputenc}\n", "\\setcounter{page}{3}", "\\pageref{p}",
+            "\\refx{notignored} ", "\\eqref {eq:a}", "\\\\ newline ", "\\documentclass{article}\n",
+            "\\tag{x} ", "\\vref{v}", "word\\ref{a}word ", "\\item[label] item text\n" };
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(fragments[random.nextInt(fragments.length)]);
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void findsSameWordsAsRegexFinder() {
+        Random random = new Random(25);
+        for (int i = 0; i < 50; i++) {
+            String text = document(random, 100);
+            assertEquals(text, words(new RegexWordFinder(text)), words(new TexlipseWordFinder(text)));
+        }
+    }
+}
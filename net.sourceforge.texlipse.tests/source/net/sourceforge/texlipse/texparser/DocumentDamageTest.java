@@ -0,0 +1,113 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.texparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocumentListener;
+import org.junit.Test;
+
+/**
+ * Tests that damage put back with <code>restore()</code> describes the
+ * same changes as a record that was never taken.
+ */
+public class DocumentDamageTest {
+
+    private final Random random = new Random(20);
+
+    private static void listen(Document doc, final DocumentDamage... records) {
+        doc.addDocumentListener(new IDocumentListener() {
+            public void documentAboutToBeChanged(DocumentEvent event) {
+                for (DocumentDamage d : records) {
+                    d.aboutToBeChanged(event);
+                }
+            }
+            public void documentChanged(DocumentEvent event) {
+                for (DocumentDamage d : records) {
+                    d.changed(event);
+                }
+            }
+        });
+    }
+
+    private static Document document() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 60; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+        return new Document(text.toString());
+    }
+
+    /**
+     * Replaces a few lines with up to three new lines.
+     */
+    private void edit(Document doc) throws BadLocationException {
+        int line = random.nextInt(doc.getNumberOfLines() - 3);
+        int offset = doc.getLineOffset(line) + random.nextInt(3);
+        int end = doc.getLineOffset(line + random.nextInt(3));
+        StringBuilder text = new StringBuilder();
+        for (int i = random.nextInt(4); i > 0; i--) {
+            text.append("new\n");
+        }
+        doc.replace(offset, Math.max(0, end - offset), text.toString());
+    }
+
+    private static void assertSameDamage(DocumentDamage expected, DocumentDamage actual,
+            long textStamp) {
+        assertEquals(expected.appliesTo(textStamp), actual.appliesTo(textStamp));
+        assertEquals(expected.getFirstLine(), actual.getFirstLine());
+        assertEquals(expected.getLastLine(), actual.getLastLine());
+        assertEquals(expected.getLineDelta(), actual.getLineDelta());
+        assertEquals(expected.getStamp(), actual.getStamp());
+    }
+
+    @Test
+    public void restoresTakenDamage() throws BadLocationException {
+        for (int round = 0; round < 200; round++) {
+            Document doc = document();
+            DocumentDamage damage = new DocumentDamage();
+            DocumentDamage untaken = new DocumentDamage();
+            listen(doc, damage, untaken);
+            long textStamp = doc.getModificationStamp();
+            for (int i = random.nextInt(3); i >= 0; i--) {
+                edit(doc);
+            }
+            DocumentDamage taken = damage.take();
+            // changes made while the canceled parse was running
+            for (int i = random.nextInt(3); i > 0; i--) {
+                edit(doc);
+            }
+            damage.restore(taken);
+            assertTrue(damage.appliesTo(textStamp));
+            assertSameDamage(untaken.take(), damage.take(), textStamp);
+        }
+    }
+
+    @Test
+    public void restoresNothingIfNothingWasTaken() throws BadLocationException {
+        Document doc = document();
+        DocumentDamage damage = new DocumentDamage();
+        DocumentDamage untaken = new DocumentDamage();
+        listen(doc, damage, untaken);
+        long textStamp = doc.getModificationStamp();
+        DocumentDamage taken = damage.take();
+        assertFalse(taken.appliesTo(textStamp));
+        edit(doc);
+        damage.restore(taken);
+        assertSameDamage(untaken.take(), damage.take(), textStamp);
+    }
+}
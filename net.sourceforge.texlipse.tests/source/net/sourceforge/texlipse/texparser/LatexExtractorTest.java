@@ -0,0 +1,66 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.texparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Tests the extraction cache of <code>LatexExtractor</code>.
+ */
+public class LatexExtractorTest {
+
+    /**
+     * Returns a document that no other test extracts.
+     */
+    private static String document(String name) {
+        return "\\documentclass{article}\n"
+            + "\\begin{document}\n"
+            + "\\section{" + name + "}\\label{sec:" + name + "}\n"
+            + "Some words to count in " + name + ".\n"
+            + "\\end{document}\n";
+    }
+
+    @Test
+    public void sharesExtractionOfSameText() throws Exception {
+        String text = document("shared");
+        LatexExtractor first = LatexExtractor.get(text, false);
+        assertSame(first, LatexExtractor.get(new String(text), false));
+        // the section check is a different extraction
+        assertNotSame(first, LatexExtractor.get(text, true));
+    }
+
+    @Test
+    public void editorTakesExtractionOutOfCache() throws Exception {
+        String text = document("taken");
+        LatexExtractor shared = LatexExtractor.get(text, false);
+        LatexExtractor own = LatexExtractor.extractOwn(text, false, null);
+        assertSame(shared, own);
+        // the editor keeps updating it, so it is no longer handed out
+        assertNotSame(own, LatexExtractor.get(text, false));
+    }
+
+    @Test
+    public void countsWordsLikeWordCounter() throws Exception {
+        String text = document("counted");
+        int words = new LatexWordCounter(text).countWords();
+        assertEquals(words, LatexExtractor.countWords(text));
+        assertEquals(words, LatexExtractor.get(text, true).getWordCount());
+        assertEquals(words, LatexExtractor.countWords(text));
+        // the word count of the editor's extraction is kept
+        String edited = document("edited");
+        LatexExtractor.extractOwn(edited, true, null);
+        assertEquals(new LatexWordCounter(edited).countWords(),
+                LatexExtractor.countWords(edited));
+    }
+}
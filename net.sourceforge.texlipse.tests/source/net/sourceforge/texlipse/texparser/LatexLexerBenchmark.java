@@ -0,0 +1,207 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.texparser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.sourceforge.texlipse.texparser.lexer.LexerException;
+import net.sourceforge.texlipse.texparser.node.EOF;
+import net.sourceforge.texlipse.texparser.node.Token;
+
+/**
+ * Compares the lexer scanning the text directly with the lexer reading
+ * it through a <code>PushbackReader</code>, the way the parsers read the
+ * documents before. Run it as a Java application with the .tex files or
+ * directories of the corpus as arguments; without arguments a generated
+ * document of about 1.3 MB is used.
+ *
+ * Both lexers are first checked to give the same tokens, then each is
+ * warmed up and timed in a few rounds.
+ */
+public class LatexLexerBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    private final List<String> texts;
+    private long length;
+
+    /**
+     * The number of tokens, printed so that the lexing is not optimized
+     * away
+     */
+    private long sink;
+
+    LatexLexerBenchmark(List<String> texts) {
+        this.texts = texts;
+        for (String text : texts) {
+            length += text.length();
+        }
+    }
+
+    private static LatexLexer lexer(String text, boolean direct) {
+        return direct ? new LatexLexer(text)
+                : new LatexLexer(new PushbackReader(new StringReader(text), 4096));
+    }
+
+    /**
+     * Returns the tokens and the lexer error of the text as strings.
+     */
+    private static List<String> tokens(String text, boolean direct) throws IOException {
+        List<String> tokens = new ArrayList<String>();
+        LatexLexer lexer = lexer(text, direct);
+        try {
+            for (Token t = lexer.next(); !(t instanceof EOF); t = lexer.next()) {
+                tokens.add(t.getClass().getSimpleName() + " " + t.getLine() + ":"
+                        + t.getPos() + " " + t.getText());
+            }
+        } catch (LexerException e) {
+            tokens.add(e.getMessage());
+        }
+        return tokens;
+    }
+
+    /**
+     * Checks that both lexers give the same tokens.
+     */
+    void check() throws IOException {
+        for (String text : texts) {
+            if (!tokens(text, false).equals(tokens(text, true))) {
+                throw new IllegalStateException("Different tokens for a text of "
+                        + text.length() + " chars");
+            }
+        }
+    }
+
+    long lex(boolean direct) throws IOException {
+        long count = 0;
+        for (String text : texts) {
+            LatexLexer lexer = lexer(text, direct);
+            try {
+                while (!(lexer.next() instanceof EOF)) {
+                    count++;
+                }
+            } catch (LexerException e) {
+                count--;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the average time of one round in nanoseconds.
+     */
+    private long time(boolean direct) throws IOException {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += lex(direct);
+        }
+        long time = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            sink += lex(direct);
+        }
+        return (System.nanoTime() - time) / ROUNDS;
+    }
+
+    /**
+     * Returns a document with the usual parts of a thesis: sections,
+     * labels and references, citations, math, environments and comments.
+     */
+    static String document(int paragraphs) {
+        Random random = new Random(12);
+        StringBuilder text = new StringBuilder();
+        text.append("\\documentclass[a4paper,12pt]{report}\n")
+            .append("\\usepackage[utf8]{inputenc}\n\\usepackage{amsmath,graphicx}\n")
+            .append("\\newcommand{\\R}{\\mathbb{R}}\n")
+            .append("\\begin{document}\n");
+        for (int i = 0; i < paragraphs; i++) {
+            if (i % 40 == 0) {
+                text.append("\\chapter{Chapter ").append(i / 40).append("}\\label{ch:")
+                    .append(i / 40).append("}\n\n");
+            } else if (i % 8 == 0) {
+                text.append("\\section{Section ").append(i).append("}\\label{sec:")
+                    .append(i).append("}\n\n");
+            }
+            switch (random.nextInt(6)) {
+            case 0:
+                text.append("\\begin{equation}\\label{eq:").append(i)
+                    .append("}\n  f(x) = \\sum_{k=0}^{n} \\frac{x^k}{k!} + \\int_0^1 g(t)\\,dt\n")
+                    .append("\\end{equation}\n");
+                break;
+            case 1:
+                text.append("\\begin{figure}[htbp]\n  \\centering\n")
+                    .append("  \\includegraphics[width=0.8\\textwidth]{fig").append(i)
+                    .append("}\n  \\caption{A figure about $x_").append(i)
+                    .append("$.}\\label{fig:").append(i).append("}\n\\end{figure}\n");
+                break;
+            case 2:
+                text.append("% TODO rewrite this paragraph\n");
+                break;
+            case 3:
+                text.append("\\begin{itemize}\n  \\item First item with \\emph{emphasis}\n")
+                    .append("  \\item Second item, see~\\ref{sec:").append(i - i % 8)
+                    .append("}\n\\end{itemize}\n");
+                break;
+            default:
+                break;
+            }
+            for (int s = 0; s < 5; s++) {
+                text.append("This is sentence ").append(s).append(" of paragraph ").append(i)
+                    .append(", where $a_").append(s).append(" \\in \\R$ holds");
+                if (random.nextInt(3) == 0) {
+                    text.append(" as shown by \\cite[p.~").append(s + 1).append("]{knuth")
+                        .append(random.nextInt(50)).append('}');
+                }
+                text.append(". ");
+            }
+            text.append("\n\n");
+        }
+        text.append("\\bibliography{refs}\n\\end{document}\n");
+        return text.toString();
+    }
+
+    private static void read(File file, List<String> texts) throws IOException {
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    read(f, texts);
+                }
+            }
+        } else if (file.getName().endsWith(".tex")) {
+            texts.add(new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8")));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> texts = new ArrayList<String>();
+        for (String arg : args) {
+            read(new File(arg), texts);
+        }
+        if (texts.isEmpty()) {
+            texts.add(document(3000));
+        }
+        LatexLexerBenchmark benchmark = new LatexLexerBenchmark(texts);
+        benchmark.check();
+        long reader = benchmark.time(false);
+        long direct = benchmark.time(true);
+        System.out.println(texts.size() + " files, " + benchmark.length + " chars");
+        System.out.println("PushbackReader: " + reader / 1000000 + " ms/round");
+        System.out.println("CharSequence:   " + direct / 1000000 + " ms/round");
+        System.out.println("(" + benchmark.sink + ")");
+    }
+}
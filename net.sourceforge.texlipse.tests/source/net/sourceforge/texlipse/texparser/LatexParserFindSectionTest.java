@@ -0,0 +1,80 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.texparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import net.sourceforge.texlipse.model.OutlineNode;
+
+import org.junit.Test;
+
+/**
+ * Tests which sections <code>LatexParser.findSection()</code> allows to be
+ * parsed again on their own.
+ */
+public class LatexParserFindSectionTest {
+
+    /**
+     * Returns a document of 29 lines with sections on lines 5, 15, 20
+     * and 26. If <code>figure</code> is set, a figure opens on line 10,
+     * before the section on line 15, and is closed on line 23.
+     */
+    private static String document(boolean figure) {
+        String[] lines = new String[30];
+        for (int i = 1; i < lines.length; i++) {
+            lines[i] = "text " + i;
+        }
+        lines[1] = "\\documentclass{article}";
+        lines[2] = "\\begin{document}";
+        lines[5] = "\\section{One}";
+        lines[15] = "\\section{Two}";
+        lines[20] = "\\section{Three}";
+        lines[26] = "\\section{Four}";
+        lines[29] = "\\end{document}";
+        if (figure) {
+            lines[10] = "\\begin{figure}";
+            lines[23] = "\\end{figure}";
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = 1; i < lines.length; i++) {
+            text.append(lines[i]).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static LatexParser parse(String text) throws Exception {
+        LatexParser parser = new LatexParser();
+        parser.parse(new LatexLexer(text), false);
+        return parser;
+    }
+
+    @Test
+    public void findsSectionBetweenSections() throws Exception {
+        LatexParser parser = parse(document(false));
+        OutlineNode section = parser.findSection(22, 22);
+        assertNotNull(section);
+        assertEquals(20, section.getBeginLine());
+    }
+
+    @Test
+    public void noSectionWhenEarlierEnvironmentRunsIntoIt() throws Exception {
+        LatexParser parser = parse(document(true));
+        // the figure is a top level node that ends inside the section
+        // Three, so changes there can move its end
+        for (int line = 20; line < 26; line++) {
+            assertNull("line " + line, parser.findSection(line, line));
+        }
+        for (int line = 15; line < 20; line++) {
+            assertNull("line " + line, parser.findSection(line, line));
+        }
+    }
+}
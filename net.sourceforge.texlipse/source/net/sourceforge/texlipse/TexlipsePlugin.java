@@ -19,6 +19,7 @@ import net.sourceforge.texlipse.bibeditor.BibColorProvider;
 import net.sourceforge.texlipse.bibeditor.BibEntryScanner;
 import net.sourceforge.texlipse.editor.ColorManager;
 import net.sourceforge.texlipse.properties.StringListFieldEditor;
+import net.sourceforge.texlipse.spelling.SpellChecker;
 import net.sourceforge.texlipse.templates.BibTexContextType;
 import net.sourceforge.texlipse.templates.TexContextType;
 import net.sourceforge.texlipse.viewer.ViewerManager2;
@@ -116,6 +117,7 @@ public class TexlipsePlugin extends AbstractUIPlugin {
      * This method is called when the plug-in is stopped
      */
     public void stop(BundleContext context) throws Exception {
+        SpellChecker.stop();
 		if (fViewerManager2 != null) {
 			fViewerManager2.dispose();
 			fViewerManager2 = null;
@@ -9,6 +9,7 @@
  */
 package net.sourceforge.texlipse.actions;
 
+import net.sourceforge.texlipse.texparser.LatexExtractor;
 import net.sourceforge.texlipse.texparser.LatexWordCounter;
 
 import org.eclipse.jface.action.IAction;
@@ -48,17 +49,17 @@ public class WordCountAction implements IEditorActionDelegate {
         if (textEditor == null)
             return;
         selection = new TexSelections(textEditor);
-        String selected = "";
+        int size;
         
         if (selection.getRawSelLength() > 0) {
-            selected = selection.getSelection();
+            LatexWordCounter counter = new LatexWordCounter(selection.getSelection());
+            size = counter.countWords();
         } else {
-            selected = textEditor.getDocumentProvider().getDocument(textEditor.getEditorInput()).get();
+            // the whole document has usually been extracted by the parser
+            String text = textEditor.getDocumentProvider().getDocument(textEditor.getEditorInput()).get();
+            size = LatexExtractor.countWords(text);
         }
         
-        LatexWordCounter counter = new LatexWordCounter(selected);
-        int size = counter.countWords();
-        
         MessageDialog.openInformation(
                 textEditor.getSite().getShell(),
                 "Texlipse Plug-in",
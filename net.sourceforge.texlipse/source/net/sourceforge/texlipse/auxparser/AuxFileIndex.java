@@ -0,0 +1,465 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.auxparser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sourceforge.texlipse.model.FileContents;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.IPath;
+
+/**
+ * The commands of a single .aux-file. A file is read once and all the
+ * commands the builder needs (\citation, \newlabel and \@input) are
+ * collected in the same pass. The results are cached until the
+ * modification time or the length of the file changes, so the citations
+ * and the labels can be read after a LaTeX run without reading the same
+ * files again. The cache is cleared before each LaTeX run, which may
+ * rewrite a file without changing either. The files that have not been
+ * read for the longest time are dropped when the arguments in the cache
+ * get longer than the limit.
+ *
+ * The .aux-files are written by LaTeX one command per line, so they are
+ * scanned line by line instead of with the LaTeX lexer. Only the lines
+ * starting with one of the commands are looked at, and a line that can't
+ * be understood is skipped without affecting the rest of the file.
+ */
+final class AuxFileIndex {
+
+    static final String CITATION = "\\citation";
+    static final String NEWLABEL = "\\newlabel";
+    static final String INPUT = "\\@input";
+
+    private static final String[] COMMANDS = { CITATION, NEWLABEL, INPUT };
+
+    /**
+     * The length of the longest command and a delimiter
+     */
+    private static final int MAX_PREFIX = 10;
+
+    /**
+     * The longest command that is joined from several lines, if an
+     * argument contains a line break
+     */
+    private static final int MAX_COMMAND_LENGTH = 64 * 1024;
+
+    /**
+     * Returned by <code>readArguments()</code> if the arguments are not
+     * enclosed in braces
+     */
+    private static final String[] MALFORMED = new String[0];
+
+    /**
+     * The total length of the arguments of the cached files, in chars
+     */
+    private static final int CACHE_LENGTH = 1024 * 1024;
+
+    /**
+     * The files by their location, the least recently used first
+     */
+    private static final Map<String, AuxFileIndex> cache =
+        new LinkedHashMap<String, AuxFileIndex>(16, 0.75f, true);
+
+    private static int cachedLength;
+
+    private long stamp;
+    private long length;
+
+    /**
+     * The total length of the arguments
+     */
+    private int argumentLength;
+
+    /**
+     * The commands in the order of the file and their arguments
+     */
+    private final List<String> commands = new ArrayList<String>();
+    private final List<String[]> arguments = new ArrayList<String[]>();
+
+    AuxFileIndex() {
+    }
+
+    /**
+     * Returns the commands of the given .aux-file, from the cache if the
+     * file has not been modified since it was last read.
+     *
+     * @param auxFile The .aux-file
+     * @return The commands of the file
+     * @throws IOException If the file can't be read
+     */
+    static AuxFileIndex get(IFile auxFile) throws IOException {
+        IPath location = auxFile.getLocation();
+        if (location == null) {
+            AuxFileIndex index = new AuxFileIndex();
+            index.parse(FileContents.reader(FileContents.read(auxFile)));
+            return index;
+        }
+        String path = location.toOSString();
+        File file = location.toFile();
+        // the stamp is taken before reading, so a later change is noticed
+        long stamp = file.lastModified();
+        long length = file.length();
+        synchronized (cache) {
+            AuxFileIndex index = cache.get(path);
+            if (index != null && index.stamp == stamp && index.length == length) {
+                return index;
+            }
+        }
+        AuxFileIndex index = new AuxFileIndex();
+        Reader reader = FileContents.newReader(file, FileContents.getCharset(auxFile));
+        try {
+            index.parse(reader);
+        } finally {
+            reader.close();
+        }
+        index.stamp = stamp;
+        index.length = length;
+        if (index.argumentLength <= CACHE_LENGTH) {
+            synchronized (cache) {
+                put(path, index);
+            }
+        }
+        return index;
+    }
+
+    private static void put(String path, AuxFileIndex index) {
+        AuxFileIndex old = cache.put(path, index);
+        if (old != null) {
+            cachedLength -= old.argumentLength;
+        }
+        cachedLength += index.argumentLength;
+        for (Iterator<AuxFileIndex> iter = cache.values().iterator();
+                cachedLength > CACHE_LENGTH;) {
+            cachedLength -= iter.next().argumentLength;
+            iter.remove();
+        }
+    }
+
+    /**
+     * Removes all the files from the cache.
+     */
+    static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+            cachedLength = 0;
+        }
+    }
+
+    /**
+     * @return The number of commands in the file
+     */
+    int size() {
+        return commands.size();
+    }
+
+    /**
+     * @param i The index of the command
+     * @return The command, one of the constants of this class
+     */
+    String getCommand(int i) {
+        return commands.get(i);
+    }
+
+    /**
+     * Returns the arguments of a command. The first one is the argument
+     * of \citation and \@input and the key of \newlabel. For \newlabel,
+     * the number and the page of the label follow.
+     *
+     * @param i The index of the command
+     * @return The arguments of the command
+     */
+    String[] getArguments(int i) {
+        return arguments.get(i);
+    }
+
+    /**
+     * Collects the commands from an .aux-file.
+     *
+     * @param reader The reader of the file
+     * @throws IOException If the file can't be read
+     */
+    void parse(Reader in) throws IOException {
+        LineReader reader = new LineReader(in);
+        String line;
+        while ((line = reader.nextCommandLine()) != null) {
+            int start = skipWhitespace(line, 0);
+            String command = findCommand(line, start);
+            if (command == null) {
+                continue;
+            }
+            int argCount = command == NEWLABEL ? 2 : 1;
+            int argStart = start + command.length();
+
+            // an argument may continue on the following lines, but not
+            // over the next command
+            String text = line;
+            String[] args;
+            while ((args = readArguments(text, argStart, argCount)) == null
+                    && text.length() < MAX_COMMAND_LENGTH && !reader.atCommand()
+                    && (line = reader.readLine()) != null) {
+                text = text + '\n' + line;
+            }
+            if (args == null || args == MALFORMED) {
+                continue;
+            }
+            if (command == NEWLABEL) {
+                // \newlabel{key}{{number}{page}...}
+                String[] values = readArguments(args[1], 0, 2);
+                if (values != null && values != MALFORMED) {
+                    args = new String[] { args[0], values[0], values[1] };
+                } else {
+                    values = readArguments(args[1], 0, 1);
+                    String number = values != null && values != MALFORMED ? values[0] : args[1];
+                    args = new String[] { args[0], number, null };
+                }
+            }
+            add(command, args);
+        }
+    }
+
+    private static int skipWhitespace(String text, int i) {
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Finds the command at the given position of the line.
+     *
+     * @return The command, or null if the line doesn't start with one
+     */
+    private static String findCommand(String line, int start) {
+        if (start >= line.length() || line.charAt(start) != '\\') {
+            return null;
+        }
+        for (String command : COMMANDS) {
+            int end = start + command.length();
+            if (line.startsWith(command, start)
+                    && (end == line.length() || line.charAt(end) == '{'
+                        || Character.isWhitespace(line.charAt(end)))) {
+                return command;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the given number of brace-delimited arguments.
+     *
+     * @param text The text containing the arguments
+     * @param start The position to start from
+     * @param count The number of arguments
+     * @return The arguments without the braces, null if the text
+     *  ends before the last argument is closed or <code>MALFORMED</code>
+     */
+    private static String[] readArguments(String text, int start, int count) {
+        String[] args = new String[count];
+        int i = start;
+        for (int a = 0; a < count; a++) {
+            i = skipWhitespace(text, i);
+            if (i >= text.length()) {
+                return null;
+            }
+            if (text.charAt(i) != '{') {
+                return MALFORMED;
+            }
+            int depth = 0;
+            int argStart = i + 1;
+            for (; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '\\') {
+                    i++;
+                } else if (c == '{') {
+                    depth++;
+                } else if (c == '}') {
+                    if (--depth == 0) {
+                        break;
+                    }
+                }
+            }
+            if (i >= text.length()) {
+                return null;
+            }
+            args[a] = text.substring(argStart, i);
+            i++;
+        }
+        return args;
+    }
+
+    private void add(String command, String[] args) {
+        commands.add(command);
+        arguments.add(args);
+        for (String arg : args) {
+            if (arg != null) {
+                argumentLength += arg.length();
+            }
+        }
+    }
+
+    /**
+     * Reads the lines of a file through a buffer of fixed size. The lines
+     * that don't start with a command are skipped in the buffer without
+     * creating strings of them.
+     */
+    private static final class LineReader {
+
+        private final Reader in;
+        private final char[] buffer = new char[8192];
+        private int pos;
+        private int limit;
+
+        LineReader(Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * Makes sure that there is at least one character in the buffer.
+         *
+         * @return False at the end of the file
+         */
+        private boolean fill() throws IOException {
+            if (pos < limit) {
+                return true;
+            }
+            limit = in.read(buffer, 0, buffer.length);
+            pos = 0;
+            if (limit < 0) {
+                limit = 0;
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Makes sure that the buffer has at least <code>n</code> more
+         * characters, unless the file ends before that.
+         */
+        private void fill(int n) throws IOException {
+            if (limit - pos >= n) {
+                return;
+            }
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+            while (limit < n) {
+                int read = in.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    return;
+                }
+                limit += read;
+            }
+        }
+
+        /**
+         * @return The next line, or null at the end of the file
+         */
+        String readLine() throws IOException {
+            if (!fill()) {
+                return null;
+            }
+            StringBuilder sb = null;
+            while (true) {
+                int start = pos;
+                while (pos < limit && buffer[pos] != '\n') {
+                    pos++;
+                }
+                int end = pos;
+                boolean eol = pos < limit;
+                if (eol) {
+                    pos++;
+                    if (end > start && buffer[end - 1] == '\r') {
+                        end--;
+                    }
+                }
+                if (sb == null && eol) {
+                    return new String(buffer, start, end - start);
+                }
+                if (sb == null) {
+                    sb = new StringBuilder();
+                }
+                sb.append(buffer, start, end - start);
+                if (eol || !fill()) {
+                    int length = sb.length();
+                    if (!eol && length > 0 && sb.charAt(length - 1) == '\r') {
+                        sb.setLength(length - 1);
+                    }
+                    return sb.toString();
+                }
+            }
+        }
+
+        /**
+         * Skips to the next line that starts with one of the commands.
+         *
+         * @return The line, or null at the end of the file
+         */
+        String nextCommandLine() throws IOException {
+            while (fill()) {
+                if (atCommand()) {
+                    return readLine();
+                }
+                // skip the line
+                while (true) {
+                    while (pos < limit && buffer[pos] != '\n') {
+                        pos++;
+                    }
+                    if (pos < limit) {
+                        pos++;
+                        break;
+                    }
+                    if (!fill()) {
+                        break;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Checks if the next line starts with one of the commands. The
+         * whitespace at the start of the line is skipped.
+         *
+         * @return True if the line starts with a command
+         */
+        boolean atCommand() throws IOException {
+            while (fill() && (buffer[pos] == ' ' || buffer[pos] == '\t')) {
+                pos++;
+            }
+            if (pos == limit || buffer[pos] != '\\') {
+                return false;
+            }
+            fill(MAX_PREFIX);
+            for (String command : COMMANDS) {
+                int end = pos + command.length();
+                if (end > limit) {
+                    continue;
+                }
+                int i = 1;
+                while (i < command.length() && buffer[pos + i] == command.charAt(i)) {
+                    i++;
+                }
+                if (i == command.length() && (end == limit || buffer[end] == '{'
+                        || Character.isWhitespace(buffer[end]))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -1,25 +1,15 @@
 package net.sourceforge.texlipse.auxparser;
 
 import java.io.IOException;
-import java.io.PushbackReader;
-import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
-import org.eclipse.core.resources.IResource;
 
 import net.sourceforge.texlipse.TexlipsePlugin;
 import net.sourceforge.texlipse.model.ReferenceEntry;
-import net.sourceforge.texlipse.properties.TexlipseProperties;
-import net.sourceforge.texlipse.texparser.LatexLexer;
-import net.sourceforge.texlipse.texparser.node.EOF;
-import net.sourceforge.texlipse.texparser.node.TArgument;
-import net.sourceforge.texlipse.texparser.node.TCcite;
-import net.sourceforge.texlipse.texparser.node.TCsymbol;
-import net.sourceforge.texlipse.texparser.node.TCword;
-import net.sourceforge.texlipse.texparser.node.TWord;
-import net.sourceforge.texlipse.texparser.node.Token;
 
 /**
  * Extracts information from the .aux file which is created by a latex run. 
@@ -34,6 +24,9 @@ import net.sourceforge.texlipse.texparser.node.Token;
  *    does not find them
  *
  * further use cases are possible ...
+ *
+ * The files are read through <code>AuxFileIndex</code>, which reads each
+ * file only once until it is modified.
  * 
  * @author Frank Lehrieder
  *
@@ -55,6 +48,15 @@ public class AuxFileParser {
         this.rootAuxfile = auxFile;
     }
 
+    /**
+     * Forgets the .aux-files read so far. Called before LaTeX is run,
+     * since it may rewrite a file without changing its modification
+     * time or its length.
+     */
+    public static void clearCache() {
+        AuxFileIndex.clearCache();
+    }
+
     public IProject getProject() {
         return project;
     }
@@ -64,7 +66,7 @@ public class AuxFileParser {
     }
 
     public List<String> getCitations() {
-        return doParse(rootAuxfile, "\\citation");
+        return collectFirst(AuxFileIndex.CITATION);
     }
 
     /**
@@ -72,80 +74,78 @@ public class AuxFileParser {
      * <code>ReferenceEntry</code>
      */
     public List<ReferenceEntry> getLabels() {
-        List<String> labels = doParse(rootAuxfile, "\\newlabel");
+        List<String[]> labels = collect(AuxFileIndex.NEWLABEL);
         List<ReferenceEntry> result = new LinkedList<ReferenceEntry>();
-        for (String key : labels) {
-            result.add(new ReferenceEntry(key, "No info available"));
+        for (String[] label : labels) {
+            String info = label[2] != null
+                    ? "Number " + label[1] + ", page " + label[2]
+                    : "Number " + label[1];
+            result.add(new ReferenceEntry(label[0], info));
         }
         return result;
     }
 
     /**
-     * Parses <code>input</code> and collects all tokens which follow the given
-     * <code>command</code>. Used to extract e.g., labels, citations, bibcites
+     * Collects the first arguments of the given <code>command</code>.
      *
-     * @param filename name of the file to be parsed
      * @param command
      * @return list of Strings following the given command
      */
-    private List<String> doParse(String filename, String command) {
-        IResource auxFile = project.getFile(filename);
-        String input = null;
+    private List<String> collectFirst(String command) {
+        List<String> results = new LinkedList<String>();
+        for (String[] args : collect(command)) {
+            results.add(args[0]);
+        }
+        return results;
+    }
 
+    /**
+     * Collects the arguments of the given <code>command</code> from the
+     * root .aux-file and the files it includes. Used to extract e.g.,
+     * labels, citations, bibcites
+     *
+     * @param command
+     * @return list of the arguments of each command
+     */
+    private List<String[]> collect(String command) {
+        List<String[]> results = new ArrayList<String[]>();
+        collect(rootAuxfile, command, results, new ArrayList<String>());
+        return results;
+    }
+
+    /**
+     * Adds the arguments of the given command in the file and the files
+     * it includes to <code>results</code>.
+     *
+     * @param filename name of the file to be parsed
+     * @param command
+     * @param results the list to add the arguments to
+     * @param including the files including this one, to stop cycles
+     */
+    private void collect(String filename, String command, List<String[]> results,
+            List<String> including) {
+        if (including.contains(filename)) {
+            return;
+        }
+        IFile auxFile = project.getFile(filename);
+        AuxFileIndex index;
         try {
-            input = TexlipseProperties.getFileContents(auxFile);
+            index = AuxFileIndex.get(auxFile);
         } catch (IOException e) {
             TexlipsePlugin.log("Could not parse .aux-file " + auxFile, e);
-            return new LinkedList<String>();
+            return;
         }
 
-        LatexLexer lexer = new LatexLexer(new PushbackReader(new StringReader(input), 4096));
-        Token prevCommand = null;
-        Token prevSymbol = null;
-        Token prevText = null;
-        List<String> results = new LinkedList<String>();
-
-        try {
-            for (Token t = lexer.next(); !(t instanceof EOF); t = lexer.next()) {
-                // extract the strings following <code>command</code>
-                if (prevCommand == null) {
-                    if ((t instanceof TCword || t instanceof TCcite)
-                            && t.getText().equalsIgnoreCase(command)) {
-                        prevCommand = t;
-                    }
-                } else {
-                    if (t instanceof TWord || t instanceof TArgument) {
-                        if (command.equalsIgnoreCase(prevCommand.getText())) {
-                            results.add(t.getText());
-                            prevCommand = null;
-                        } 
-                    }
-                }
-
-                // look for additional .aux-files and parse them
-                if (prevText != null) {
-                    if (prevText.getText().equalsIgnoreCase("input") &&
-                            t instanceof TWord) {
-                        prevText = null;   
-                        String newAuxFileName = t.getText();
-                        results.addAll(doParse(newAuxFileName, command));
-                    }
-                }
-                if (prevSymbol == null) {
-                    if (t instanceof TCsymbol) {
-                        prevSymbol = t;
-                    }
-                } else {
-                    if (prevSymbol.getText().equals("\\@")) {
-                        prevText = t;
-                    }
-                    prevSymbol = null;
-                }
+        including.add(filename);
+        for (int i = 0; i < index.size(); i++) {
+            String c = index.getCommand(i);
+            if (c == command) {
+                results.add(index.getArguments(i));
+            } else if (c == AuxFileIndex.INPUT) {
+                collect(index.getArguments(i)[0], command, results, including);
             }
-        } catch (Exception e) {
-            // do nothing
         }
-        return results;
+        including.remove(including.size() - 1);
     }
 
-}
\ No newline at end of file
+}
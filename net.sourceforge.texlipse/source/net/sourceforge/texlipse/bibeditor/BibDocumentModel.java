@@ -21,6 +21,7 @@ import net.sourceforge.texlipse.bibparser.BibParser;
 import net.sourceforge.texlipse.editor.TexDocumentParseException;
 import net.sourceforge.texlipse.model.MarkerHandler;
 import net.sourceforge.texlipse.model.ParseErrorMessage;
+import net.sourceforge.texlipse.model.ProjectModel;
 import net.sourceforge.texlipse.model.ReferenceContainer;
 import net.sourceforge.texlipse.model.ReferenceEntry;
 import net.sourceforge.texlipse.properties.TexlipseProperties;
@@ -132,6 +133,7 @@ public class BibDocumentModel {
         boolean changed = bibContainer.updateRefSource(
                 resource.getFullPath().removeFirstSegments(1).toString(),
                 entryList);
+        ProjectModel.update(project);
         if (changed) {
             TexlipseProperties.setSessionProperty(project,
                     TexlipseProperties.BIBFILES_CHANGED,
@@ -9,6 +9,8 @@
  */
 package net.sourceforge.texlipse.bibparser;
 
+import java.io.IOException;
+
 import net.sourceforge.texlipse.bibparser.lexer.Lexer;
 import net.sourceforge.texlipse.bibparser.lexer.LexerException;
 import net.sourceforge.texlipse.bibparser.node.EOF;
@@ -31,13 +33,37 @@ public class BibLexer extends Lexer {
     private Token stringStart;
     private StringBuffer text;
     
+    private final int lineOffset;
+    
     /**
      * Constructs a new lexer.
      * 
      * @param in The reader to read the characters from
      */
     public BibLexer(java.io.PushbackReader in) {
+        this(in, 0);
+    }
+
+    /**
+     * Constructs a new lexer for a part of a file.
+     * 
+     * @param in The reader to read the characters from
+     * @param lineOffset The number of lines in the file before the part
+     */
+    public BibLexer(java.io.PushbackReader in, int lineOffset) {
         super(in);
+        this.lineOffset = lineOffset;
+    }
+
+    /**
+     * Returns the next token with its line number in the whole file.
+     */
+    protected Token getToken() throws IOException, LexerException {
+        Token t = super.getToken();
+        if (t != null && lineOffset != 0) {
+            t.setLine(t.getLine() + lineOffset);
+        }
+        return t;
     }
 
     /**
@@ -9,18 +9,21 @@
  */
 package net.sourceforge.texlipse.bibparser;
 
+import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.PushbackReader;
 import java.io.Reader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import net.sourceforge.texlipse.bibparser.lexer.LexerException;
-import net.sourceforge.texlipse.bibparser.node.Start;
-import net.sourceforge.texlipse.bibparser.parser.Parser;
 import net.sourceforge.texlipse.bibparser.parser.ParserException;
+import net.sourceforge.texlipse.model.FileContents;
 import net.sourceforge.texlipse.model.ParseErrorMessage;
 
 import org.eclipse.core.resources.IMarker;
@@ -31,17 +34,27 @@ import org.eclipse.core.resources.IMarker;
  * the getEntries() -method, after which getAbbrevs() and getErrors() should
  * be called (otherwise the data returned by these two is essentially meaningless.)
  * 
+ * The file is read with a <code>BibReader</code>, which streams the entries
+ * and abbreviations into lists without building an AST of the whole file.
+ * 
  * @author Oskar Ojala
  */
 public class BibParser {
     
+    /**
+     * The size of the smallest file that is parsed in parallel
+     */
+    private static final long PARALLEL_MIN_SIZE = 1024 * 1024;
+    
     private String filename;
+    private Charset charset;
     private Reader reader;
+    private boolean parallel;
     
     private List<ParseErrorMessage> errors;
-    private List warnings;
-    private List tasks;
-    private Start ast;
+    private List<ParseErrorMessage> warnings;
+    private List<ParseErrorMessage> tasks;
+    private List abbrevs;
     
     /**
      * Constructs a new BibTeX parser.
@@ -49,9 +62,20 @@ public class BibParser {
      * @param filename The file to parse
      */
     public BibParser(String filename) {
+        this(filename, Charset.defaultCharset());
+    }
+    
+    /**
+     * Constructs a new BibTeX parser.
+     * 
+     * @param filename The file to parse
+     * @param charset The charset of the file
+     */
+    public BibParser(String filename, Charset charset) {
         this.filename = filename;
+        this.charset = charset;
         this.errors = new ArrayList<ParseErrorMessage>();
-        this.warnings = new ArrayList();
+        this.warnings = new ArrayList<ParseErrorMessage>();
     }
     
     /**
@@ -61,8 +85,18 @@ public class BibParser {
      */
     public BibParser(Reader r) {
         this.reader = r;
-        this.errors = new ArrayList();
-        this.warnings = new ArrayList();
+        this.errors = new ArrayList<ParseErrorMessage>();
+        this.warnings = new ArrayList<ParseErrorMessage>();
+    }
+    
+    /**
+     * Sets whether large files are split into chunks that are parsed
+     * concurrently. This only applies when parsing a file.
+     * 
+     * @param parallel True to parse large files in parallel
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
     }
     
     /**
@@ -73,22 +107,48 @@ public class BibParser {
      */
 //    public List<ReferenceEntry> getEntries() throws IOException, FileNotFoundException {
     public List getEntries() throws IOException, FileNotFoundException {
-        try {
-            BibLexer l;
-            if (filename != null) {
-                l = new BibLexer(new PushbackReader (new FileReader(filename), 1024));
-            } else {
-                l = new BibLexer(new PushbackReader(reader, 1024));
+        if (filename == null) {
+            return parse(reader);
+        }
+        File file = new File(filename);
+        if (parallel && file.length() >= PARALLEL_MIN_SIZE
+                && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            CharSequence text = FileContents.read(file, charset);
+            ChunkedBibParser cp = new ChunkedBibParser(text);
+            if (cp.parse()) {
+                warnings = sortByLine(cp.getWarnings());
+                tasks = sortByLine(cp.getTasks());
+                abbrevs = cp.getAbbrevs();
+                return cp.getEntries();
             }
-            
-            Parser p = new Parser(l);
-            this.ast = p.parse();
+            // parse again in one piece to report the errors
+            return parse(FileContents.reader(text));
+        }
+        Reader in = FileContents.newReader(file, charset);
+        try {
+            return parse(in);
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Parses the input in one piece.
+     * 
+     * @param in The input
+     * @return BibTeX entries or null on a fatal error
+     */
+    private List parse(Reader in) throws IOException {
+        try {
+            BibLexer l = new BibLexer(new PushbackReader(in, 1024));
             
             EntryRetriever er = new EntryRetriever();
-            ast.apply(er);
+            BibReader br = new BibReader(l, er);
+            br.read();
             er.finishParse();
-            warnings = er.getWarnings();
-            tasks = er.getTasks();
+            warnings = sortByLine(er.getWarnings());
+            tasks = sortByLine(er.getTasks());
+            abbrevs = br.getAbbrevs();
             
             // FIXME
             // Search for files of the referenced material to be able to display
@@ -120,16 +180,32 @@ public class BibParser {
         return null;
     }
     
+    /**
+     * Sorts messages by their position. The warnings of the cross
+     * references are found at the end of the parse, and a parallel parse
+     * finds the duplicate keys when merging the chunks, so the messages
+     * are sorted to come out in the same order from both parses.
+     * 
+     * @param messages The messages
+     * @return The sorted messages
+     */
+    private static List<ParseErrorMessage> sortByLine(List<ParseErrorMessage> messages) {
+        Collections.sort(messages, new Comparator<ParseErrorMessage>() {
+            public int compare(ParseErrorMessage m1, ParseErrorMessage m2) {
+                if (m1.getLine() != m2.getLine()) {
+                    return m1.getLine() < m2.getLine() ? -1 : 1;
+                }
+                return m1.getPos() < m2.getPos() ? -1 : (m1.getPos() == m2.getPos() ? 0 : 1);
+            }
+        });
+        return messages;
+    }
+    
     /**
      * @return Returns the abbreviations (<code>ReferenceEntry</code>)
      */
     public List getAbbrevs() {
-        if (ast != null) {
-            AbbrevRetriever ar = new AbbrevRetriever();
-            ast.apply(ar);
-            return ar.getAbbrevs();
-        }
-        return null;
+        return abbrevs;
     }
     
     /**
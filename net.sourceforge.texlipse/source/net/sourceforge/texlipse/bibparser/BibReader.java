@@ -0,0 +1,242 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.bibparser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sourceforge.texlipse.bibparser.lexer.LexerException;
+import net.sourceforge.texlipse.bibparser.node.EOF;
+import net.sourceforge.texlipse.bibparser.node.TComma;
+import net.sourceforge.texlipse.bibparser.node.TComment;
+import net.sourceforge.texlipse.bibparser.node.TEntryName;
+import net.sourceforge.texlipse.bibparser.node.TEquals;
+import net.sourceforge.texlipse.bibparser.node.TEstring;
+import net.sourceforge.texlipse.bibparser.node.TIdentifier;
+import net.sourceforge.texlipse.bibparser.node.TLBrace;
+import net.sourceforge.texlipse.bibparser.node.TLParen;
+import net.sourceforge.texlipse.bibparser.node.TNumber;
+import net.sourceforge.texlipse.bibparser.node.TQuotec;
+import net.sourceforge.texlipse.bibparser.node.TRBrace;
+import net.sourceforge.texlipse.bibparser.node.TRParen;
+import net.sourceforge.texlipse.bibparser.node.TSharp;
+import net.sourceforge.texlipse.bibparser.node.TStringLiteral;
+import net.sourceforge.texlipse.bibparser.node.TTaskcomment;
+import net.sourceforge.texlipse.bibparser.node.TWhitespace;
+import net.sourceforge.texlipse.bibparser.node.Token;
+import net.sourceforge.texlipse.bibparser.parser.ParserException;
+import net.sourceforge.texlipse.model.ReferenceEntry;
+
+/**
+ * Reads a BibTeX file with a recursive descent over the tokens of the
+ * <code>BibLexer</code> and passes the entries, abbreviations and tasks
+ * to an <code>EntryRetriever</code> as they are read. This accepts the
+ * same grammar as the SableCC generated parser, but no AST is built,
+ * so only the entry being read is kept in memory besides the results.
+ *
+ * @see EntryRetriever
+ */
+public final class BibReader {
+
+    private final BibLexer lexer;
+    private final EntryRetriever retriever;
+    private final List<ReferenceEntry> abbrevs = new ArrayList<ReferenceEntry>();
+
+    private Token token;
+
+    /**
+     * Creates a new reader.
+     *
+     * @param lexer The lexer to read the tokens from
+     * @param retriever The retriever to pass the entries to
+     */
+    public BibReader(BibLexer lexer, EntryRetriever retriever) {
+        this.lexer = lexer;
+        this.retriever = retriever;
+    }
+
+    /**
+     * @return The abbreviations (@string) read, as <code>ReferenceEntry</code>s
+     */
+    public List<ReferenceEntry> getAbbrevs() {
+        return abbrevs;
+    }
+
+    /**
+     * Reads the whole input.
+     *
+     * @throws LexerException If the input cannot be tokenized
+     * @throws ParserException If the input is not valid BibTeX
+     * @throws IOException If the input is unreadable
+     */
+    public void read() throws LexerException, ParserException, IOException {
+        next();
+        while (!(token instanceof EOF)) {
+            if (token instanceof TTaskcomment) {
+                retriever.task((TTaskcomment) token);
+                next();
+            } else if (token instanceof TEstring) {
+                readString();
+            } else if (token instanceof TEntryName) {
+                readEntry();
+            } else {
+                throw error("expecting: taskcomment, estring, entry name, EOF");
+            }
+        }
+    }
+
+    /**
+     * Reads an abbreviation definition, e.g. <code>@string{ieee = "IEEE"}</code>.
+     */
+    private void readString() throws LexerException, ParserException, IOException {
+        next();
+        boolean paren = readOpen();
+        TIdentifier key = (TIdentifier) expect(TIdentifier.class, "expecting: identifier");
+        expect(TEquals.class, "expecting: '='");
+        boolean quoted = token instanceof TQuotec;
+        if (quoted) {
+            next();
+        }
+        TStringLiteral value = (TStringLiteral) expect(TStringLiteral.class,
+                quoted ? "expecting: string literal" : "expecting: '\"', string literal");
+        if (token instanceof TQuotec) {
+            next();
+        }
+        if (paren) {
+            expect(TRParen.class, "expecting: ')', '\"'");
+        } else {
+            expect(TRBrace.class, "expecting: '}', '\"'");
+        }
+        abbrevs.add(new ReferenceEntry(key.getText(), value.getText()));
+        retriever.abbrev(key, value);
+    }
+
+    /**
+     * Reads a bibliography entry, e.g. <code>@book{key, title = {...}}</code>.
+     */
+    private void readEntry() throws LexerException, ParserException, IOException {
+        TEntryName name = (TEntryName) token;
+        next();
+        boolean paren = readOpen();
+        TIdentifier key = (TIdentifier) expect(TIdentifier.class, "expecting: identifier");
+        retriever.startEntry(key);
+        retriever.entryType(name);
+
+        expect(TComma.class, "expecting: ','");
+        readField();
+        while (token instanceof TComma) {
+            next();
+            if (isClose(paren)) {
+                break;
+            }
+            if (!(token instanceof TIdentifier)) {
+                throw error(paren ? "expecting: ')', identifier" : "expecting: '}', identifier");
+            }
+            readField();
+        }
+        Token end;
+        if (paren) {
+            end = expect(TRParen.class, "expecting: ')', ',', '#'");
+        } else {
+            end = expect(TRBrace.class, "expecting: '}', ',', '#'");
+        }
+        retriever.endEntry(end);
+    }
+
+    /**
+     * Reads a field, e.g. <code>title = {...} # jan</code>.
+     */
+    private void readField() throws LexerException, ParserException, IOException {
+        TIdentifier field = (TIdentifier) expect(TIdentifier.class, "expecting: identifier");
+        retriever.startField(field);
+        expect(TEquals.class, "expecting: '='");
+        readValue();
+        while (token instanceof TSharp) {
+            next();
+            readValue();
+        }
+        retriever.endField();
+    }
+
+    /**
+     * Reads a braced or quoted string, a number or an abbreviation.
+     */
+    private void readValue() throws LexerException, ParserException, IOException {
+        if (token instanceof TStringLiteral || token instanceof TNumber) {
+            retriever.value(token.getText(), token);
+            next();
+        } else if (token instanceof TIdentifier) {
+            retriever.abbrevValue((TIdentifier) token);
+            next();
+        } else if (token instanceof TQuotec) {
+            next();
+            if (token instanceof TStringLiteral) {
+                Token value = token;
+                next();
+                expect(TQuotec.class, "expecting: '\"'");
+                retriever.value(value.getText(), value);
+            } else {
+                expect(TQuotec.class, "expecting: '\"', string literal");
+                retriever.emptyValue();
+            }
+        } else {
+            throw error("expecting: number, identifier, '\"', string literal");
+        }
+    }
+
+    /**
+     * Reads the opening brace or parenthesis of an entry.
+     *
+     * @return True if the entry is delimited by parentheses
+     */
+    private boolean readOpen() throws LexerException, ParserException, IOException {
+        if (token instanceof TLParen) {
+            next();
+            return true;
+        }
+        expect(TLBrace.class, "expecting: '{', '('");
+        return false;
+    }
+
+    private boolean isClose(boolean paren) {
+        return paren ? token instanceof TRParen : token instanceof TRBrace;
+    }
+
+    /**
+     * Checks the type of the current token and moves to the next one.
+     *
+     * @return The checked token
+     */
+    private Token expect(Class<? extends Token> type, String message)
+            throws LexerException, ParserException, IOException {
+        if (!type.isInstance(token)) {
+            throw error(message);
+        }
+        Token t = token;
+        next();
+        return t;
+    }
+
+    /**
+     * Moves to the next token, skipping the ignored tokens like the
+     * generated parser does.
+     */
+    private void next() throws LexerException, IOException {
+        do {
+            token = lexer.next();
+        } while (token instanceof TWhitespace || token instanceof TComment);
+    }
+
+    private ParserException error(String message) {
+        return new ParserException(token,
+                "[" + token.getLine() + "," + token.getPos() + "] " + message);
+    }
+}
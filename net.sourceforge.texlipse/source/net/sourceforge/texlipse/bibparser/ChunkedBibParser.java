@@ -0,0 +1,276 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.bibparser;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import net.sourceforge.texlipse.bibparser.lexer.LexerException;
+import net.sourceforge.texlipse.bibparser.parser.ParserException;
+import net.sourceforge.texlipse.model.FileContents;
+import net.sourceforge.texlipse.model.ParseErrorMessage;
+import net.sourceforge.texlipse.model.ReferenceEntry;
+
+/**
+ * Parses a large BibTeX file in parallel. The file is split into chunks
+ * at entries that start a line outside braces, and the chunks are read
+ * concurrently on the common fork-join pool. Each chunk knows the
+ * abbreviations (@string) defined before it, which are found with a
+ * quick pass over the @string entries. The chunks are then merged in
+ * file order, which checks the keys and resolves the cross references
+ * across the chunks.
+ *
+ * If a chunk cannot be parsed, the split may have been wrong, so the
+ * caller should parse the file sequentially to report the errors.
+ */
+final class ChunkedBibParser {
+
+    /**
+     * The smallest chunk worth parsing on its own
+     */
+    private static final int MIN_CHUNK_SIZE = 128 * 1024;
+
+    private final CharSequence text;
+
+    private List<ReferenceEntry> entries;
+    private List<ReferenceEntry> abbrevs;
+    private List<ParseErrorMessage> warnings;
+    private List<ParseErrorMessage> tasks;
+
+    /**
+     * @param text The contents of the BibTeX file
+     */
+    ChunkedBibParser(CharSequence text) {
+        this.text = text;
+    }
+
+    /**
+     * Parses the file.
+     *
+     * @return True if the file was parsed, false if it could not be split
+     *  or a chunk could not be parsed
+     */
+    boolean parse() {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, text.length() / (parallelism * 4));
+
+        // find the chunks and the @string entries
+        List<Integer> starts = new ArrayList<Integer>();
+        List<Integer> startLines = new ArrayList<Integer>();
+        List<Integer> stringStarts = new ArrayList<Integer>();
+        List<Integer> stringEnds = new ArrayList<Integer>();
+        List<Integer> stringLines = new ArrayList<Integer>();
+        starts.add(0);
+        startLines.add(0);
+        int depth = 0;
+        int line = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                if (depth > 0) {
+                    depth--;
+                }
+            } else if (c == '\n') {
+                line++;
+            } else if (c == '\r') {
+                if (i + 1 >= length || text.charAt(i + 1) != '\n') {
+                    line++;
+                }
+            } else if (c == '@' && depth == 0 && (i == 0
+                    || text.charAt(i - 1) == '\n' || text.charAt(i - 1) == '\r')) {
+                if (stringEnds.size() < stringStarts.size()) {
+                    stringEnds.add(i);
+                }
+                if (startsWithIgnoreCase(i + 1, "string")) {
+                    stringStarts.add(i);
+                    stringLines.add(line);
+                }
+                if (i - starts.get(starts.size() - 1) >= chunkSize) {
+                    starts.add(i);
+                    startLines.add(line);
+                }
+            }
+        }
+        if (stringEnds.size() < stringStarts.size()) {
+            stringEnds.add(length);
+        }
+        if (starts.size() < 2) {
+            return false;
+        }
+        starts.add(length);
+
+        // the abbreviations defined before each chunk
+        List<Map<String, String>> definedAbbrevs = new ArrayList<Map<String, String>>();
+        Map<String, String> defined = new HashMap<String, String>();
+        int s = 0;
+        for (int i = 0; i < starts.size() - 1; i++) {
+            int end = starts.get(i);
+            for (; s < stringStarts.size() && stringStarts.get(s) < end; s++) {
+                List<ReferenceEntry> strings = readStrings(stringStarts.get(s),
+                        stringEnds.get(s), stringLines.get(s));
+                if (strings == null) {
+                    return false;
+                }
+                for (ReferenceEntry abbrev : strings) {
+                    defined.put(abbrev.key, abbrev.info);
+                }
+            }
+            definedAbbrevs.add(new HashMap<String, String>(defined));
+        }
+
+        List<Callable<Chunk>> jobs = new ArrayList<Callable<Chunk>>();
+        for (int i = 0; i < starts.size() - 1; i++) {
+            jobs.add(new Chunk(starts.get(i), starts.get(i + 1), startLines.get(i),
+                    definedAbbrevs.get(i)));
+        }
+        List<Future<Chunk>> results = ForkJoinPool.commonPool().invokeAll(jobs);
+
+        EntryRetriever all = new EntryRetriever();
+        abbrevs = new ArrayList<ReferenceEntry>();
+        for (Future<Chunk> result : results) {
+            Chunk chunk;
+            try {
+                chunk = result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException e) {
+                return false;
+            }
+            if (chunk.retriever == null) {
+                return false;
+            }
+            all.merge(chunk.retriever);
+            abbrevs.addAll(chunk.abbrevs);
+        }
+        all.finishParse();
+        entries = all.getEntries();
+        warnings = all.getWarnings();
+        tasks = all.getTasks();
+        return true;
+    }
+
+    /**
+     * Reads the abbreviations of an @string entry. The text up to the
+     * next entry contains only the entry and comments.
+     *
+     * @return The abbreviations, or null if the text could not be parsed
+     */
+    private List<ReferenceEntry> readStrings(int start, int end, int lineOffset) {
+        BibLexer lexer = new BibLexer(new PushbackReader(
+                FileContents.reader(text.subSequence(start, end)), 1024), lineOffset);
+        BibReader reader = new BibReader(lexer, new EntryRetriever());
+        try {
+            reader.read();
+        } catch (LexerException e) {
+            return null;
+        } catch (ParserException e) {
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+        return reader.getAbbrevs();
+    }
+
+    private boolean startsWithIgnoreCase(int offset, String prefix) {
+        if (offset + prefix.length() > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase(text.charAt(offset + i)) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The entries of the file
+     */
+    List<ReferenceEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return The abbreviations of the file
+     */
+    List<ReferenceEntry> getAbbrevs() {
+        return abbrevs;
+    }
+
+    /**
+     * @return The warnings
+     */
+    List<ParseErrorMessage> getWarnings() {
+        return warnings;
+    }
+
+    /**
+     * @return The tasks
+     */
+    List<ParseErrorMessage> getTasks() {
+        return tasks;
+    }
+
+    /**
+     * Reads one chunk of the file.
+     */
+    private final class Chunk implements Callable<Chunk> {
+
+        private final int start;
+        private final int end;
+        private final int lineOffset;
+        private final Map<String, String> definedAbbrevs;
+
+        private EntryRetriever retriever;
+        private List<ReferenceEntry> abbrevs;
+
+        Chunk(int start, int end, int lineOffset, Map<String, String> definedAbbrevs) {
+            this.start = start;
+            this.end = end;
+            this.lineOffset = lineOffset;
+            this.definedAbbrevs = definedAbbrevs;
+        }
+
+        /**
+         * @return This chunk, with a null retriever if the chunk could
+         *  not be parsed
+         */
+        public Chunk call() {
+            BibLexer lexer = new BibLexer(new PushbackReader(
+                    FileContents.reader(text.subSequence(start, end)), 1024), lineOffset);
+            EntryRetriever er = new EntryRetriever(definedAbbrevs);
+            BibReader reader = new BibReader(lexer, er);
+            try {
+                reader.read();
+            } catch (LexerException e) {
+                return this;
+            } catch (ParserException e) {
+                return this;
+            } catch (IOException e) {
+                return this;
+            }
+            retriever = er;
+            abbrevs = reader.getAbbrevs();
+            return this;
+        }
+    }
+}
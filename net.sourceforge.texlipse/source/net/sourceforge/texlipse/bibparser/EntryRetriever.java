@@ -14,6 +14,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -34,8 +35,10 @@ import net.sourceforge.texlipse.bibparser.node.AStrbraceStringEntry;
 import net.sourceforge.texlipse.bibparser.node.AStrparenStringEntry;
 import net.sourceforge.texlipse.bibparser.node.AValueBValOrSid;
 import net.sourceforge.texlipse.bibparser.node.AValueQValOrSid;
+import net.sourceforge.texlipse.bibparser.node.TEntryName;
 import net.sourceforge.texlipse.bibparser.node.TIdentifier;
 import net.sourceforge.texlipse.bibparser.node.TStringLiteral;
+import net.sourceforge.texlipse.bibparser.node.TTaskcomment;
 import net.sourceforge.texlipse.bibparser.node.Token;
 import net.sourceforge.texlipse.model.ParseErrorMessage;
 import net.sourceforge.texlipse.model.ReferenceEntry;
@@ -50,6 +53,10 @@ import org.eclipse.core.resources.IMarker;
  * BibTeX-file. See <a href="http://www.sablecc.org">http://www.sablecc.org</a> for
  * more information on the structure of the AST and the visitors.
  * 
+ * The visitor methods delegate to package private event methods, which
+ * <code>BibReader</code> calls directly while reading the tokens, so the
+ * entries can also be retrieved without building the AST.
+ * 
  * @author Oskar Ojala
  */
 public final class EntryRetriever extends DepthFirstAdapter {
@@ -89,6 +96,12 @@ public final class EntryRetriever extends DepthFirstAdapter {
     private Map<String, String> abbrevs;
     private Map<String, List<EntryText>> crossrefs; // String->List(EntryText)
     
+    /**
+     * The key tokens of the first definitions of the keys, kept only when
+     * retrieving a chunk of a file that is merged with <code>merge()</code>
+     */
+    private Map<String, TIdentifier> firstKeys;
+    
     /**
      * A list of required fields for the different BibTeX entries
      */
@@ -145,6 +158,18 @@ public final class EntryRetriever extends DepthFirstAdapter {
         this.crossrefs = new HashMap<String, List<EntryText>>();
     }
     
+    /**
+     * Creates a retriever for a chunk of a file. The chunk's results
+     * are added to the retriever of the whole file with <code>merge()</code>.
+     * 
+     * @param definedAbbrevs The abbreviations defined before the chunk
+     */
+    EntryRetriever(Map<String, String> definedAbbrevs) {
+        this();
+        this.abbrevs.putAll(definedAbbrevs);
+        this.firstKeys = new LinkedHashMap<String, TIdentifier>();
+    }
+    
     /**
      * @return The entries as a list of <code>ReferenceEntry</code>s
      */
@@ -166,6 +191,78 @@ public final class EntryRetriever extends DepthFirstAdapter {
         return tasks;
     }
 
+    /**
+     * Adds the results of the next chunk of the file. The keys of the
+     * chunk are checked against the keys of the previous chunks, and the
+     * cross references left open by the previous chunks are resolved with
+     * the entries of the chunk. The chunks must be merged in file order
+     * before calling <code>finishParse()</code>.
+     * 
+     * @param chunk The retriever of the chunk
+     */
+    void merge(EntryRetriever chunk) {
+        for (TIdentifier tid : chunk.firstKeys.values()) {
+            Integer x = allDefinedKeys.get(tid.getText());
+            if (x != null) {
+                warnings.add(new ParseErrorMessage(tid.getLine(),
+                        tid.getPos() - 1, tid.getText().length(),
+                        "BibTex key " + tid.getText() + " is not unique: also defined in line "+x,
+                        IMarker.SEVERITY_WARNING));
+            }
+        }
+        allDefinedKeys.putAll(chunk.allDefinedKeys);
+        warnings.addAll(chunk.warnings);
+        tasks.addAll(chunk.tasks);
+        
+        if (!crossrefs.isEmpty()) {
+            for (ReferenceEntry entry : chunk.entries) {
+                List<EntryText> crefs = crossrefs.remove(entry.key);
+                if (crefs != null) {
+                    currEntry = entry;
+                    Set<String> fields = getFields(entry);
+                    for (EntryText et : crefs) {
+                        et.definedFields.addAll(fields);
+                        setMissingWarnings(et.token, et.definedFields);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, List<EntryText>> mapping : chunk.crossrefs.entrySet()) {
+            List<EntryText> crefs = crossrefs.get(mapping.getKey());
+            if (crefs == null) {
+                crossrefs.put(mapping.getKey(), mapping.getValue());
+            } else {
+                crefs.addAll(mapping.getValue());
+            }
+        }
+        entries.addAll(chunk.entries);
+        if (chunk.currEntry != null) {
+            currEntry = chunk.currEntry;
+        }
+    }
+    
+    /**
+     * Returns the fields defined in an entry, from the entry info that
+     * has the type on the first line and one field per line after it.
+     * 
+     * @param entry A retrieved entry
+     * @return The names of the fields
+     */
+    private static Set<String> getFields(ReferenceEntry entry) {
+        Set<String> fields = new HashSet<String>();
+        String info = entry.info;
+        int start = info.indexOf('\n') + 1;
+        while (start > 0 && start < info.length()) {
+            int end = info.indexOf('\n', start);
+            int colon = info.indexOf(": ", start);
+            if (colon >= 0 && (end < 0 || colon < end)) {
+                fields.add(info.substring(start, colon));
+            }
+            start = end + 1;
+        }
+        return fields;
+    }
+    
     /**
      * Finish the parse by setting all remaining warnings
      */
@@ -208,15 +305,30 @@ public final class EntryRetriever extends DepthFirstAdapter {
     }
 
     public void outABibtaskBibEntry(ABibtaskBibEntry node) {
-        int start = node.getTaskcomment().getText().indexOf("TODO");
-        String taskText = node.getTaskcomment().getText().substring(start + 4).trim();
+        task(node.getTaskcomment());
+    }
+
+    /**
+     * Adds a task for a TODO comment.
+     * 
+     * @param tc The comment
+     */
+    void task(TTaskcomment tc) {
+        int start = tc.getText().indexOf("TODO");
+        String taskText = tc.getText().substring(start + 4).trim();
         
-        tasks.add(new ParseErrorMessage(node.getTaskcomment().getLine(),
-                node.getTaskcomment().getPos(),
+        tasks.add(new ParseErrorMessage(tc.getLine(),
+                tc.getPos(),
                 taskText.length(), taskText, IMarker.SEVERITY_INFO));
     }
 
-    private void inAnAbbrev(TIdentifier tid, TStringLiteral tsl) {
+    /**
+     * Defines an abbreviation (@string).
+     * 
+     * @param tid The name of the abbreviation
+     * @param tsl The value of the abbreviation
+     */
+    void abbrev(TIdentifier tid, TStringLiteral tsl) {
         if (abbrevs.put(tid.getText(), tsl.getText()) != null) {
             warnings.add(new ParseErrorMessage(tid.getLine(),
                     tid.getPos() - 1, tid.getText().length(),
@@ -226,25 +338,33 @@ public final class EntryRetriever extends DepthFirstAdapter {
     }
     
     public void inAStrbraceStringEntry(AStrbraceStringEntry node) {
-        inAnAbbrev(node.getIdentifier(), node.getStringLiteral());
+        abbrev(node.getIdentifier(), node.getStringLiteral());
     }
     
     public void outAStrbraceStringEntry(AStrbraceStringEntry node) {
     }
     
     public void inAStrparenStringEntry(AStrparenStringEntry node) {
-        inAnAbbrev(node.getIdentifier(), node.getStringLiteral());
+        abbrev(node.getIdentifier(), node.getStringLiteral());
     }
     
     public void outAStrparenStringEntry(AStrparenStringEntry node) {
     }
     
-    private void inBibtexEntry(TIdentifier tid) {
+    /**
+     * Starts a new entry.
+     * 
+     * @param tid The key of the entry
+     */
+    void startEntry(TIdentifier tid) {
         currEntry = new ReferenceEntry(tid.getText());
         currEntry.startLine = tid.getLine();
         currEntryInfo = new StringBuffer();
         
         Integer x=allDefinedKeys.put(currEntry.key, currEntry.startLine);
+        if (x == null && firstKeys != null) {
+            firstKeys.put(currEntry.key, tid);
+        }
         if (x != null) {
             warnings.add(new ParseErrorMessage(currEntry.startLine,
                     tid.getPos() - 1, currEntry.key.length(),
@@ -272,7 +392,12 @@ public final class EntryRetriever extends DepthFirstAdapter {
         }   
     }
     
-    private void outBibtexEntry(Token endToken) {
+    /**
+     * Adds the current entry into the entry list.
+     * 
+     * @param endToken The closing brace or parenthesis of the entry
+     */
+    void endEntry(Token endToken) {
         if (currEntry.author == null) {
             currEntry.author = "-";
         }
@@ -318,7 +443,7 @@ public final class EntryRetriever extends DepthFirstAdapter {
      * @param node an <code>AEntry</code> value
      */
     public void inAEntrybraceEntry(AEntrybraceEntry node) {
-        inBibtexEntry(node.getIdentifier());
+        startEntry(node.getIdentifier());
     }
     
     /**
@@ -328,15 +453,15 @@ public final class EntryRetriever extends DepthFirstAdapter {
      * @param node an <code>AEntry</code> value
      */
     public void outAEntrybraceEntry(AEntrybraceEntry node) {
-        outBibtexEntry(node.getRBrace());
+        endEntry(node.getRBrace());
     }
     
     public void inAEntryparenEntry(AEntryparenEntry node) {
-        inBibtexEntry(node.getIdentifier());
+        startEntry(node.getIdentifier());
     }
     
     public void outAEntryparenEntry(AEntryparenEntry node) {
-        outBibtexEntry(node.getRParen());
+        endEntry(node.getRParen());
     }
     
     public void inAEntryDef(AEntryDef node) {
@@ -348,26 +473,51 @@ public final class EntryRetriever extends DepthFirstAdapter {
      * @param node an <code>AEntryDef</code> value
      */
     public void outAEntryDef(AEntryDef node) {        
-        currEntryInfo.append(node.getEntryName().getText().substring(1));
+        entryType(node.getEntryName());
+    }
+    
+    /**
+     * Sets the type of the current entry.
+     * 
+     * @param name The entry name token (@type)
+     */
+    void entryType(TEntryName name) {
+        currEntryInfo.append(name.getText().substring(1));
         currEntryInfo.append('\n');
-        currEntryType = node.getEntryName();
+        currEntryType = name;
         currEntryType.setText(currEntryType.getText().substring(1).toLowerCase());
     }
     
     public void inAKeyvalDecl(AKeyvalDecl node) {
-        currField = node.getIdentifier().getText().toLowerCase();
+        startField(node.getIdentifier());
+    }
+    
+    /**
+     * Starts a field of the current entry.
+     * 
+     * @param tid The name of the field
+     */
+    void startField(TIdentifier tid) {
+        currField = tid.getText().toLowerCase();
         currEntryInfo.append(currField);
         currEntryInfo.append(": ");
                 
         if (!currDefinedFields.add(currField)) {
-            warnings.add(new ParseErrorMessage(node.getIdentifier().getLine(),
-                    node.getIdentifier().getPos() - 1, currField.length(),
+            warnings.add(new ParseErrorMessage(tid.getLine(),
+                    tid.getPos() - 1, currField.length(),
                     "Field " + currField + " appears more than once in entry " + currEntry.key,
                     IMarker.SEVERITY_WARNING));
         }
     }
     
     public void outAKeyvalDecl(AKeyvalDecl node) {
+        endField();
+    }
+    
+    /**
+     * Ends the current field.
+     */
+    void endField() {
         currEntryInfo.append('\n');
     }
     
@@ -384,23 +534,36 @@ public final class EntryRetriever extends DepthFirstAdapter {
     }
 
     public void outAValueBValOrSid(AValueBValOrSid node) {
-        outAValueValOrSid(node.getStringLiteral().getText(),
+        value(node.getStringLiteral().getText(),
                 node.getStringLiteral());
     }
 
     public void outAValueQValOrSid(AValueQValOrSid node) {
         TStringLiteral tsl = node.getStringLiteral();
         if (tsl != null) {
-            outAValueValOrSid(tsl.getText(), tsl);
+            value(tsl.getText(), tsl);
         } else {
-            warnings.add(new ParseErrorMessage(currEntry.startLine,
-                    1, currEntryType.getText().length(),
-                    currField + " is empty in " + currEntry.key,
-                    IMarker.SEVERITY_WARNING));
+            emptyValue();
         }
     }
     
-    private void outAValueValOrSid(String text, Token tsl) {
+    /**
+     * Warns about an empty quoted value ("") of the current field.
+     */
+    void emptyValue() {
+        warnings.add(new ParseErrorMessage(currEntry.startLine,
+                1, currEntryType.getText().length(),
+                currField + " is empty in " + currEntry.key,
+                IMarker.SEVERITY_WARNING));
+    }
+    
+    /**
+     * Adds a value to the current field.
+     * 
+     * @param text The value
+     * @param tsl The token of the value
+     */
+    void value(String text, Token tsl) {
         String fieldValue = text.replaceAll("\\s+", " ");
         currEntryInfo.append(fieldValue);
         
@@ -427,17 +590,25 @@ public final class EntryRetriever extends DepthFirstAdapter {
     }
   
     public void outANumValOrSid(ANumValOrSid node) {
-        outAValueValOrSid(node.getNumber().getText(), node.getNumber());
+        value(node.getNumber().getText(), node.getNumber());
     }
     
     public void inAIdValOrSid(AIdValOrSid node) {
     }
     
     public void outAIdValOrSid(AIdValOrSid node) {
-        TIdentifier tid = node.getIdentifier();
+        abbrevValue(node.getIdentifier());
+    }
+    
+    /**
+     * Adds the expansion of an abbreviation to the current field.
+     * 
+     * @param tid The name of the abbreviation
+     */
+    void abbrevValue(TIdentifier tid) {
         String expansion = (String) abbrevs.get(tid.getText());
         if (expansion != null) {
-            outAValueValOrSid(expansion, tid);
+            value(expansion, tid);
         } else {
             warnings.add(new ParseErrorMessage(tid.getLine(),
                     tid.getPos()-1, tid.getText().length(),
@@ -16,6 +16,7 @@ import java.util.List;
 import net.sourceforge.texlipse.TexPathConfig;
 import net.sourceforge.texlipse.TexlipsePlugin;
 import net.sourceforge.texlipse.auxparser.AuxFileParser;
+import net.sourceforge.texlipse.model.ProjectModel;
 import net.sourceforge.texlipse.model.ReferenceContainer;
 import net.sourceforge.texlipse.model.ReferenceEntry;
 import net.sourceforge.texlipse.properties.TexlipseProperties;
@@ -210,6 +211,7 @@ public class TexBuilder extends AbstractBuilder implements AdaptableBuilder {
 			labelC.organize();
 			// now add them
 			labelC.updateRefSource(correctedAuxFileName, afp.getLabels());
+			ProjectModel.update(afp.getProject());
 		}
     }
 
@@ -256,6 +258,9 @@ public class TexBuilder extends AbstractBuilder implements AdaptableBuilder {
 		}		
     	
     	monitor.subTask("Building document");
+        // LaTeX may rewrite the .aux-files within the resolution of the
+        // file time and with the same length, so they are read again
+        AuxFileParser.clearCache();
         try {
 			latex.run(pathConfig);
         } catch (BuilderCoreException ex) {
@@ -325,6 +330,7 @@ public class TexBuilder extends AbstractBuilder implements AdaptableBuilder {
                 monitor.worked(10);
             }
               
+            AuxFileParser.clearCache();
             try {
 				latex.run(pathConfig);
             } catch (BuilderCoreException ex) {
@@ -335,6 +341,7 @@ public class TexBuilder extends AbstractBuilder implements AdaptableBuilder {
                 return;
             monitor.worked(10);
             clearMarkers(project);
+            AuxFileParser.clearCache();
             try {
 				latex.run(pathConfig);
             } catch (BuilderCoreException ex) {
@@ -370,6 +377,7 @@ public class TexBuilder extends AbstractBuilder implements AdaptableBuilder {
                 monitor.worked(10);
             }
             
+            AuxFileParser.clearCache();
             try {
 				latex.run(pathConfig);
             } catch (BuilderCoreException ex) {
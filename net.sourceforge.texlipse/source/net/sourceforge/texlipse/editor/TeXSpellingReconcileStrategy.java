@@ -66,6 +66,9 @@ public class TeXSpellingReconcileStrategy implements IReconcilingStrategy, IReco
         
         private IRegion[] regions;
 
+        /** Checks the document again, once the dictionary has been loaded. */
+        private Runnable fRecheck;
+
         /**
          * Initializes this collector with the given annotation model.
          *
@@ -91,6 +94,20 @@ public class TeXSpellingReconcileStrategy implements IReconcilingStrategy, IReco
         public void setRegions (IRegion[] _region) {
             regions = _region.clone();
         }
+
+        /**
+         * @param recheck checks the document again
+         */
+        public void setRecheck(Runnable recheck) {
+            fRecheck = recheck;
+        }
+
+        /**
+         * @return the action that checks the document again, or null
+         */
+        public Runnable getRecheck() {
+            return fRecheck;
+        }
         
         /*
          * @see org.eclipse.ui.texteditor.spelling.ISpellingProblemCollector#beginCollecting()
@@ -181,6 +198,18 @@ public class TeXSpellingReconcileStrategy implements IReconcilingStrategy, IReco
      */
     private IRegion[] fRegions= new IRegion[1];
 
+    /**
+     * Checks the whole document again, when the spelling engine could not
+     * check it because the dictionary was still being loaded.
+     */
+    private final Runnable fRecheck= new Runnable() {
+        public void run() {
+            IDocument document= fDocument;
+            if (document != null)
+                reconcile(new Region(0, document.getLength()));
+        }
+    };
+
 
     /**
      * Creates a new comment reconcile strategy.
@@ -227,9 +256,14 @@ public class TeXSpellingReconcileStrategy implements IReconcilingStrategy, IReco
     }
 
     /*
+     * Synchronized because the recheck runs on the thread that loaded the
+     * dictionary. Inside this lock the spelling engine takes the lock of
+     * its dictionary cache and the collector the lock of the annotation
+     * model; neither calls back into this strategy while holding its lock.
+     * 
      * @see org.eclipse.jface.text.reconciler.IReconcilingStrategy#reconcile(org.eclipse.jface.text.IRegion)
      */
-    public void reconcile(IRegion region) {
+    public synchronized void reconcile(IRegion region) {
         if (getAnnotationModel() == null || fSpellingProblemCollector == null)
             return;
 
@@ -274,7 +308,9 @@ public class TeXSpellingReconcileStrategy implements IReconcilingStrategy, IReco
         IAnnotationModel model= getAnnotationModel();
         if (model == null)
             return null;
-        return new TeXSpellingProblemCollector(model);
+        TeXSpellingProblemCollector collector= new TeXSpellingProblemCollector(model);
+        collector.setRecheck(fRecheck);
+        return collector;
     }
 
     /*
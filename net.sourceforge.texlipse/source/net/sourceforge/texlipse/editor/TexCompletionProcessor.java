@@ -329,6 +329,11 @@ public class TexCompletionProcessor implements IContentAssistProcessor {
 
 		List<ICompletionProposal> resultAsList = new ArrayList<ICompletionProposal>();
 		List<ReferenceEntry> bibEntries = refManager.getCompletionsBib(prefix);
+		//if nothing starts with the prefix, look for keys containing it or with typos
+		if (bibEntries == null)
+			bibEntries = refManager.getCompletionsBib(prefix, ReferenceManager.MATCH_SUBSTRING);
+		if (bibEntries == null)
+			bibEntries = refManager.getCompletionsBib(prefix, ReferenceManager.MATCH_FUZZY);
 		//add the entries of the .bib file(s) to the results
 		if (bibEntries != null) {
 			for (int i = 0; i < bibEntries.size(); i++) {
@@ -383,6 +388,10 @@ public class TexCompletionProcessor implements IContentAssistProcessor {
 	private ICompletionProposal[] computeRefCompletions(int offset,
 			int replacementLength, String prefix) {
 		List<ReferenceEntry> refEntries = refManager.getCompletionsRef(prefix);
+		if (refEntries == null)
+			refEntries = refManager.getCompletionsRef(prefix, ReferenceManager.MATCH_SUBSTRING);
+		if (refEntries == null)
+			refEntries = refManager.getCompletionsRef(prefix, ReferenceManager.MATCH_FUZZY);
 		if (refEntries == null)
 			return null;
 
@@ -394,9 +403,10 @@ public class TexCompletionProcessor implements IContentAssistProcessor {
 			String infoText = null;
 			ReferenceEntry ref = refEntries.get(i);
 
-			if (ref.info != null) {
-				infoText = (ref.info.length() > assistLineLength) ? wrapString(
-						ref.info, assistLineLength) : ref.info;
+			String info = ref.getInfo();
+			if (info != null) {
+				infoText = (info.length() > assistLineLength) ? wrapString(
+						info, assistLineLength) : info;
 			}
 
 			result[i] = new CompletionProposal(ref.key, offset
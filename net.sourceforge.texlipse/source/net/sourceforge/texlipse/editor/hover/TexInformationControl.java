@@ -198,7 +198,7 @@ public class TexInformationControl implements IInformationControl,
             entry = label;
             initTextBox();
             
-            hoverText.setText(label.info);
+            hoverText.setText(label.getInfo());
             return true;
         }
         return false;
@@ -38,6 +38,13 @@ public abstract class AbstractEntry implements Comparable {
      * The filename where the reference lives in
      */
     public String fileName;
+    
+    /**
+     * The lower case key and the key it was made of, so that sorted
+     * lookups need not convert the key on each comparison
+     */
+    private String lowerCaseKey;
+    private String lowerCaseSource;
 
     /* (non-Javadoc)
      * @see java.lang.Comparable#compareTo(java.lang.Object)
@@ -60,8 +67,24 @@ public abstract class AbstractEntry implements Comparable {
         this.position = new Position(docOffset, length);
     }
     
+    /**
+     * Returns the key of this entry. The lower case key is cached until
+     * the key is changed.
+     * 
+     * @param lowerCase If true, returns the key in lower case
+     * @return The key
+     */
     public String getkey(boolean lowerCase) {
-        if (lowerCase) return key.toLowerCase();
+        if (lowerCase) {
+            String k = key;
+            String lk = lowerCaseKey;
+            if (lk == null || lowerCaseSource != k) {
+                lk = k.toLowerCase();
+                lowerCaseKey = lk;
+                lowerCaseSource = k;
+            }
+            return lk;
+        }
         return key;
     }
 }
@@ -0,0 +1,421 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A compressed trie of the (lower case) keys of entries. Besides prefix
+ * matches, it can find the entries whose key contains a given string and
+ * the entries whose key starts with something that is within a given edit
+ * distance of the typed string. Entries can be added and removed one at a
+ * time, so the index can be kept up to date when a single file changes.
+ *
+ * The results are returned in the order of the lower case keys. This class
+ * is not synchronized.
+ */
+public class CompletionIndex<E extends AbstractEntry> {
+
+    /**
+     * A node of the trie. The children are sorted by the first character
+     * of their label, no two children start with the same character.
+     * <code>chars</code> has a bit set for (at least) every character
+     * in the label and below, it is used to skip subtrees in substring
+     * searches.
+     */
+    private static final class Node {
+        String label;
+        Node[] children;
+        int childCount;
+        List<AbstractEntry> entries;
+        long chars;
+
+        Node(String label) {
+            this.label = label;
+        }
+
+        /**
+         * @return The position of the child starting with c or
+         *  (-(insertion point) - 1) if there is none
+         */
+        int findChild(char c) {
+            int low = 0;
+            int high = childCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char m = children[mid].label.charAt(0);
+                if (m < c) {
+                    low = mid + 1;
+                } else if (m > c) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        void insertChild(int pos, Node child) {
+            if (children == null) {
+                children = new Node[2];
+            } else if (childCount == children.length) {
+                Node[] c = new Node[childCount * 2];
+                System.arraycopy(children, 0, c, 0, childCount);
+                children = c;
+            }
+            System.arraycopy(children, pos, children, pos + 1, childCount - pos);
+            children[pos] = child;
+            childCount++;
+        }
+
+        void removeChild(int pos) {
+            childCount--;
+            System.arraycopy(children, pos + 1, children, pos, childCount - pos);
+            children[childCount] = null;
+        }
+
+        boolean hasEntries() {
+            return entries != null && entries.size() > 0;
+        }
+    }
+
+    private final Node root;
+    private int size;
+
+    /**
+     * Creates a new empty index.
+     */
+    public CompletionIndex() {
+        root = new Node("");
+        size = 0;
+    }
+
+    /**
+     * Creates a new index containing the given entries.
+     *
+     * @param entries The entries to add
+     */
+    public CompletionIndex(Collection<? extends E> entries) {
+        this();
+        addAll(entries);
+    }
+
+    /**
+     * @return The number of entries in this index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds the given entry to this index.
+     *
+     * @param entry The entry to add
+     */
+    public void add(E entry) {
+        String key = entry.getkey(true);
+        long[] suffixChars = new long[key.length() + 1];
+        for (int i = key.length() - 1; i >= 0; i--) {
+            suffixChars[i] = suffixChars[i + 1] | charBit(key.charAt(i));
+        }
+        Node node = root;
+        int i = 0;
+        while (i < key.length()) {
+            int c = node.findChild(key.charAt(i));
+            if (c < 0) {
+                Node leaf = new Node(key.substring(i));
+                leaf.chars = suffixChars[i];
+                node.insertChild(-c - 1, leaf);
+                node = leaf;
+                break;
+            }
+            Node child = node.children[c];
+            String label = child.label;
+            int j = 1;
+            while (j < label.length() && i + j < key.length()
+                    && label.charAt(j) == key.charAt(i + j)) {
+                j++;
+            }
+            if (j < label.length()) {
+                // split the edge
+                Node middle = new Node(label.substring(0, j));
+                middle.chars = child.chars;
+                child.label = label.substring(j);
+                middle.insertChild(0, child);
+                node.children[c] = middle;
+                child = middle;
+            }
+            child.chars |= suffixChars[i];
+            node = child;
+            i += j;
+        }
+        if (node.entries == null) {
+            node.entries = new ArrayList<AbstractEntry>(1);
+        }
+        node.entries.add(entry);
+        size++;
+    }
+
+    /**
+     * Adds the given entries to this index.
+     *
+     * @param entries The entries to add, may be null
+     */
+    public void addAll(Collection<? extends E> entries) {
+        if (entries == null)
+            return;
+        for (E entry : entries) {
+            add(entry);
+        }
+    }
+
+    /**
+     * Removes the given entry (the same object) from this index.
+     *
+     * @param entry The entry to remove
+     * @return True if the entry was found
+     */
+    public boolean remove(E entry) {
+        if (remove(root, entry.getkey(true), 0, entry)) {
+            size--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes the given entries from this index.
+     *
+     * @param entries The entries to remove, may be null
+     */
+    public void removeAll(Collection<? extends E> entries) {
+        if (entries == null)
+            return;
+        for (E entry : entries) {
+            remove(entry);
+        }
+    }
+
+    private boolean remove(Node node, String key, int i, E entry) {
+        if (i == key.length()) {
+            if (node.entries == null)
+                return false;
+            for (int k = 0; k < node.entries.size(); k++) {
+                if (node.entries.get(k) == entry) {
+                    node.entries.remove(k);
+                    return true;
+                }
+            }
+            return false;
+        }
+        int c = node.findChild(key.charAt(i));
+        if (c < 0)
+            return false;
+        Node child = node.children[c];
+        if (!key.startsWith(child.label, i)
+                || !remove(child, key, i + child.label.length(), entry))
+            return false;
+
+        // keep the trie compressed
+        if (!child.hasEntries()) {
+            if (child.childCount == 0) {
+                node.removeChild(c);
+            } else if (child.childCount == 1) {
+                Node grandChild = child.children[0];
+                grandChild.label = child.label + grandChild.label;
+                grandChild.chars |= child.chars;
+                node.children[c] = grandChild;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the entries whose key starts with the given string.
+     *
+     * @param prefix The start of the key (case insensitive)
+     * @param limit The maximum number of results
+     * @return The matching entries
+     */
+    public List<E> getPrefixMatches(String prefix, int limit) {
+        List<E> result = new ArrayList<E>();
+        prefix = prefix.toLowerCase();
+        Node node = root;
+        int i = 0;
+        while (i < prefix.length()) {
+            int c = node.findChild(prefix.charAt(i));
+            if (c < 0)
+                return result;
+            node = node.children[c];
+            String label = node.label;
+            int len = Math.min(label.length(), prefix.length() - i);
+            if (!label.regionMatches(0, prefix, i, len))
+                return result;
+            i += len;
+        }
+        collect(node, result, limit);
+        return result;
+    }
+
+    /**
+     * Returns the entries whose key contains the given string.
+     *
+     * @param part The string to look for (case insensitive)
+     * @param limit The maximum number of results
+     * @return The matching entries
+     */
+    public List<E> getSubstringMatches(String part, int limit) {
+        List<E> result = new ArrayList<E>();
+        part = part.toLowerCase();
+        if (part.length() == 0) {
+            collect(root, result, limit);
+        } else {
+            int m = part.length();
+            // failure function of the Knuth-Morris-Pratt algorithm
+            int[] fail = new int[m + 1];
+            fail[0] = -1;
+            for (int i = 1, k = -1; i <= m; i++) {
+                while (k >= 0 && part.charAt(k) != part.charAt(i - 1)) {
+                    k = fail[k];
+                }
+                fail[i] = ++k;
+            }
+            // the characters still needed after matching i characters
+            long[] needed = new long[m + 1];
+            for (int i = m - 1; i >= 0; i--) {
+                needed[i] = needed[i + 1] | charBit(part.charAt(i));
+            }
+            findSubstring(root, part, fail, needed, 0, result, limit);
+        }
+        return result;
+    }
+
+    /**
+     * Walks the trie keeping track of how many characters of the searched
+     * string the path ends with. A subtree is collected as soon as the
+     * whole string has been matched and skipped if it does not contain the
+     * characters that are still needed.
+     */
+    private void findSubstring(Node node, String part, int[] fail, long[] needed,
+            int state, List<E> result, int limit) {
+        int m = part.length();
+        for (int c = 0; c < node.childCount && result.size() < limit; c++) {
+            Node child = node.children[c];
+            if ((child.chars & needed[state]) != needed[state])
+                continue;
+            String label = child.label;
+            int s = state;
+            for (int i = 0; i < label.length() && s < m; i++) {
+                char ch = label.charAt(i);
+                while (s >= 0 && part.charAt(s) != ch) {
+                    s = fail[s];
+                }
+                s++;
+            }
+            if (s == m) {
+                collect(child, result, limit);
+            } else {
+                findSubstring(child, part, fail, needed, s, result, limit);
+            }
+        }
+    }
+
+    private static long charBit(char c) {
+        return 1L << (c & 63);
+    }
+
+    /**
+     * Returns the entries whose key starts with a string that can be turned
+     * into <code>word</code> with at most <code>maxDistance</code> insertions,
+     * deletions or substitutions of characters.
+     *
+     * @param word The typed string (case insensitive)
+     * @param maxDistance The maximum edit distance
+     * @param limit The maximum number of results
+     * @return The matching entries
+     */
+    public List<E> getFuzzyMatches(String word, int maxDistance, int limit) {
+        List<E> result = new ArrayList<E>();
+        word = word.toLowerCase();
+        int[] row = new int[word.length() + 1];
+        for (int j = 0; j < row.length; j++) {
+            row[j] = j;
+        }
+        if (word.length() <= maxDistance) {
+            collect(root, result, limit);
+        } else {
+            findFuzzy(root, word, row, maxDistance, result, limit);
+        }
+        return result;
+    }
+
+    /**
+     * Walks the trie computing one row of the edit distance matrix for
+     * each character. A subtree is skipped when no cell of the row is
+     * within the maximum distance, and collected as soon as the whole word
+     * is within it.
+     */
+    private void findFuzzy(Node node, String word, int[] row, int maxDistance,
+            List<E> result, int limit) {
+        int m = word.length();
+        for (int c = 0; c < node.childCount && result.size() < limit; c++) {
+            Node child = node.children[c];
+            String label = child.label;
+            int[] prev = row;
+            boolean matched = false;
+            boolean pruned = false;
+            for (int i = 0; i < label.length(); i++) {
+                char ch = label.charAt(i);
+                int[] cur = new int[m + 1];
+                cur[0] = prev[0] + 1;
+                int min = cur[0];
+                for (int j = 1; j <= m; j++) {
+                    int cost = word.charAt(j - 1) == ch ? 0 : 1;
+                    cur[j] = Math.min(Math.min(prev[j] + 1, cur[j - 1] + 1),
+                            prev[j - 1] + cost);
+                    min = Math.min(min, cur[j]);
+                }
+                if (cur[m] <= maxDistance) {
+                    matched = true;
+                    break;
+                }
+                if (min > maxDistance) {
+                    pruned = true;
+                    break;
+                }
+                prev = cur;
+            }
+            if (matched) {
+                collect(child, result, limit);
+            } else if (!pruned) {
+                findFuzzy(child, word, prev, maxDistance, result, limit);
+            }
+        }
+    }
+
+    /**
+     * Adds all entries of the subtree to the result in key order.
+     */
+    @SuppressWarnings("unchecked")
+    private void collect(Node node, List<E> result, int limit) {
+        if (node.entries != null) {
+            for (AbstractEntry entry : node.entries) {
+                if (result.size() >= limit)
+                    return;
+                result.add((E) entry);
+            }
+        }
+        for (int c = 0; c < node.childCount && result.size() < limit; c++) {
+            collect(node.children[c], result, limit);
+        }
+    }
+}
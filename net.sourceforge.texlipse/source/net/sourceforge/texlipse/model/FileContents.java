@@ -0,0 +1,219 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.model;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.StandardOpenOption;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+
+/**
+ * Reads the contents of files for the parsers. A file is read with a
+ * single channel read into a buffer of its size and decoded once with
+ * the charset of the file, so the contents are copied only once from
+ * bytes to characters. The contents are returned as a
+ * <code>CharSequence</code>, which the LaTeX lexer reads directly and
+ * <code>reader()</code> turns into a <code>Reader</code> for the
+ * generated lexers.
+ *
+ * The files are not memory-mapped, because a mapping keeps the file
+ * locked on some platforms until the buffer is garbage collected.
+ */
+public final class FileContents {
+
+    private FileContents() {
+    }
+
+    /**
+     * Reads a file of the workspace using the charset of the file.
+     *
+     * @param file The file
+     * @return The contents of the file
+     * @throws IOException If the file can't be read
+     */
+    public static CharBuffer read(IFile file) throws IOException {
+        Charset charset = getCharset(file);
+        IPath location = file.getLocation();
+        if (location != null) {
+            return read(location.toFile(), charset);
+        }
+        // not in the local file system
+        try {
+            InputStream in = file.getContents();
+            try {
+                return read(in, charset);
+            } finally {
+                in.close();
+            }
+        } catch (CoreException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a file.
+     *
+     * @param file The file
+     * @param charset The charset of the file
+     * @return The contents of the file
+     * @throws IOException If the file can't be read
+     */
+    public static CharBuffer read(File file, Charset charset) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + file);
+            }
+            ByteBuffer bytes = ByteBuffer.allocate((int) size);
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+            }
+            bytes.flip();
+            return decode(bytes, charset);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Opens a buffered reader to a file, for reading a large file
+     * without keeping all of its contents in memory.
+     *
+     * @param file The file
+     * @param charset The charset of the file
+     * @return The reader
+     * @throws IOException If the file can't be opened
+     */
+    public static Reader newReader(File file, Charset charset) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        return new BufferedReader(Channels.newReader(channel, charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE), -1));
+    }
+
+    /**
+     * Reads a stream to the end.
+     */
+    private static CharBuffer read(InputStream in, Charset charset) throws IOException {
+        byte[] buffer = new byte[8192];
+        int length = 0;
+        int read;
+        while ((read = in.read(buffer, length, buffer.length - length)) >= 0) {
+            length += read;
+            if (length == buffer.length) {
+                byte[] b = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, b, 0, length);
+                buffer = b;
+            }
+        }
+        return decode(ByteBuffer.wrap(buffer, 0, length), charset);
+    }
+
+    /**
+     * Decodes the bytes, replacing invalid input like
+     * <code>new String(bytes, charset)</code> does.
+     */
+    private static CharBuffer decode(ByteBuffer bytes, Charset charset) throws IOException {
+        return charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE)
+            .decode(bytes);
+    }
+
+    /**
+     * Returns the charset of a file, or the default charset if the
+     * charset of the file is not available.
+     *
+     * @param file The file
+     * @return The charset
+     */
+    public static Charset getCharset(IFile file) {
+        try {
+            return getCharset(file.getCharset());
+        } catch (CoreException e) {
+            return Charset.defaultCharset();
+        }
+    }
+
+    /**
+     * Returns a charset by name, or the default charset if the name is
+     * null or the charset is not supported.
+     *
+     * @param name The name of the charset
+     * @return The charset
+     */
+    public static Charset getCharset(String name) {
+        if (name != null) {
+            try {
+                return Charset.forName(name);
+            } catch (IllegalCharsetNameException e) {
+                // use the default
+            } catch (UnsupportedCharsetException e) {
+                // use the default
+            }
+        }
+        return Charset.defaultCharset();
+    }
+
+    /**
+     * Returns a reader over a character sequence. Unlike a
+     * <code>StringReader</code>, this does not need a copy of the
+     * characters as a string.
+     *
+     * @param text The characters to read
+     * @return The reader
+     */
+    public static Reader reader(CharSequence text) {
+        return new CharSequenceReader(text);
+    }
+
+    private static final class CharSequenceReader extends Reader {
+
+        private final CharSequence text;
+        private int next;
+
+        CharSequenceReader(CharSequence text) {
+            this.text = text;
+        }
+
+        public int read() {
+            return next < text.length() ? text.charAt(next++) : -1;
+        }
+
+        public int read(char[] cbuf, int off, int len) {
+            int length = text.length();
+            if (next >= length) {
+                return -1;
+            }
+            int n = Math.min(len, length - next);
+            for (int i = 0; i < n; i++) {
+                cbuf[off + i] = text.charAt(next++);
+            }
+            return n;
+        }
+
+        public void close() {
+        }
+    }
+}
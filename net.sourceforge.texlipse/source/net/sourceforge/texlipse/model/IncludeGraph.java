@@ -0,0 +1,278 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sourceforge.texlipse.properties.TexlipseProperties;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.jface.text.Position;
+
+/**
+ * The \input and \include relations between the files of a project.
+ * Each file knows the files it includes (in document order, together with
+ * the name used in the document) and the files that include it, as well
+ * as what its outline showed last. The graph lives as long as the project is
+ * open and is updated from the results of each parse, so the resolved
+ * include names can be reused and a change can be traced to the files
+ * whose full outline it affects.
+ *
+ * The files are identified by their project relative paths. All methods
+ * are synchronized.
+ */
+public class IncludeGraph {
+
+    private static final class Node {
+        // the names as written in the document and the files they resolve to
+        List<String> includeNames = new ArrayList<String>(0);
+        List<String> includes = new ArrayList<String>(0);
+        Set<String> includedBy = new HashSet<String>(2);
+        // the outline as flattened by flattenOutline(), or null
+        List<String> outlineNames;
+        int[] outlineValues;
+    }
+
+    private final Map<String, Node> nodes = new HashMap<String, Node>();
+
+    /**
+     * Returns the include graph of the given project, creating it if necessary.
+     *
+     * @param project The project
+     * @return The include graph of the project
+     */
+    public static IncludeGraph getIncludeGraph(IProject project) {
+        synchronized (IncludeGraph.class) {
+            IncludeGraph graph = (IncludeGraph) TexlipseProperties.getSessionProperty(project,
+                    TexlipseProperties.SESSION_INCLUDE_GRAPH);
+            if (graph == null) {
+                graph = new IncludeGraph();
+                TexlipseProperties.setSessionProperty(project,
+                        TexlipseProperties.SESSION_INCLUDE_GRAPH, graph);
+            }
+            return graph;
+        }
+    }
+
+    private Node getNode(String file) {
+        Node node = nodes.get(file);
+        if (node == null) {
+            node = new Node();
+            nodes.put(file, node);
+        }
+        return node;
+    }
+
+    /**
+     * Replaces the forward edges of the given file.
+     *
+     * @param file The including file
+     * @param names The names of the included files as written in the document
+     * @param includes The files the names resolve to, null for names that
+     *  could not be resolved
+     * @return True if the included files changed
+     */
+    public synchronized boolean setIncludes(String file, List<String> names, List<String> includes) {
+        Node node = getNode(file);
+        if (node.includes.equals(includes) && node.includeNames.equals(names)) {
+            return false;
+        }
+        for (String old : node.includes) {
+            if (old != null && !includes.contains(old)) {
+                getNode(old).includedBy.remove(file);
+            }
+        }
+        for (String inc : includes) {
+            if (inc != null) {
+                getNode(inc).includedBy.add(file);
+            }
+        }
+        node.includeNames = new ArrayList<String>(names);
+        node.includes = new ArrayList<String>(includes);
+        return true;
+    }
+
+    /**
+     * Records a single resolved include of the given file, keeping the
+     * other edges.
+     *
+     * @param file The including file
+     * @param name The name of the included file as written in the document
+     * @param include The file the name resolves to, or null
+     */
+    public synchronized void addInclude(String file, String name, String include) {
+        Node node = getNode(file);
+        int i = node.includeNames.indexOf(name);
+        if (i >= 0) {
+            String old = node.includes.get(i);
+            if (old == null ? include == null : old.equals(include))
+                return;
+            node.includes.set(i, include);
+            if (old != null && !node.includes.contains(old)) {
+                getNode(old).includedBy.remove(file);
+            }
+        } else {
+            node.includeNames.add(name);
+            node.includes.add(include);
+        }
+        if (include != null) {
+            getNode(include).includedBy.add(file);
+        }
+    }
+
+    /**
+     * Returns the file that the given name was resolved to when it was
+     * included from the given file.
+     *
+     * @param file The including file
+     * @param name The name as written in the document
+     * @return The included file or null if the name is not known or could
+     *  not be resolved
+     */
+    public synchronized String getInclude(String file, String name) {
+        Node node = nodes.get(file);
+        if (node == null)
+            return null;
+        int i = node.includeNames.indexOf(name);
+        return i >= 0 ? node.includes.get(i) : null;
+    }
+
+    /**
+     * @param file A file
+     * @return The files directly included by the given file, in document order
+     */
+    public synchronized List<String> getIncludes(String file) {
+        Node node = nodes.get(file);
+        List<String> result = new ArrayList<String>();
+        if (node != null) {
+            for (String inc : node.includes) {
+                if (inc != null)
+                    result.add(inc);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param file A file
+     * @return The files directly including the given file
+     */
+    public synchronized Set<String> getIncludedBy(String file) {
+        Node node = nodes.get(file);
+        return node != null ? new HashSet<String>(node.includedBy) : new HashSet<String>(0);
+    }
+
+    /**
+     * Returns the given file and all the files that include it directly
+     * or indirectly.
+     *
+     * @param file A file
+     * @return The file and its ancestors
+     */
+    public synchronized Set<String> getAncestors(String file) {
+        Set<String> result = new HashSet<String>();
+        LinkedList<String> queue = new LinkedList<String>();
+        queue.add(file);
+        while (!queue.isEmpty()) {
+            String f = queue.removeFirst();
+            if (result.add(f)) {
+                Node node = nodes.get(f);
+                if (node != null) {
+                    queue.addAll(node.includedBy);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether a change in the given file shows in the document
+     * of the given main file.
+     *
+     * @param file The changed file
+     * @param mainFile The main file of the project
+     * @return True if the main file includes the file (or is the file)
+     */
+    public boolean affects(String file, String mainFile) {
+        return getAncestors(file).contains(mainFile);
+    }
+
+    /**
+     * Stores the outline of the given file.
+     *
+     * @param file A file
+     * @param outline The top level nodes of the file's outline
+     * @return True if the outline differs from the previously stored one
+     */
+    public synchronized boolean updateOutline(String file, List<OutlineNode> outline) {
+        List<String> names = new ArrayList<String>();
+        List<Integer> values = new ArrayList<Integer>();
+        flattenOutline(outline, names, values);
+        int[] valueArray = new int[values.size()];
+        for (int i = 0; i < valueArray.length; i++) {
+            valueArray[i] = values.get(i);
+        }
+        Node node = getNode(file);
+        if (node.outlineValues != null && Arrays.equals(node.outlineValues, valueArray)
+                && node.outlineNames.equals(names)) {
+            return false;
+        }
+        node.outlineNames = names;
+        node.outlineValues = valueArray;
+        return true;
+    }
+
+    /**
+     * Forgets the stored outline of the given file, so that the next
+     * update is considered a change.
+     *
+     * @param file A file
+     */
+    public synchronized void invalidate(String file) {
+        Node node = nodes.get(file);
+        if (node != null) {
+            node.outlineNames = null;
+            node.outlineValues = null;
+        }
+    }
+
+    /**
+     * Lists everything in an outline that is shown in the full outline,
+     * in the order of a depth-first walk. For each node the name is added
+     * to <code>names</code>, and the type, the lines, the position and
+     * the number of children to <code>values</code>, so that two outlines
+     * are the same exactly when both lists are.
+     */
+    private static void flattenOutline(List<OutlineNode> outline, List<String> names,
+            List<Integer> values) {
+        if (outline == null)
+            return;
+        for (OutlineNode node : outline) {
+            names.add(node.getName());
+            values.add(node.getType());
+            values.add(node.getBeginLine());
+            values.add(node.getEndLine());
+            Position position = node.getPosition();
+            values.add(position != null ? position.getOffset() : -1);
+            values.add(position != null ? position.getLength() : -1);
+            values.add(node.getOffsetOnLine());
+            List<OutlineNode> children = node.getChildren();
+            values.add(children != null ? children.size() : 0);
+            flattenOutline(children, names, values);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.model;
+
+/**
+ * The start offsets of the lines of a text. The table is built once with
+ * a single pass over the text, after which lines can be fetched without
+ * reading the text from the beginning. Lines end with \n, \r or \r\n,
+ * like in <code>BufferedReader.readLine()</code>. Line numbers start
+ * from 0.
+ *
+ * Instances are immutable.
+ */
+public final class LineIndex {
+
+    private final String text;
+    private final int[] lineStarts;
+    private final int lineCount;
+
+    /**
+     * Creates the line table of the given text.
+     *
+     * @param text The text
+     */
+    public LineIndex(String text) {
+        this.text = text;
+        int length = text.length();
+        int[] starts = new int[Math.max(16, length / 32)];
+        int count = 0;
+        if (length > 0) {
+            starts[count++] = 0;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '\r' || c == '\n') {
+                if (c == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                if (i + 1 < length) {
+                    if (count == starts.length) {
+                        int[] s = new int[count * 2];
+                        System.arraycopy(starts, 0, s, 0, count);
+                        starts = s;
+                    }
+                    starts[count++] = i + 1;
+                }
+            }
+        }
+        this.lineStarts = starts;
+        this.lineCount = count;
+    }
+
+    /**
+     * @return The text
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return The number of lines in the text
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @param line The line number
+     * @return The offset of the first character of the line
+     */
+    public int getLineOffset(int line) {
+        return lineStarts[line];
+    }
+
+    /**
+     * Returns the line containing the given offset.
+     *
+     * @param offset An offset in the text
+     * @return The line number
+     */
+    public int getLineOfOffset(int offset) {
+        int low = 0;
+        int high = lineCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (lineStarts[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the offset after the last character of the line, not
+     * including the line delimiter.
+     *
+     * @param line The line number
+     * @return The end offset of the line
+     */
+    public int getLineEnd(int line) {
+        int start = lineStarts[line];
+        int end = line + 1 < lineCount ? lineStarts[line + 1] : text.length();
+        if (end > start && text.charAt(end - 1) == '\n') {
+            end--;
+            if (end > start && text.charAt(end - 1) == '\r') {
+                end--;
+            }
+        } else if (end > start && text.charAt(end - 1) == '\r') {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * @param line The line number
+     * @return The line without the line delimiter
+     */
+    public String getLine(int line) {
+        return text.substring(lineStarts[line], getLineEnd(line));
+    }
+
+    /**
+     * Returns the given lines, each followed by the system's line
+     * separator. Lines outside the text are skipped.
+     *
+     * @param first The first line
+     * @param last The last line (inclusive)
+     * @return The lines
+     */
+    public String getLines(int first, int last) {
+        first = Math.max(first, 0);
+        last = Math.min(last, lineCount - 1);
+        String separator = System.getProperty("line.separator");
+        StringBuilder extract = new StringBuilder();
+        for (int i = first; i <= last; i++) {
+            extract.append(text, lineStarts[i], getLineEnd(i));
+            extract.append(separator);
+        }
+        return extract.toString();
+    }
+
+    /**
+     * Returns the offset where the lines given to <code>getLines()</code>
+     * start in the text.
+     *
+     * @param first The first line
+     * @return The offset of the first line inside the text
+     */
+    public int getLinesStart(int first) {
+        first = Math.max(first, 0);
+        return first < lineCount ? lineStarts[first] : text.length();
+    }
+
+    /**
+     * Returns the offset where the lines given to <code>getLines()</code>
+     * end in the text, including the delimiter of the last line. The lines
+     * of the text between <code>getLinesStart()</code> and this offset are
+     * the same lines.
+     *
+     * @param last The last line (inclusive)
+     * @return The offset after the last line inside the text
+     */
+    public int getLinesEnd(int last) {
+        last = Math.min(last, lineCount - 1);
+        return last + 1 < lineCount ? lineStarts[Math.max(last + 1, 0)] : text.length();
+    }
+}
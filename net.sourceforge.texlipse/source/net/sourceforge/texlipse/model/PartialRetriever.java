@@ -35,7 +35,7 @@ public abstract class PartialRetriever {
      */
     public static int getEntry(String entryname, List<? extends AbstractEntry> entries, boolean lowerCase){
         if (entries == null || entries.size() == 0) return -1;
-        String lEntryname = entryname.toLowerCase();
+        String lEntryname = lowerCase ? entryname.toLowerCase() : entryname;
         
         int start = 0;
         int end = entries.size();
@@ -67,6 +67,106 @@ public abstract class PartialRetriever {
         }
     }
 
+    /**
+     * Compares a lower case key with a key that is converted to lower case
+     * one character at a time, without creating any objects. This gives
+     * the same result as comparing with <code>key.toLowerCase()</code> if
+     * the key contains only ASCII characters and the default locale does
+     * not convert them differently.
+     * 
+     * @param lowerCaseKey A key in lower case
+     * @param key The key to compare with, in any case
+     * @return A negative number, zero or a positive number if
+     *  <code>lowerCaseKey</code> is smaller, equal to or greater than the
+     *  lower case <code>key</code>
+     */
+    public static int compareIgnoreCase(String lowerCaseKey, String key) {
+        int n = Math.min(lowerCaseKey.length(), key.length());
+        for (int i = 0; i < n; i++) {
+            char c1 = lowerCaseKey.charAt(i);
+            char c2 = toLowerCase(key.charAt(i));
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+        return lowerCaseKey.length() - key.length();
+    }
+    
+    private static char toLowerCase(char c) {
+        if (c < 0x80) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(c);
+    }
+    
+    /**
+     * Tests if a lower case key starts with the given prefix, converting
+     * the prefix like <code>compareIgnoreCase()</code>.
+     */
+    private static boolean startsWithIgnoreCase(String lowerCaseKey, String prefix) {
+        if (lowerCaseKey.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (lowerCaseKey.charAt(i) != toLowerCase(prefix.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Returns the position of the first key in the sorted array that is not
+     * smaller than the given key, ignoring its case. Does not create any
+     * objects, so this can be used on each keystroke.
+     * 
+     * @param keys Sorted array of lower case keys
+     * @param from The first position to search (inclusive)
+     * @param to The last position to search (exclusive)
+     * @param key The key to look for, compared like in
+     *  <code>compareIgnoreCase()</code>
+     * @return The position of the first key &gt;= <code>key</code>, or
+     *  <code>to</code> if all keys are smaller
+     */
+    public static int lowerBound(String[] keys, int from, int to, String key) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (compareIgnoreCase(keys[middle], key) < 0) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+    
+    /**
+     * Returns the end of the run of keys starting with the given prefix,
+     * ignoring its case. The keys between <code>from</code> and
+     * <code>to</code> must not be smaller than <code>prefix</code>, so
+     * <code>from</code> is usually the result of <code>lowerBound()</code>.
+     * Does not create any objects.
+     * 
+     * @param keys Sorted array of lower case keys
+     * @param from The first position of the run (inclusive)
+     * @param to The last position to search (exclusive)
+     * @param prefix The prefix of the keys, compared like in
+     *  <code>compareIgnoreCase()</code>
+     * @return The position (exclusive) of the last key starting with
+     *  <code>prefix</code>, equal to <code>from</code> if there is none
+     */
+    public static int prefixEnd(String[] keys, int from, int to, String prefix) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (startsWithIgnoreCase(keys[middle], prefix)) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
     /**
      * Search the given (sorted) array of entries for all entries,
      * for which the start of the key matches the given search string.
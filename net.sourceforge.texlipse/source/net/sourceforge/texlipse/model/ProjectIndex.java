@@ -0,0 +1,465 @@
+/*
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import net.sourceforge.texlipse.TexlipsePlugin;
+import net.sourceforge.texlipse.texparser.LatexExtractor;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+
+/**
+ * Persistent index of the labels, commands and BibTeX entries of the files
+ * of a project. The index is stored in the plugin state location and each
+ * file is keyed by its path and modification stamp, so that after a restart
+ * only the files that have changed need to be parsed again.
+ *
+ * The index does not keep the text of the files. The info of a label is
+ * stored only if it has already been created, otherwise the range of the
+ * lines around the label is stored and the lines are read from the file
+ * when they are needed.
+ */
+public class ProjectIndex {
+
+    private static final String INDEX_DIR = "index";
+    private static final int VERSION = 3;
+
+    /**
+     * The data extracted from a LaTeX file by <code>LatexExtractor</code>.
+     * The data can't be changed, the getters return copies.
+     */
+    public static final class TexFileData {
+        private long stamp;
+        private List<ReferenceEntry> labels;
+        private List<TexCommandEntry> commands;
+        private String[] bibs;
+        private String bibstyle;
+        private boolean biblatexMode;
+        private String biblatexBackend;
+        private String preamble;
+
+        /**
+         * @return Copies of the labels of the file
+         */
+        public List<ReferenceEntry> getLabels() {
+            return copyEntries(labels);
+        }
+        /**
+         * @return Copies of the commands defined in the file
+         */
+        public List<TexCommandEntry> getCommands() {
+            return copyCommands(commands);
+        }
+        /**
+         * @return The bibliography files
+         */
+        public String[] getBibs() {
+            return bibs.clone();
+        }
+        /**
+         * @return The bibliography style, or null
+         */
+        public String getBibstyle() {
+            return bibstyle;
+        }
+        /**
+         * @return Whether biblatex mode is activated
+         */
+        public boolean isBiblatexMode() {
+            return biblatexMode;
+        }
+        /**
+         * @return The selected biblatex backend, or null
+         */
+        public String getBiblatexBackend() {
+            return biblatexBackend;
+        }
+        /**
+         * @return The preamble, or null
+         */
+        public String getPreamble() {
+            return preamble;
+        }
+    }
+
+    /**
+     * The entries of a BibTeX file.
+     */
+    private static final class BibFileData {
+        private long stamp;
+        private long length;
+        private List<ReferenceEntry> entries;
+    }
+
+    private final IProject project;
+    private final File indexFile;
+    private final Map<String, TexFileData> texFiles;
+    private final Map<String, BibFileData> bibFiles;
+    private boolean dirty;
+
+    private ProjectIndex(IProject project, File indexFile) {
+        this.project = project;
+        this.indexFile = indexFile;
+        this.texFiles = new HashMap<String, TexFileData>();
+        this.bibFiles = new HashMap<String, BibFileData>();
+        this.dirty = false;
+    }
+
+    /**
+     * Loads the index of the given project from the plugin state location.
+     * If there is no index yet, or it can't be read, an empty index is
+     * returned.
+     *
+     * @param project The project
+     * @return The index of the project
+     */
+    public static ProjectIndex load(IProject project) {
+        IPath dir = TexlipsePlugin.getDefault().getStateLocation().append(INDEX_DIR);
+        ProjectIndex index = new ProjectIndex(project, dir.append(project.getName() + ".idx").toFile());
+        if (index.indexFile.exists()) {
+            try {
+                index.read();
+            } catch (IOException e) {
+                // a broken index is simply rebuilt
+                index.texFiles.clear();
+                index.bibFiles.clear();
+                index.dirty = true;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the indexed data of the given LaTeX file, if the file has not
+     * been modified since it was indexed.
+     *
+     * @param file A LaTeX file of the project
+     * @return The indexed data or null if the file needs to be parsed
+     */
+    public synchronized TexFileData getTexFile(IResource file) {
+        TexFileData data = texFiles.get(file.getProjectRelativePath().toString());
+        if (data != null && data.stamp == file.getModificationStamp()) {
+            return data;
+        }
+        return null;
+    }
+
+    /**
+     * Stores the results of extracting the given LaTeX file. The labels
+     * and commands are copied, since the extraction may be shared, and
+     * the editor of the file takes it over and keeps updating it.
+     *
+     * @param file The parsed file
+     * @param lrep The extraction of the file
+     * @return The data now in the index for the file
+     */
+    public synchronized TexFileData putTexFile(IResource file, LatexExtractor lrep) {
+        TexFileData data = new TexFileData();
+        data.stamp = file.getModificationStamp();
+        data.labels = new ArrayList<ReferenceEntry>(lrep.getLabels().size());
+        for (ReferenceEntry label : lrep.getLabels()) {
+            data.labels.add(label.copyLabel((IFile) file, data.stamp));
+        }
+        data.commands = copyCommands(lrep.getCommands());
+        data.bibs = lrep.getBibs();
+        data.bibstyle = lrep.getBibstyle();
+        data.biblatexMode = lrep.isBiblatexMode();
+        data.biblatexBackend = lrep.getBiblatexBackend();
+        data.preamble = lrep.getPreamble();
+        texFiles.put(file.getProjectRelativePath().toString(), data);
+        dirty = true;
+        return data;
+    }
+
+    /**
+     * Returns the indexed entries of a BibTeX file, if the file has not
+     * been modified since it was indexed.
+     *
+     * @param path The absolute path of the BibTeX file
+     * @return The entries or null if the file needs to be parsed
+     */
+    public synchronized List<ReferenceEntry> getBibFile(String path) {
+        BibFileData data = bibFiles.get(path);
+        File file = new File(path);
+        if (data != null && data.stamp == file.lastModified()
+                && data.length == file.length()) {
+            return copyEntries(data.entries);
+        }
+        return null;
+    }
+
+    /**
+     * Stores the entries of a parsed BibTeX file.
+     *
+     * @param path The absolute path of the BibTeX file
+     * @param entries The entries of the file
+     */
+    public synchronized void putBibFile(String path, List<ReferenceEntry> entries) {
+        BibFileData data = new BibFileData();
+        File file = new File(path);
+        data.stamp = file.lastModified();
+        data.length = file.length();
+        data.entries = copyEntries(entries);
+        bibFiles.put(path, data);
+        dirty = true;
+    }
+
+    /**
+     * Removes the LaTeX files that no longer belong to the project.
+     *
+     * @param files The current files of the project
+     */
+    public synchronized void retainTexFiles(IResource[] files) {
+        Map<String, TexFileData> current = new HashMap<String, TexFileData>();
+        for (IResource file : files) {
+            String path = file.getProjectRelativePath().toString();
+            TexFileData data = texFiles.get(path);
+            if (data != null) {
+                current.put(path, data);
+            }
+        }
+        if (current.size() != texFiles.size()) {
+            texFiles.clear();
+            texFiles.putAll(current);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the index to disk, if it has changed.
+     */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        try {
+            write();
+            dirty = false;
+        } catch (IOException e) {
+            TexlipsePlugin.log("Unable to write project index " + indexFile, e);
+        }
+    }
+
+    /**
+     * The containers keep and change the entries they are given, so callers
+     * receive copies and the index keeps its own.
+     */
+    private static List<ReferenceEntry> copyEntries(List<ReferenceEntry> entries) {
+        List<ReferenceEntry> copy = new ArrayList<ReferenceEntry>(entries.size());
+        for (ReferenceEntry entry : entries) {
+            copy.add((ReferenceEntry) entry.copy());
+        }
+        return copy;
+    }
+
+    private static List<TexCommandEntry> copyCommands(List<TexCommandEntry> commands) {
+        List<TexCommandEntry> copy = new ArrayList<TexCommandEntry>(commands.size());
+        for (TexCommandEntry command : commands) {
+            TexCommandEntry c = new TexCommandEntry(command);
+            c.startLine = command.startLine;
+            c.fileName = command.fileName;
+            c.position = command.position;
+            copy.add(c);
+        }
+        return copy;
+    }
+
+    private void read() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(indexFile)));
+        try {
+            if (in.readInt() != VERSION) {
+                dirty = true;
+                return;
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                String path = readString(in);
+                TexFileData data = new TexFileData();
+                data.stamp = in.readLong();
+                int labelCount = in.readInt();
+                data.labels = new ArrayList<ReferenceEntry>(labelCount);
+                for (int i = 0; i < labelCount; i++) {
+                    ReferenceEntry label = new ReferenceEntry(readString(in));
+                    label.startLine = in.readInt();
+                    label.setPosition(in.readInt(), in.readInt());
+                    label.info = readString(in);
+                    int start = in.readInt();
+                    int end = in.readInt();
+                    if (label.info == null) {
+                        label.setLabelInfo(project.getFile(new Path(path)), data.stamp, start, end);
+                    }
+                    data.labels.add(label);
+                }
+                int commandCount = in.readInt();
+                data.commands = new ArrayList<TexCommandEntry>(commandCount);
+                for (int i = 0; i < commandCount; i++) {
+                    TexCommandEntry command = new TexCommandEntry(readString(in), "", 0);
+                    command.info = readString(in);
+                    command.arguments = in.readInt();
+                    command.startLine = in.readInt();
+                    data.commands.add(command);
+                }
+                data.bibs = new String[in.readInt()];
+                for (int i = 0; i < data.bibs.length; i++) {
+                    data.bibs[i] = readString(in);
+                }
+                data.bibstyle = readString(in);
+                data.biblatexMode = in.readBoolean();
+                data.biblatexBackend = readString(in);
+                data.preamble = readString(in);
+                texFiles.put(path, data);
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                String path = readString(in);
+                BibFileData data = new BibFileData();
+                data.stamp = in.readLong();
+                data.length = in.readLong();
+                int entryCount = in.readInt();
+                data.entries = new ArrayList<ReferenceEntry>(entryCount);
+                for (int i = 0; i < entryCount; i++) {
+                    ReferenceEntry entry = new ReferenceEntry(readString(in), readString(in));
+                    entry.startLine = in.readInt();
+                    entry.endLine = in.readInt();
+                    entry.author = readString(in);
+                    entry.journal = readString(in);
+                    entry.year = readString(in);
+                    String refFile = readString(in);
+                    if (refFile != null) {
+                        entry.refFile = new File(refFile);
+                    }
+                    if (in.readBoolean()) {
+                        entry.setPosition(in.readInt(), in.readInt());
+                    }
+                    data.entries.add(entry);
+                }
+                bibFiles.put(path, data);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void write() throws IOException {
+        File dir = indexFile.getParentFile();
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        // write to a temporary file first, so a failure does not leave a broken index
+        File tmpFile = new File(dir, indexFile.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmpFile)));
+        try {
+            out.writeInt(VERSION);
+            out.writeInt(texFiles.size());
+            for (Iterator<Map.Entry<String, TexFileData>> iter = texFiles.entrySet().iterator(); iter.hasNext();) {
+                Map.Entry<String, TexFileData> e = iter.next();
+                TexFileData data = e.getValue();
+                writeString(out, e.getKey());
+                out.writeLong(data.stamp);
+                out.writeInt(data.labels.size());
+                for (ReferenceEntry label : data.labels) {
+                    writeString(out, label.key);
+                    out.writeInt(label.startLine);
+                    out.writeInt(label.position != null ? label.position.getOffset() : 0);
+                    out.writeInt(label.position != null ? label.position.getLength() : 0);
+                    // don't create the infos that have not been needed
+                    writeString(out, label.info);
+                    out.writeInt(label.labelInfoStart);
+                    out.writeInt(label.labelInfoEnd);
+                }
+                out.writeInt(data.commands.size());
+                for (TexCommandEntry command : data.commands) {
+                    writeString(out, command.key);
+                    writeString(out, command.info);
+                    out.writeInt(command.arguments);
+                    out.writeInt(command.startLine);
+                }
+                out.writeInt(data.bibs.length);
+                for (String bib : data.bibs) {
+                    writeString(out, bib);
+                }
+                writeString(out, data.bibstyle);
+                out.writeBoolean(data.biblatexMode);
+                writeString(out, data.biblatexBackend);
+                writeString(out, data.preamble);
+            }
+            out.writeInt(bibFiles.size());
+            for (Iterator<Map.Entry<String, BibFileData>> iter = bibFiles.entrySet().iterator(); iter.hasNext();) {
+                Map.Entry<String, BibFileData> e = iter.next();
+                BibFileData data = e.getValue();
+                writeString(out, e.getKey());
+                out.writeLong(data.stamp);
+                out.writeLong(data.length);
+                out.writeInt(data.entries.size());
+                for (ReferenceEntry entry : data.entries) {
+                    writeString(out, entry.key);
+                    writeString(out, entry.info);
+                    out.writeInt(entry.startLine);
+                    out.writeInt(entry.endLine);
+                    writeString(out, entry.author);
+                    writeString(out, entry.journal);
+                    writeString(out, entry.year);
+                    writeString(out, entry.refFile != null ? entry.refFile.getPath() : null);
+                    out.writeBoolean(entry.position != null);
+                    if (entry.position != null) {
+                        out.writeInt(entry.position.getOffset());
+                        out.writeInt(entry.position.getLength());
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (indexFile.exists() && !indexFile.delete() || !tmpFile.renameTo(indexFile)) {
+            throw new IOException("Can't replace " + indexFile);
+        }
+    }
+
+    /**
+     * Writes a possibly null string of any length (<code>writeUTF()</code>
+     * is limited to 64k).
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.model;
+
+import java.util.List;
+
+import net.sourceforge.texlipse.properties.TexlipseProperties;
+
+import org.eclipse.core.resources.IProject;
+
+/**
+ * Publishes snapshots of the project model. The containers are updated
+ * by the parse jobs of the editors and by the builder; after each update
+ * a new <code>ProjectModelSnapshot</code> is published atomically. Content
+ * assist, hovers and other readers take the current snapshot and use it
+ * without locking.
+ */
+public class ProjectModel {
+
+    private volatile ProjectModelSnapshot snapshot;
+
+    /**
+     * Creates a new model with an empty snapshot.
+     */
+    public ProjectModel() {
+        snapshot = new ProjectModelSnapshot(0, SortedReferences.EMPTY, SortedReferences.EMPTY,
+                TexCommandContainer.getBuiltInSnapshot(), null);
+    }
+
+    /**
+     * Returns the model of the given project, creating it if necessary.
+     * 
+     * @param project The project
+     * @return The model of the project
+     */
+    public static ProjectModel getProjectModel(IProject project) {
+        synchronized (ProjectModel.class) {
+            ProjectModel model = (ProjectModel) TexlipseProperties.getSessionProperty(project,
+                    TexlipseProperties.SESSION_PROJECT_MODEL);
+            if (model == null) {
+                model = new ProjectModel();
+                TexlipseProperties.setSessionProperty(project,
+                        TexlipseProperties.SESSION_PROJECT_MODEL, model);
+            }
+            return model;
+        }
+    }
+
+    /**
+     * Publishes a new snapshot of the given project's containers. Used
+     * when the containers have been changed outside of the editors, e.g.
+     * by the builder.
+     * 
+     * @param project The project
+     */
+    public static void update(IProject project) {
+        getProjectModel(project).publish(
+                (ReferenceContainer) TexlipseProperties.getSessionProperty(project,
+                        TexlipseProperties.BIBCONTAINER_PROPERTY),
+                (ReferenceContainer) TexlipseProperties.getSessionProperty(project,
+                        TexlipseProperties.LABELCONTAINER_PROPERTY),
+                (TexCommandContainer) TexlipseProperties.getSessionProperty(project,
+                        TexlipseProperties.COMCONTAINER_PROPERTY),
+                null);
+    }
+
+    /**
+     * @return The latest published snapshot, never null
+     */
+    public ProjectModelSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Publishes a new snapshot containing the organized data of the given
+     * containers. The parts given as null are taken from the previous
+     * snapshot.
+     * 
+     * @param bibs The BibTeX container
+     * @param labels The label container
+     * @param commands The command container
+     * @param fullOutline The new full document outline
+     * @return The published snapshot
+     */
+    public synchronized ProjectModelSnapshot publish(ReferenceContainer bibs, ReferenceContainer labels,
+            TexCommandContainer commands, List<OutlineNode> fullOutline) {
+        ProjectModelSnapshot old = snapshot;
+        SortedReferences bibRefs = bibs != null ? bibs.getSnapshot() : null;
+        SortedReferences labelRefs = labels != null ? labels.getSnapshot() : null;
+        snapshot = new ProjectModelSnapshot(old.getVersion() + 1,
+                bibRefs != null ? bibRefs : old.getBibs(),
+                labelRefs != null ? labelRefs : old.getLabels(),
+                commands != null ? commands.getSnapshot() : old.getAllCommands(),
+                fullOutline != null ? fullOutline : old.getFullOutline());
+        return snapshot;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.model;
+
+import java.util.List;
+
+/**
+ * An immutable view of the project model: the BibTeX entries, the labels,
+ * the commands and the full document outline as they were after a parse.
+ * Snapshots are published by <code>ProjectModel</code> and can be read
+ * from any thread without locking. All the data of a snapshot belongs to
+ * the same version, so readers never see some containers updated and
+ * others not.
+ */
+public final class ProjectModelSnapshot {
+
+    private final long version;
+    private final SortedReferences bibs;
+    private final SortedReferences labels;
+    private final List<List<TexCommandEntry>> commands;
+    private final List<OutlineNode> fullOutline;
+
+    ProjectModelSnapshot(long version, SortedReferences bibs, SortedReferences labels,
+            List<List<TexCommandEntry>> commands, List<OutlineNode> fullOutline) {
+        this.version = version;
+        this.bibs = bibs;
+        this.labels = labels;
+        this.commands = commands;
+        this.fullOutline = fullOutline;
+    }
+
+    /**
+     * @return The version of this snapshot, larger for newer snapshots
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The BibTeX entries
+     */
+    public SortedReferences getBibs() {
+        return bibs;
+    }
+
+    /**
+     * @return The labels
+     */
+    public SortedReferences getLabels() {
+        return labels;
+    }
+
+    /**
+     * @param context The context of the commands
+     * @return The sorted commands of the given context
+     */
+    public List<TexCommandEntry> getCommands(int context) {
+        return commands.get(context - 1);
+    }
+
+    List<List<TexCommandEntry>> getAllCommands() {
+        return commands;
+    }
+
+    /**
+     * @return The full document outline or null if it has not been created
+     */
+    public List<OutlineNode> getFullOutline() {
+        return fullOutline;
+    }
+}
@@ -10,6 +10,7 @@
 package net.sourceforge.texlipse.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -23,20 +24,75 @@ import java.util.Map;
  * lists of each file as well as a (case insensitive) sorted array of all references, so that
  * not all files need to be reparsed when the data changes.
  * 
+ * The reference list of each file is kept sorted, so when only a few files
+ * have changed, <code>organize()</code> replaces their entries in the
+ * sorted array using binary searches instead of sorting all references again.
+ * The sorted array is never modified after it has been published, see
+ * <code>SortedReferences</code>, so all the changes are merged into a
+ * single new copy of it.
+ * 
+ * When a single file is updated with <code>updateRefSource()</code>, its
+ * new entries are compared by key and content hash to the old ones, and
+ * only the added, removed, changed and moved entries are replaced in the
+ * sorted lists. Saving a large BibTeX file after editing one entry thus
+ * doesn't touch the entries before it.
+ * 
  * @author Oskar Ojala
  * @author Boris von Loesch
  */
 public class ReferenceContainer {
 
+    /**
+     * Case insensitive ordering of the references.
+     */
+    private static final Comparator<ReferenceEntry> COMPARATOR = new Comparator<ReferenceEntry>() {
+        public int compare(ReferenceEntry o1, ReferenceEntry o2) {
+            return o1.getkey(true).compareTo(o2.getkey(true));
+        }
+    };
+    
+    /**
+     * If more than this many files have changed, it is faster to sort everything again
+     */
+    private static final int MAX_INCREMENTAL_SOURCES = 8;
+    
     private Map<String, List<ReferenceEntry>> referenceHash;
-    private List<ReferenceEntry> sortedReferences;
+    private volatile SortedReferences sortedReferences;
     private int size;
     
+    /**
+     * The reference lists that have been replaced since the last
+     * <code>organize()</code>, ie. the ones that are still in the sorted array
+     */
+    private Map<String, List<ReferenceEntry>> replacedSources;
+    
+    /**
+     * The entries of the sources that have been updated entry by entry,
+     * by source and key
+     */
+    private Map<String, Map<String, IndexedEntry>> entryIndex;
+    
+    /**
+     * The single entries that have been removed and added since the last
+     * <code>organize()</code>
+     */
+    private List<ReferenceEntry> removedEntries;
+    private List<ReferenceEntry> addedEntries;
+    
+    /**
+     * Index for substring and fuzzy completions, created when first needed
+     */
+    private CompletionIndex<ReferenceEntry> completionIndex;
+    
     /**
      * Creates a new reference container and initializes its datastructures.
      */
     public ReferenceContainer() {
         referenceHash = new HashMap<String, List<ReferenceEntry>>(4);
+        replacedSources = new HashMap<String, List<ReferenceEntry>>(4);
+        entryIndex = new HashMap<String, Map<String, IndexedEntry>>(4);
+        removedEntries = new ArrayList<ReferenceEntry>();
+        addedEntries = new ArrayList<ReferenceEntry>();
         sortedReferences = null;
         size = 0;
     }
@@ -49,7 +105,7 @@ public class ReferenceContainer {
      * @param key The key associated with these references in the internal set
      * @param refs The references to store
      */
-    public void addRefSource(String key, List<ReferenceEntry> refs) {
+    public synchronized void addRefSource(String key, List<ReferenceEntry> refs) {
     	if (key != null && key.endsWith(".aux")) {
         	// Avoid duplicates
         	Iterator<ReferenceEntry> it = refs.iterator();
@@ -66,10 +122,27 @@ public class ReferenceContainer {
     	    r.fileName = key;
         }
     	
-        size += refs.size();
-        List<ReferenceEntry> al = referenceHash.put(key, refs);
+    	List<ReferenceEntry> sorted = new ArrayList<ReferenceEntry>(refs);
+    	Collections.sort(sorted, COMPARATOR);
+    	
+        size += sorted.size();
+        List<ReferenceEntry> al = referenceHash.put(key, sorted);
         if (al != null)
             size -= al.size();
+        sourceReplaced(key, al);
+        entryIndex.remove(key);
+    }
+    
+    /**
+     * Remembers the reference list that is in the sorted array for the given key.
+     * 
+     * @param key The key of the replaced source
+     * @param old The replaced list, or null if the key is new
+     */
+    private void sourceReplaced(String key, List<ReferenceEntry> old) {
+        if (sortedReferences != null && !replacedSources.containsKey(key)) {
+            replacedSources.put(key, old);
+        }
     }
         
     /**
@@ -81,47 +154,332 @@ public class ReferenceContainer {
      * method is suitable for use by the BibTeX editor to update
      * the BibTeX references in case these are used by the LaTeX editor.
      * 
+     * Only the entries that were added, removed, changed or moved are
+     * replaced. The entries that did not change are kept; an entry that
+     * only moved is replaced by a copy with the new position, since the
+     * old one may be read from a published snapshot.
+     * 
      * @param key The key with which to associate the reference source
      * @param refs The reference source
      * @return True if the internal set was changed
      */
-    public boolean updateRefSource(String key, List<ReferenceEntry> refs) {
+    public synchronized boolean updateRefSource(String key, List<ReferenceEntry> refs) {
         if (referenceHash.containsKey(key)) {
-            this.addRefSource(key, refs);
+            // .aux sources are filtered against the other references
+            if (key.endsWith(".aux") || !updateEntries(key, refs)) {
+                this.addRefSource(key, refs);
+            }
             this.organize();
             return true;
         }
         return false;
     }
+    
+    /**
+     * Replaces the entries of a source that differ from the given ones.
+     * 
+     * @param key The key of the source
+     * @param refs The new references of the source
+     * @return False if the source has duplicate keys and must be replaced
+     *  as a whole
+     */
+    private boolean updateEntries(String key, List<ReferenceEntry> refs) {
+        Map<String, IndexedEntry> index = entryIndex.get(key);
+        if (index == null) {
+            index = createIndex(referenceHash.get(key));
+            if (index == null)
+                return false;
+        }
+        Map<String, IndexedEntry> newIndex = createIndex(refs);
+        if (newIndex == null) {
+            entryIndex.remove(key);
+            return false;
+        }
+        
+        List<ReferenceEntry> removed = new ArrayList<ReferenceEntry>();
+        List<ReferenceEntry> added = new ArrayList<ReferenceEntry>();
+        for (Map.Entry<String, IndexedEntry> e : newIndex.entrySet()) {
+            IndexedEntry ie = e.getValue();
+            IndexedEntry old = index.get(e.getKey());
+            if (old != null && old.hash == ie.hash && sameContent(old.entry, ie.entry)) {
+                if (sameLocation(old.entry, ie.entry)) {
+                    e.setValue(old);
+                    continue;
+                }
+                // the entry has moved in the file; the old entry may be in
+                // a published snapshot, so a copy gets the new location
+                ReferenceEntry moved = (ReferenceEntry) old.entry.copy();
+                moved.startLine = ie.entry.startLine;
+                moved.endLine = ie.entry.endLine;
+                moved.position = ie.entry.position;
+                moved.refFile = ie.entry.refFile;
+                removed.add(old.entry);
+                added.add(moved);
+                e.setValue(new IndexedEntry(moved));
+            } else {
+                if (old != null)
+                    removed.add(old.entry);
+                ie.entry.fileName = key;
+                added.add(ie.entry);
+            }
+        }
+        for (Map.Entry<String, IndexedEntry> e : index.entrySet()) {
+            if (!newIndex.containsKey(e.getKey()))
+                removed.add(e.getValue().entry);
+        }
+        
+        if (removed.size() > 0 || added.size() > 0) {
+            List<ReferenceEntry> sorted = referenceHash.get(key);
+            Replacement replacement = findRuns(sorted,
+                    Collections.singletonList(removed), Collections.singletonList(added));
+            if (replacement == null)
+                return false;
+            referenceHash.put(key, replacement.apply(sorted));
+            size += added.size() - removed.size();
+            
+            if (sortedReferences != null && !replacedSources.containsKey(key)) {
+                for (ReferenceEntry r : removed) {
+                    if (!removeSame(addedEntries, r))
+                        removedEntries.add(r);
+                }
+                addedEntries.addAll(added);
+            }
+        }
+        entryIndex.put(key, newIndex);
+        return true;
+    }
+    
+    /**
+     * Creates the index of the entries of a source.
+     * 
+     * @param refs The entries
+     * @return The entries by key, or null if a key occurs more than once
+     */
+    private static Map<String, IndexedEntry> createIndex(List<ReferenceEntry> refs) {
+        Map<String, IndexedEntry> index = new HashMap<String, IndexedEntry>(refs.size() * 4 / 3 + 1);
+        for (ReferenceEntry r : refs) {
+            if (index.put(r.key, new IndexedEntry(r)) != null)
+                return null;
+        }
+        return index;
+    }
+    
+    /**
+     * Removes the given entry (the same object) from the list.
+     * 
+     * @return True if the entry was found
+     */
+    private static boolean removeSame(List<ReferenceEntry> refs, ReferenceEntry entry) {
+        for (int i = 0; i < refs.size(); i++) {
+            if (refs.get(i) == entry) {
+                refs.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @return True if the entries have the same key and content
+     */
+    private static boolean sameContent(ReferenceEntry r1, ReferenceEntry r2) {
+        return equal(r1.key, r2.key) && equal(r1.info, r2.info)
+            && equal(r1.author, r2.author) && equal(r1.journal, r2.journal)
+            && equal(r1.year, r2.year);
+    }
+    
+    /**
+     * @return True if the entries are at the same place in the same file
+     */
+    private static boolean sameLocation(ReferenceEntry r1, ReferenceEntry r2) {
+        return r1.startLine == r2.startLine && r1.endLine == r2.endLine
+            && equal(r1.position, r2.position) && equal(r1.refFile, r2.refFile);
+    }
+    
+    private static boolean equal(Object o1, Object o2) {
+        return o1 == null ? o2 == null : o1.equals(o2);
+    }
 
     /**
      * Organizes the data from the reference hashes to the sorted array
      * <code>sortedReferences</code>.
      */
-    public void organize() {
+    public synchronized void organize() {
         if (referenceHash.size() == 0) {
-            sortedReferences = new ArrayList<ReferenceEntry>(0);
+            sortedReferences = new SortedReferences(new ArrayList<ReferenceEntry>(0));
+            replacedSources.clear();
+            clearEntryChanges();
+            completionIndex = null;
         	return;
         }
         
-        List<ReferenceEntry> allRefs = new ArrayList<ReferenceEntry>(size);
-        if (referenceHash.size() > 1) {
-            for (Iterator<List<ReferenceEntry>> iter = referenceHash.values().iterator(); iter.hasNext();) {
-                List<ReferenceEntry> refList = iter.next();
-                allRefs.addAll(refList);
+        if (sortedReferences != null && replacedSources.size() <= MAX_INCREMENTAL_SOURCES) {
+            if (replacedSources.isEmpty() && removedEntries.isEmpty() && addedEntries.isEmpty()) {
+                return;
+            }
+            List<List<ReferenceEntry>> oldRuns = new ArrayList<List<ReferenceEntry>>();
+            List<List<ReferenceEntry>> newRuns = new ArrayList<List<ReferenceEntry>>();
+            oldRuns.add(removedEntries);
+            newRuns.add(addedEntries);
+            for (Map.Entry<String, List<ReferenceEntry>> e : replacedSources.entrySet()) {
+                oldRuns.add(e.getValue());
+                newRuns.add(referenceHash.get(e.getKey()));
+            }
+            Replacement replacement = findRuns(sortedReferences.getEntries(), oldRuns, newRuns);
+            if (replacement != null) {
+                if (completionIndex != null) {
+                    completionIndex.removeAll(removedEntries);
+                    completionIndex.addAll(addedEntries);
+                    for (Map.Entry<String, List<ReferenceEntry>> e : replacedSources.entrySet()) {
+                        completionIndex.removeAll(e.getValue());
+                        completionIndex.addAll(referenceHash.get(e.getKey()));
+                    }
+                }
+                replacedSources.clear();
+                clearEntryChanges();
+                sortedReferences = sortedReferences.replace(replacement.removed,
+                        replacement.removedCount, replacement.added, replacement.inserted);
+                return;
             }
-        } else if (referenceHash.size() == 1) {
-            Iterator<List<ReferenceEntry>> iter = referenceHash.values().iterator();
-            allRefs = iter.next();
         }
-        sortedReferences = allRefs;
+        replacedSources.clear();
+        clearEntryChanges();
+        completionIndex = null;
         
+        // The lists are sorted, so this merges the runs
+        List<ReferenceEntry> allRefs = new ArrayList<ReferenceEntry>(size);
+        for (Iterator<List<ReferenceEntry>> iter = referenceHash.values().iterator(); iter.hasNext();) {
+            List<ReferenceEntry> refList = iter.next();
+            allRefs.addAll(refList);
+        }
         //Sort collections case insensitive
-        Collections.sort(sortedReferences, new Comparator<ReferenceEntry>() {
-            public int compare(ReferenceEntry o1, ReferenceEntry o2) {
-                return o1.getkey(true).compareTo(o2.getkey(true).toLowerCase());
+        Collections.sort(allRefs, COMPARATOR);
+        sortedReferences = new SortedReferences(allRefs);
+    }
+    
+    private void clearEntryChanges() {
+        removedEntries.clear();
+        addedEntries.clear();
+    }
+    
+    /**
+     * Finds the index of the first entry in the sorted list that is not
+     * smaller (or, if <code>after</code> is true, that is greater) than
+     * the given entry.
+     */
+    private static int search(List<ReferenceEntry> refs, ReferenceEntry entry, boolean after) {
+        int low = 0;
+        int high = refs.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int c = COMPARATOR.compare(refs.get(mid), entry);
+            if (c < 0 || (after && c == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
-        });
+        }
+        return low;
+    }
+    
+    /**
+     * The positions at which the entries of some runs are removed from a
+     * sorted list and the entries of other runs are inserted
+     */
+    private static final class Replacement {
+        // the sorted positions of the entries to remove
+        final int[] removed;
+        final int removedCount;
+        // the sorted entries to insert and the positions they go before
+        final List<ReferenceEntry> added;
+        final int[] inserted;
+        
+        Replacement(int[] removed, int removedCount, List<ReferenceEntry> added, int[] inserted) {
+            this.removed = removed;
+            this.removedCount = removedCount;
+            this.added = added;
+            this.inserted = inserted;
+        }
+        
+        /**
+         * @return A new list with the entries removed and inserted
+         */
+        List<ReferenceEntry> apply(List<ReferenceEntry> refs) {
+            int newSize = added.size();
+            List<ReferenceEntry> result = new ArrayList<ReferenceEntry>(refs.size() - removedCount + newSize);
+            int r = 0, a = 0;
+            for (int i = 0; i <= refs.size(); i++) {
+                while (a < newSize && inserted[a] == i) {
+                    result.add(added.get(a++));
+                }
+                if (i == refs.size()) {
+                    break;
+                }
+                if (r < removedCount && removed[r] == i) {
+                    r++;
+                } else {
+                    result.add(refs.get(i));
+                }
+            }
+            return result;
+        }
+    }
+    
+    /**
+     * Finds where the entries of the old runs are in the sorted list and
+     * where those of the new runs go. The positions are found with binary
+     * search, so this needs O(k log n) comparisons, however many runs
+     * there are. Applying the replacement still copies the list once.
+     * 
+     * An old entry that is not in the list may be in one of the new runs,
+     * if it was added and replaced again before the list was updated. The
+     * entry is then left out of both.
+     * 
+     * @param refs The current sorted list
+     * @param oldRuns The entries to remove, the runs may be null
+     * @param newRuns The entries to insert, the runs may be null
+     * @return The replacement or null if an old entry was not found
+     */
+    private static Replacement findRuns(List<ReferenceEntry> refs,
+            List<List<ReferenceEntry>> oldRuns, List<List<ReferenceEntry>> newRuns) {
+        List<ReferenceEntry> newEntries = new ArrayList<ReferenceEntry>();
+        for (List<ReferenceEntry> run : newRuns) {
+            if (run != null)
+                newEntries.addAll(run);
+        }
+        int oldSize = 0;
+        for (List<ReferenceEntry> run : oldRuns) {
+            if (run != null)
+                oldSize += run.size();
+        }
+        
+        int[] removed = new int[oldSize];
+        int removedCount = 0;
+        for (List<ReferenceEntry> run : oldRuns) {
+            if (run == null)
+                continue;
+            for (ReferenceEntry entry : run) {
+                int idx = search(refs, entry, false);
+                // entries with the same key are not ordered, find this one
+                while (idx < refs.size() && refs.get(idx) != entry
+                        && COMPARATOR.compare(refs.get(idx), entry) == 0) {
+                    idx++;
+                }
+                if (idx < refs.size() && refs.get(idx) == entry) {
+                    removed[removedCount++] = idx;
+                } else if (!removeSame(newEntries, entry)) {
+                    return null;
+                }
+            }
+        }
+        Arrays.sort(removed, 0, removedCount);
+        Collections.sort(newEntries, COMPARATOR);
+        int newSize = newEntries.size();
+        int[] inserted = new int[newSize];
+        for (int i = 0; i < newSize; i++) {
+            inserted[i] = search(refs, newEntries.get(i), true);
+        }
+        return new Replacement(removed, removedCount, newEntries, inserted);
     }
     
     /**
@@ -140,13 +498,13 @@ public class ReferenceContainer {
      * @return An empty list if there were no new keys, otherwise a list containing
      * the names of the new keys
      */
-    public List<String> updateBibHash(String[] newBibs) {
+    public synchronized List<String> updateBibHash(String[] newBibs) {
         List<String> toParse = new LinkedList<String>();
         Map<String, List<ReferenceEntry>> newHash = new HashMap<String, List<ReferenceEntry>>(newBibs.length);
         int newSize = 0;
         
         for (String bib : newBibs) {
-            List<ReferenceEntry> al = referenceHash.get(bib);
+            List<ReferenceEntry> al = referenceHash.remove(bib);
             if (al != null) {
                 newHash.put(bib, al);
                 newSize += al.size();
@@ -154,8 +512,14 @@ public class ReferenceContainer {
                 toParse.add(bib);
             }
         }
+        // the remaining sources are dropped
+        for (Iterator<Map.Entry<String, List<ReferenceEntry>>> iter = referenceHash.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry<String, List<ReferenceEntry>> e = iter.next();
+            sourceReplaced(e.getKey(), e.getValue());
+        }
         referenceHash = newHash;
         size = newSize;
+        entryIndex.keySet().retainAll(newHash.keySet());
         
         return toParse;
     }
@@ -186,10 +550,31 @@ public class ReferenceContainer {
      * @return True if <code>key</code> was found, false if it was not found
      */
     public boolean binTest(String key) {
-        if (sortedReferences == null || sortedReferences.size() == 0)
-            return false;
-        int nr = PartialRetriever.getEntry(key, sortedReferences, true);
-        return (nr >= 0);
+        return getEntry(key) != null;
+    }
+    
+    /**
+     * Returns the reference with exactly the given key. Uses binary search
+     * on the lower case keys.
+     * 
+     * @param key The key to look for
+     * @return The reference or null if there is no such reference
+     */
+    public ReferenceEntry getEntry(String key) {
+        SortedReferences index = sortedReferences;
+        return index != null ? index.getEntry(key) : null;
+    }
+    
+    /**
+     * Returns the references whose key starts (case insensitive) with
+     * the given string.
+     * 
+     * @param start The start of the key
+     * @return A view of the sorted references, or null if there are none
+     */
+    public List<ReferenceEntry> getCompletions(String start) {
+        SortedReferences index = sortedReferences;
+        return index != null ? index.getCompletions(start) : null;
     }
     
     /**
@@ -212,12 +597,92 @@ public class ReferenceContainer {
         }
     }
     
+    /**
+     * Returns the references whose key contains (case insensitive) the
+     * given string.
+     * 
+     * @param part The string to look for
+     * @param limit The maximum number of results
+     * @return The references in sorted order, or null if there are none
+     */
+    public synchronized List<ReferenceEntry> getSubstringMatches(String part, int limit) {
+        CompletionIndex<ReferenceEntry> index = getCompletionIndex();
+        if (index == null)
+            return null;
+        List<ReferenceEntry> matches = index.getSubstringMatches(part, limit);
+        return matches.size() > 0 ? matches : null;
+    }
+    
+    /**
+     * Returns the references whose key starts with a string that is at most
+     * <code>maxDistance</code> edits away from the given word.
+     * 
+     * @param word The typed word
+     * @param maxDistance The maximum number of edits
+     * @param limit The maximum number of results
+     * @return The references in sorted order, or null if there are none
+     */
+    public synchronized List<ReferenceEntry> getFuzzyMatches(String word, int maxDistance, int limit) {
+        CompletionIndex<ReferenceEntry> index = getCompletionIndex();
+        if (index == null)
+            return null;
+        List<ReferenceEntry> matches = index.getFuzzyMatches(word, maxDistance, limit);
+        return matches.size() > 0 ? matches : null;
+    }
+    
+    /**
+     * Returns the completion index of the organized references. The index
+     * is built on first use and then updated by <code>organize()</code>.
+     * 
+     * @return The index or null if this container has not been organized
+     */
+    private CompletionIndex<ReferenceEntry> getCompletionIndex() {
+        SortedReferences index = sortedReferences;
+        if (index == null)
+            return null;
+        if (completionIndex == null) {
+            completionIndex = new CompletionIndex<ReferenceEntry>(index.getEntries());
+        }
+        return completionIndex;
+    }
+    
     /**
      * Returns all the references in this container alphabetically sorted.
      * 
      * @return Returns the sortedReferences.
      */
     public List<ReferenceEntry> getSortedReferences() {
+        SortedReferences index = sortedReferences;
+        return index != null ? index.getEntries() : null;
+    }
+    
+    /**
+     * Returns the references as they were after the last
+     * <code>organize()</code>. The returned object is never modified.
+     * 
+     * @return The sorted references or null if this container has not
+     *  been organized
+     */
+    public SortedReferences getSnapshot() {
         return sortedReferences;
     }
+    
+    /**
+     * An entry of a source with the hash of its content.
+     */
+    private static final class IndexedEntry {
+        
+        final ReferenceEntry entry;
+        final int hash;
+        
+        IndexedEntry(ReferenceEntry entry) {
+            this.entry = entry;
+            int h = entry.key.hashCode();
+            h = 31 * h + (entry.info != null ? entry.info.hashCode() : 0);
+            h = 31 * h + (entry.author != null ? entry.author.hashCode() : 0);
+            h = 31 * h + (entry.journal != null ? entry.journal.hashCode() : 0);
+            h = 31 * h + (entry.year != null ? entry.year.hashCode() : 0);
+            this.hash = h;
+        }
+    }
 }
@@ -9,10 +9,11 @@
  */
 package net.sourceforge.texlipse.model;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
+import java.nio.CharBuffer;
+
+import org.eclipse.core.resources.IFile;
 
 
 /**
@@ -23,7 +24,8 @@ import java.io.StringReader;
 public final class ReferenceEntry extends AbstractEntry {
 
     /**
-     * A descriptive text of the reference
+     * A descriptive text of the reference. For labels it is created
+     * when it is first needed, use <code>getInfo()</code> to read it.
      */
     public String info;
     /**
@@ -40,6 +42,21 @@ public final class ReferenceEntry extends AbstractEntry {
      */
     public File refFile;
     
+    /**
+     * The lines of the document containing the label, until the
+     * label info has been created
+     */
+    private LineIndex labelLines;
+    
+    /**
+     * The file containing the label and the range of the lines around
+     * it, for labels of the project index that have no info yet
+     */
+    private IFile labelFile;
+    private long labelStamp;
+    int labelInfoStart;
+    int labelInfoEnd;
+    
     /**
      * Constructs a new entry with the given key (reference key/name)
      * 
@@ -75,6 +92,11 @@ public final class ReferenceEntry extends AbstractEntry {
         re.journal = journal;
         re.year = year;
         re.refFile = refFile;
+        re.labelLines = labelLines;
+        re.labelFile = labelFile;
+        re.labelStamp = labelStamp;
+        re.labelInfoStart = labelInfoStart;
+        re.labelInfoEnd = labelInfoEnd;
         re.fileName = fileName;
         re.position = position;
         return re;
@@ -90,29 +112,109 @@ public final class ReferenceEntry extends AbstractEntry {
     private int labelPrecedingLines = 2;
     private int labelFollowingLines = 2;
     
+    /**
+     * Sets the info of a label to the lines around it in the given
+     * document. 
+     * 
+     * @param input The document containing the label
+     */
     public void setLabelInfo(String input) {
-    	int lineno = startLine;
-        StringBuilder extract = new StringBuilder();
+        setLabelInfo(new LineIndex(input));
+    }
+    
+    /**
+     * Sets the info of a label to the lines around it. The text is taken
+     * from the given line table only when the info is needed, so the same
+     * table should be given to all the labels of the document.
+     * 
+     * @param lines The lines of the document containing the label
+     */
+    public void setLabelInfo(LineIndex lines) {
+        labelLines = lines;
+        labelFile = null;
+        info = null;
+    }
+    
+    /**
+     * Sets the info of a label to the given range of a file. The range is
+     * read only when the info is needed, and only if the file has not
+     * been modified since.
+     * 
+     * @param file The file containing the label
+     * @param stamp The modification stamp of the file
+     * @param start The offset where the lines around the label start
+     * @param end The offset where the lines around the label end
+     */
+    void setLabelInfo(IFile file, long stamp, int start, int end) {
+        labelLines = null;
+        labelFile = file;
+        labelStamp = stamp;
+        labelInfoStart = start;
+        labelInfoEnd = Math.max(start, end);
+        info = null;
+    }
+    
+    /**
+     * Returns a copy of this label for the project index. The copy keeps
+     * the info if it has been created, otherwise only the range of the
+     * lines around the label, so that the index does not hold the text
+     * of the file.
+     * 
+     * @param file The file containing the label
+     * @param stamp The modification stamp of the file
+     * @return A copy of this label
+     */
+    ReferenceEntry copyLabel(IFile file, long stamp) {
+        ReferenceEntry re = (ReferenceEntry) copy();
+        LineIndex lines = re.labelLines;
+        if (re.info == null && lines != null) {
+            re.setLabelInfo(file, stamp,
+                    lines.getLinesStart(startLine - labelPrecedingLines),
+                    lines.getLinesEnd(startLine + labelFollowingLines));
+        }
+        re.labelLines = null;
+        return re;
+    }
+    
+    /**
+     * @return A descriptive text of the reference, or null if there is none
+     */
+    public String getInfo() {
+        if (info == null) {
+            LineIndex lines = labelLines;
+            IFile file = labelFile;
+            if (lines != null) {
+                info = lines.getLines(startLine - labelPrecedingLines,
+                        startLine + labelFollowingLines);
+                labelLines = null;
+            } else if (file != null) {
+                info = readLabelInfo(file);
+                labelFile = null;
+            }
+        }
+        return info;
+    }
+
+    /**
+     * Reads the lines around the label from the file.
+     * 
+     * @param file The file containing the label
+     * @return The lines or null if the file has changed or can't be read
+     */
+    private String readLabelInfo(IFile file) {
+        if (file.getModificationStamp() != labelStamp) {
+            return null;
+        }
         try {
-            BufferedReader in = new BufferedReader(new StringReader(input));
-            int currentLine = 0;
-            int startLine = (lineno - labelPrecedingLines) >= 0 ?
-                    lineno - labelPrecedingLines : 0;
-            int endLine = lineno + labelFollowingLines;
-            String str;
-            while ((str = in.readLine()) != null) {
-                if (currentLine > endLine) {
-                    break;
-                } else if (currentLine >= startLine) {
-                    extract.append(str);
-                    extract.append(System.getProperty("line.separator"));
-                }
-                currentLine++;
+            CharBuffer text = FileContents.read(file);
+            if (labelInfoEnd > text.length()) {
+                return null;
             }
-            in.close();
+            LineIndex lines = new LineIndex(text.subSequence(labelInfoStart, labelInfoEnd).toString());
+            return lines.getLines(0, lines.getLineCount() - 1);
         } catch (IOException e) {
+            return null;
         }
-        info = extract.toString();
     }
 
 }
@@ -15,13 +15,36 @@ import java.util.List;
  * Manages the references (BibTeX and \label) and provides an interface
  * for searching them efficiently by partial matches.
  * 
+ * The lookups read the latest snapshot of the project model, so they
+ * need no locking and always see organized data.
+ * 
  * @author Oskar Ojala
  */
 public class ReferenceManager extends PartialRetriever {
 
+    /**
+     * Matches entries whose key starts with the typed string
+     */
+    public static final int MATCH_PREFIX = 0;
+    /**
+     * Matches entries whose key contains the typed string
+     */
+    public static final int MATCH_SUBSTRING = 1;
+    /**
+     * Matches entries whose key starts with something that is a few
+     * typos away from the typed string
+     */
+    public static final int MATCH_FUZZY = 2;
+    
+    /**
+     * The maximum number of substring and fuzzy matches returned
+     */
+    private static final int MAX_MATCHES = 500;
+
     private ReferenceContainer bibContainer;
     private ReferenceContainer labelContainer;
     private TexCommandContainer commandContainer;
+    private ProjectModel model;
 
     /**
      * Creates new ReferenceManager that uses the given BibTeX,
@@ -30,11 +53,14 @@ public class ReferenceManager extends PartialRetriever {
      * @param bibRc BibTeX reference container
      * @param labRc Label container
      * @param commands Command container
+     * @param model The model publishing the snapshots of the containers
      */
-    public ReferenceManager(ReferenceContainer bibRc, ReferenceContainer labRc, TexCommandContainer commands) {
+    public ReferenceManager(ReferenceContainer bibRc, ReferenceContainer labRc,
+            TexCommandContainer commands, ProjectModel model) {
         this.bibContainer = bibRc;
         this.labelContainer = labRc;
         this.commandContainer = commands;
+        this.model = model;
     }
 
     /**
@@ -49,10 +75,7 @@ public class ReferenceManager extends PartialRetriever {
     // B-----borisvl
     
     public ReferenceEntry getBib(String name) {
-        List<ReferenceEntry> bibEntries = bibContainer.getSortedReferences();
-        int nr = getEntry(name.toLowerCase(), bibEntries, true);
-        if (nr != -1) return bibEntries.get(nr);
-        else return null;
+        return model.getSnapshot().getBibs().getEntry(name.toLowerCase());
     }
 
     /**
@@ -62,10 +85,7 @@ public class ReferenceManager extends PartialRetriever {
      * @return The adequate entry or null if no entry was found
      */
     public ReferenceEntry getLabel(String ref) {
-        List<ReferenceEntry> labels = labelContainer.getSortedReferences();
-        int nr = getEntry(ref, labels, true);
-        if (nr != -1) return labels.get(nr);
-        else return null;
+        return model.getSnapshot().getLabels().getEntry(ref);
     }
 
     /**
@@ -75,11 +95,12 @@ public class ReferenceManager extends PartialRetriever {
      * @return The adequate entry or null if no entry was found
      */
     public TexCommandEntry getEntry(String name) {
-        List<TexCommandEntry> commands = commandContainer.getSortedCommands(TexCommandEntry.MATH_CONTEXT);
+        ProjectModelSnapshot snapshot = model.getSnapshot();
+        List<TexCommandEntry> commands = snapshot.getCommands(TexCommandEntry.MATH_CONTEXT);
         int nr = getEntry(name, commands, false);
         if (nr != -1) return commands.get(nr);
         // If no math command look at the normal commands
-        commands = commandContainer.getSortedCommands(TexCommandEntry.NORMAL_CONTEXT);
+        commands = snapshot.getCommands(TexCommandEntry.NORMAL_CONTEXT);
         nr = getEntry(name, commands, false);
         if (nr != -1) return commands.get(nr);
         return null;
@@ -95,25 +116,7 @@ public class ReferenceManager extends PartialRetriever {
      * @return An array of completions or null if there were no completions
      */
     public List<ReferenceEntry> getCompletionsRef(String start) {
-        List<ReferenceEntry> labels = labelContainer.getSortedReferences();
-
-        if (labels == null)
-            return null;
-        if (start.equals(""))
-            return labels;
-
-        // don't refetch the proposal list in partial fill;
-        // use the existing proposal list and make it smaller
-        int[] bounds;
-        // if (lastLab.length() > 0 && start.startsWith(lastLab))
-        // bounds = getCompletionsBin(start, labels, lastLabBounds);
-        // else
-        // bounds = getCompletionsBin(start, labels);
-
-        bounds = getCompletionsBin(start, labels, true);
-
-        if (bounds[0] == -1) return null;
-        return labels.subList(bounds[0], bounds[1]);
+        return model.getSnapshot().getLabels().getCompletions(start);
     }
 
     /**
@@ -124,26 +127,7 @@ public class ReferenceManager extends PartialRetriever {
      * @return An array of completions or null if there were no completions
      */
     public List<ReferenceEntry> getCompletionsBib(String start) {
-        List<ReferenceEntry> bibEntries = bibContainer.getSortedReferences();
-
-        if (bibEntries == null)
-            return null;
-        if (start.equals(""))
-            return bibEntries;
-
-        // don't refetch the proposal list in partial fill;
-        // use the existing proposal list and make it smaller
-        int[] bounds;
-        // if (lastBib.length() > 0 && start.startsWith(lastBib))
-        // bounds = getCompletionsBin(start, bibEntries, lastBibBounds);
-        // else
-        // bounds = getCompletionsBin(start, bibEntries);
-
-        // ...either solve problems with bounds or remove them...
-        bounds = getCompletionsBin(start, bibEntries, true);
-
-        if (bounds[0] == -1) return null;
-        return bibEntries.subList(bounds[0], bounds[1]);
+        return model.getSnapshot().getBibs().getCompletions(start);
     }
 
     /**
@@ -153,7 +137,7 @@ public class ReferenceManager extends PartialRetriever {
      * @return An array of completions or null if there were no completions
      */
     public List<TexCommandEntry> getCompletionsCom(String start, int context) {
-        List<TexCommandEntry> commands = commandContainer.getSortedCommands(context);
+        List<TexCommandEntry> commands = model.getSnapshot().getCommands(context);
         if (commands == null)
             return null;
         if (start.equals(""))
@@ -165,4 +149,70 @@ public class ReferenceManager extends PartialRetriever {
         
         return commands.subList(bounds[0], bounds[1]);
     }
+    
+    /**
+     * Gets the labels that match the given string.
+     * 
+     * @param start The typed string
+     * @param matchMode One of <code>MATCH_PREFIX</code>, <code>MATCH_SUBSTRING</code>
+     *  or <code>MATCH_FUZZY</code>
+     * @return A list of completions or null if there were no completions
+     */
+    public List<ReferenceEntry> getCompletionsRef(String start, int matchMode) {
+        if (matchMode == MATCH_PREFIX)
+            return getCompletionsRef(start);
+        return getMatches(labelContainer, start, matchMode);
+    }
+    
+    /**
+     * Gets the BibTeX entries that match the given string.
+     * 
+     * @param start The typed string
+     * @param matchMode One of <code>MATCH_PREFIX</code>, <code>MATCH_SUBSTRING</code>
+     *  or <code>MATCH_FUZZY</code>
+     * @return A list of completions or null if there were no completions
+     */
+    public List<ReferenceEntry> getCompletionsBib(String start, int matchMode) {
+        if (matchMode == MATCH_PREFIX)
+            return getCompletionsBib(start);
+        return getMatches(bibContainer, start, matchMode);
+    }
+    
+    /**
+     * Gets the commands that match the given string.
+     * 
+     * @param start The typed string
+     * @param context The context of the commands
+     * @param matchMode One of <code>MATCH_PREFIX</code>, <code>MATCH_SUBSTRING</code>
+     *  or <code>MATCH_FUZZY</code>
+     * @return A list of completions or null if there were no completions
+     */
+    public List<TexCommandEntry> getCompletionsCom(String start, int context, int matchMode) {
+        switch (matchMode) {
+        case MATCH_SUBSTRING:
+            return commandContainer.getSubstringMatches(start, context, MAX_MATCHES);
+        case MATCH_FUZZY:
+            return commandContainer.getFuzzyMatches(start, getMaxDistance(start), context, MAX_MATCHES);
+        default:
+            return getCompletionsCom(start, context);
+        }
+    }
+    
+    /**
+     * Does a substring or a fuzzy search in the completion index of the container.
+     */
+    private static List<ReferenceEntry> getMatches(ReferenceContainer container, String start, int matchMode) {
+        if (matchMode == MATCH_SUBSTRING)
+            return container.getSubstringMatches(start, MAX_MATCHES);
+        return container.getFuzzyMatches(start, getMaxDistance(start), MAX_MATCHES);
+    }
+    
+    /**
+     * @return The number of typos allowed in the given string
+     */
+    private static int getMaxDistance(String start) {
+        if (start.length() < 3)
+            return 0;
+        return start.length() < 6 ? 1 : 2;
+    }
 }
@@ -0,0 +1,225 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable, case insensitively sorted list of references together
+ * with their lower case keys. Instances are published by
+ * <code>ReferenceContainer.organize()</code> and can be read from any
+ * thread without locking.
+ */
+public final class SortedReferences {
+
+    /**
+     * An empty list of references
+     */
+    public static final SortedReferences EMPTY =
+        new SortedReferences(Collections.<ReferenceEntry>emptyList());
+
+    private final ReferenceEntry[] array;
+    private final List<ReferenceEntry> entries;
+    private final String[] keys;
+
+    /**
+     * @param entries The sorted references
+     */
+    SortedReferences(List<ReferenceEntry> entries) {
+        this(entries.toArray(new ReferenceEntry[entries.size()]), null);
+    }
+
+    /**
+     * @param array The sorted references
+     * @param keys Their lower case keys, or null to get them from the references
+     */
+    private SortedReferences(ReferenceEntry[] array, String[] keys) {
+        if (keys == null) {
+            keys = new String[array.length];
+            for (int i = 0; i < array.length; i++) {
+                keys[i] = array[i].getkey(true);
+            }
+        }
+        this.array = array;
+        this.entries = Collections.unmodifiableList(Arrays.asList(array));
+        this.keys = keys;
+    }
+
+    /**
+     * Returns a copy of these references with the entries at the given
+     * positions removed and the given entries inserted. The unchanged
+     * references and their keys are copied in blocks, and only the keys
+     * of the inserted entries are computed. This still takes O(n) time
+     * for the copy, however few entries change.
+     *
+     * @param removed The sorted positions of the entries to remove
+     * @param removedCount The number of positions in <code>removed</code>
+     * @param added The entries to insert, sorted
+     * @param inserted For each entry to insert, the position of the
+     *  reference it goes before
+     * @return The new references
+     */
+    SortedReferences replace(int[] removed, int removedCount,
+            List<ReferenceEntry> added, int[] inserted) {
+        int size = array.length - removedCount + added.size();
+        ReferenceEntry[] newArray = new ReferenceEntry[size];
+        String[] newKeys = new String[size];
+        int src = 0, dst = 0, r = 0, a = 0;
+        while (true) {
+            // copy the unchanged references up to the next change
+            int next = r < removedCount ? removed[r] : array.length;
+            if (a < added.size() && inserted[a] < next) {
+                next = inserted[a];
+            }
+            System.arraycopy(array, src, newArray, dst, next - src);
+            System.arraycopy(keys, src, newKeys, dst, next - src);
+            dst += next - src;
+            src = next;
+            if (a < added.size() && inserted[a] == src) {
+                ReferenceEntry entry = added.get(a++);
+                newArray[dst] = entry;
+                newKeys[dst++] = entry.getkey(true);
+            } else if (r < removedCount && removed[r] == src) {
+                src++;
+                r++;
+            } else {
+                break;
+            }
+        }
+        return new SortedReferences(newArray, newKeys);
+    }
+
+    /**
+     * @return All the references alphabetically sorted, as an
+     *  unmodifiable list
+     */
+    public List<ReferenceEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return The number of references
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Whether the default locale converts the ASCII letters to lower case
+     * like <code>Character.toLowerCase()</code>, which is not the case
+     * e.g. for the dotted and dotless i of Turkish
+     */
+    private static final boolean ASCII_LOWER_CASE =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toLowerCase().equals("abcdefghijklmnopqrstuvwxyz");
+
+    /**
+     * Returns the key in a form that the searches of
+     * <code>PartialRetriever</code> can compare with the lower case keys.
+     * This is the key itself unless it has characters that are converted
+     * differently one by one than by <code>toLowerCase()</code>.
+     */
+    private static String searchKey(String key) {
+        if (ASCII_LOWER_CASE) {
+            int i = 0;
+            while (i < key.length() && key.charAt(i) < 0x80) {
+                i++;
+            }
+            if (i == key.length()) {
+                return key;
+            }
+        }
+        return key.toLowerCase();
+    }
+
+    /**
+     * Returns the position of the reference with exactly the given key.
+     * Uses binary search on the lower case keys and does not create any
+     * objects for ASCII keys.
+     *
+     * @param key The key to look for
+     * @return The position or -1 if there is no such reference
+     */
+    public int indexOf(String key) {
+        String sKey = searchKey(key);
+        for (int i = PartialRetriever.lowerBound(keys, 0, keys.length, sKey);
+                i < keys.length && PartialRetriever.compareIgnoreCase(keys[i], sKey) == 0; i++) {
+            if (array[i].key.equals(key))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the reference with exactly the given key, see
+     * <code>indexOf()</code>.
+     *
+     * @param key The key to look for
+     * @return The reference or null if there is no such reference
+     */
+    public ReferenceEntry getEntry(String key) {
+        int i = indexOf(key);
+        return i != -1 ? array[i] : null;
+    }
+
+    /**
+     * @param index The position of a reference
+     * @return The reference at that position
+     */
+    public ReferenceEntry get(int index) {
+        return array[index];
+    }
+
+    /**
+     * Returns the position of the first reference whose key starts (case
+     * insensitive) with the given string. Does not create any objects for
+     * ASCII strings.
+     *
+     * @param start The start of the key
+     * @return The position of the first completion; if there are none,
+     *  <code>getCompletionsEnd()</code> returns the same position
+     */
+    public int getCompletionsStart(String start) {
+        return PartialRetriever.lowerBound(keys, 0, keys.length, searchKey(start));
+    }
+
+    /**
+     * Returns the end of the references whose key starts (case
+     * insensitive) with the given string. Does not create any objects for
+     * ASCII strings.
+     *
+     * @param start The start of the key
+     * @param first The result of <code>getCompletionsStart(start)</code>
+     * @return The position after the last completion
+     */
+    public int getCompletionsEnd(String start, int first) {
+        return PartialRetriever.prefixEnd(keys, first, keys.length, searchKey(start));
+    }
+
+    /**
+     * Returns the references whose key starts (case insensitive) with
+     * the given string. Only the returned view is created; use
+     * <code>getCompletionsStart()</code> and <code>getCompletionsEnd()</code>
+     * to get the positions without it.
+     *
+     * @param start The start of the key
+     * @return A view of the sorted references, or null if there are none
+     */
+    public List<ReferenceEntry> getCompletions(String start) {
+        if (start.length() == 0)
+            return entries;
+        int first = getCompletionsStart(start);
+        int last = getCompletionsEnd(start, first);
+        if (first == last)
+            return null;
+        return entries.subList(first, last);
+    }
+}
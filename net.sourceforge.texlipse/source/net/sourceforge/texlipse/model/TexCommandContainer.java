@@ -10,6 +10,7 @@
 package net.sourceforge.texlipse.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -421,24 +422,75 @@ public class TexCommandContainer {
     	new TexCommandEntry("Pr", "\\Pr  \n\n", 0, TexCommandEntry.MATH_CONTEXT)
     };
 
+    /**
+     * The built-in commands of each context, sorted once
+     */
+    private static final List<List<TexCommandEntry>> sortedBuiltIns = sortBuiltIns();
+    
+    /**
+     * The commands a reference source had before it was changed
+     */
+    private static final class ReplacedSource {
+        final List<TexCommandEntry> normal;
+        final List<TexCommandEntry> math;
+        
+        ReplacedSource(List<TexCommandEntry> normal, List<TexCommandEntry> math) {
+            this.normal = normal;
+            this.math = math;
+        }
+    }
+    
     private Map<String, List<TexCommandEntry>> commandHash;
-    private List<TexCommandEntry> sortedCommands;
-    private int size;
-    //Saves the positions of the contexts
-    private int[] contexts;
+    //The copies of the commands of each source that are activated in math mode
+    private Map<String, List<TexCommandEntry>> mathHash;
+    //The sources changed since the last organize and their previous commands
+    private Map<String, ReplacedSource> replacedSources;
+    //The user commands of each context, sorted
+    private List<List<TexCommandEntry>> userCommands;
+    //The commands of each context, never modified after they are published
+    private volatile List<List<TexCommandEntry>> sortedCommands;
+    //Indexes for substring and fuzzy completions, created when first needed
+    private List<CompletionIndex<TexCommandEntry>> completionIndexes;
     
     /**
      * Constructs a new command container
      */
     public TexCommandContainer() {
-    	sortedCommands = new ArrayList<TexCommandEntry>(100);
         commandHash = new HashMap<String, List<TexCommandEntry>>(4);
-        contexts = new int[TexCommandEntry.NUMBER_OF_CONTEXTS + 1];
-        organize();
-//        for (int i=0; i<builtIn.length; i++) sortedCommands.add(builtIn[i]);
-        size = 0;
+        mathHash = new HashMap<String, List<TexCommandEntry>>(4);
+        replacedSources = new HashMap<String, ReplacedSource>(4);
+        userCommands = new ArrayList<List<TexCommandEntry>>(TexCommandEntry.NUMBER_OF_CONTEXTS);
+        completionIndexes = new ArrayList<CompletionIndex<TexCommandEntry>>(TexCommandEntry.NUMBER_OF_CONTEXTS);
+        for (int i = 0; i < TexCommandEntry.NUMBER_OF_CONTEXTS; i++) {
+            userCommands.add(new ArrayList<TexCommandEntry>());
+            completionIndexes.add(null);
+        }
+        sortedCommands = sortedBuiltIns;
     }
 
+    /**
+     * Sorts the built-in commands into a list for each context.
+     */
+    private static List<List<TexCommandEntry>> sortBuiltIns() {
+        TexCommandEntry[][] builtIns = {builtIn, greekCapital, greekSmall, miscMath,
+                stdArrows, stdCompare, functionNames, stdBinOpSymbols, stdBraces, stdAccents};
+        List<List<TexCommandEntry>> sorted = new ArrayList<List<TexCommandEntry>>(TexCommandEntry.NUMBER_OF_CONTEXTS);
+        for (int i = 0; i < TexCommandEntry.NUMBER_OF_CONTEXTS; i++) {
+            sorted.add(new ArrayList<TexCommandEntry>());
+        }
+        for (TexCommandEntry[] commands : builtIns) {
+            for (TexCommandEntry c : commands) {
+                sorted.get(c.context - 1).add(c);
+            }
+        }
+        for (int i = 0; i < sorted.size(); i++) {
+            List<TexCommandEntry> l = sorted.get(i);
+            Collections.sort(l);
+            sorted.set(i, Collections.unmodifiableList(l));
+        }
+        return Collections.unmodifiableList(sorted);
+    }
+    
     /**
      * Adds a new reference source (tex file) into this container or
      * updates an existing one.
@@ -447,87 +499,189 @@ public class TexCommandContainer {
      * @param refs The commands to insert
      * @return true if the container needs a reorganize
      */
-    public boolean addRefSource(String key, List<TexCommandEntry> refs) {
+    public synchronized boolean addRefSource(String key, List<TexCommandEntry> refs) {
         //Add filenames to the entries
         for (Iterator<TexCommandEntry> iter = refs.iterator(); iter.hasNext();) {
             AbstractEntry r = (AbstractEntry) iter.next();
             r.fileName = key;
         }
-        size += refs.size();
         List<TexCommandEntry> al = commandHash.put(key, refs);
-        if (al != null)
-            size -= al.size();
+        //copy all commands and change the context to activate them also in mathmode
+        List<TexCommandEntry> mathRefs = new ArrayList<TexCommandEntry>(refs.size());
+        for (TexCommandEntry c : refs) {
+            TexCommandEntry element = new TexCommandEntry(c);
+            element.context = TexCommandEntry.MATH_CONTEXT;
+            mathRefs.add(element);
+        }
+        List<TexCommandEntry> mathAl = mathHash.put(key, mathRefs);
+        if (!replacedSources.containsKey(key)) {
+            replacedSources.put(key, new ReplacedSource(al, mathAl));
+        }
         //Check if something has changed
         if (refs.equals(al))
             return false;
         else
             return true;
     }
-
+    
     /**
-     * Searches (very inefficient) for the last entries of each
-     * context and saves them in contexts
+     * Finds the index of the first command in the sorted list that is
+     * greater than the given one.
      */
-    private void createContexts(){
-    	contexts[0] = -1;
-    	int current = 1;
-    	for (int i=0; i < sortedCommands.size(); i++){
-    		if (current != ((TexCommandEntry) sortedCommands.get(i)).context){
-    			contexts[current] = i - 2;
-    			current++;
-    			if (current == TexCommandEntry.NUMBER_OF_CONTEXTS) break;
-    		}
-    	}
-    	contexts[current] = sortedCommands.size() - 2;
+    private static int search(List<TexCommandEntry> commands, TexCommandEntry c) {
+        int low = 0;
+        int high = commands.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (commands.get(mid).compareTo(c) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
     }
     
     /**
-     * Organizes this container's contents into the sorted command array.
-     * The added reference sources' commands are added to the built-in commands
-     * and sorted.
+     * Removes the given commands (the same objects) from the sorted user
+     * commands and marks their contexts as changed.
      */
-    public void organize() {
-        //if (commandHash.size() == 0)
-        //    return;
-        List<TexCommandEntry> allRefs = new ArrayList<TexCommandEntry>(size);
-        if (commandHash.size() > 1) {
-            for (List<TexCommandEntry> l : commandHash.values()) {
-                allRefs.addAll(l);
+    private void removeUserCommands(List<TexCommandEntry> commands, boolean[] changed) {
+        if (commands == null)
+            return;
+        for (TexCommandEntry c : commands) {
+            List<TexCommandEntry> sorted = userCommands.get(c.context - 1);
+            // search backwards over the commands with the same key
+            for (int i = search(sorted, c) - 1; i >= 0 && sorted.get(i).compareTo(c) == 0; i--) {
+                if (sorted.get(i) == c) {
+                    sorted.remove(i);
+                    changed[c.context - 1] = true;
+                    break;
+                }
             }
-        } else if (commandHash.size() == 1) {
-            Iterator<List<TexCommandEntry>> iter = commandHash.values().iterator();
-            allRefs = iter.next();
         }
-        //copy all commands and change the context to activate them also in mathmode
-        List<TexCommandEntry> mathRefs = new ArrayList<TexCommandEntry> (allRefs.size());
-        for (TexCommandEntry c : allRefs) {
-            TexCommandEntry element = new TexCommandEntry(c);
-            element.context = TexCommandEntry.MATH_CONTEXT;
-            mathRefs.add(element);
+    }
+    
+    /**
+     * Inserts the given commands into the sorted user commands and marks
+     * their contexts as changed.
+     */
+    private void addUserCommands(List<TexCommandEntry> commands, boolean[] changed) {
+        for (TexCommandEntry c : commands) {
+            List<TexCommandEntry> sorted = userCommands.get(c.context - 1);
+            sorted.add(search(sorted, c), c);
+            changed[c.context - 1] = true;
         }
+    }
+    
+    /**
+     * Organizes this container's contents into the sorted command lists.
+     * The commands of the changed reference sources are merged with the
+     * sorted user commands, and the contexts that have changed are merged
+     * with the built-in commands.
+     */
+    public synchronized void organize() {
+        if (replacedSources.size() == 0)
+            return;
+        boolean[] changed = new boolean[TexCommandEntry.NUMBER_OF_CONTEXTS];
+        for (Map.Entry<String, ReplacedSource> e : replacedSources.entrySet()) {
+            removeUserCommands(e.getValue().normal, changed);
+            removeUserCommands(e.getValue().math, changed);
+            addUserCommands(commandHash.get(e.getKey()), changed);
+            addUserCommands(mathHash.get(e.getKey()), changed);
+        }
+        replacedSources.clear();
         
-        sortedCommands.clear();
-        for (TexCommandEntry c : builtIn) sortedCommands.add(c);
-        sortedCommands.addAll(allRefs);
-        for (TexCommandEntry c : greekCapital) sortedCommands.add(c);
-        for (TexCommandEntry c : greekSmall) sortedCommands.add(c);
-        for (TexCommandEntry c : miscMath) sortedCommands.add(c);
-        for (TexCommandEntry c : stdArrows) sortedCommands.add(c);
-        for (TexCommandEntry c : stdCompare) sortedCommands.add(c);
-        for (TexCommandEntry c : functionNames) sortedCommands.add(c);
-        for (TexCommandEntry c : stdBinOpSymbols) sortedCommands.add(c);
-        for (TexCommandEntry c : stdBraces) sortedCommands.add(c);
-        for (TexCommandEntry c : stdAccents) sortedCommands.add(c);
-        sortedCommands.addAll(mathRefs);
-        Collections.sort(sortedCommands);
-        createContexts();
+        List<List<TexCommandEntry>> newSorted = new ArrayList<List<TexCommandEntry>>(sortedCommands);
+        for (int i = 0; i < changed.length; i++) {
+            if (!changed[i])
+                continue;
+            newSorted.set(i, merge(sortedBuiltIns.get(i), userCommands.get(i)));
+            completionIndexes.set(i, null);
+        }
+        sortedCommands = Collections.unmodifiableList(newSorted);
+    }
+    
+    /**
+     * Merges the sorted built-in and user commands. The built-in commands
+     * come first if the keys are equal.
+     */
+    private static List<TexCommandEntry> merge(List<TexCommandEntry> builtIns, List<TexCommandEntry> user) {
+        if (user.size() == 0)
+            return builtIns;
+        TexCommandEntry[] merged = new TexCommandEntry[builtIns.size() + user.size()];
+        int b = 0, u = 0;
+        for (int i = 0; i < merged.length; i++) {
+            if (u == user.size() || (b < builtIns.size() && builtIns.get(b).compareTo(user.get(u)) <= 0)) {
+                merged[i] = builtIns.get(b++);
+            } else {
+                merged[i] = user.get(u++);
+            }
+        }
+        return Collections.unmodifiableList(Arrays.asList(merged));
     }
     
     /**
      * @return Returns the sortedCommands.
      */
     public List<TexCommandEntry> getSortedCommands(int context) {
-        return sortedCommands.subList(contexts[context-1]+1, contexts[context]+2);
+        return sortedCommands.get(context - 1);
+    }
+    
+    /**
+     * @return The sorted built-in commands of all contexts, indexed by context - 1
+     */
+    static List<List<TexCommandEntry>> getBuiltInSnapshot() {
+        return sortedBuiltIns;
+    }
+    
+    /**
+     * Returns the sorted commands of all contexts as they were after the
+     * last <code>organize()</code>. The returned lists are never modified.
+     * 
+     * @return The sorted commands, indexed by context - 1
+     */
+    public List<List<TexCommandEntry>> getSnapshot() {
+        return sortedCommands;
+    }
+    
+    /**
+     * Returns the commands of the given context whose name contains
+     * (case insensitive) the given string.
+     * 
+     * @param part The string to look for
+     * @param context The context of the commands
+     * @param limit The maximum number of results
+     * @return The commands or null if there are none
+     */
+    public List<TexCommandEntry> getSubstringMatches(String part, int context, int limit) {
+        List<TexCommandEntry> matches = getCompletionIndex(context).getSubstringMatches(part, limit);
+        return matches.size() > 0 ? matches : null;
+    }
+    
+    /**
+     * Returns the commands of the given context whose name starts with a
+     * string that is at most <code>maxDistance</code> edits away from the
+     * given word.
+     * 
+     * @param word The typed word
+     * @param maxDistance The maximum number of edits
+     * @param context The context of the commands
+     * @param limit The maximum number of results
+     * @return The commands or null if there are none
+     */
+    public List<TexCommandEntry> getFuzzyMatches(String word, int maxDistance, int context, int limit) {
+        List<TexCommandEntry> matches = getCompletionIndex(context).getFuzzyMatches(word, maxDistance, limit);
+        return matches.size() > 0 ? matches : null;
+    }
+    
+    private synchronized CompletionIndex<TexCommandEntry> getCompletionIndex(int context) {
+        CompletionIndex<TexCommandEntry> index = completionIndexes.get(context - 1);
+        if (index == null) {
+            index = new CompletionIndex<TexCommandEntry>(getSortedCommands(context));
+            completionIndexes.set(context - 1, index);
+        }
+        return index;
     }
 
 }
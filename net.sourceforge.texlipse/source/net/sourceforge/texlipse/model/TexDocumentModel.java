@@ -11,19 +11,27 @@ package net.sourceforge.texlipse.model;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import net.sourceforge.texlipse.TexlipsePlugin;
 import net.sourceforge.texlipse.bibparser.BibParser;
 import net.sourceforge.texlipse.editor.TexDocumentParseException;
 import net.sourceforge.texlipse.editor.TexEditor;
+import net.sourceforge.texlipse.outline.OutlineDelta;
 import net.sourceforge.texlipse.outline.TexOutlinePage;
 import net.sourceforge.texlipse.outline.TexProjectOutline;
 import net.sourceforge.texlipse.properties.TexlipseProperties;
-import net.sourceforge.texlipse.texparser.LatexRefExtractingParser;
+import net.sourceforge.texlipse.texparser.DocumentDamage;
+import net.sourceforge.texlipse.texparser.LatexExtractor;
 import net.sourceforge.texlipse.texparser.TexParser;
 import net.sourceforge.texlipse.treeview.views.TexOutlineTreeView;
 import net.sourceforge.texlipse.builder.KpsewhichRunner;
@@ -38,6 +46,7 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.ILock;
 import org.eclipse.core.runtime.jobs.Job;
@@ -91,6 +100,7 @@ public class TexDocumentModel implements IDocumentListener {
          * @see org.eclipse.core.runtime.jobs.Job#run(org.eclipse.core.runtime.IProgressMonitor)
          */
         protected IStatus run(IProgressMonitor monitor) {
+            long start = System.currentTimeMillis();
             try {
                 // before parsing stuff, only takes time when run the first time
                 if (bibContainer == null) {
@@ -130,10 +140,14 @@ public class TexDocumentModel implements IDocumentListener {
                     } finally {
                         lock.release();
                     }
+                    parseFinished();
                     return result;
                 }
                 // parsing not ok
                 return Status.CANCEL_STATUS;
+            } catch (OperationCanceledException e) {
+                parseCanceled(System.currentTimeMillis() - start);
+                return Status.CANCEL_STATUS;
             } catch (Exception e) {
                 return Status.CANCEL_STATUS;
             }
@@ -155,7 +169,7 @@ public class TexDocumentModel implements IDocumentListener {
     private class PostParseJob extends WorkbenchJob {
         
         private ArrayList<OutlineNode> rootNodes;
-        private List<OutlineNode> fullOutlineNodes;
+        private OutlineDelta fullOutlineDelta;
 
         /**
          * 
@@ -173,10 +187,10 @@ public class TexDocumentModel implements IDocumentListener {
         }
         
         /**
-         * @param rootNodes
+         * @param delta The full outline and its changes, or null
          */
-        public void setFONodes(List<OutlineNode> rootNodes) {
-            this.fullOutlineNodes = rootNodes;
+        public void setFODelta(OutlineDelta delta) {
+            this.fullOutlineDelta = delta;
         }
 
         /**
@@ -196,12 +210,14 @@ public class TexDocumentModel implements IDocumentListener {
                 }
                 
                 //Update FullOutline
-                if (fullOutlineNodes != null) {
+                if (fullOutlineDelta != null) {
 
                     pollCancel(monitor);
                     if (editor.getFullOutline() != null) {
                         //createOutlineInput(fullOutlineNodes, monitor);
-                        editor.getFullOutline().update(new TexOutlineInput(new ArrayList<OutlineNode>(fullOutlineNodes)));
+                        editor.getFullOutline().update(new TexOutlineInput(
+                                new ArrayList<OutlineNode>(fullOutlineDelta.getRootNodes())),
+                                fullOutlineDelta);
                     }
                 }
 
@@ -217,12 +233,16 @@ public class TexDocumentModel implements IDocumentListener {
     private TexEditor editor;
     private TexParser parser;
     private TexProjectOutline projectOutline;
+    // changes since the previous parse
+    private final DocumentDamage damage = new DocumentDamage();
     
     private TexOutlineInput outlineInput;
     
     private ReferenceContainer bibContainer;
     private ReferenceContainer labelContainer;
     private TexCommandContainer commandContainer;
+    // publishes the snapshots of the containers
+    private ProjectModel projectModel;
     
     private ReferenceManager refMana;
     
@@ -235,6 +255,22 @@ public class TexDocumentModel implements IDocumentListener {
     private ParseJob parseJob;
     private PostParseJob postParseJob;
     
+    /**
+     * The longest time the automatic parsing is delayed in addition to
+     * the delay set in the preferences
+     */
+    private static final int MAX_EXTRA_PARSE_DELAY = 2000;
+    
+    /**
+     * Logs the canceled parses when set to true in the .options file
+     */
+    private static final String DEBUG_OPTION = "net.sourceforge.texlipse/debug/parser";
+    
+    // the time spent in parses that were canceled, used to delay the next parse
+    private volatile int extraParseDelay;
+    private volatile long wastedParseTime;
+    private volatile int canceledParses;
+    
     // preferences
     private int parseDelay;
     private boolean autoParseEnabled;
@@ -327,7 +363,8 @@ public class TexDocumentModel implements IDocumentListener {
             if (bibContainer == null) createReferenceContainers();
             refMana = new ReferenceManager(bibContainer,
                     labelContainer,
-                    commandContainer);
+                    commandContainer,
+                    projectModel);
         }
         return refMana;
     }
@@ -343,12 +380,12 @@ public class TexDocumentModel implements IDocumentListener {
     }
 
     /** 
-     * Does nothing atm.
+     * Records the lines that are about to change.
      * 
      * @see org.eclipse.jface.text.IDocumentListener#documentAboutToBeChanged(org.eclipse.jface.text.DocumentEvent)
      */
     public void documentAboutToBeChanged(DocumentEvent event) {
-    
+        damage.aboutToBeChanged(event);
     }
 
     /**
@@ -364,6 +401,7 @@ public class TexDocumentModel implements IDocumentListener {
      * However we should not spend much time in documentChanged()  
      */
     public void documentChanged(DocumentEvent event) {
+        damage.changed(event);
     
         // set isDirty true and prevent possibly running parseJob from
         // changing it back to false
@@ -391,7 +429,7 @@ public class TexDocumentModel implements IDocumentListener {
         
         // reschedule parsing with delay
         if (autoParseEnabled) {
-            parseJob.schedule(parseDelay);
+            parseJob.schedule(parseDelay + extraParseDelay);
         }
     }
 
@@ -432,8 +470,13 @@ public class TexDocumentModel implements IDocumentListener {
             createProjectOutline();
         }
         
+        DocumentDamage taken = damage.take();
         try {
-            parser.parseDocument(sectionCheckEnabled);
+            parser.parseDocument(taken, sectionCheckEnabled, monitor);
+        } catch (OperationCanceledException e) {
+            // the next parse can still re-parse only the damaged section
+            damage.restore(taken);
+            throw e;
         } catch (IOException e) {
             TexlipsePlugin.log("Can't read file.", e);
             throw new TexDocumentParseException(e);
@@ -454,15 +497,17 @@ public class TexDocumentModel implements IDocumentListener {
         }
 
 
+        List<OutlineNode> fo = null;
         if (editor.getProject() != null && editor.getFullOutline() != null) {
             IResource res = (IResource) editor.getEditorInput().getAdapter(IResource.class);
             String fileName = res.getProjectRelativePath().toString();
             projectOutline.addOutline(parser.getOutlineTree(), fileName);
             
-            List<OutlineNode> fo = projectOutline.getFullOutline();
-            postParseJob.setFONodes(fo);
+            OutlineDelta foDelta = projectOutline.getFullOutlineDelta();
+            fo = foDelta.getRootNodes();
+            postParseJob.setFODelta(foDelta);
         } else {
-            postParseJob.setFONodes(null);
+            postParseJob.setFODelta(null);
         }
         pollCancel(monitor);
         
@@ -479,11 +524,13 @@ public class TexDocumentModel implements IDocumentListener {
         }
         
         updateReferences(monitor);
+        ProjectModelSnapshot snapshot = projectModel.publish(bibContainer,
+                labelContainer, commandContainer, fo);
         
         List<DocumentReference> cites = parser.getCites();
         List<DocumentReference> bibErrors = null;
         for (DocumentReference cite : cites) {
-        	if (!bibContainer.binTest(cite.getKey())) {
+        	if (snapshot.getBibs().getEntry(cite.getKey()) == null) {
         		if (bibErrors == null) bibErrors = new ArrayList<DocumentReference>();
         		bibErrors.add(cite);
         	}
@@ -495,7 +542,7 @@ public class TexDocumentModel implements IDocumentListener {
         List<DocumentReference> refs = parser.getRefs();
         List<DocumentReference> refErrors = null;
         for (DocumentReference ref : refs) {
-			if (!labelContainer.binTest(ref.getKey())) {
+			if (snapshot.getLabels().getEntry(ref.getKey()) == null) {
 				if (refErrors == null) refErrors = new ArrayList<DocumentReference>();
 				refErrors.add(ref);
 			}				
@@ -756,6 +803,7 @@ public class TexDocumentModel implements IDocumentListener {
             path = path.addTrailingSeparator();
         
         KpsewhichRunner filesearch = new KpsewhichRunner();
+        ProjectIndex index = getProjectIndex(project);
                 
         for (Iterator<String> iter = newBibs.iterator(); iter.hasNext();) {
         	String name = iter.next();
@@ -800,9 +848,20 @@ public class TexDocumentModel implements IDocumentListener {
         	    }
         	    
         		if (filepath.length() > 0) {
-        			BibParser parser = new BibParser(filepath);
         			try {
-        				List<ReferenceEntry> bibEntriesList = parser.getEntries();
+        				List<ReferenceEntry> bibEntriesList = index.getBibFile(filepath);
+        				if (bibEntriesList == null) {
+        					// files found outside the project are read with the project encoding
+        					Charset charset = res instanceof IFile
+        					        ? FileContents.getCharset((IFile) res)
+        					        : FileContents.getCharset(project.getDefaultCharset());
+        					BibParser parser = new BibParser(filepath, charset);
+        					parser.setParallel(true);
+        					bibEntriesList = parser.getEntries();
+        					if (bibEntriesList != null) {
+        						index.putBibFile(filepath, bibEntriesList);
+        					}
+        				}
         				if (bibEntriesList != null && bibEntriesList.size() > 0) {
         					bibContainer.addRefSource(path + name, bibEntriesList);
         				} else if (bibEntriesList == null) {
@@ -823,6 +882,7 @@ public class TexDocumentModel implements IDocumentListener {
         	}
         }
         bibContainer.organize();
+        index.save();
     }
     
     /**
@@ -849,7 +909,9 @@ public class TexDocumentModel implements IDocumentListener {
     
     /**
      * Checks whether all includes exists, if they are outside of the
-     * project, add a link to the file to the project 
+     * project, add a link to the file to the project. The found files
+     * are stored in the include graph of the project, and names that
+     * were found before are not searched again.
      * @param includes
      */
     private void processIncludes(List<OutlineNode> includes, IEditorInput input) {
@@ -857,13 +919,24 @@ public class TexDocumentModel implements IDocumentListener {
         if (project == null) return;
         IFile referFile = (IFile) input.getAdapter(IFile.class);
         if (referFile == null) return;
+        IncludeGraph graph = IncludeGraph.getIncludeGraph(project);
+        String referName = referFile.getProjectRelativePath().toString();
+        List<String> names = new ArrayList<String>(includes.size());
+        List<String> files = new ArrayList<String>(includes.size());
         for (OutlineNode node : includes) {
         	IFile f = null;
-            IFile mainTexFile = TexlipseProperties.getProjectSourceFile(project);
-            if (mainTexFile != null) {
-            	//Includes are always relative to the main file
-            	f = TexProjectParser.findIFile(node.getName(), mainTexFile, project);
-            }
+        	String known = graph.getInclude(referName, node.getName());
+        	if (known != null) {
+        	    f = project.getFile(known);
+        	    if (!f.exists()) f = null;
+        	}
+        	if (f == null) {
+        	    IFile mainTexFile = TexlipseProperties.getProjectSourceFile(project);
+        	    if (mainTexFile != null) {
+        	        //Includes are always relative to the main file
+        	        f = TexProjectParser.findIFile(node.getName(), mainTexFile, project);
+        	    }
+        	}
             if (f == null) {
             	//Try finding it relative to refering file
             	f = TexProjectParser.findIFile(node.getName(), referFile, project);
@@ -875,7 +948,10 @@ public class TexDocumentModel implements IDocumentListener {
                         new Object[] { node.getName() });
                 marker.createErrorMarker(referFile, errorMsg, node.getBeginLine());
             }
+            names.add(node.getName());
+            files.add(f != null ? f.getProjectRelativePath().toString() : null);
         }
+        graph.setIncludes(referName, names, files);
     }
     
     /**
@@ -886,11 +962,13 @@ public class TexDocumentModel implements IDocumentListener {
         boolean parseAll = false;
         IProject project = getCurrentProject();
         if (project == null) {
+            if (projectModel == null) projectModel = new ProjectModel();
             if (bibContainer == null) bibContainer = new ReferenceContainer();
             if (labelContainer == null) labelContainer = new ReferenceContainer();
             if (commandContainer == null) commandContainer = new TexCommandContainer();
             return;
         }
+        projectModel = ProjectModel.getProjectModel(project);
         ReferenceContainer bibCon = (ReferenceContainer) TexlipseProperties.getSessionProperty(project,
                 TexlipseProperties.BIBCONTAINER_PROPERTY);
         if (bibCon == null) {
@@ -927,13 +1005,74 @@ public class TexDocumentModel implements IDocumentListener {
         
         if (parseAll) {
             createProjectDatastructs(project);
+            projectModel.publish(bibContainer, labelContainer, commandContainer, null);
         }
     }
     
+    /**
+     * Returns the persistent index of the project, loading it from disk
+     * on first use.
+     * 
+     * @param project The current project
+     * @return The index of the project
+     */
+    private ProjectIndex getProjectIndex(IProject project) {
+        synchronized (ProjectIndex.class) {
+            ProjectIndex index = (ProjectIndex) TexlipseProperties.getSessionProperty(project,
+                    TexlipseProperties.SESSION_PROJECT_INDEX);
+            if (index == null) {
+                index = ProjectIndex.load(project);
+                TexlipseProperties.setSessionProperty(project,
+                        TexlipseProperties.SESSION_PROJECT_INDEX, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Reads the references of a LaTeX file from the project index, or
+     * parses the file if it has changed since it was indexed.
+     * 
+     * The extraction is cached, so the editor of the file and the project
+     * outline can reuse it instead of parsing the file again.
+     */
+    private static class ExtractJob implements Callable<ProjectIndex.TexFileData> {
+        
+        private final IResource file;
+        private final ProjectIndex index;
+        private final boolean checkForMissingSections;
+        
+        public ExtractJob(IResource file, ProjectIndex index,
+                boolean checkForMissingSections) {
+            this.file = file;
+            this.index = index;
+            this.checkForMissingSections = checkForMissingSections;
+        }
+        
+        /**
+         * @return The data of the file or null if the file contains fatal errors
+         */
+        public ProjectIndex.TexFileData call() throws IOException {
+            ProjectIndex.TexFileData data = index.getTexFile(file);
+            if (data == null) {
+                String input = TexlipseProperties.getFileContents(file);
+                LatexExtractor extractor = LatexExtractor.get(input, checkForMissingSections);
+                if (extractor.isLexerError()) {
+                    return null;
+                }
+                data = index.putTexFile(file, extractor);
+            }
+            return data;
+        }
+    }
+
     /**
      * Creates all the project data structures. These include the reference
      * completions (BibTeX and label), command completions, the preamble,
-     * the BibTeX style.
+     * the BibTeX style. Files that have not changed since they were last
+     * parsed are read from the project index, the others are parsed in
+     * parallel. The results are merged into the containers in the order
+     * of the project files.
      * 
      * @param project The current project
      */
@@ -944,58 +1083,83 @@ public class TexDocumentModel implements IDocumentListener {
         
         if (files != null) {
             IFile mainFile = TexlipseProperties.getProjectSourceFile(project);
+            ProjectIndex index = getProjectIndex(project);
+            index.retainTexFiles(files);
 
+            List<IResource> texFiles = new ArrayList<IResource>();
             for (int i = 0; i < files.length; i++) {
                 //IPath path = files[i].getFullPath();
                 String ext = files[i].getFileExtension();
 				// here are the file types we want to parse
                 if ("tex".equals(ext) || "ltx".equals(ext) || "sty".equals(ext)) {
-                    try {
-                        String input = TexlipseProperties.getFileContents(files[i]);
-                        LatexRefExtractingParser lrep = new LatexRefExtractingParser();
-                        lrep.parse(input);
-                        if (lrep.isFatalErrors()) {
-                            MarkerHandler marker = MarkerHandler.getInstance();
-                            marker.addFatalError(editor, "The file " + files[i].getFullPath() + " contains fatal errors, parsing aborted.");
-                            continue;
-                        }
-                        List<ReferenceEntry> labels = lrep.getLabels();
-                        if (labels.size() > 0) {
-                            labelContainer.addRefSource(files[i].getProjectRelativePath().toString(), labels);
-                        }
-                        List<TexCommandEntry> commands = lrep.getCommands();
-                        if (commands.size() > 0) {
-                            commandContainer.addRefSource(files[i].getProjectRelativePath().toString(), commands);
-                        }
-                        //Only update Preamble, Bibstyle if main Document
-                        if (files[i].equals(mainFile)) {
-                            String[] bibs = lrep.getBibs();
-                            boolean biblatexMode = lrep.isBiblatexMode();
-                            String biblatexBackend = lrep.getBiblatexBackend();
-                            this.updateBiblatex(project, biblatexMode, biblatexBackend, true);
-                            this.updateBibs(bibs, biblatexMode, files[i]);
+                    texFiles.add(files[i]);
+                }
+            }
 
-                            String preamble = lrep.getPreamble();
-                            if (preamble != null) {
-                                TexlipseProperties.setSessionProperty(project, 
-                                        TexlipseProperties.PREAMBLE_PROPERTY,
-                                        preamble);
-                            }
+            int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                    texFiles.size()));
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<ProjectIndex.TexFileData>> results =
+                    new ArrayList<Future<ProjectIndex.TexFileData>>(texFiles.size());
+                for (IResource file : texFiles) {
+                    results.add(executor.submit(new ExtractJob(file, index, sectionCheckEnabled)));
+                }
 
-                            String bibstyle = lrep.getBibstyle();
-                            if (bibstyle != null)
-                                TexlipseProperties.setSessionProperty(project, 
-                                        TexlipseProperties.BIBSTYLE_PROPERTY,
-                                        bibstyle);
+                for (int i = 0; i < texFiles.size(); i++) {
+                    IResource file = texFiles.get(i);
+                    ProjectIndex.TexFileData lrep;
+                    try {
+                        lrep = results.get(i).get();
+                    } catch (ExecutionException e) {
+                        TexlipsePlugin.log("Unable to open file " + file.getFullPath() + " for parsing", e.getCause());
+                        continue;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    if (lrep == null) {
+                        MarkerHandler marker = MarkerHandler.getInstance();
+                        marker.addFatalError(editor, "The file " + file.getFullPath() + " contains fatal errors, parsing aborted.");
+                        continue;
+                    }
+                    List<ReferenceEntry> labels = lrep.getLabels();
+                    if (labels.size() > 0) {
+                        labelContainer.addRefSource(file.getProjectRelativePath().toString(), labels);
+                    }
+                    List<TexCommandEntry> commands = lrep.getCommands();
+                    if (commands.size() > 0) {
+                        commandContainer.addRefSource(file.getProjectRelativePath().toString(), commands);
+                    }
+                    //Only update Preamble, Bibstyle if main Document
+                    if (file.equals(mainFile)) {
+                        String[] bibs = lrep.getBibs();
+                        boolean biblatexMode = lrep.isBiblatexMode();
+                        String biblatexBackend = lrep.getBiblatexBackend();
+                        this.updateBiblatex(project, biblatexMode, biblatexBackend, true);
+                        this.updateBibs(bibs, biblatexMode, file);
+
+                        String preamble = lrep.getPreamble();
+                        if (preamble != null) {
+                            TexlipseProperties.setSessionProperty(project, 
+                                    TexlipseProperties.PREAMBLE_PROPERTY,
+                                    preamble);
                         }
-                    } catch (IOException ioe) {
-                        TexlipsePlugin.log("Unable to open file " + files[i].getFullPath() + " for parsing", ioe);
+
+                        String bibstyle = lrep.getBibstyle();
+                        if (bibstyle != null)
+                            TexlipseProperties.setSessionProperty(project, 
+                                    TexlipseProperties.BIBSTYLE_PROPERTY,
+                                    bibstyle);
                     }
                 }
+            } finally {
+                executor.shutdownNow();
             }
             // save time by doing this last
             labelContainer.organize();
             commandContainer.organize();
+            index.save();
         }
     }
     
@@ -1027,6 +1191,62 @@ public class TexDocumentModel implements IDocumentListener {
         this.isDirty = dirty;
     }
 
+    /**
+     * Records a parse that was canceled because the document changed.
+     * The automatic parsing is then delayed for about as long as the
+     * wasted parse took, so that while the user keeps typing, fewer
+     * parses are started only to be thrown away.
+     * 
+     * @param time The time spent in the parse job in milliseconds
+     */
+    private void parseCanceled(long time) {
+        wastedParseTime += time;
+        canceledParses++;
+        extraParseDelay = (int) Math.min(MAX_EXTRA_PARSE_DELAY, extraParseDelay + time);
+        if ("true".equalsIgnoreCase(Platform.getDebugOption(DEBUG_OPTION))) {
+            TexlipsePlugin.log("Parse canceled after " + time + " ms: " + canceledParses
+                    + " canceled parses took " + wastedParseTime + " ms and read "
+                    + getWastedParseTokens() + " tokens, next parse delayed by "
+                    + extraParseDelay + " ms", null, IStatus.INFO);
+        }
+    }
+    
+    /**
+     * Records a parse that was finished, which halves the extra delay
+     * caused by earlier canceled parses.
+     */
+    private void parseFinished() {
+        extraParseDelay /= 2;
+    }
+    
+    /**
+     * Returns the time spent in parse jobs that were canceled before
+     * they were finished, i.e. the parse work that was thrown away.
+     * 
+     * @return The time in milliseconds
+     */
+    public long getWastedParseTime() {
+        return wastedParseTime;
+    }
+    
+    /**
+     * Returns the number of tokens read by the parses of this document
+     * that were canceled.
+     * 
+     * @return The number of tokens
+     */
+    public long getWastedParseTokens() {
+        TexParser p = parser;
+        return p != null ? p.getWastedTokens() : 0;
+    }
+    
+    /**
+     * @return The number of parse jobs that were canceled
+     */
+    public int getCanceledParses() {
+        return canceledParses;
+    }
+    
     /**
      * Cancels a job by throwing OperationCanceledException.
      * 
@@ -9,15 +9,13 @@
  */
 package net.sourceforge.texlipse.model;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.List;
 
 import net.sourceforge.texlipse.TexlipsePlugin;
 import net.sourceforge.texlipse.builder.KpsewhichRunner;
 import net.sourceforge.texlipse.editor.TexDocumentParseException;
-import net.sourceforge.texlipse.texparser.TexParser;
+import net.sourceforge.texlipse.texparser.LatexExtractor;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
@@ -38,7 +36,6 @@ public class TexProjectParser {
 
     private IFile file;
     
-    private TexParser parser;
         
     private static final String TEX_FILE_ENDING = ".tex";
 
@@ -128,28 +125,13 @@ public class TexProjectParser {
      */
     private List<OutlineNode> parseFile() throws IOException {
         String inputContent = readFile(file);
-        parseDocument(inputContent);
-        if (parser.isFatalErrors()) {
+        LatexExtractor extractor = LatexExtractor.get(inputContent, false);
+        if (extractor.isFatalErrors()) {
             throw new IOException("Unable to parse document successfully");
         }
-        return parser.getOutlineTree();
+        return extractor.getOutlineTree();
     }
     
-    /**
-     * Parses the document. Parses the complete project with its inputs recursively.
-     * At the first round the complete project is parsed. Then only the changed
-     * parts will be parsed again and the outlineTree will be generated.
-     * 
-     * @param labels the label container.
-     * @param bibs the bib container.
-     */
-    private void parseDocument(String input) throws IOException {
-        if (this.parser == null) {
-            this.parser = new TexParser(null);
-        }
-        this.parser.parseDocument(input, false);
-    }
-
     /**
      * Reads a file from the project.
      * 
@@ -158,28 +140,7 @@ public class TexProjectParser {
      * @throws IOException
      */
     private String readFile(IFile file) throws IOException {
-        StringBuilder inputContent = new StringBuilder("");
-        try {
-            BufferedReader buf = new BufferedReader(
-                    new InputStreamReader(file.getContents()));
-            
-            final int length = 10000;
-            int read = length;
-            char[] fileData = new char[length];
-            while (read == length) {
-                read = buf.read(fileData, 0, length);
-                if (read > 0) {
-                    inputContent.append(fileData, 0, read);
-                }
-            }
-            buf.close();
-        } catch (CoreException e) {
-            // This should be very rare...
-            throw new IOException(e.getMessage());
-        }
-        // TODO
-        //return this.rmTrailingWhitespace(inputContent);
-        return inputContent.toString();
+        return FileContents.read(file).toString();
     }
     
 }
@@ -0,0 +1,80 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.outline;
+
+import java.util.List;
+import java.util.Set;
+
+import net.sourceforge.texlipse.model.OutlineNode;
+
+/**
+ * The difference between two successive versions of the full outline
+ * created by <code>TexProjectOutline</code>. The top level subtrees that
+ * did not change are the same objects in both versions, so a viewer
+ * showing the previous version only needs to refresh the top level nodes
+ * that replace a node of the same name.
+ */
+public class OutlineDelta {
+
+    private final List<OutlineNode> rootNodes;
+    private final int previousVersion;
+    private final int version;
+    private final Set<OutlineNode> changedNodes;
+
+    /**
+     * @param rootNodes The top level nodes of the new version
+     * @param previousVersion The version this delta applies to
+     * @param version The version of the full outline
+     * @param changedNodes The top level nodes that replace a node of the
+     *  same name, or null if the top level nodes were added, removed
+     *  or renamed
+     */
+    OutlineDelta(List<OutlineNode> rootNodes, int previousVersion, int version,
+            Set<OutlineNode> changedNodes) {
+        this.rootNodes = rootNodes;
+        this.previousVersion = previousVersion;
+        this.version = version;
+        this.changedNodes = changedNodes;
+    }
+
+    /**
+     * @return The top level nodes of the full outline
+     */
+    public List<OutlineNode> getRootNodes() {
+        return rootNodes;
+    }
+
+    /**
+     * @return The version of the full outline this delta applies to
+     */
+    public int getPreviousVersion() {
+        return previousVersion;
+    }
+
+    /**
+     * @return The version of the full outline
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the top level nodes that need to be refreshed (with their
+     * subtrees) to turn the previous version into this one. Each replaces
+     * the node at the same index of the previous version, which has the
+     * same name.
+     *
+     * @return The changed nodes, or null if the whole outline needs
+     *  to be updated
+     */
+    public Set<OutlineNode> getChangedNodes() {
+        return changedNodes;
+    }
+}
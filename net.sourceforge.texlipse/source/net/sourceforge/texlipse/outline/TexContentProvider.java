@@ -91,6 +91,16 @@ public class TexContentProvider implements ITreeContentProvider {
 		return this.rootElements.toArray();
 	}
 
+	/**
+     * Replaces the root elements without changing the input of the
+     * viewer. The viewer must be refreshed after this.
+     * 
+     * @param rootElements the new root elements
+	 */
+	public void setRootElements(List<OutlineNode> rootElements) {
+		this.rootElements = rootElements;
+	}
+
 	/**
      * Disposes the tree that is the root element list.
      * 
@@ -9,6 +9,7 @@
  */
 package net.sourceforge.texlipse.outline;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -226,16 +227,58 @@ public class TexOutlinePage extends ContentOutlinePage {
                  */
                 control.setRedraw(true);
                 
-                // disable the refresh button, enable context stuff
-                outlineActions.get(ACTION_UPDATE).setEnabled(false);
-                outlineActions.get(ACTION_COPY).setEnabled(true);
-                outlineActions.get(ACTION_CUT).setEnabled(true);
-                outlineActions.get(ACTION_PASTE).setEnabled(true);
-                outlineActions.get(ACTION_DELETE).setEnabled(true);
+                enableActions();
             }
         }
     }
     
+    /**
+     * Updates the outline with new content that differs from the shown
+     * content only in the given top level nodes. Each of them replaces
+     * a shown node of the same name, and the other nodes must be the same
+     * objects as in the shown content. Only the changed nodes are
+     * refreshed, so the state of the rest of the tree is kept as it is.
+     *
+     * @param input the new outline input
+     * @param changedNodes the replacing top level nodes, or null
+     *  to replace the whole content
+     */
+    public void update(TexOutlineInput input, Collection<OutlineNode> changedNodes) {
+        TreeViewer viewer= getTreeViewer();
+        if (changedNodes == null || viewer == null || viewer.getInput() == null) {
+            update(input);
+            return;
+        }
+        this.input = input;
+        
+        Control control= viewer.getControl();
+        if (control != null && !control.isDisposed()) {
+            if (!changedNodes.isEmpty()) {
+                ((TexContentProvider) viewer.getContentProvider()).setRootElements(input.getRootNodes());
+                // the comparer finds the item of the replaced node by its
+                // name, and the refresh puts the new node in it
+                control.setRedraw(false);
+                for (OutlineNode node : changedNodes) {
+                    viewer.refresh(node);
+                }
+                control.setRedraw(true);
+            }
+            enableActions();
+        }
+    }
+    
+    /**
+     * Disables the update button and enables the context actions
+     * after the content has been updated.
+     */
+    private void enableActions() {
+        outlineActions.get(ACTION_UPDATE).setEnabled(false);
+        outlineActions.get(ACTION_COPY).setEnabled(true);
+        outlineActions.get(ACTION_CUT).setEnabled(true);
+        outlineActions.get(ACTION_PASTE).setEnabled(true);
+        outlineActions.get(ACTION_DELETE).setEnabled(true);
+    }
+    
     /**
      * Focuses the editor to the text of the selected item.
      * 
@@ -13,12 +13,14 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import net.sourceforge.texlipse.TexlipsePlugin;
+import net.sourceforge.texlipse.model.IncludeGraph;
 import net.sourceforge.texlipse.model.MarkerHandler;
 import net.sourceforge.texlipse.model.OutlineNode;
 import net.sourceforge.texlipse.model.TexProjectParser;
@@ -28,7 +30,21 @@ import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 
 /**
- * Container for an outline representing the entire project
+ * Container for an outline representing the entire project. The parse
+ * jobs of several editors may update it, so the public methods are
+ * synchronized.
+ * 
+ * The full outline is kept until a file that the main file includes
+ * (directly or indirectly) gets a different outline. The include
+ * relations and the resolved file names are taken from the project's
+ * <code>IncludeGraph</code>.
+ * 
+ * The nodes of a published full outline are never changed, as the
+ * viewers and the project model snapshots read them without locking.
+ * When the full outline is created again, the top level subtrees that
+ * came out the same as in the previous version are replaced by the
+ * subtrees of the previous version, and the difference between the two
+ * versions is available as an <code>OutlineDelta</code>.
  * 
  * @author Oskar Ojala
  */
@@ -40,6 +56,36 @@ public class TexProjectOutline {
     private TexProjectParser fileParser;
     private Map<String, List<OutlineNode>> outlines = new HashMap<String, List<OutlineNode>>();
     private Set<String> included = new HashSet<String>();
+    private IncludeGraph includeGraph;
+    // the last full outline, null if it needs to be created again
+    private OutlineDelta fullOutline;
+    private int version = -1;
+    // versions are unique over all projects
+    private static int lastVersion = -1;
+    private List<OutlineNode> previousOutline;
+    // node of the full outline -> node it was copied from
+    private Map<OutlineNode, OutlineNode> sources = new IdentityHashMap<OutlineNode, OutlineNode>();
+    // the same for the outline being created
+    private Map<OutlineNode, OutlineNode> newSources = new IdentityHashMap<OutlineNode, OutlineNode>();
+    // the files whose problem markers the full outline clears
+    private List<IFile> markedFiles = new ArrayList<IFile>();
+    // the problems found when the full outline was created
+    private List<OutlineProblem> problems = new ArrayList<OutlineProblem>();
+    
+    /**
+     * A problem marker created for the full outline.
+     */
+    private static class OutlineProblem {
+        final IFile file;
+        final String message;
+        final int lineNumber;
+        
+        OutlineProblem(IFile file, String message, int lineNumber) {
+            this.file = file;
+            this.message = message;
+            this.lineNumber = lineNumber;
+        }
+    }
     
     /**
      * Creates a new project outline
@@ -51,6 +97,7 @@ public class TexProjectOutline {
     public TexProjectOutline(IProject currentProject) {
         this.currentProject = currentProject;
         this.fileParser = new TexProjectParser(currentProject);
+        this.includeGraph = IncludeGraph.getIncludeGraph(currentProject);
     }
 
     /**
@@ -60,7 +107,7 @@ public class TexProjectOutline {
      * @param fileName The path of the source file relative to the
      *                 project's base directory
      */
-    public void addOutline(List<OutlineNode> nodes, String fileName) {
+    public synchronized void addOutline(List<OutlineNode> nodes, String fileName) {
         outlines.put(fileName, nodes);
         
         IFile mainFile = TexlipseProperties.getProjectSourceFile(currentProject);
@@ -69,6 +116,10 @@ public class TexProjectOutline {
         if (fileName.equals(str)) {
             this.topLevelNodes = nodes;
         }
+        if (includeGraph.updateOutline(fileName, nodes)
+                && includeGraph.affects(fileName, str)) {
+            fullOutline = null;
+        }
     }
     
     /**
@@ -81,13 +132,176 @@ public class TexProjectOutline {
      * 
      * @return List containing <code>outlineNode</code>s
      */
-    public List<OutlineNode> getFullOutline() {
+    public synchronized List<OutlineNode> getFullOutline() {
+        return getFullOutlineDelta().getRootNodes();
+    }
+    
+    /**
+     * Returns the complete outline (see <code>getFullOutline()</code>)
+     * together with the changes since the previous version.
+     * 
+     * @return The delta from the previous full outline
+     */
+    public synchronized OutlineDelta getFullOutlineDelta() {
+        if (fullOutline != null) {
+            restoreProblemMarkers();
+            return fullOutline;
+        }
+        markedFiles.clear();
+        problems.clear();
+        List<OutlineNode> outlineTop = createFullOutline();
+        if (outlineTop == null) {
+            return new OutlineDelta(new ArrayList<OutlineNode>(), -1, -1, null);
+        }
+        reuseUnchanged(outlineTop);
+        int newVersion;
+        synchronized (TexProjectOutline.class) {
+            newVersion = ++lastVersion;
+        }
+        fullOutline = new OutlineDelta(outlineTop, version, newVersion,
+                getChangedNodes(outlineTop));
+        version = newVersion;
+        previousOutline = outlineTop;
+        return fullOutline;
+    }
+    
+    /**
+     * Clears the problem markers of the files in the full outline and
+     * creates the markers of the problems found when it was created,
+     * as if the outline was created again.
+     */
+    private void restoreProblemMarkers() {
+        MarkerHandler marker = MarkerHandler.getInstance();
+        for (IFile file : markedFiles) {
+            marker.clearProblemMarkers(file);
+        }
+        for (OutlineProblem problem : problems) {
+            marker.createErrorMarker(problem.file, problem.message, problem.lineNumber);
+        }
+    }
+    
+    /**
+     * Creates a problem marker and keeps it for <code>restoreProblemMarkers()</code>.
+     */
+    private void createErrorMarker(IFile file, String message, int lineNumber) {
+        MarkerHandler.getInstance().createErrorMarker(file, message, lineNumber);
+        problems.add(new OutlineProblem(file, message, lineNumber));
+    }
+    
+    /**
+     * Clears the problem markers of a file and keeps it for
+     * <code>restoreProblemMarkers()</code>.
+     */
+    private void clearProblemMarkers(IFile file) {
+        MarkerHandler.getInstance().clearProblemMarkers(file);
+        markedFiles.add(file);
+    }
+    
+    /**
+     * Replaces the new top level subtrees that are the same as a subtree
+     * of the previous full outline by the previous subtree. Subtrees are
+     * the same if their nodes were copied from the same nodes in the same
+     * shape. The new nodes have not been published yet, so they can still
+     * be replaced; the nodes of the previous outline are not modified.
+     * 
+     * @param outlineTop The top level nodes of the new full outline
+     */
+    private void reuseUnchanged(List<OutlineNode> outlineTop) {
+        Map<OutlineNode, OutlineNode> previousBySource = new IdentityHashMap<OutlineNode, OutlineNode>();
+        if (previousOutline != null) {
+            for (OutlineNode node : previousOutline) {
+                previousBySource.put(sources.get(node), node);
+            }
+        }
+        Map<OutlineNode, OutlineNode> outlineSources = new IdentityHashMap<OutlineNode, OutlineNode>();
+        for (int i = 0; i < outlineTop.size(); i++) {
+            OutlineNode node = outlineTop.get(i);
+            OutlineNode previous = previousBySource.get(newSources.get(node));
+            if (previous != null && sameTree(node, previous)) {
+                // a file included twice must not show the same nodes twice
+                previousBySource.remove(newSources.get(node));
+                outlineTop.set(i, previous);
+                addSources(previous, sources, outlineSources);
+            } else {
+                addSources(node, newSources, outlineSources);
+            }
+        }
+        sources = outlineSources;
+        newSources = new IdentityHashMap<OutlineNode, OutlineNode>();
+    }
+    
+    /**
+     * Checks whether a new subtree was copied from the same nodes as
+     * a subtree of the previous full outline.
+     */
+    private boolean sameTree(OutlineNode node, OutlineNode previous) {
+        if (newSources.get(node) != sources.get(previous)
+                || node.getIFile() != null && !node.getIFile().equals(previous.getIFile())) {
+            return false;
+        }
+        List<OutlineNode> children = node.getChildren();
+        List<OutlineNode> previousChildren = previous.getChildren();
+        int size = children != null ? children.size() : 0;
+        if (size != (previousChildren != null ? previousChildren.size() : 0)) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (!sameTree(children.get(i), previousChildren.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static void addSources(OutlineNode node, Map<OutlineNode, OutlineNode> from,
+            Map<OutlineNode, OutlineNode> to) {
+        to.put(node, from.get(node));
+        if (node.getChildren() != null) {
+            for (OutlineNode child : node.getChildren()) {
+                addSources(child, from, to);
+            }
+        }
+    }
+    
+    /**
+     * Returns the top level nodes that replace a node of the same name
+     * in the previous full outline.
+     * 
+     * @param outlineTop The new full outline
+     * @return The replacing nodes or null if the top level nodes were
+     *  added, removed or renamed
+     */
+    private Set<OutlineNode> getChangedNodes(List<OutlineNode> outlineTop) {
+        if (previousOutline == null || previousOutline.size() != outlineTop.size()) {
+            return null;
+        }
+        Set<OutlineNode> changed = new HashSet<OutlineNode>();
+        for (int i = 0; i < outlineTop.size(); i++) {
+            OutlineNode node = outlineTop.get(i);
+            OutlineNode previous = previousOutline.get(i);
+            if (node != previous) {
+                if (!node.getName().equals(previous.getName())) {
+                    return null;
+                }
+                changed.add(node);
+            }
+        }
+        return changed;
+    }
+    
+    /**
+     * Creates the full outline from new copies of the nodes.
+     * 
+     * @return The top level nodes of the full outline or null if the
+     *  main file could not be parsed
+     */
+    private List<OutlineNode> createFullOutline() {
         included.clear();
+        newSources.clear();
         virtualTopNode = new OutlineNode("Entire document", OutlineNode.TYPE_DOCUMENT, 0, null);
         
         IFile currentTexFile = TexlipseProperties.getProjectSourceFile(currentProject);
-        MarkerHandler marker = MarkerHandler.getInstance();
-        marker.clearProblemMarkers(currentTexFile);
+        clearProblemMarkers(currentTexFile);
         String fullName = getProjectRelativeName(currentTexFile);
         if (topLevelNodes == null) {
             try {
@@ -95,7 +309,7 @@ public class TexProjectOutline {
                 outlines.put(fullName, topLevelNodes);
             } catch (IOException ioe) {
                 TexlipsePlugin.log("Unable to create full document outline; main file is not parsable", ioe);
-                return new ArrayList<OutlineNode>();
+                return null;
             }
         }
         included.add(fullName);
@@ -109,6 +323,19 @@ public class TexProjectOutline {
         return outlineTop;
     }
     
+    /**
+     * Copies a node for the full outline.
+     * 
+     * @param node The node to copy
+     * @param texFile The file that contains the node
+     * @return The copy without children
+     */
+    private OutlineNode copy(OutlineNode node, IFile texFile) {
+        OutlineNode newNode = node.copy(texFile);
+        newSources.put(newNode, node);
+        return newNode;
+    }
+    
     /**
      * Replaces an input node with the outline that the referred file contains.
      * 
@@ -140,7 +367,7 @@ public class TexProjectOutline {
                     parent = parent.getParent();
                 }
                 
-                OutlineNode newNode = oldNode2.copy(texFile);
+                OutlineNode newNode = copy(oldNode2, texFile);
                 parent.addChild(newNode);
                 newNode.setParent(parent);
                 
@@ -184,7 +411,7 @@ public class TexProjectOutline {
                     insert = true;
                 }
             } else {
-                OutlineNode newNode = node.copy(texFile);
+                OutlineNode newNode = copy(node, texFile);
                 main.addChild(newNode);
                 newNode.setParent(main);
                 List<OutlineNode> oldChildren = node.getChildren();
@@ -254,19 +481,30 @@ public class TexProjectOutline {
      * @return The corresponding IFile or null if no file was found
      */
     private IFile resolveFile(String name, IFile referringFile, int lineNumber) {
-        MarkerHandler marker = MarkerHandler.getInstance();
-        //Inclusions are always relative to the main file
-        IFile currentTexFile = TexlipseProperties.getProjectSourceFile(currentProject);
-        
-        IFile newTexFile = fileParser.findIFile(name, currentTexFile);
+        String referringName = getProjectRelativeName(referringFile);
+        IFile newTexFile = null;
+        String known = includeGraph.getInclude(referringName, name);
+        if (known != null) {
+            newTexFile = currentProject.getFile(known);
+            if (!newTexFile.exists()) {
+                newTexFile = null;
+            }
+        }
         if (newTexFile == null) {
-/*            marker.createErrorMarker(referringFile,
-                    "Could not find file " + name,
-                    lineNumber);*/
-            return null;
+            //Inclusions are always relative to the main file
+            IFile currentTexFile = TexlipseProperties.getProjectSourceFile(currentProject);
+            
+            newTexFile = fileParser.findIFile(name, currentTexFile);
+            if (newTexFile == null) {
+/*                marker.createErrorMarker(referringFile,
+                        "Could not find file " + name,
+                        lineNumber);*/
+                return null;
+            }
+            includeGraph.addInclude(referringName, name, getProjectRelativeName(newTexFile));
         }
         // TODO check that this doesn't get messed up if the same file is included sevral times
-        marker.clearProblemMarkers(newTexFile);
+        clearProblemMarkers(newTexFile);
         return newTexFile;
     }
     
@@ -280,23 +518,22 @@ public class TexProjectOutline {
      * failed
      */
     private List<OutlineNode> loadInput(IFile newTexFile, IFile referringFile, int lineNumber) {
-        MarkerHandler marker = MarkerHandler.getInstance();
-        
         String fullName = getProjectRelativeName(newTexFile);         
         List<OutlineNode> nodes = outlines.get(fullName);
         if (nodes == null) {
             try {
                 nodes = fileParser.parseFile(newTexFile);
                 outlines.put(fullName, nodes);
+                includeGraph.updateOutline(fullName, nodes);
             } catch (IOException ioe) {
-                marker.createErrorMarker(referringFile,
+                createErrorMarker(referringFile,
                         "Could not parse file " + fullName + ", reason: " + ioe.getMessage(),
                         lineNumber);
                 return new ArrayList<OutlineNode>();
             }
         }
         if (!included.add(fullName)) {
-            marker.createErrorMarker(referringFile,
+            createErrorMarker(referringFile,
                     "Circular include of " + fullName,
                     lineNumber);
             return new ArrayList<OutlineNode>();            
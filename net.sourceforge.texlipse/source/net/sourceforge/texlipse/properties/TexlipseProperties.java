@@ -11,15 +11,13 @@ package net.sourceforge.texlipse.properties;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
 import net.sourceforge.texlipse.TexlipsePlugin;
+import net.sourceforge.texlipse.model.FileContents;
 
 import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
@@ -176,6 +174,9 @@ public class TexlipseProperties {
     // attribute for session properties to hold the viewer process object
     public static final String SESSION_ATTRIBUTE_VIEWER = "active.viewer";
     public static final String SESSION_PROJECT_FULLOUTLINE = "project.fullTexParser";
+    public static final String SESSION_PROJECT_INDEX = "project.index";
+    public static final String SESSION_PROJECT_MODEL = "project.model";
+    public static final String SESSION_INCLUDE_GRAPH = "project.includeGraph";
     
     public static final String ECLIPSE_BUILDIN_SPELLCHECKER = "eclipseBuildInSpellChecker";
     public static final String SPELLCHECKER_DICT_DIR = "spellcheckerDictDir";
@@ -183,6 +184,7 @@ public class TexlipseProperties {
     public static final String SPELLCHECKER_IGNORE_COMMENTS = "spellcheckerIgnoreComments"; 
     public static final String SPELLCHECKER_IGNORE_MATH = "spellcheckerIgnoreMath"; 
     public static final String SPELLCHECKER_IGNORE_MIXED_CASE = "spellcheckerIgnoreMixedCase"; 
+    public static final String SPELLCHECKER_IGNORE_COMMANDS = "spellcheckerIgnoreCommands";
     
     /**
        * A named preference that controls whether bracket matching highlighting is turned on or off.
@@ -217,32 +219,8 @@ public class TexlipseProperties {
        if (resource.getType() != IResource.FILE)
            return null;
 
-       File f = resource.getLocation().toFile();
-       FileInputStream in = new FileInputStream(f);
-       ByteArrayOutputStream out = new ByteArrayOutputStream();
-       byte[] buff = new byte[4096];
-       
-       int len = 0;
-       while ((len = in.read(buff)) == buff.length) {
-           out.write(buff);
-       }
-       
-       if (len > 0) {
-           out.write(buff, 0, len);
-       }
-       in.close();
-       String contents = null;
-       try {
-           // cast will succeed, because we have already checked for it to be a file
-           contents = out.toString(((IFile) resource).getCharset());
-       } catch (UnsupportedEncodingException e) {
-           // if the correct encoding is not supported, try with default
-           contents = out.toString();
-       } catch (CoreException e) {
-           // should not happen
-       }
-       out.close();
-       return contents;
+       // cast will succeed, because we have already checked for it to be a file
+       return FileContents.read((IFile) resource).toString();
     }
     
     /**
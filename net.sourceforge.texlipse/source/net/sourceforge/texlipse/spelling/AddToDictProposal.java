@@ -45,8 +45,7 @@ public class AddToDictProposal implements ICompletionProposal {
     }
     
     public void apply(IDocument document) {
-        TexSpellDictionary dict = TexSpellingEngine.getDict(fLang);
-        dict.addWord(ferror.getInvalidWord());
+        TexSpellingEngine.addWord(fLang, ferror.getInvalidWord());
         SpellingProblem.removeAll(fviewer, ferror.getInvalidWord());
     }
 
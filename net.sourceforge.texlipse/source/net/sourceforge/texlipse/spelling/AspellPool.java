@@ -0,0 +1,396 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.spelling;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sourceforge.texlipse.TexlipsePlugin;
+import net.sourceforge.texlipse.builder.BuilderRegistry;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * A pool of running aspell processes. The processes are kept by their
+ * command, which contains the language and the encoding, so that they
+ * can be reused by later spell checks. A process that has been idle
+ * for longer than the timeout is stopped.
+ *
+ * The TeX filter of aspell keeps its state from one line to the next,
+ * for example inside the arguments of a skipped command, so the filter
+ * of a process is reset when the process is returned to the pool.
+ *
+ * The lines of a whole document are split into ranges at the blank
+ * lines, where a paragraph ends and the state of the TeX filter no
+ * longer matters, and the ranges are checked in parallel, each by a
+ * process of its own.
+ */
+final class AspellPool {
+
+    /**
+     * Shows the messages about starting the spelling programs.
+     */
+    interface Console {
+        /**
+         * @param command the command of the program that is started
+         */
+        void starting(String command);
+        /**
+         * @param message a message of the program
+         */
+        void print(String message);
+        /**
+         * @param e the error reading from the program, or null if the
+         *  program could not be run
+         */
+        void startFailed(Exception e);
+    }
+
+    /**
+     * Shows the messages in the console of the plugin
+     */
+    static final Console PLUGIN_CONSOLE = new Console() {
+        public void starting(String command) {
+            BuilderRegistry.printToConsole(TexlipsePlugin.getResourceString("viewerRunning") + ' ' + command);
+        }
+        public void print(String message) {
+            BuilderRegistry.printToConsole(message);
+        }
+        public void startFailed(Exception e) {
+            if (e != null) {
+                TexlipsePlugin.log("Aspell died", e);
+            }
+            BuilderRegistry.printToConsole(TexlipsePlugin.getResourceString("spellProgramStartError"));
+        }
+    };
+
+    /**
+     * The time after which an idle process is stopped, in milliseconds
+     */
+    private static final long IDLE_TIMEOUT = 60 * 1000;
+
+    /**
+     * The default for the largest number of processes that check a
+     * document and are kept idle for each command
+     */
+    private static final int MAX_PROCESSES =
+        Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * The smallest number of lines checked by a process of its own
+     */
+    static final int MIN_RANGE_LINES = 200;
+
+    /**
+     * The largest number of lines sent ahead of the results that have
+     * been taken. This bounds the results queued by a process.
+     */
+    static final int SEND_AHEAD = 64;
+
+    private final Console console;
+    private final int maxProcesses;
+
+    private final Map<String, LinkedList<AspellProcess>> idle =
+        new HashMap<String, LinkedList<AspellProcess>>();
+
+    // incremented when the settings change, older processes are not reused
+    private int generation;
+
+    private final Job recycleJob = new Job("Stopping idle spell checkers") {
+        protected IStatus run(IProgressMonitor monitor) {
+            recycle();
+            return Status.OK_STATUS;
+        }
+    };
+
+    /**
+     * Creates a pool that shows its messages in the console of the plugin.
+     */
+    AspellPool() {
+        this(PLUGIN_CONSOLE, MAX_PROCESSES);
+    }
+
+    /**
+     * @param console the console for the messages of the processes
+     * @param maxProcesses the largest number of processes that check a
+     *  document and are kept idle for each command
+     */
+    AspellPool(Console console, int maxProcesses) {
+        this.console = console;
+        this.maxProcesses = maxProcesses;
+        recycleJob.setSystem(true);
+    }
+
+    /**
+     * Returns a running process for the given command. An idle process
+     * is reused, or a new one is started.
+     *
+     * @param command the spelling program command with arguments
+     * @param envp the environment variables for the program
+     * @param encoding the encoding of the pipe
+     * @return the process, or null if the program could not be started
+     */
+    AspellProcess acquire(String command, String[] envp, String encoding) {
+        synchronized (this) {
+            LinkedList<AspellProcess> list = idle.get(command);
+            while (list != null && !list.isEmpty()) {
+                AspellProcess p = list.removeLast();
+                if (p.isAlive()) {
+                    return p;
+                }
+                p.destroy();
+            }
+        }
+        return start(command, envp, encoding);
+    }
+
+    /**
+     * Starts a new process for the given command.
+     *
+     * @param command the spelling program command with arguments
+     * @param envp the environment variables for the program
+     * @param encoding the encoding of the pipe
+     * @return the process, or null if the program could not be started
+     */
+    AspellProcess start(String command, String[] envp, String encoding) {
+        int gen;
+        synchronized (this) {
+            gen = generation;
+        }
+        return AspellProcess.start(command, envp, encoding, gen, console);
+    }
+
+    /**
+     * Returns a process to the pool and resets its TeX filter. The process
+     * must not have any results waiting to be read.
+     *
+     * @param p the process
+     */
+    synchronized void release(AspellProcess p) {
+        LinkedList<AspellProcess> list = idle.get(p.getCommand());
+        if (list == null) {
+            list = new LinkedList<AspellProcess>();
+            idle.put(p.getCommand(), list);
+        }
+        if (p.getGeneration() != generation || !p.isAlive()
+                || list.size() >= maxProcesses) {
+            p.destroy();
+            return;
+        }
+        p.reset();
+        p.idleSince = System.currentTimeMillis();
+        list.add(p);
+        recycleJob.schedule(IDLE_TIMEOUT);
+    }
+
+    /**
+     * Checks the lines of a document. The lines are split at the starts
+     * of the paragraphs into at most as many ranges as there are
+     * processes, each at least <code>MIN_RANGE_LINES</code> long, and
+     * the ranges are checked in parallel.
+     *
+     * @param command the spelling program command with arguments
+     * @param envp the environment variables for the program
+     * @param encoding the encoding of the pipe
+     * @param lines the lines to check, without line delimiters
+     * @param count the number of lines
+     * @param paragraphs the indexes of the lines that start a paragraph,
+     *  in increasing order
+     * @param paragraphCount the number of paragraph starts
+     * @param monitor the monitor, which is told when each range is done
+     * @return the results of the lines in order. If a program could not
+     *  be started, ended or the check was canceled, only the results of
+     *  the lines before it.
+     * @throws InterruptedException if the waiting was interrupted
+     */
+    List<List<String>> checkLines(final String command, final String[] envp,
+            final String encoding, final String[] lines, int count,
+            int[] paragraphs, int paragraphCount, final IProgressMonitor monitor)
+            throws InterruptedException {
+        // the ends of the ranges
+        int parts = Math.max(1, Math.min(maxProcesses, count / MIN_RANGE_LINES));
+        List<Integer> ends = new ArrayList<Integer>(parts);
+        int paragraph = 0;
+        for (int k = 1; k < parts; k++) {
+            int target = (int) ((long) count * k / parts);
+            while (paragraph < paragraphCount && paragraphs[paragraph] < target) {
+                paragraph++;
+            }
+            if (paragraph == paragraphCount || paragraphs[paragraph] >= count) {
+                break;
+            }
+            if (ends.isEmpty() || paragraphs[paragraph] > ends.get(ends.size() - 1)) {
+                ends.add(paragraphs[paragraph]);
+            }
+        }
+        ends.add(count);
+
+        List<List<String>> results = new ArrayList<List<String>>(count);
+        if (ends.size() == 1) {
+            checkRange(command, envp, encoding, lines, 0, count, results, monitor);
+            monitor.worked(results.size());
+            return results;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(ends.size());
+        try {
+            List<Future<List<List<String>>>> ranges =
+                new ArrayList<Future<List<List<String>>>>(ends.size());
+            int start = 0;
+            for (final int end : ends) {
+                final int from = start;
+                ranges.add(executor.submit(new Callable<List<List<String>>>() {
+                    public List<List<String>> call() throws InterruptedException {
+                        List<List<String>> range = new ArrayList<List<String>>(end - from);
+                        checkRange(command, envp, encoding, lines, from, end, range, monitor);
+                        return range;
+                    }
+                }));
+                start = end;
+            }
+            start = 0;
+            for (int i = 0; i < ranges.size(); i++) {
+                List<List<String>> range;
+                try {
+                    range = ranges.get(i).get();
+                } catch (ExecutionException e) {
+                    TexlipsePlugin.log("Checking spelling", e.getCause());
+                    break;
+                }
+                results.addAll(range);
+                monitor.worked(range.size());
+                if (start + range.size() < ends.get(i)) {
+                    // the rest would not follow the results
+                    break;
+                }
+                start = ends.get(i);
+            }
+        } finally {
+            // stops the ranges that are not needed any more
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Checks a range of lines with a process of its own. At most
+     * <code>SEND_AHEAD</code> lines are sent before their results have
+     * been taken.
+     *
+     * @param from the first line to check
+     * @param end the line after the last line to check
+     * @param results the list the results are added to
+     * @throws InterruptedException if the waiting was interrupted
+     */
+    private void checkRange(String command, String[] envp, String encoding,
+            String[] lines, int from, int end, List<List<String>> results,
+            IProgressMonitor monitor) throws InterruptedException {
+        AspellProcess p = acquire(command, envp, encoding);
+        if (p == null) {
+            return;
+        }
+        boolean complete = false;
+        try {
+            int sent = from;
+            for (; sent < end && sent - from < SEND_AHEAD; sent++) {
+                p.send(lines[sent]);
+            }
+            p.flush();
+            int flushed = sent;
+            for (int j = from; j < end; j++) {
+                if (monitor.isCanceled()) {
+                    return;
+                }
+                List<String> result = p.take();
+                if (result == AspellProcess.END) {
+                    return;
+                }
+                results.add(result);
+                if (sent < end) {
+                    p.send(lines[sent++]);
+                    // keep the program busy while the results are taken
+                    if (sent - flushed >= SEND_AHEAD / 2) {
+                        p.flush();
+                        flushed = sent;
+                    }
+                }
+            }
+            complete = true;
+        } finally {
+            // a process with unread results can't be reused
+            if (complete) {
+                release(p);
+            } else {
+                p.destroy();
+            }
+        }
+    }
+
+    /**
+     * Stops all the idle processes. The processes that are in use are
+     * stopped when they are returned.
+     */
+    synchronized void clear() {
+        generation++;
+        for (List<AspellProcess> list : idle.values()) {
+            for (AspellProcess p : list) {
+                p.destroy();
+            }
+        }
+        idle.clear();
+    }
+
+    /**
+     * Stops all the idle processes and the timer of the pool.
+     */
+    synchronized void dispose() {
+        clear();
+        recycleJob.cancel();
+    }
+
+    /**
+     * Stops the processes that have been idle for too long.
+     */
+    private synchronized void recycle() {
+        long now = System.currentTimeMillis();
+        long next = -1;
+        for (Iterator<LinkedList<AspellProcess>> iter = idle.values().iterator(); iter.hasNext();) {
+            LinkedList<AspellProcess> list = iter.next();
+            for (Iterator<AspellProcess> pi = list.iterator(); pi.hasNext();) {
+                AspellProcess p = pi.next();
+                long idleTime = now - p.idleSince;
+                if (idleTime >= IDLE_TIMEOUT) {
+                    p.destroy();
+                    pi.remove();
+                } else if (next == -1 || IDLE_TIMEOUT - idleTime < next) {
+                    next = IDLE_TIMEOUT - idleTime;
+                }
+            }
+            if (list.isEmpty()) {
+                iter.remove();
+            }
+        }
+        if (next != -1) {
+            recycleJob.schedule(next);
+        }
+    }
+}
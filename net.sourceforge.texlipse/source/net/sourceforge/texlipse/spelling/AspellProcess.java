@@ -0,0 +1,241 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.spelling;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A running aspell process in the ispell compatible pipe mode. The lines
+ * of text can be sent without waiting for the results, which are read
+ * by another thread. Aspell answers each line with the errors and an
+ * empty line, so the results arrive in the order of the lines.
+ *
+ * The results are queued until they are taken, so the caller should not
+ * send more than a limited number of lines ahead of the results it has
+ * taken.
+ */
+final class AspellProcess {
+
+    /**
+     * Returned instead of a result when the program has ended
+     */
+    static final List<String> END = new ArrayList<String>(0);
+
+    private final String command;
+    private final int generation;
+    private final Process process;
+    private final PrintWriter output;
+    private final BlockingQueue<List<String>> results;
+
+    // the time this process was last returned to the pool
+    long idleSince;
+
+    private AspellProcess(String command, int generation, Process process,
+            PrintWriter output, BufferedReader input) {
+        this.command = command;
+        this.generation = generation;
+        this.process = process;
+        this.output = output;
+        this.results = new LinkedBlockingQueue<List<String>>();
+        new ResultReader(input, results).start();
+    }
+
+    /**
+     * Starts the spelling program.
+     *
+     * @param command the spelling program command with arguments
+     * @param envp the environment variables for the program
+     * @param encoding the encoding of the pipe
+     * @param generation the settings generation of the pool
+     * @param console the console for the messages of the program
+     * @return the process, or null if it could not be started
+     */
+    static AspellProcess start(String command, String[] envp, String encoding, int generation,
+            AspellPool.Console console) {
+        console.starting(command);
+        Process process;
+        try {
+            if (command == null) throw new IOException();
+            process = Runtime.getRuntime().exec(command, envp);
+        } catch (IOException e) {
+            console.startFailed(null);
+            return null;
+        }
+
+        // get output and input stream
+        PrintWriter output;
+        BufferedReader input;
+        try {
+            output = new PrintWriter(new
+                    OutputStreamWriter(process.getOutputStream(), encoding));
+            input = new BufferedReader(new
+                    InputStreamReader(process.getInputStream(), encoding));
+        }
+        catch (UnsupportedEncodingException e1) {
+            process.destroy();
+            console.print("Unsupported encoding");
+            return null;
+        }
+
+        // read the version info
+        try {
+            String message = input.readLine();
+            if (null == message) { // Something went wrong, get message from aspell's error stream
+                BufferedReader error = new BufferedReader(new InputStreamReader(process.getErrorStream()));
+                message = error.readLine();
+                if (null == message) {
+                    console.print("Aspell failed! No output could be read.");
+                } else {
+                    console.print("aspell> " + message.trim());
+                }
+                error.close();
+                process.destroy();
+                return null;
+            }
+            console.print("aspell> " + message.trim());
+            // Now it's up and running :)
+            // put it in terse mode, then it's faster
+            output.println("!");
+            return new AspellProcess(command, generation, process, output, input);
+        } catch (IOException e) {
+            console.startFailed(e);
+            process.destroy();
+            return null;
+        }
+    }
+
+    /**
+     * @return the command this process was started with
+     */
+    String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return the settings generation of the pool this process was started in
+     */
+    int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return true if the program is still running
+     */
+    boolean isAlive() {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            // program is still running, good
+            return true;
+        }
+    }
+
+    /**
+     * Sends a line of text to be checked. The line must not contain line
+     * delimiters. A prefixed "^" tells aspell to parse the line without
+     * exceptions. From
+     * http://aspell.sourceforge.net/man-html/Through-A-Pipe.html#Through-A-Pipe:
+     * "lines of single words prefixed with any of `*', `&', `@', `+', `-',
+     * `~', `#', `!', `%', or `^'" are also valid and have a special meaning
+     * Special meaning of "^" is to ignore all other prefixes.
+     *
+     * @param line the line of text
+     */
+    void send(String line) {
+        output.println("^" + line);
+    }
+
+    /**
+     * Returns the program to the mode given on its command line, which
+     * starts its TeX filter anew. Aspell does not answer this command.
+     */
+    void reset() {
+        output.println("-");
+    }
+
+    /**
+     * Sends the buffered lines to the program.
+     */
+    void flush() {
+        output.flush();
+    }
+
+    /**
+     * Returns the result of the next line sent, waiting for it if
+     * necessary. The buffered lines are sent before waiting.
+     *
+     * @return the output lines of aspell for the line, or
+     *  <code>END</code> if the program has ended
+     * @throws InterruptedException if the waiting was interrupted
+     */
+    List<String> take() throws InterruptedException {
+        List<String> result = results.poll();
+        if (result == null) {
+            output.flush();
+            result = results.take();
+        }
+        if (result == END) {
+            // keep telling the end
+            results.add(END);
+        }
+        return result;
+    }
+
+    /**
+     * Stops the program.
+     */
+    void destroy() {
+        process.destroy();
+    }
+
+    /**
+     * Reads the output of the spelling program and splits it at the
+     * empty lines that end the results of each line of text.
+     */
+    private static class ResultReader extends Thread {
+
+        private final BufferedReader in;
+        private final BlockingQueue<List<String>> results;
+
+        ResultReader(BufferedReader in, BlockingQueue<List<String>> results) {
+            super("Spellchecker output reader");
+            setDaemon(true);
+            this.in = in;
+            this.results = results;
+        }
+
+        public void run() {
+            List<String> lines = new ArrayList<String>();
+            try {
+                for (String line = in.readLine(); line != null; line = in.readLine()) {
+                    if (line.length() == 0) {
+                        results.add(lines);
+                        lines = new ArrayList<String>();
+                    } else {
+                        lines.add(line);
+                    }
+                }
+            } catch (IOException e) {
+                // the program has been stopped
+            }
+            results.add(END);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.spelling;
+
+/**
+ * The commands whose arguments are not spell checked, held in a trie of
+ * the command names. The word finder walks the trie while it reads the
+ * name of a command, so a command is looked up in the same pass without
+ * creating a string of its name.
+ *
+ * Each command has the number of optional and mandatory arguments to
+ * skip. The commands added by the user skip all the arguments that
+ * directly follow them.
+ */
+final class CommandTable {
+
+    /**
+     * The number of arguments of a command that skips all its arguments
+     */
+    static final int ALL = -1;
+
+    private static final CommandTable DEFAULT = new CommandTable();
+
+    // the table of the last user commands
+    private static String lastUserCommands;
+    private static CommandTable lastTable;
+
+    /**
+     * A node of the trie. The children are indexed by the characters
+     * from '0' to 'z', which contain all the characters of command names.
+     */
+    private static final class Node {
+        private Node[] children;
+        private boolean command;
+        private int optional;
+        private int mandatory;
+    }
+
+    private static final char FIRST = '0';
+    private static final char LAST = 'z';
+
+    private final Node root = new Node();
+
+    /**
+     * Creates a table of the built-in commands.
+     */
+    private CommandTable() {
+        add("documentclass", 1, 1);
+        add("usepackage", 1, 1);
+        add("newcounter", 0, 1);
+        add("setcounter", 0, 1);
+        add("addtocounter", 0, 1);
+        add("value", 0, 1);
+        add("arabic", 0, 1);
+        add("stepcounter", 0, 1);
+        add("newenvironment", 0, 1);
+        add("renewenvironment", 0, 1);
+        add("ref", 0, 1);
+        add("vref", 0, 1);
+        add("eqref", 0, 1);
+        add("pageref", 0, 1);
+        add("label", 0, 1);
+        // natbib allows a prenote and a postnote
+        add("cite", 2, 1);
+        add("tag", 0, 1);
+
+        // environment names
+        add("begin", 0, 1);
+        add("end", 0, 1);
+    }
+
+    /**
+     * Returns the table of the built-in commands and the given user
+     * commands. The table of the last user commands is kept, so the
+     * table is not built again for each check.
+     *
+     * @param userCommands The names of the user commands separated by
+     *  commas, with or without the backslash, or null
+     * @return The command table
+     */
+    static synchronized CommandTable get(String userCommands) {
+        if (userCommands == null || userCommands.trim().length() == 0) {
+            return DEFAULT;
+        }
+        if (!userCommands.equals(lastUserCommands)) {
+            CommandTable table = new CommandTable();
+            for (String name : userCommands.split(",")) {
+                name = name.trim();
+                if (name.startsWith("\\")) {
+                    name = name.substring(1);
+                }
+                if (name.length() > 0) {
+                    table.add(name, ALL, ALL);
+                }
+            }
+            lastUserCommands = userCommands;
+            lastTable = table;
+        }
+        return lastTable;
+    }
+
+    /**
+     * Adds a command, replacing an earlier one with the same name.
+     * Commands with characters outside the range of the trie are ignored.
+     */
+    private void add(String name, int optional, int mandatory) {
+        Node node = root;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < FIRST || c > LAST) {
+                return;
+            }
+            if (node.children == null) {
+                node.children = new Node[LAST - FIRST + 1];
+            }
+            Node child = node.children[c - FIRST];
+            if (child == null) {
+                child = new Node();
+                node.children[c - FIRST] = child;
+            }
+            node = child;
+        }
+        node.command = true;
+        node.optional = optional;
+        node.mandatory = mandatory;
+    }
+
+    /**
+     * Skips a command and the arguments that are not spell checked. The
+     * name of the command ends at the first character that is not a
+     * letter or a digit.
+     *
+     * @param text The text
+     * @param index The position of the backslash
+     * @return The position after the command and the skipped arguments
+     */
+    int skip(String text, int index) {
+        int length = text.length();
+        int i = index + 1;
+        Node node = root;
+        while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+            char c = text.charAt(i);
+            if (node != null) {
+                node = node.children != null && c >= FIRST && c <= LAST
+                    ? node.children[c - FIRST] : null;
+            }
+            i++;
+        }
+        if (node == null || !node.command) {
+            return i;
+        }
+        int end = i;
+        if (end < length && text.charAt(end) == '*') {
+            end++;
+        }
+        if (node.optional == ALL) {
+            // any brace or bracket groups
+            int next;
+            while ((next = skipGroup(text, skipWhitespace(text, end))) != -1) {
+                end = next;
+            }
+            return end;
+        }
+        int optional = 0;
+        int mandatory = 0;
+        while (mandatory < node.mandatory) {
+            int start = skipWhitespace(text, end);
+            if (start >= length) {
+                return i;
+            }
+            char c = text.charAt(start);
+            if (c == '[' && mandatory == 0 && optional < node.optional) {
+                optional++;
+            } else if (c == '{') {
+                mandatory++;
+            } else {
+                // the arguments are not all there, skip only the name
+                return i;
+            }
+            end = skipGroup(text, start);
+            if (end == -1) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static int skipWhitespace(String text, int i) {
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Skips a brace group or a bracket group. Braces are counted inside a
+     * bracket group, so a ']' in braces does not end it.
+     *
+     * @param text The text
+     * @param start The position of the opening brace or bracket
+     * @return The position after the group, or -1 if there is no group
+     *  at the position or it is not closed
+     */
+    private static int skipGroup(String text, int start) {
+        if (start >= text.length()) {
+            return -1;
+        }
+        char open = text.charAt(start);
+        if (open != '{' && open != '[') {
+            return -1;
+        }
+        int depth = 0;
+        for (int i = start; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+                if (depth == 0 && open == '{') {
+                    return i + 1;
+                }
+                if (depth < 0) {
+                    return -1;
+                }
+            } else if (c == ']' && depth == 0 && open == '[') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.spelling;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable word list grouped by the hash codes of the phonetic codes
+ * of the words. All the words are stored in a single UTF-8 byte array,
+ * and the buckets and the words are found through sorted primitive
+ * arrays, so a dictionary of some hundred thousand words takes a few
+ * megabytes instead of a string and a map entry per word.
+ *
+ * The arrays can be written to a stream and read back from it without
+ * building the list again.
+ */
+final class CompactWordList {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The hash codes of the phonetic codes, sorted
+     */
+    private final int[] codes;
+
+    /**
+     * The index of the first word of each code, and the number of words
+     * as the last element
+     */
+    private final int[] buckets;
+
+    /**
+     * The hash code of each word
+     */
+    private final int[] wordHashes;
+
+    /**
+     * The offset of each word in <code>data</code>, and the length of
+     * <code>data</code> as the last element
+     */
+    private final int[] offsets;
+
+    /**
+     * The words in UTF-8
+     */
+    private final byte[] data;
+
+    private CompactWordList(int[] codes, int[] buckets, int[] wordHashes,
+            int[] offsets, byte[] data) {
+        this.codes = codes;
+        this.buckets = buckets;
+        this.wordHashes = wordHashes;
+        this.offsets = offsets;
+        this.data = data;
+    }
+
+    /**
+     * Builds the word list. The words of a code stay in the order they
+     * are given.
+     *
+     * @param words The words
+     * @param hashes The hash code of the phonetic code of each word
+     * @return The word list
+     */
+    static CompactWordList build(List<String> words, int[] hashes) {
+        int n = words.size();
+        // sort by the hash code and then by the original position
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = ((long) hashes[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        int codeCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || (int) (keys[i] >> 32) != (int) (keys[i - 1] >> 32)) {
+                codeCount++;
+            }
+        }
+        int[] codes = new int[codeCount];
+        int[] buckets = new int[codeCount + 1];
+        int[] wordHashes = new int[n];
+        int[] offsets = new int[n + 1];
+        byte[][] bytes = new byte[n][];
+        int c = 0;
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            int hash = (int) (keys[i] >> 32);
+            if (i == 0 || hash != codes[c - 1]) {
+                codes[c] = hash;
+                buckets[c] = i;
+                c++;
+            }
+            String word = words.get((int) keys[i]);
+            wordHashes[i] = word.hashCode();
+            bytes[i] = word.getBytes(UTF8);
+            offsets[i] = length;
+            length += bytes[i].length;
+        }
+        buckets[codeCount] = n;
+        offsets[n] = length;
+
+        byte[] data = new byte[length];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(bytes[i], 0, data, offsets[i], bytes[i].length);
+        }
+        return new CompactWordList(codes, buckets, wordHashes, offsets, data);
+    }
+
+    /**
+     * @return The number of words
+     */
+    int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * @return The approximate number of bytes the list takes in memory
+     */
+    long getMemorySize() {
+        return 4L * (codes.length + buckets.length + wordHashes.length + offsets.length) + data.length;
+    }
+
+    /**
+     * Returns the words with the given hash code of the phonetic code.
+     *
+     * @param hash The hash code of the phonetic code
+     * @param words The list to add the words to
+     */
+    void getWords(int hash, List<String> words) {
+        int c = Arrays.binarySearch(codes, hash);
+        if (c < 0) {
+            return;
+        }
+        for (int i = buckets[c]; i < buckets[c + 1]; i++) {
+            words.add(new String(data, offsets[i], offsets[i + 1] - offsets[i], UTF8));
+        }
+    }
+
+    /**
+     * Checks if the word is in the list.
+     *
+     * @param hash The hash code of the phonetic code of the word
+     * @param word The word
+     * @return True if the word is in the list
+     */
+    boolean contains(int hash, String word) {
+        int c = Arrays.binarySearch(codes, hash);
+        if (c < 0) {
+            return false;
+        }
+        // the other words of the bucket are rejected by their hash code
+        int wordHash = word.hashCode();
+        for (int i = buckets[c]; i < buckets[c + 1]; i++) {
+            if (wordHashes[i] == wordHash && matches(i, word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compares a word of the list to a string without decoding the word
+     * into a new string.
+     */
+    private boolean matches(int w, String word) {
+        int end = offsets[w + 1];
+        int j = 0;
+        int length = word.length();
+        for (int i = offsets[w]; i < end;) {
+            int b = data[i] & 0xff;
+            int cp;
+            if (b < 0x80) {
+                cp = b;
+                i++;
+            } else if (b < 0xe0) {
+                if (i + 1 >= end) return false;
+                cp = ((b & 0x1f) << 6) | (data[i + 1] & 0x3f);
+                i += 2;
+            } else if (b < 0xf0) {
+                if (i + 2 >= end) return false;
+                cp = ((b & 0x0f) << 12) | ((data[i + 1] & 0x3f) << 6) | (data[i + 2] & 0x3f);
+                i += 3;
+            } else {
+                if (i + 3 >= end) return false;
+                cp = ((b & 0x07) << 18) | ((data[i + 1] & 0x3f) << 12)
+                    | ((data[i + 2] & 0x3f) << 6) | (data[i + 3] & 0x3f);
+                i += 4;
+            }
+            if (cp < 0x10000) {
+                if (j >= length || word.charAt(j) != cp) return false;
+                j++;
+            } else {
+                if (j + 1 >= length
+                        || word.charAt(j) != Character.highSurrogate(cp)
+                        || word.charAt(j + 1) != Character.lowSurrogate(cp)) {
+                    return false;
+                }
+                j += 2;
+            }
+        }
+        return j == length;
+    }
+
+    /**
+     * Writes the list in the format <code>read()</code> reads.
+     *
+     * @param out The stream
+     * @throws IOException If the stream can't be written
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(codes.length);
+        out.writeInt(size());
+        out.writeInt(data.length);
+        for (int code : codes) {
+            out.writeInt(code);
+        }
+        for (int bucket : buckets) {
+            out.writeInt(bucket);
+        }
+        for (int wordHash : wordHashes) {
+            out.writeInt(wordHash);
+        }
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        out.write(data);
+    }
+
+    /**
+     * Reads a list written by <code>write()</code>. The arrays are filled
+     * straight from the stream through a small buffer.
+     *
+     * @param in The stream positioned at the start of the list
+     * @param size The number of bytes left in the stream, used to reject
+     *  a broken list before allocating the arrays
+     * @return The list, or null if the data is not a valid list
+     * @throws IOException If the stream can't be read
+     */
+    static CompactWordList read(DataInputStream in, long size) throws IOException {
+        try {
+            int codeCount = in.readInt();
+            int wordCount = in.readInt();
+            int length = in.readInt();
+            if (codeCount < 0 || wordCount < 0 || length < 0
+                    || (long) 4 * (2 * codeCount + 2 * wordCount + 5) + length > size) {
+                return null;
+            }
+            byte[] buffer = new byte[8192];
+            int[] codes = readInts(in, codeCount, buffer);
+            int[] buckets = readInts(in, codeCount + 1, buffer);
+            int[] wordHashes = readInts(in, wordCount, buffer);
+            int[] offsets = readInts(in, wordCount + 1, buffer);
+            byte[] data = new byte[length];
+            in.readFully(data);
+            if (!isAscending(codes, true) || !isAscending(buckets, false)
+                    || !isAscending(offsets, false)
+                    || buckets[0] != 0 || buckets[codeCount] != wordCount
+                    || offsets[0] != 0 || offsets[wordCount] != length) {
+                return null;
+            }
+            return new CompactWordList(codes, buckets, wordHashes, offsets, data);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static int[] readInts(DataInputStream in, int count, byte[] buffer) throws IOException {
+        int[] values = new int[count];
+        for (int i = 0; i < count;) {
+            int n = Math.min(count - i, buffer.length / 4);
+            in.readFully(buffer, 0, 4 * n);
+            for (int b = 0; b < 4 * n; b += 4) {
+                values[i++] = (buffer[b] << 24) | ((buffer[b + 1] & 0xff) << 16)
+                    | ((buffer[b + 2] & 0xff) << 8) | (buffer[b + 3] & 0xff);
+            }
+        }
+        return values;
+    }
+
+    private static boolean isAscending(int[] values, boolean strict) {
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] < values[i - 1] || strict && values[i] == values[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.spelling;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sourceforge.texlipse.TexlipsePlugin;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import com.swabunga.spell.event.SpellChecker;
+
+/**
+ * The loaded dictionaries of the spelling engine. A dictionary that is
+ * not loaded yet is loaded by a background job, so the reconciler can
+ * go on and check the document again when the dictionary is ready. The
+ * dictionaries that have not been used for the longest time are dropped
+ * when the word lists take more memory than the limit, but the last one
+ * used is always kept.
+ *
+ * The actions waiting for a dictionary are run by the load job without
+ * holding the lock of the cache, so they may check the document again,
+ * which takes the cache lock from inside the lock of the reconciler.
+ *
+ * The hit rate, the load times and the memory use of the cache can be
+ * read through <code>TexSpellingEngine</code>. With the debug option
+ * <code>net.sourceforge.texlipse/debug/spelling</code> they are also
+ * written to the log after each load.
+ */
+final class DictionaryCache {
+
+    /**
+     * The memory the word lists may take before dictionaries are dropped
+     */
+    private static final long MAX_MEMORY = 64 * 1024 * 1024;
+
+    /**
+     * The time after which a dictionary that could not be loaded is
+     * tried again, in milliseconds
+     */
+    private static final long RETRY_DELAY = 60 * 1000;
+
+    private static final String DEBUG_OPTION = "net.sourceforge.texlipse/debug/spelling";
+
+    private static final class Entry {
+        private final TexSpellDictionary dict;
+        private final SpellChecker spellCheck;
+        private final long memory;
+
+        Entry(TexSpellDictionary dict) {
+            this.dict = dict;
+            this.spellCheck = new SpellChecker(dict);
+            this.memory = dict.getMemorySize();
+        }
+    }
+
+    /**
+     * The dictionaries by the path of the word list, the least recently
+     * used first
+     */
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(8, 0.75f, true);
+
+    /**
+     * The dictionaries being loaded and the actions to run when they are
+     */
+    private final Map<String, List<Runnable>> loading = new HashMap<String, List<Runnable>>();
+
+    /**
+     * The words added to the dictionaries being loaded
+     */
+    private final Map<String, List<String>> addedWords = new HashMap<String, List<String>>();
+
+    /**
+     * The words added to the dictionaries that have no user dictionary,
+     * they are added again whenever the dictionary is loaded
+     */
+    private final Map<String, List<String>> unsavedWords = new HashMap<String, List<String>>();
+
+    /**
+     * The time of the last failed load of the dictionaries that could
+     * not be loaded, they are not tried again until the delay has passed
+     */
+    private final Map<String, Long> failed = new HashMap<String, Long>();
+
+    private long memory;
+
+    private int hits;
+    private int misses;
+    private int loads;
+    private long loadTime;
+
+    /**
+     * Returns the spell checker of a dictionary, if the dictionary has
+     * been loaded. Otherwise the dictionary is loaded in the background.
+     *
+     * @param wordList The word list of the dictionary
+     * @param userDict The user dictionary, or null
+     * @param whenLoaded Run when the dictionary has been loaded, if it
+     *  is not loaded yet, or null
+     * @return The spell checker, or null if the dictionary is being loaded
+     *  or could not be loaded
+     */
+    synchronized SpellChecker get(File wordList, File userDict, Runnable whenLoaded) {
+        String key = wordList.getAbsolutePath();
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hits++;
+            return entry.spellCheck;
+        }
+        misses++;
+        Long failTime = failed.get(key);
+        if (failTime != null) {
+            if (System.currentTimeMillis() - failTime < RETRY_DELAY) {
+                return null;
+            }
+            failed.remove(key);
+        }
+        List<Runnable> waiting = loading.get(key);
+        if (waiting == null) {
+            waiting = new ArrayList<Runnable>(1);
+            loading.put(key, waiting);
+            new LoadJob(key, wordList, userDict).schedule();
+        }
+        if (whenLoaded != null && !waiting.contains(whenLoaded)) {
+            waiting.add(whenLoaded);
+        }
+        return null;
+    }
+
+    /**
+     * Returns a loaded dictionary. The dictionary is not loaded if it
+     * is not in the cache.
+     *
+     * @param wordList The word list of the dictionary
+     * @return The dictionary, or null
+     */
+    synchronized TexSpellDictionary getDict(File wordList) {
+        Entry entry = entries.get(wordList.getAbsolutePath());
+        return entry != null ? entry.dict : null;
+    }
+
+    /**
+     * Adds a word to a dictionary and its user dictionary. If the
+     * dictionary is not loaded, the word is only written to the user
+     * dictionary, and added to the dictionary when its loading ends.
+     * Without a user dictionary the word is kept by the cache and added
+     * to the dictionary each time it is loaded.
+     *
+     * @param wordList The word list of the dictionary
+     * @param userDict The user dictionary, or null
+     * @param word The word
+     */
+    void addWord(File wordList, File userDict, String word) {
+        String key = wordList.getAbsolutePath();
+        TexSpellDictionary dict = null;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                dict = entry.dict;
+            } else if (loading.containsKey(key)) {
+                // the user dictionary may have been read already
+                addTo(addedWords, key, word);
+            }
+            if (userDict == null) {
+                // the dictionary may be dropped from the cache
+                addTo(unsavedWords, key, word);
+            }
+        }
+        if (dict != null) {
+            dict.addWord(word);
+        } else if (userDict != null) {
+            TexSpellDictionary.appendWord(userDict, word);
+        }
+    }
+
+    private static void addTo(Map<String, List<String>> words, String key, String word) {
+        List<String> list = words.get(key);
+        if (list == null) {
+            list = new ArrayList<String>(1);
+            words.put(key, list);
+        }
+        if (!list.contains(word)) {
+            list.add(word);
+        }
+    }
+
+    private static void putWords(TexSpellDictionary dict, List<String> words) {
+        if (words != null) {
+            for (String word : words) {
+                dict.putWordUnique(word);
+            }
+        }
+    }
+
+    private void loaded(String key, Entry entry, long time) {
+        List<Runnable> waiting;
+        synchronized (this) {
+            waiting = loading.remove(key);
+            List<String> words = addedWords.remove(key);
+            if (entry == null) {
+                failed.put(key, System.currentTimeMillis());
+            } else {
+                putWords(entry.dict, words);
+                putWords(entry.dict, unsavedWords.get(key));
+                loads++;
+                loadTime += time;
+                entries.put(key, entry);
+                memory += entry.memory;
+                // drop the least recently used, keeping the newest
+                for (Iterator<Entry> iter = entries.values().iterator();
+                        memory > MAX_MEMORY && entries.size() > 1;) {
+                    memory -= iter.next().memory;
+                    iter.remove();
+                }
+                if ("true".equalsIgnoreCase(Platform.getDebugOption(DEBUG_OPTION))) {
+                    TexlipsePlugin.log("Dictionary cache: hit rate "
+                            + Math.round(getHitRate() * 100) + "%, average load time "
+                            + getAverageLoadTime() + " ms, " + entries.size()
+                            + " dictionaries in " + (getMemorySize() / 1024) + " kB",
+                            null, IStatus.INFO);
+                }
+            }
+        }
+        if (entry != null && waiting != null) {
+            for (Runnable r : waiting) {
+                r.run();
+            }
+        }
+    }
+
+    /**
+     * @return The share of the requests that found the dictionary loaded
+     */
+    public synchronized double getHitRate() {
+        return hits + misses > 0 ? (double) hits / (hits + misses) : 0;
+    }
+
+    /**
+     * @return The average time of loading a dictionary in milliseconds
+     */
+    public synchronized long getAverageLoadTime() {
+        return loads > 0 ? loadTime / loads : 0;
+    }
+
+    /**
+     * @return The number of dictionaries loaded
+     */
+    public synchronized int getDictionaryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the memory the loaded dictionaries take now, including the
+     * words added after they were loaded. Dictionaries are dropped by the
+     * size they had when they were loaded.
+     *
+     * @return The approximate number of bytes
+     */
+    public synchronized long getMemorySize() {
+        long size = 0;
+        for (Entry entry : entries.values()) {
+            size += entry.dict.getMemorySize();
+        }
+        return size;
+    }
+
+    /**
+     * Loads a dictionary and its user dictionary.
+     */
+    private final class LoadJob extends Job {
+
+        private final String key;
+        private final File wordList;
+        private final File userDict;
+
+        LoadJob(String key, File wordList, File userDict) {
+            super("Loading dictionary " + wordList.getName());
+            this.key = key;
+            this.wordList = wordList;
+            this.userDict = userDict;
+            setSystem(true);
+        }
+
+        protected IStatus run(IProgressMonitor monitor) {
+            long start = System.currentTimeMillis();
+            Entry entry = null;
+            try {
+                TexSpellDictionary dict = TexSpellDictionary.load(wordList);
+                if (userDict != null) {
+                    dict.setUserDict(userDict);
+                }
+                entry = new Entry(dict);
+            } catch (IOException e) {
+                TexlipsePlugin.log("Error while loading dictionary", e);
+            } finally {
+                loaded(key, entry, System.currentTimeMillis() - start);
+            }
+            return Status.OK_STATUS;
+        }
+    }
+}
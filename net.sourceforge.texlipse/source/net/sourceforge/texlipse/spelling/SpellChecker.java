@@ -9,15 +9,11 @@
  */
 package net.sourceforge.texlipse.spelling;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
 import java.text.MessageFormat;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -42,6 +38,7 @@ import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.Position;
 import org.eclipse.jface.text.contentassist.ICompletionProposal;
 import org.eclipse.jface.text.source.IAnnotationModel;
@@ -110,17 +107,14 @@ public class SpellChecker implements IPropertyChangeListener {
     // the shared instance
     private static SpellChecker instance = new SpellChecker();
     
-    // the external spelling program
-    private Process spellProgram;
-    
-    // the stream to the program
-    private PrintWriter output;
-    
-    // the stream from the program
-    private BufferedReader input;
+    // the running spelling programs
+    private final AspellPool pool;
 
     // spelling program command with arguments
     private String command;
+    
+    // the command with %language in place of the language
+    private String commandTemplate;
 
     // environment variables for the program
     private String[] envp;
@@ -135,7 +129,9 @@ public class SpellChecker implements IPropertyChangeListener {
      * Private constructor, because we want to keep this singleton.
      */
     private SpellChecker() {
-        proposalMap = new HashMap<IMarker, String[]>();
+        // several files may be checked at the same time
+        proposalMap = Collections.synchronizedMap(new HashMap<IMarker, String[]>());
+        pool = new AspellPool();
         language = "en";
         // these two must be initialized in the constructor, otherwise the resource bundle may not be initialized
         SPELL_CHECKER_ADD = TexlipsePlugin.getResourceString(SPELL_CHECKER_ADD);
@@ -197,6 +193,7 @@ public class SpellChecker implements IPropertyChangeListener {
     private void readSettings() {
         
         command = null;
+        commandTemplate = null;
         envp = null;
         
         String path = TexlipsePlugin.getPreference(SPELL_CHECKER_COMMAND);
@@ -213,131 +210,42 @@ public class SpellChecker implements IPropertyChangeListener {
         
         args = args.replaceAll("%encoding", ASPELL_ENCODING);
 
-        args = args.replaceAll("%language", language);
-        
-        command = f.getAbsolutePath() + " " + args;
+        commandTemplate = f.getAbsolutePath() + " " + args;
+        command = getCommand(language);
         envp = PathUtils.mergeEnvFromPrefs(PathUtils.getEnv(), SPELL_CHECKER_ENV);
     }
 
     /**
-     * Check that the current language setting is correct.
+     * Returns the spelling program command for the given language.
+     * 
+     * @param lang the language
+     * @return the command, or null if the program is not configured
      */
-    private void checkLanguage(IFile file) {
-        String pLang = null;
-        IProject prj = file.getProject();
-        if (prj != null) {
-            pLang = TexlipseProperties.getProjectProperty(prj, TexlipseProperties.LANGUAGE_PROPERTY);
-        }
-        
-        boolean restart = false;
-        if (pLang != null && pLang.length() > 0) {
-            if (!pLang.equals(language)) {
-                // current project is different language 
-                //than currently running process, so change
-                language = pLang;
-                restart = true;
-            }
-        }
-
-        if (restart) {
-            stopProgram();
-            readSettings();
-        }
+    private String getCommand(String lang) {
+        return commandTemplate != null ? commandTemplate.replaceAll("%language", lang) : null;
     }
 
     /**
-     * Check if the spelling program is still running.
-     * Restart the program, if necessary.
-     * @param file
-     */
-    protected boolean checkProgram(IFile file) {
-        checkLanguage(file);
-        if (spellProgram == null) {
-            return startProgram();
-        } else {
-            int exitCode = -1;
-            try {
-                exitCode = spellProgram.exitValue();
-            } catch (IllegalThreadStateException e) {
-                // program is still running, good
-            }
-            if (exitCode != -1) {
-                // an exit code is defined, so program has ended
-                spellProgram = null;
-                return startProgram();
-            }
-        }
-        return false;
-    }
-    
-    /**
-     * Restarts the spelling program.
-     * Assumes that the program is not currently running.
+     * Returns the language of the given file, which is the language of
+     * its project if it has been set, otherwise the language used last.
+     * 
+     * @param file the file
+     * @return the language
      */
-    private boolean startProgram(){
-        
-        BuilderRegistry.printToConsole(TexlipsePlugin.getResourceString("viewerRunning") + ' ' + command);
-        try {
-            if (command == null) throw new IOException();
-            spellProgram = Runtime.getRuntime().exec(command, envp);
-            
-        } catch (IOException e) {
-            spellProgram = null;
-            input = null;
-            output = null;
-            BuilderRegistry.printToConsole(TexlipsePlugin.getResourceString("spellProgramStartError"));
-            return false;
-        }
-        
-        // get output and input stream
-        try {
-            output = new PrintWriter(new
-                    OutputStreamWriter(spellProgram.getOutputStream(), ASPELL_ENCODING));
-            input = new BufferedReader(new
-                    InputStreamReader(spellProgram.getInputStream(), ASPELL_ENCODING));
-        }
-        catch (UnsupportedEncodingException e1) {
-            spellProgram = null;
-            input = null;
-            output = null;
-            BuilderRegistry.printToConsole("Unsupported encoding");
-            return false;
+    private synchronized String getLanguage(IFile file) {
+        String pLang = null;
+        IProject prj = file.getProject();
+        if (prj != null) {
+            pLang = TexlipseProperties.getProjectProperty(prj, TexlipseProperties.LANGUAGE_PROPERTY);
         }
         
-        // read the version info
-        try {
-            String message = input.readLine();
-            if (null == message) { // Something went wrong, get message from aspell's error stream
-                BufferedReader error = new BufferedReader(new InputStreamReader(spellProgram.getErrorStream()));
-                message = error.readLine();
-                if (null == message) {
-                    BuilderRegistry.printToConsole("Aspell failed! No output could be read.");
-                } else {
-                    BuilderRegistry.printToConsole("aspell> " + message.trim());
-                }
-                error.close();
-                return false;
-            }
-            BuilderRegistry.printToConsole("aspell> " + message.trim());
-            // Now it's up and running :)
-            // put it in terse mode, then it's faster
-            output.println("!");
-            return true;
-        } catch (IOException e) {
-            TexlipsePlugin.log("Aspell died", e);
-            BuilderRegistry.printToConsole(TexlipsePlugin.getResourceString("spellProgramStartError"));
-            return false;
-        }
-    }
-
-    /**
-     * Stop running the spelling program.
-     */
-    private void stopProgram() {
-        if (spellProgram != null) {
-            spellProgram.destroy();
-            spellProgram = null;
+        if (pLang != null && pLang.length() > 0 && !pLang.equals(language)) {
+            // current project is different language, which is then
+            // also used for adding words
+            language = pLang;
+            command = getCommand(language);
         }
+        return language;
     }
 
     /**
@@ -349,11 +257,21 @@ public class SpellChecker implements IPropertyChangeListener {
         if (prop.startsWith("spell")) {
             // encoding, program args or program path changed
             //BuilderRegistry.printToConsole("spelling property changed: " + prop);
-            stopProgram();
-            readSettings();
+            synchronized (this) {
+                readSettings();
+            }
+            pool.clear();
         }
     }
     
+    /**
+     * Stops the running spelling programs. Called when the plugin is
+     * stopped.
+     */
+    public static void stop() {
+        instance.pool.dispose();
+    }
+    
     /**
      * Check spelling of a single line.
      * 
@@ -363,9 +281,7 @@ public class SpellChecker implements IPropertyChangeListener {
      * @return fix proposals, or empty array if all correct
      */
     public static void checkSpelling(String line, int offset, int lineNumber, IFile file) {
-        if (instance.checkProgram(file)){
-            instance.checkLineSpelling(line, offset, lineNumber, file);
-        }
+        instance.checkLineSpelling(line, offset, lineNumber, file);
     }
     
     /**
@@ -395,9 +311,7 @@ public class SpellChecker implements IPropertyChangeListener {
      * @param document document from the editor
      */
     private static void checkSpellingDirectly(IDocument document, IFile file, IProgressMonitor monitor) {
-        if (instance.checkProgram(file)) {
-            instance.checkDocumentSpelling(document, file, monitor);
-        }
+        instance.checkDocumentSpelling(document, file, monitor);
     }
 
     /**
@@ -409,21 +323,60 @@ public class SpellChecker implements IPropertyChangeListener {
     private void checkDocumentSpelling(IDocument doc, IFile file, IProgressMonitor monitor) {
         deleteOldProposals(file);
         //doc.addDocumentListener(instance);
+        
+        String lang = getLanguage(file);
+        String cmd;
+        String[] env;
+        synchronized (this) {
+            cmd = getCommand(lang);
+            env = envp;
+        }
+        
+        // the lines to check, without the line delimiters, which would be
+        // empty lines for aspell, and the lines after the blank lines,
+        // where the TeX filter of aspell can start anew
+        int num = doc.getNumberOfLines();
+        String[] lines = new String[num];
+        int[] offsets = new int[num];
+        int[] lineNumbers = new int[num];
+        int[] paragraphs = new int[num];
+        int count = 0;
+        int paragraphCount = 0;
         try {
-            int num = doc.getNumberOfLines();
-            monitor.beginTask("Check spelling", num);
             for (int i = 0; i < num; i++) {
-                if (monitor.isCanceled()) break;
-                int offset = doc.getLineOffset(i);
-                int length = doc.getLineLength(i);
-                String line = doc.get(offset, length);
-                checkLineSpelling(line, offset, i+1, file);
-                monitor.worked(1);
+                IRegion region = doc.getLineInformation(i);
+                String line = doc.get(region.getOffset(), region.getLength());
+                if (line.trim().length() > 0) {
+                    lines[count] = prepareLine(line, lang);
+                    offsets[count] = region.getOffset();
+                    lineNumbers[count] = i + 1;
+                    count++;
+                } else if (count > 0 && (paragraphCount == 0
+                        || paragraphs[paragraphCount - 1] != count)) {
+                    paragraphs[paragraphCount++] = count;
+                }
             }
         } catch (BadLocationException e) {
             TexlipsePlugin.log("Checking spelling on a line", e);
+            return;
+        }
+        
+        monitor.beginTask("Check spelling", count);
+        try {
+            List<List<String>> results = pool.checkLines(cmd, env, ASPELL_ENCODING,
+                    lines, count, paragraphs, paragraphCount, monitor);
+            for (int j = 0; j < results.size(); j++) {
+                processResults(results.get(j), offsets[j], lineNumbers[j], file);
+            }
+            if (results.size() < count && results.size() > 0 && !monitor.isCanceled()) {
+                int j = results.size();
+                TexlipsePlugin.log("aspell error at line " + lineNumbers[j] + ": " + lines[j], null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            monitor.done();
         }
-        stopProgram();
     }
 
     /**
@@ -512,44 +465,68 @@ public class SpellChecker implements IPropertyChangeListener {
             return;
         }
         
-        // give the speller something to parse
-        String lineToPost = line;
-        if (language.equals("de")) {
-            lineToPost = replaceUmlauts(line);
+        // give the speller something to parse, without the line delimiter
+        String lang = getLanguage(file);
+        int length = line.length();
+        while (length > 0 && (line.charAt(length - 1) == '\n' || line.charAt(length - 1) == '\r')) {
+            length--;
         }
+        String lineToPost = prepareLine(line.substring(0, length), lang);
         
-        /*
-         * a prefixed "^" tells aspell to parse the line without exceptions. From
-         * http://aspell.sourceforge.net/man-html/Through-A-Pipe.html#Through-A-Pipe:
-         * "lines of single words prefixed with any of `*', `&', `@', `+', `-',
-         * `~', `#', `!', `%', or `^'" are also valid and have a special meaning
-         * Special meaning of "^" is to ignore all other prefixes.
-         * 
-         */
-        output.println("^" + lineToPost);
-        output.flush();
-        // wait until there is input
-        List<String> lines = new ArrayList<String>();
+        String cmd;
+        String[] env;
+        synchronized (this) {
+            cmd = getCommand(lang);
+            env = envp;
+        }
+        AspellProcess p = pool.acquire(cmd, env, ASPELL_ENCODING);
+        if (p == null) {
+            return;
+        }
+        p.send(lineToPost);
+        List<String> lines;
         try {
-            String result = input.readLine();
-            while ((!"".equals(result)) && (result != null)) {
-                lines.add(result);
-                result = input.readLine();
-            }
-            //Wait a bit and clear the input buffer (sometimes there are more than one empty line)
-            try {
-                Thread.sleep(5);
-            } catch (InterruptedException e) {
-                //No problem
-            } 
-            while (input.ready()) { 
-                input.readLine();
-            }
-        } catch (IOException e) {
+            lines = p.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            p.destroy();
+            return;
+        }
+        if (lines == AspellProcess.END) {
             BuilderRegistry.printToConsole(TexlipsePlugin.getResourceString("spellProgramStartError"));
-            TexlipsePlugin.log("aspell error at line " + lineNumber + ": " + lineToPost, e);
+            TexlipsePlugin.log("aspell error at line " + lineNumber + ": " + lineToPost, null);
+            p.destroy();
+            return;
         }
+        pool.release(p);
         
+        processResults(lines, offset, lineNumber, file);
+    }
+    
+    /**
+     * Converts a line of the document to the form the spelling program
+     * should get it.
+     * 
+     * @param line the line of text
+     * @param lang the language of the line
+     * @return the line to send
+     */
+    private static String prepareLine(String line, String lang) {
+        if (lang.equals("de")) {
+            return replaceUmlauts(line);
+        }
+        return line;
+    }
+    
+    /**
+     * Creates the markers for the errors aspell reported on a line.
+     * 
+     * @param lines the output lines for the line of text
+     * @param offset start offset of the line in the document
+     * @param lineNumber the number of the line
+     * @param file the file
+     */
+    private void processResults(List<String> lines, int offset, int lineNumber, IFile file) {
         // loop through the output lines (they contain only errors)
         for (int i = 0; i < lines.size(); i++) {
             String[] tmp = (lines.get(i)).split(":");
@@ -641,14 +618,18 @@ public class SpellChecker implements IPropertyChangeListener {
     private void deleteOldProposals(IResource res) {
         
         // delete all markers with proposals, because there might be something in the other files
-        Iterator<IMarker> iter = proposalMap.keySet().iterator();
-        while (iter.hasNext()) {
-            IMarker marker = (IMarker) iter.next();
-            try {
-                marker.delete();
-            } catch (CoreException e) {
-                TexlipsePlugin.log("Deleting marker", e);
+        synchronized (proposalMap) {
+            Iterator<IMarker> iter = proposalMap.keySet().iterator();
+            while (iter.hasNext()) {
+                IMarker marker = (IMarker) iter.next();
+                try {
+                    marker.delete();
+                } catch (CoreException e) {
+                    TexlipsePlugin.log("Deleting marker", e);
+                }
             }
+            // clear the old proposals
+            proposalMap.clear();
         }
         
         // just in case delete all markers from this file
@@ -657,9 +638,7 @@ public class SpellChecker implements IPropertyChangeListener {
         } catch (CoreException e) {
             TexlipsePlugin.log("Deleting markers", e);
         }
-        
-        // clear the old proposals
-        proposalMap.clear();
+
     }
 
     /**
@@ -92,6 +92,8 @@ public class SpellCheckerPreferencePage
         addField(dictDir);
         addField(customDictDir);
         addField(ignoreComments);
+        addField(new StringFieldEditor(TexlipseProperties.SPELLCHECKER_IGNORE_COMMANDS,
+                TexlipsePlugin.getResourceString("preferenceSpellIgnoreCommands"), group));
         TexlipsePreferencePage.addSpacer(3, group);
         
         //Construct Aspell preferences group
@@ -9,34 +9,57 @@
  */
 package net.sourceforge.texlipse.spelling;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
+
+import net.sourceforge.texlipse.TexlipsePlugin;
 
 import com.swabunga.spell.engine.SpellDictionaryASpell;
 
 /**
- * A memory optimized dictionary class 
+ * A memory optimized dictionary class. The words of the dictionary file
+ * are kept in an immutable <code>CompactWordList</code>, which is saved
+ * in the plugin state location after it has been built, so that the
+ * next time the dictionary is needed it is read from there instead of
+ * computing the phonetic codes of all the words again. The words of the
+ * user dictionary are kept separately.
  * @author Boris von Loesch
  *
  */
 public class TexSpellDictionary extends SpellDictionaryASpell {
-    private final static int INITIAL_CAPACITY = 32 * 1024;
+    private final static String CACHE_DIR = "dict";
+    private final static int CACHE_VERSION = 1;
+
+    /**
+     * The largest dictionary cache that is read, the arrays of a
+     * list are limited to 2GB anyway
+     */
+    private final static long MAX_CACHE_SIZE = Integer.MAX_VALUE;
+
+    private CompactWordList mainDictionary;
 
-    private final static char SEP_CHAR = ';';
-    
-    protected Map<Integer, StringBuilder> mainDictionary = new HashMap<Integer, StringBuilder>(INITIAL_CAPACITY);
+    /**
+     * The words added from the user dictionary and by <code>addWord()</code>
+     */
+    private final Map<Integer, List<String>> userDictionary = new HashMap<Integer, List<String>>();
 
     /**
      * User dictionary
@@ -68,7 +91,142 @@ public class TexSpellDictionary extends SpellDictionaryASpell {
         super(phonetic);
         createDictionary(new BufferedReader(wordList));
     }
-    
+
+    /**
+     * Creates an empty dictionary, the words are set by <code>load()</code>.
+     */
+    private TexSpellDictionary() throws IOException {
+        super((File) null);
+    }
+
+    /**
+     * Loads a dictionary from a UTF-8 word list file. The word list is
+     * read from the cache, if the file has not changed since the cache
+     * was written. Otherwise the word list is built from the file and
+     * the cache is written for the next time.
+     * @param wordList The file containing the words list, one word per line
+     * @return The dictionary
+     * @throws IOException indicates problems reading the words list file
+     */
+    public static TexSpellDictionary load(File wordList) throws IOException {
+        TexSpellDictionary dict = new TexSpellDictionary();
+        File cacheFile = getCacheFile(wordList);
+        if (cacheFile != null && cacheFile.exists()) {
+            try {
+                dict.mainDictionary = dict.readCache(cacheFile, wordList);
+            } catch (IOException e) {
+                // a broken cache is simply rebuilt
+            }
+            if (dict.mainDictionary != null) {
+                return dict;
+            }
+        }
+
+        // the stamp is taken before reading, so a later change is noticed
+        long stamp = wordList.lastModified();
+        long length = wordList.length();
+        BufferedReader r = new BufferedReader(new InputStreamReader(
+                new FileInputStream(wordList), "UTF-8"));
+        try {
+            dict.createDictionary(r);
+        } finally {
+            r.close();
+        }
+        if (cacheFile != null) {
+            try {
+                dict.writeCache(cacheFile, wordList, stamp, length);
+            } catch (IOException e) {
+                TexlipsePlugin.log("Unable to write dictionary cache " + cacheFile, e);
+            }
+        }
+        return dict;
+    }
+
+    /**
+     * @return The cache file of the word list, or null if the plugin is
+     * not running
+     */
+    private static File getCacheFile(File wordList) {
+        TexlipsePlugin plugin = TexlipsePlugin.getDefault();
+        if (plugin == null) {
+            return null;
+        }
+        return plugin.getStateLocation().append(CACHE_DIR)
+            .append(wordList.getName() + ".cache").toFile();
+    }
+
+    /**
+     * Reads the word list from the cache. The arrays of the list are
+     * filled straight from the file, so the contents of the file are not
+     * held in memory next to them. The cache is not memory-mapped,
+     * because a mapping keeps the file locked on some platforms and the
+     * cache could not be replaced.
+     * @return The word list, or null if the cache is not up to date
+     */
+    private CompactWordList readCache(File cacheFile, File wordList) throws IOException {
+        long size = cacheFile.length();
+        if (size > MAX_CACHE_SIZE) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(cacheFile)));
+        try {
+            if (in.readInt() != CACHE_VERSION
+                    || !wordList.getAbsolutePath().equals(readString(in, size))
+                    || in.readLong() != wordList.lastModified()
+                    || in.readLong() != wordList.length()
+                    // the codes depend on the phonetic transformation
+                    || !tf.getClass().getName().equals(readString(in, size))) {
+                return null;
+            }
+            return CompactWordList.read(in, size);
+        } catch (EOFException e) {
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeCache(File cacheFile, File wordList, long stamp, long length) throws IOException {
+        File dir = cacheFile.getParentFile();
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        // write to a temporary file first, so a failure does not leave a broken cache
+        File tmpFile = new File(dir, cacheFile.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmpFile)));
+        try {
+            out.writeInt(CACHE_VERSION);
+            writeString(out, wordList.getAbsolutePath());
+            out.writeLong(stamp);
+            out.writeLong(length);
+            writeString(out, tf.getClass().getName());
+            mainDictionary.write(out);
+        } finally {
+            out.close();
+        }
+        if (cacheFile.exists() && !cacheFile.delete() || !tmpFile.renameTo(cacheFile)) {
+            throw new IOException("Can't replace " + cacheFile);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, long size) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > size) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
     /**
      * Add words from a file to existing dictionary hashmap.
      * This function can be called as many times as needed to
@@ -83,7 +241,12 @@ public class TexSpellDictionary extends SpellDictionaryASpell {
      * @throws IOException
      */
     public void addDictionary(File wordList) throws FileNotFoundException, IOException {
-        addDictionaryHelper(new BufferedReader(new FileReader(wordList)));
+        BufferedReader r = new BufferedReader(new FileReader(wordList));
+        try {
+            addDictionaryHelper(r);
+        } finally {
+            r.close();
+        }
     }
 
     /**
@@ -101,11 +264,20 @@ public class TexSpellDictionary extends SpellDictionaryASpell {
 
     /**
      * Add a word permanently to the dictionary (and the dictionary file).
-     * <p>This needs to be made thread safe (synchronized)</p>
      */
     public void addWord(String word) {
         putWordUnique(word);
         if (dictFile == null) return;
+        appendWord(dictFile, word);
+    }
+
+    /**
+     * Appends a word to a user dictionary file, which is created if it
+     * does not exist.
+     * @param dictFile The user dictionary
+     * @param word The word
+     */
+    static void appendWord(File dictFile, String word) {
         try {
             if (!dictFile.exists()) {
                 boolean succ = dictFile.createNewFile();
@@ -124,17 +296,20 @@ public class TexSpellDictionary extends SpellDictionaryASpell {
      * Constructs the dictionary from a word list file.
      * <p>
      * Each word in the reader should be on a separate line.
-     * <p>
-     * This is a very slow function. On my machine it takes quite a while to
-     * load the data in. I suspect that we could speed this up quite allot.
      */
     protected void createDictionary(BufferedReader in) throws IOException {
+        List<String> words = new ArrayList<String>();
         String line;
         while ((line = in.readLine()) != null) {
             if (line.length() > 0) {
-                putWord(line.trim());
+                words.add(line.trim());
             }
         }
+        int[] hashes = new int[words.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = getCode(words.get(i)).hashCode();
+        }
+        mainDictionary = CompactWordList.build(words, hashes);
     }
 
     /**
@@ -142,13 +317,6 @@ public class TexSpellDictionary extends SpellDictionaryASpell {
      * already exists in the dictionary, a new entry is not added.
      * <p>
      * Each word in the reader should be on a separate line.
-     * <p>
-     * Note: for whatever reason that I haven't yet looked into, the phonetic codes
-     * for a particular word map to a vector of words rather than a hash table.
-     * This is a drag since in order to check for duplicates you have to iterate
-     * through all the words that use the phonetic code.
-     * If the vector-based implementation is important, it may be better
-     * to subclass for the cases where duplicates are bad.
      */
     public void addDictionaryHelper(BufferedReader in) throws IOException {
         String line;
@@ -160,71 +328,48 @@ public class TexSpellDictionary extends SpellDictionaryASpell {
     }
 
     /**
-     * Allocates a word in the dictionary
-     * @param word The word to add
-     */
-    protected void putWord(String word) {
-        int code = getCode(word).hashCode();
-        StringBuilder words = mainDictionary.get(code);
-        if (words != null) {
-            words.append(word);
-            words.append(SEP_CHAR);
-        } else {
-            words = new StringBuilder();
-            words.append(SEP_CHAR);
-            words.append(word);
-            words.append(SEP_CHAR);
-            mainDictionary.put(code, words);
-        }
-    }
-
-    /**
-     * Allocates a word, if it is not already present in the dictionary. A word
-     * with a different case is considered the same.
+     * Allocates a word, if it is not already present in the dictionary.
      * @param word The word to add
      */
     protected void putWordUnique(String word) {
-
         int code = getCode(word).hashCode();
-        StringBuilder words = mainDictionary.get(code);
-
-        if (words != null) {
-            if (words.indexOf(SEP_CHAR + word + SEP_CHAR) == -1) {
-                words.append(word);
-                words.append(SEP_CHAR);            
-            }
-            //else the word is already in the dictionary
+        if (mainDictionary.contains(code, word)) {
+            return;
         }
-        else {
-            words = new StringBuilder();
-            words.append(SEP_CHAR);
-            words.append(word);
-            words.append(SEP_CHAR);
-            mainDictionary.put(code, words);
+        synchronized (userDictionary) {
+            List<String> words = userDictionary.get(code);
+            if (words == null) {
+                words = new ArrayList<String>(1);
+                userDictionary.put(code, words);
+            }
+            if (!words.contains(word)) {
+                words.add(word);
+            }
         }
     }
 
     /**
-     * Compresses the dictionary so that it takes less memory
+     * @return The approximate number of bytes the main word list takes
+     * in memory
      */
-    public void compress() {
-        Collection<StringBuilder> c = mainDictionary.values();
-        for (StringBuilder st : c) {
-            st.trimToSize();
-        }
+    public long getMemorySize() {
+        return mainDictionary.getMemorySize();
     }
-    
+
     /**
      * Returns a list of strings (words) for the code.
      */
     @Override
     public List<String> getWords(String code) {
-        //Check the main dictionary.
-        StringBuilder mainDictResult = mainDictionary.get(code.hashCode());
-        if (mainDictResult == null) return new ArrayList<String>(1);
-        StringTokenizer stk = new StringTokenizer(mainDictResult.toString(), ""+SEP_CHAR);
+        int hash = code.hashCode();
         List<String> list = new ArrayList<String>(1);
-        while (stk.hasMoreTokens()) list.add(stk.nextToken());
+        mainDictionary.getWords(hash, list);
+        synchronized (userDictionary) {
+            List<String> words = userDictionary.get(hash);
+            if (words != null) {
+                list.addAll(words);
+            }
+        }
         return list;
     }
 
@@ -233,13 +378,20 @@ public class TexSpellDictionary extends SpellDictionaryASpell {
      */
     @Override
     public boolean isCorrect(String word) {
-        StringBuilder words = mainDictionary.get(getCode(word).hashCode());
-        if (words == null) return false;
-        if (words.indexOf(SEP_CHAR + word + SEP_CHAR) >= 0) return true;
+        int code = getCode(word).hashCode();
+        if (contains(code, word)) return true;
         //JMH should we always try the lowercase version. If I dont then capitalised
         //words are always returned as incorrect.
-        if (words.indexOf(SEP_CHAR + word.toLowerCase() + SEP_CHAR) >= 0) return true;
-        return false;
+        String lower = word.toLowerCase();
+        return !lower.equals(word) && contains(code, lower);
+    }
+
+    private boolean contains(int code, String word) {
+        if (mainDictionary.contains(code, word)) return true;
+        synchronized (userDictionary) {
+            List<String> words = userDictionary.get(code);
+            return words != null && words.contains(word);
+        }
     }
 
 }
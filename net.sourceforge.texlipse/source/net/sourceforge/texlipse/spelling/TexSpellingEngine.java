@@ -9,12 +9,7 @@
  */
 package net.sourceforge.texlipse.spelling;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.text.MessageFormat;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -121,24 +116,20 @@ public class TexSpellingEngine implements ISpellingEngine, SpellCheckListener {
     private final static String DEFAULT_DICT_PATH = "/dict/";
     private final static String DEFAULT_LANG = "en";
     
-    private static SpellChecker spellCheck;
-    private static TexSpellDictionary dict;
-    private static String currentLang;
+    private final static DictionaryCache dictionaries = new DictionaryCache();
     private static Set<String> ignore;
     
     private List<SpellCheckEvent> errors;
     
     /**
-     * Returns a SpellChecker that checks the language of the current project
-     * @param project
-     * @return null, if no dictionary for the current language was found
+     * Returns the word list file of the language.
+     * @param lang
+     * @return null, if no dictionary for the language was found
      */
-    private static SpellChecker getSpellChecker(String lang) {
+    private static File getWordList(String lang) {
         //Return null, when no language is set
         if (lang == null) return null;
-        
-        if (lang.equals(currentLang)) return spellCheck;
-                
+
         //Get dictionary path from preferences and check if it exists
         String dictPathSt = TexlipsePlugin.getPreference(TexlipseProperties.SPELLCHECKER_DICT_DIR);
         if (dictPathSt == null || "".equals(dictPathSt.trim())) return null;
@@ -147,41 +138,86 @@ public class TexSpellingEngine implements ISpellingEngine, SpellCheckListener {
 
         File f = new File(dictPath.getAbsolutePath() + File.separator + lang + ".dict");
         if (!f.exists() || !f.canRead()) return null;
-        
-        //Set spellCheck to null to allow the GC to trash the current dictionary
-        spellCheck = null;
-        dict = null;
-        currentLang = lang;
+        return f;
+    }
 
-        try {
-            FileInputStream input = new FileInputStream(f);
-            Reader r = new BufferedReader(new InputStreamReader(input, "UTF-8"));
-            dict = new TexSpellDictionary(r);
-            r.close();
+    /**
+     * Returns a SpellChecker that checks the given language. If the
+     * dictionary has not been loaded yet, it is loaded in the background.
+     * @param lang
+     * @param whenLoaded Run when the dictionary has been loaded, or null
+     * @return null, if no dictionary for the language was found or it is
+     * not loaded yet
+     */
+    private static SpellChecker getSpellChecker(String lang, Runnable whenLoaded) {
+        File f = getWordList(lang);
+        if (f == null) return null;
+        return dictionaries.get(f, getUserDict(lang), whenLoaded);
+    }
 
-            String customDictPath = TexlipsePlugin.getPreference(TexlipseProperties.SPELLCHECKER_CUSTOM_DICT_DIR);
-            if (customDictPath != null && !"".equals(customDictPath.trim())) {
-                dict.setUserDict(new File (customDictPath + File.separator + lang + "_user.dict"));
-            }
-            spellCheck = new SpellChecker(dict);
-            return spellCheck;
-        } catch (IOException e) {
-            TexlipsePlugin.log("Error while loading dictionary", e);
-        }
-        return null;
+    /**
+     * Returns the user dictionary file of the language.
+     * @param lang
+     * @return null, if no directory for the user dictionaries is set
+     */
+    private static File getUserDict(String lang) {
+        String customDictPath = TexlipsePlugin.getPreference(TexlipseProperties.SPELLCHECKER_CUSTOM_DICT_DIR);
+        if (customDictPath == null || "".equals(customDictPath.trim())) return null;
+        return new File (customDictPath + File.separator + lang + "_user.dict");
     }
     
     /**
-     * <p>Returns the dictionary for that language, or the default dictionary if no
-     * exists.</p> 
+     * <p>Returns the dictionary for that language, if it has been loaded.</p> 
      * <p><b>Beware:</b> Only use local references for the dictionary, otherwise
      * it can not be trashed by the GC and we get memory problems.
      * @param lang Language of the file
-     * @return The dictionary
+     * @return The dictionary, or null
      */
     public static TexSpellDictionary getDict(String lang) {
-        getSpellChecker(lang);
-        return dict;
+        File f = getWordList(lang);
+        return f != null ? dictionaries.getDict(f) : null;
+    }
+
+    /**
+     * Adds a word to the user dictionary of the language. The word is
+     * kept also if the dictionary has not been loaded.
+     * @param lang Language of the file
+     * @param word The word to add
+     */
+    public static void addWord(String lang, String word) {
+        File f = getWordList(lang);
+        if (f == null) return;
+        dictionaries.addWord(f, getUserDict(lang), word);
+    }
+
+    /**
+     * @return The share of the dictionary requests that found the
+     * dictionary loaded, between 0 and 1
+     */
+    public static double getDictionaryHitRate() {
+        return dictionaries.getHitRate();
+    }
+
+    /**
+     * @return The average time of loading a dictionary in milliseconds
+     */
+    public static long getAverageDictionaryLoadTime() {
+        return dictionaries.getAverageLoadTime();
+    }
+
+    /**
+     * @return The number of dictionaries loaded
+     */
+    public static int getLoadedDictionaryCount() {
+        return dictionaries.getDictionaryCount();
+    }
+
+    /**
+     * @return The approximate number of bytes the loaded dictionaries
+     * take in memory
+     */
+    public static long getDictionaryMemorySize() {
+        return dictionaries.getMemorySize();
     }
     
     public void check(IDocument document, IRegion[] regions, SpellingContext context, 
@@ -196,9 +232,20 @@ public class TexSpellingEngine implements ISpellingEngine, SpellCheckListener {
         if (project != null) {
             lang = TexlipseProperties.getProjectProperty(project, TexlipseProperties.LANGUAGE_PROPERTY);
         }
-        //Get spellchecker for the correct language
-        SpellChecker spellCheck = getSpellChecker(lang);
-        if (spellCheck == null) return;
+        //Get spellchecker for the correct language, the regions are checked
+        //again when the dictionary has been loaded
+        Runnable recheck = null;
+        if (collector instanceof TeXSpellingProblemCollector) {
+            recheck = ((TeXSpellingProblemCollector) collector).getRecheck();
+        }
+        SpellChecker spellCheck = getSpellChecker(lang, recheck);
+        if (spellCheck == null) {
+            if (collector instanceof TeXSpellingProblemCollector) {
+                //Keep the old problems
+                ((TeXSpellingProblemCollector) collector).setRegions(new IRegion[0]);
+            }
+            return;
+        }
         
         if (collector instanceof TeXSpellingProblemCollector) {
             ((TeXSpellingProblemCollector) collector).setRegions(regions);
@@ -214,6 +261,7 @@ public class TexSpellingEngine implements ISpellingEngine, SpellCheckListener {
                 TexlipseWordFinder wf = new TexlipseWordFinder();
                 wf.setIgnoreComments(TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(TexlipseProperties.SPELLCHECKER_IGNORE_COMMENTS));
                 wf.setIgnoreMath(TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(TexlipseProperties.SPELLCHECKER_IGNORE_MATH));
+                wf.setIgnoredCommands(TexlipsePlugin.getPreference(TexlipseProperties.SPELLCHECKER_IGNORE_COMMANDS));
                 
                 spellCheck.checkSpelling(new StringWordTokenizer(
                         document.get(roffset, r.getLength()), wf));
@@ -9,9 +9,6 @@
  */
 package net.sourceforge.texlipse.spelling;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import com.swabunga.spell.event.AbstractWordFinder;
 import com.swabunga.spell.event.Word;
 import com.swabunga.spell.event.WordNotFoundException;
@@ -25,11 +22,10 @@ import com.swabunga.spell.event.WordNotFoundException;
  */
 public class TexlipseWordFinder extends AbstractWordFinder {
 
-    private final static Pattern MAND_ARG = Pattern.compile("\\A\\s*\\{[^\\}]+\\}");
-    private final static Pattern OPT_MAND_ARG = Pattern.compile("\\A\\s*(\\[[^\\]]+\\])?\\s*\\{[^\\}]+\\}");
-    
     private boolean IGNORE_COMMENTS = true;
     private boolean IGNORE_MATH = true;
+    // not initialized here, because next() is called by the super constructor
+    private CommandTable commands;
     
 
     public TexlipseWordFinder(String st) {
@@ -88,31 +84,9 @@ public class TexlipseWordFinder extends AbstractWordFinder {
             }
 
             if (j < text.length() && text.charAt(j) == '\\') { 
-                // Ignore certain command parameters.
-                j = ignore(j, "\\documentclass", OPT_MAND_ARG);
-                j = ignore(j, "\\usepackage", OPT_MAND_ARG);
-                j = ignore(j, "\\newcounter", MAND_ARG);
-                j = ignore(j, "\\setcounter", MAND_ARG);
-                j = ignore(j, "\\addtocounter", MAND_ARG);
-                j = ignore(j, "\\value", MAND_ARG);
-                j = ignore(j, "\\arabic", MAND_ARG);
-                j = ignore(j, "\\stepcounter", MAND_ARG);
-                j = ignore(j, "\\newenvironment", MAND_ARG);
-                j = ignore(j, "\\renewenvironment", MAND_ARG);
-                j = ignore(j, "\\ref", MAND_ARG);
-                j = ignore(j, "\\vref", MAND_ARG);
-                j = ignore(j, "\\eqref", MAND_ARG);
-                j = ignore(j, "\\pageref", MAND_ARG);
-                j = ignore(j, "\\label", MAND_ARG);
-                j = ignore(j, "\\cite", OPT_MAND_ARG);
-                j = ignore(j, "\\tag", MAND_ARG);
-
-                // Ignore environment names.
-                j = ignore(j, "\\begin", MAND_ARG);
-                j = ignore(j, "\\end", MAND_ARG);        
-
-                // Ignore commands.
-                j = ignore(j, '\\');
+                // Ignore the command and the arguments of certain commands.
+                if (commands == null) commands = CommandTable.get(null);
+                j = commands.skip(text, j);
             }
             
             if (i != j){
@@ -142,26 +116,13 @@ public class TexlipseWordFinder extends AbstractWordFinder {
     public void setIgnoreMath(boolean ignore) {
         IGNORE_MATH = ignore;
     }
-    
+
     /**
-     * Ignores a command string
-     * @param index 
-     * @param command The command with leading backslash
-     * @param p Regexp pattern for the command arguments
-     * @return new index
+     * Define the user commands whose arguments are not spell checked, in
+     * addition to the built-in ones like \ref and \label.
+     * @param userCommands the names of the commands separated by commas
      */
-    public int ignore(int index, String command, Pattern p) {
-        int i = 0;
-        //Is this the right command
-        while (i < command.length()) {
-            if (index + i >= text.length()) return index;
-            if (command.charAt(i) != text.charAt(i + index)) return index;
-            i++;
-        }
-        i = i + index;
-        Matcher m = p.matcher(text.substring(i));
-        if (m.find()) 
-            return i + m.end() - 1;
-        return index;
+    public void setIgnoredCommands(String userCommands) {
+        commands = CommandTable.get(userCommands);
     }
 }
@@ -0,0 +1,417 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.texparser;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sourceforge.texlipse.texparser.lexer.Lexer;
+import net.sourceforge.texlipse.texparser.lexer.LexerException;
+import net.sourceforge.texlipse.texparser.node.*;
+
+/**
+ * A lexer that scans a <code>CharSequence</code> directly instead of
+ * reading it char by char through a <code>PushbackReader</code>. It uses
+ * the automaton of the generated <code>Lexer</code> (read from the same
+ * lexer.dat) and produces the same tokens, but
+ * <ul>
+ * <li>the transitions of ASCII characters are looked up from a dense
+ * table indexed by character class instead of a binary search,</li>
+ * <li>backtracking only moves the offset back and</li>
+ * <li>the text of a token is created (directly from the input) only for
+ * tokens that carry text.</li>
+ * </ul>
+ * When created with a reader, the lexer works like the generated one.
+ *
+ * @see net.sourceforge.texlipse.texparser.lexer.Lexer
+ */
+public class CharSequenceLexer extends Lexer {
+
+    /**
+     * The characters below this use the dense transition tables
+     */
+    private static final int DENSE_CHARS = 128;
+
+    private static final State[] STATES = {
+        State.NORMAL, State.COMCAPT, State.BLOCKCAPT,
+        State.OPTCAPT, State.VERBATIM, State.VERB
+    };
+
+    /**
+     * The state the lexer moves to after each token, indexed by token
+     * and the current state; -1 keeps the current state. These follow
+     * the state changes of the generated lexer.
+     */
+    private static final int[][] NEXT_STATE = {
+        {0, 1, 2, 3, 4, 5},        // TWhitespace
+        {1, 1, -1, -1, -1, -1},    // TCpart
+        {1, 1, -1, -1, -1, -1},    // TCchapter
+        {1, 1, -1, -1, -1, -1},    // TCsection
+        {1, 1, -1, -1, -1, -1},    // TCssection
+        {1, 1, -1, -1, -1, -1},    // TCsssection
+        {1, 1, -1, -1, -1, -1},    // TCparagraph
+        {1, 1, -1, -1, -1, -1},    // TCbib
+        {1, 1, -1, -1, -1, -1},    // TCbibstyle
+        {1, 1, -1, -1, -1, -1},    // TClabel
+        {1, 1, -1, -1, -1, -1},    // TCref
+        {1, 1, -1, -1, -1, -1},    // TCcite
+        {1, 1, -1, -1, -1, -1},    // TCbegin
+        {1, 1, -1, -1, -1, -1},    // TCend
+        {1, 1, -1, -1, -1, -1},    // TCinput
+        {1, 1, -1, -1, -1, -1},    // TCinclude
+        {1, 1, -1, -1, -1, -1},    // TCnew
+        {1, 1, -1, -1, -1, -1},    // TCrenew
+        {1, 1, -1, -1, -1, -1},    // TCpackage
+        {0, -1, -1, -1, -1, -1},   // TCpindex
+        {0, -1, -1, -1, -1, -1},   // TCpbib
+        {4, 4, -1, -1, -1, -1},    // TBverbatim
+        {-1, -1, -1, -1, 0, -1},   // TEverbatim
+        {-1, -1, -1, -1, 4, 5},    // TVtext
+        {5, 5, -1, -1, -1, -1},    // TCverb
+        {-1, -1, 2, -1, -1, -1},   // TArgument
+        {-1, -1, -1, 3, -1, -1},   // TOptargument
+        {-1, 1, -1, -1, -1, -1},   // TStar
+        {0, 2, 2, 3, -1, -1},      // TLBrace
+        {0, 0, 2, 3, -1, -1},      // TRBrace
+        {0, 3, -1, 3, -1, -1},     // TLBracket
+        {0, 0, -1, 3, -1, -1},     // TRBracket
+        {1, 1, 2, 3, -1, -1},      // TCword
+        {0, 0, 2, 3, -1, -1},      // TCsymbol
+        {0, 0, 2, 3, -1, -1},      // TCspace
+        {0, 0, -1, -1, -1, -1},    // TWord
+        {0, 1, -1, -1, -1, -1},    // TSkippedArea
+        {0, 1, -1, -1, -1, -1},    // TTaskcomment
+        {0, 1, -1, -1, -1, -1}     // TCommentline
+    };
+
+    private static int[][][][] gotoTable;
+    private static int[][] accept;
+    // for each lexer state: the class of each ASCII char, the number of
+    // classes and the transitions indexed by dfa state * classes + class
+    private static int[][] charClasses;
+    private static int[] classCounts;
+    private static int[][] transitions;
+
+    private final CharSequence input;
+    private final int length;
+    private int offset;
+    private int line;
+    private int pos;
+    private boolean cr;
+    private int tokenStart;
+    private int tokenEnd;
+
+    /**
+     * Creates a new lexer that works like the generated one.
+     *
+     * @param in The reader to read the character stream from
+     */
+    public CharSequenceLexer(PushbackReader in) {
+        super(in);
+        this.input = null;
+        this.length = 0;
+    }
+
+    /**
+     * Creates a new lexer scanning the given text.
+     *
+     * @param input The text to tokenize
+     */
+    public CharSequenceLexer(CharSequence input) {
+        super(null);
+        this.input = input;
+        this.length = input.length();
+    }
+
+    /**
+     * @return The text this lexer scans, or null if it reads a reader
+     */
+    public CharSequence getInput() {
+        return input;
+    }
+
+    /**
+     * @return The offset of the first character of the last token
+     *  returned by <code>getToken()</code> (only when scanning a text)
+     */
+    public int getTokenStart() {
+        return tokenStart;
+    }
+
+    /**
+     * @return The offset after the last character of the last token
+     *  returned by <code>getToken()</code> (only when scanning a text)
+     */
+    public int getTokenEnd() {
+        return tokenEnd;
+    }
+
+    protected Token getToken() throws IOException, LexerException {
+        if (input == null) {
+            return super.getToken();
+        }
+        int stateId = state.id();
+        int[][][] gotos = gotoTable[stateId];
+        int[] accepts = accept[stateId];
+        int[] classes = charClasses[stateId];
+        int classCount = classCounts[stateId];
+        int[] table = transitions[stateId];
+
+        int start = offset;
+        int startLine = line;
+        int startPos = pos;
+        int dfaState = 0;
+        int acceptToken = -1;
+        int acceptEnd = -1;
+        int acceptLine = -1;
+        int acceptPos = -1;
+
+        int i = start;
+        while (true) {
+            if (i < length) {
+                char c = input.charAt(i++);
+                switch (c) {
+                case 10:
+                    if (cr) {
+                        cr = false;
+                    } else {
+                        line++;
+                        pos = 0;
+                    }
+                    break;
+                case 13:
+                    line++;
+                    pos = 0;
+                    cr = true;
+                    break;
+                default:
+                    pos++;
+                    cr = false;
+                    break;
+                }
+                if (c < DENSE_CHARS) {
+                    dfaState = table[dfaState * classCount + classes[c]];
+                } else {
+                    dfaState = lookup(gotos, dfaState, c);
+                }
+            } else {
+                dfaState = -1;
+            }
+
+            if (dfaState >= 0) {
+                if (accepts[dfaState] != -1) {
+                    acceptToken = accepts[dfaState];
+                    acceptEnd = i;
+                    acceptLine = line;
+                    acceptPos = pos;
+                }
+            } else if (acceptToken != -1) {
+                Token token = newToken(acceptToken, start, acceptEnd,
+                        startLine + 1, startPos + 1);
+                offset = acceptEnd;
+                line = acceptLine;
+                pos = acceptPos;
+                int next = NEXT_STATE[acceptToken][stateId];
+                if (next != -1) {
+                    state = STATES[next];
+                }
+                tokenStart = start;
+                tokenEnd = acceptEnd;
+                return token;
+            } else {
+                if (i > start) {
+                    throw new LexerException(
+                            "[" + (startLine + 1) + "," + (startPos + 1) + "]" +
+                            " Unknown token: " + input.subSequence(start, i));
+                }
+                tokenStart = start;
+                tokenEnd = start;
+                return new EOF(startLine + 1, startPos + 1);
+            }
+        }
+    }
+
+    protected void unread(Token token) throws IOException {
+        if (input == null) {
+            super.unread(token);
+            return;
+        }
+        offset -= token.getText().length();
+        pos = token.getPos() - 1;
+        line = token.getLine() - 1;
+    }
+
+    /**
+     * Creates the token of the given type, like the generated lexer.
+     */
+    private Token newToken(int type, int start, int end, int line, int pos) {
+        switch (type) {
+        case 0: return new TWhitespace(text(start, end), line, pos);
+        case 1: return new TCpart(line, pos);
+        case 2: return new TCchapter(line, pos);
+        case 3: return new TCsection(line, pos);
+        case 4: return new TCssection(line, pos);
+        case 5: return new TCsssection(line, pos);
+        case 6: return new TCparagraph(line, pos);
+        case 7: return new TCbib(text(start, end), line, pos);
+        case 8: return new TCbibstyle(line, pos);
+        case 9: return new TClabel(line, pos);
+        case 10: return new TCref(text(start, end), line, pos);
+        case 11: return new TCcite(text(start, end), line, pos);
+        case 12: return new TCbegin(line, pos);
+        case 13: return new TCend(line, pos);
+        case 14: return new TCinput(line, pos);
+        case 15: return new TCinclude(line, pos);
+        case 16: return new TCnew(text(start, end), line, pos);
+        case 17: return new TCrenew(line, pos);
+        case 18: return new TCpackage(line, pos);
+        case 19: return new TCpindex(line, pos);
+        case 20: return new TCpbib(text(start, end), line, pos);
+        case 21: return new TBverbatim(text(start, end), line, pos);
+        case 22: return new TEverbatim(text(start, end), line, pos);
+        case 23: return new TVtext(text(start, end), line, pos);
+        case 24: return new TCverb(text(start, end), line, pos);
+        case 25: return new TArgument(text(start, end), line, pos);
+        case 26: return new TOptargument(text(start, end), line, pos);
+        case 27: return new TStar(line, pos);
+        case 28: return new TLBrace(line, pos);
+        case 29: return new TRBrace(line, pos);
+        case 30: return new TLBracket(line, pos);
+        case 31: return new TRBracket(line, pos);
+        case 32: return new TCword(text(start, end), line, pos);
+        case 33: return new TCsymbol(text(start, end), line, pos);
+        case 34: return new TCspace(text(start, end), line, pos);
+        case 35: return new TWord(text(start, end), line, pos);
+        case 36: return new TSkippedArea(text(start, end), line, pos);
+        case 37: return new TTaskcomment(text(start, end), line, pos);
+        default: return new TCommentline(text(start, end), line, pos);
+        }
+    }
+
+    private String text(int start, int end) {
+        return input.subSequence(start, end).toString();
+    }
+
+    /**
+     * Finds the transition from the given dfa state with the given char
+     * from the range tables, following the references to the tables of
+     * other states like the generated lexer does.
+     */
+    private static int lookup(int[][][] gotos, int dfaState, int c) {
+        do {
+            int oldState = (dfaState < -1) ? (-2 - dfaState) : dfaState;
+            dfaState = -1;
+            int[][] ranges = gotos[oldState];
+            int low = 0;
+            int high = ranges.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int[] range = ranges[middle];
+                if (c < range[0]) {
+                    high = middle - 1;
+                } else if (c > range[1]) {
+                    low = middle + 1;
+                } else {
+                    dfaState = range[2];
+                    break;
+                }
+            }
+        } while (dfaState < -1);
+        return dfaState;
+    }
+
+    /**
+     * Builds the dense tables of each lexer state. ASCII characters that
+     * have the same transitions from every dfa state share a class.
+     */
+    private static void createDenseTables() {
+        int stateCount = gotoTable.length;
+        charClasses = new int[stateCount][];
+        classCounts = new int[stateCount];
+        transitions = new int[stateCount][];
+        for (int s = 0; s < stateCount; s++) {
+            int[][][] gotos = gotoTable[s];
+            int dfaStates = gotos.length;
+            int[] classes = new int[DENSE_CHARS];
+            Map<String, Integer> classOf = new HashMap<String, Integer>();
+            int[][] columns = new int[DENSE_CHARS][];
+            for (int c = 0; c < DENSE_CHARS; c++) {
+                int[] column = new int[dfaStates];
+                for (int d = 0; d < dfaStates; d++) {
+                    column[d] = lookup(gotos, d, c);
+                }
+                String key = Arrays.toString(column);
+                Integer cls = classOf.get(key);
+                if (cls == null) {
+                    cls = Integer.valueOf(classOf.size());
+                    classOf.put(key, cls);
+                    columns[cls.intValue()] = column;
+                }
+                classes[c] = cls.intValue();
+            }
+            int classCount = classOf.size();
+            int[] table = new int[dfaStates * classCount];
+            for (int cls = 0; cls < classCount; cls++) {
+                for (int d = 0; d < dfaStates; d++) {
+                    table[d * classCount + cls] = columns[cls][d];
+                }
+            }
+            charClasses[s] = classes;
+            classCounts[s] = classCount;
+            transitions[s] = table;
+        }
+    }
+
+    static {
+        try {
+            DataInputStream s = new DataInputStream(
+                    new BufferedInputStream(
+                            Lexer.class.getResourceAsStream("lexer.dat")));
+
+            // read gotoTable
+            int length = s.readInt();
+            gotoTable = new int[length][][][];
+            for (int i = 0; i < gotoTable.length; i++) {
+                length = s.readInt();
+                gotoTable[i] = new int[length][][];
+                for (int j = 0; j < gotoTable[i].length; j++) {
+                    length = s.readInt();
+                    gotoTable[i][j] = new int[length][3];
+                    for (int k = 0; k < gotoTable[i][j].length; k++) {
+                        for (int l = 0; l < 3; l++) {
+                            gotoTable[i][j][k][l] = s.readInt();
+                        }
+                    }
+                }
+            }
+
+            // read accept
+            length = s.readInt();
+            accept = new int[length][];
+            for (int i = 0; i < accept.length; i++) {
+                length = s.readInt();
+                accept[i] = new int[length];
+                for (int j = 0; j < accept[i].length; j++) {
+                    accept[i][j] = s.readInt();
+                }
+            }
+
+            s.close();
+        } catch (Exception e) {
+            throw new RuntimeException("The file \"lexer.dat\" is either missing or corrupted.");
+        }
+        createDenseTables();
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.texparser;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+
+/**
+ * Accumulates the lines damaged by document changes since the last parse.
+ * The damaged line range is kept in the line coordinates of the text that
+ * was last handed to the parser (the base text), together with the total
+ * number of lines added or removed after it. This is what the parser needs
+ * to decide whether it can re-parse only a part of the document.
+ *
+ * The listener methods are called from the UI thread, <code>take()</code>
+ * from the parse job, so all access is synchronized.
+ */
+public class DocumentDamage {
+
+    private static final long UNKNOWN = IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+
+    // damaged lines (0-based, inclusive) in base text coordinates, -1 if none
+    private int firstLine;
+    private int lastLine;
+    private int lineDelta;
+    // modification stamp of the base text and of the last recorded change
+    private long baseStamp;
+    private long stamp;
+    private boolean valid;
+
+    // the change announced by documentAboutToBeChanged(), if any
+    private boolean pending;
+    private int pendingFirst;
+    private int pendingLast;
+    private long pendingStamp;
+
+    /**
+     * Creates an empty damage record.
+     */
+    public DocumentDamage() {
+        this.firstLine = -1;
+        this.baseStamp = UNKNOWN;
+        this.stamp = UNKNOWN;
+        this.valid = true;
+    }
+
+    /**
+     * Records the lines about to be replaced by the given change.
+     *
+     * @param event The document event from <code>documentAboutToBeChanged()</code>
+     */
+    public synchronized void aboutToBeChanged(DocumentEvent event) {
+        IDocument doc = event.getDocument();
+        try {
+            pendingFirst = doc.getLineOfOffset(event.getOffset());
+            pendingLast = doc.getLineOfOffset(event.getOffset() + event.getLength());
+            pendingStamp = getModificationStamp(doc);
+            pending = true;
+        } catch (BadLocationException e) {
+            pending = false;
+            valid = false;
+        }
+    }
+
+    /**
+     * Merges the given change into the damaged region.
+     *
+     * @param event The document event from <code>documentChanged()</code>
+     */
+    public synchronized void changed(DocumentEvent event) {
+        if (!pending) {
+            valid = false;
+            return;
+        }
+        pending = false;
+        int newLast;
+        try {
+            String text = event.getText();
+            newLast = event.getDocument().getLineOfOffset(event.getOffset()
+                    + (text == null ? 0 : text.length()));
+        } catch (BadLocationException e) {
+            valid = false;
+            return;
+        }
+        if (firstLine == -1) {
+            firstLine = pendingFirst;
+            lastLine = pendingLast;
+            baseStamp = pendingStamp;
+        } else {
+            if (pendingStamp != stamp) {
+                // we have missed a change
+                valid = false;
+            }
+            // convert the current coordinates back to base coordinates
+            int first = pendingFirst < firstLine ? pendingFirst
+                    : (pendingFirst > lastLine + lineDelta ? pendingFirst - lineDelta : firstLine);
+            int last = pendingLast < firstLine ? pendingLast
+                    : (pendingLast > lastLine + lineDelta ? pendingLast - lineDelta : lastLine);
+            firstLine = Math.min(firstLine, first);
+            lastLine = Math.max(lastLine, last);
+        }
+        lineDelta += newLast - pendingLast;
+        stamp = event.getModificationStamp();
+    }
+
+    /**
+     * Returns the damage recorded so far and starts a new record relative
+     * to the current document state. A change that has been announced but
+     * not yet completed is carried over to the new record.
+     *
+     * @return A copy of the damage accumulated since the previous call
+     */
+    public synchronized DocumentDamage take() {
+        DocumentDamage damage = new DocumentDamage();
+        damage.firstLine = firstLine;
+        damage.lastLine = lastLine;
+        damage.lineDelta = lineDelta;
+        damage.baseStamp = baseStamp;
+        damage.stamp = stamp;
+        damage.valid = valid;
+
+        firstLine = -1;
+        lineDelta = 0;
+        baseStamp = stamp;
+        valid = true;
+        return damage;
+    }
+
+    /**
+     * Puts back damage returned by <code>take()</code> that was not
+     * parsed, e.g. because the parse was canceled. The changes recorded
+     * since then are merged into it, so that the record again describes
+     * all changes since the text that was last parsed.
+     *
+     * @param taken The damage returned by the last call to <code>take()</code>
+     */
+    public synchronized void restore(DocumentDamage taken) {
+        if (taken.firstLine == -1) {
+            valid = valid && taken.valid;
+            return;
+        }
+        if (firstLine == -1) {
+            firstLine = taken.firstLine;
+            lastLine = taken.lastLine;
+            stamp = taken.stamp;
+        } else {
+            // convert the current coordinates back to the base of the taken damage
+            int first = firstLine < taken.firstLine ? firstLine
+                    : (firstLine > taken.lastLine + taken.lineDelta
+                            ? firstLine - taken.lineDelta : taken.firstLine);
+            int last = lastLine < taken.firstLine ? lastLine
+                    : (lastLine > taken.lastLine + taken.lineDelta
+                            ? lastLine - taken.lineDelta : taken.lastLine);
+            firstLine = Math.min(taken.firstLine, first);
+            lastLine = Math.max(taken.lastLine, last);
+        }
+        lineDelta += taken.lineDelta;
+        baseStamp = taken.baseStamp;
+        valid = valid && taken.valid;
+    }
+
+    /**
+     * @param doc A document
+     * @return The modification stamp of the document, or
+     *  <code>IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP</code> if the
+     *  document does not track them
+     */
+    static long getModificationStamp(IDocument doc) {
+        if (doc instanceof IDocumentExtension4) {
+            return ((IDocumentExtension4) doc).getModificationStamp();
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Checks whether this damage record describes all changes made to the
+     * text with the given stamp.
+     *
+     * @param textStamp Modification stamp of the previously parsed text
+     * @return True if the record is complete and applies to that text
+     */
+    public boolean appliesTo(long textStamp) {
+        return valid && firstLine != -1 && textStamp != UNKNOWN
+            && baseStamp == textStamp && stamp != UNKNOWN;
+    }
+
+    /**
+     * @return The first damaged line (0-based) in base text coordinates
+     */
+    public int getFirstLine() {
+        return firstLine;
+    }
+
+    /**
+     * @return The last damaged line (0-based, inclusive) in base text coordinates
+     */
+    public int getLastLine() {
+        return lastLine;
+    }
+
+    /**
+     * @return The number of lines added (positive) or removed (negative)
+     */
+    public int getLineDelta() {
+        return lineDelta;
+    }
+
+    /**
+     * @return The modification stamp of the document after the last recorded change
+     */
+    public long getStamp() {
+        return stamp;
+    }
+}
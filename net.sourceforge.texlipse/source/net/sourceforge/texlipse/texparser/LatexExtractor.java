@@ -0,0 +1,516 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.texparser;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sourceforge.texlipse.model.DocumentReference;
+import net.sourceforge.texlipse.model.LineIndex;
+import net.sourceforge.texlipse.model.OutlineNode;
+import net.sourceforge.texlipse.model.ParseErrorMessage;
+import net.sourceforge.texlipse.model.ReferenceEntry;
+import net.sourceforge.texlipse.model.TexCommandEntry;
+import net.sourceforge.texlipse.texparser.lexer.LexerException;
+
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Extracts everything the plugin needs from a LaTeX document with a
+ * single pass of the lexer: the outline, labels, references, commands,
+ * bibliography settings, the preamble, tasks, errors and the word count.
+ *
+ * The editor, the project scan, the project outline and the word count
+ * all get their extractions from a cache keyed by the content hash of the
+ * document, so a document is tokenized only once. An extraction returned
+ * by <code>get()</code> may be shared and must not be modified. The editor
+ * takes the extraction out of the cache, since it keeps updating it.
+ *
+ * The cache is bounded by the number of extractions and by the total
+ * length of their documents, as the results of an extraction take about
+ * as much memory as the document itself.
+ */
+public class LatexExtractor {
+
+    private static final int CACHE_SIZE = 32;
+    private static final int CACHE_LENGTH = 4 * 1024 * 1024;
+    private static final int WORD_COUNT_CACHE_SIZE = 64;
+
+    // the cached extractions, least recently used first
+    private static final Map<Key, LatexExtractor> cache =
+        new LinkedHashMap<Key, LatexExtractor>(CACHE_SIZE, 0.75f, true);
+    // the total length of the cached documents
+    private static int cachedLength;
+    // the word counts of documents whose extraction is not cached
+    private static final Map<Key, Integer> wordCounts =
+        new LinkedHashMap<Key, Integer>(WORD_COUNT_CACHE_SIZE, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            protected boolean removeEldestEntry(Map.Entry<Key, Integer> eldest) {
+                return size() > WORD_COUNT_CACHE_SIZE;
+            }
+        };
+
+    private final LatexParser parser;
+    private final LatexWordCounter wordCounter;
+
+    private String preamble;
+    private List<ParseErrorMessage> errors;
+    private boolean fatalErrors;
+    private boolean lexerError;
+    private int length;
+    private int tokenCount;
+
+    /**
+     * Creates a new extractor.
+     */
+    public LatexExtractor() {
+        this.parser = new LatexParser();
+        this.wordCounter = new LatexWordCounter();
+    }
+
+    /**
+     * Returns the extraction of the given document, from the cache if
+     * the same content has been extracted before. The returned object
+     * may be shared and must not be modified.
+     *
+     * @param input The document
+     * @param checkForMissingSections
+     * @return The extraction
+     * @throws IOException If the document is unreadable
+     */
+    public static LatexExtractor get(String input, boolean checkForMissingSections)
+            throws IOException {
+        Key key = createKey(input, checkForMissingSections);
+        if (key != null) {
+            synchronized (cache) {
+                LatexExtractor extractor = cache.get(key);
+                if (extractor != null) {
+                    return extractor;
+                }
+            }
+        }
+        LatexExtractor extractor = new LatexExtractor();
+        extractor.extract(input, checkForMissingSections);
+        if (key != null) {
+            put(key, extractor);
+        }
+        return extractor;
+    }
+
+    /**
+     * Extracts a document for the parser of an editor, which keeps
+     * updating the extraction. An extraction of the same document is
+     * taken out of the cache instead of extracting the document again.
+     * The word count is kept for <code>countWords()</code>.
+     *
+     * @param input The document
+     * @param checkForMissingSections
+     * @param monitor The monitor to check for cancellation, or null
+     * @return The extraction, which is not shared
+     * @throws IOException If the document is unreadable
+     * @throws org.eclipse.core.runtime.OperationCanceledException If the monitor was canceled
+     */
+    static LatexExtractor extractOwn(String input, boolean checkForMissingSections,
+            IProgressMonitor monitor) throws IOException {
+        return extractOwn(input, checkForMissingSections, new LatexExtractor(), monitor);
+    }
+
+    /**
+     * Extracts a document for the parser of an editor like
+     * <code>extractOwn(String, boolean, IProgressMonitor)</code>, using
+     * the given extractor if the document is not cached. The caller can
+     * then tell how many tokens a canceled extraction read.
+     *
+     * @param input The document
+     * @param checkForMissingSections
+     * @param extractor A new extractor
+     * @param monitor The monitor to check for cancellation, or null
+     * @return The extraction, which is not shared
+     * @throws IOException If the document is unreadable
+     * @throws org.eclipse.core.runtime.OperationCanceledException If the monitor was canceled
+     */
+    static LatexExtractor extractOwn(String input, boolean checkForMissingSections,
+            LatexExtractor extractor, IProgressMonitor monitor) throws IOException {
+        LatexExtractor cached = null;
+        Key key = createKey(input, checkForMissingSections);
+        if (key != null) {
+            synchronized (cache) {
+                cached = cache.remove(key);
+                if (cached != null) {
+                    cachedLength -= cached.length;
+                }
+            }
+        }
+        if (cached != null) {
+            extractor = cached;
+        } else {
+            extractor.extract(input, checkForMissingSections, monitor);
+        }
+        if (key != null && !extractor.isLexerError()) {
+            synchronized (cache) {
+                wordCounts.put(new Key(key.hash, false),
+                        Integer.valueOf(extractor.getWordCount()));
+            }
+        }
+        return extractor;
+    }
+
+    /**
+     * Returns the number of words in the given document. A cached
+     * extraction is used regardless of the section check it was made
+     * with, since the word count does not depend on it.
+     *
+     * @param input The document
+     * @return The number of words or -1 on an error
+     */
+    public static int countWords(String input) {
+        Key key = createKey(input, false);
+        if (key == null) {
+            return new LatexWordCounter(input).countWords();
+        }
+        synchronized (cache) {
+            LatexExtractor extractor = cache.get(key);
+            if (extractor == null) {
+                extractor = cache.get(new Key(key.hash, true));
+            }
+            if (extractor != null) {
+                return extractor.getWordCount();
+            }
+            Integer words = wordCounts.get(key);
+            if (words != null) {
+                return words.intValue();
+            }
+        }
+        int words = new LatexWordCounter(input).countWords();
+        if (words != -1) {
+            synchronized (cache) {
+                wordCounts.put(key, Integer.valueOf(words));
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Adds an extraction to the cache and removes the least recently
+     * used ones that don't fit in it anymore.
+     */
+    private static void put(Key key, LatexExtractor extractor) {
+        if (extractor.length > CACHE_LENGTH) {
+            return;
+        }
+        synchronized (cache) {
+            LatexExtractor old = cache.put(key, extractor);
+            if (old != null) {
+                cachedLength -= old.length;
+            }
+            cachedLength += extractor.length;
+            for (Iterator<LatexExtractor> iter = cache.values().iterator();
+                    iter.hasNext() && (cache.size() > CACHE_SIZE || cachedLength > CACHE_LENGTH);) {
+                cachedLength -= iter.next().length;
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes trailing whitespace from the document. This is needed since
+     * the lexer and Eclipse have a different view of how the positions in
+     * the trailing whitespace work out, so it's best to just remove it.
+     *
+     * @param input The document to process
+     * @return The document with trailing whitespace removed
+     *
+     * @see Character.isWhitespace
+     */
+    private static String rmTrailingWhitespace(String input) {
+        int lastChar = input.length() - 1;
+        while (lastChar >= 0 && Character.isWhitespace(input.charAt(lastChar)))
+            lastChar--;
+        lastChar++;
+        if (lastChar < input.length())
+            return input.substring(0, lastChar);
+        return input;
+    }
+
+    /**
+     * Parses the document.
+     *
+     * @param input The document
+     * @param checkForMissingSections
+     * @throws IOException If the document is unreadable
+     */
+    public void extract(String input, boolean checkForMissingSections) throws IOException {
+        extract(input, checkForMissingSections, null);
+    }
+
+    /**
+     * Parses the document. The extraction can be canceled with the
+     * given monitor, in which case the results are incomplete and
+     * must not be used.
+     *
+     * @param input The document
+     * @param checkForMissingSections
+     * @param monitor The monitor to check for cancellation, or null
+     * @throws IOException If the document is unreadable
+     * @throws org.eclipse.core.runtime.OperationCanceledException If the monitor was canceled
+     */
+    public void extract(String input, boolean checkForMissingSections,
+            IProgressMonitor monitor) throws IOException {
+        // remove trailing ws (this is because a discrepancy in the lexer's
+        // and IDocument's line counting for trailing whitespace)
+        input = rmTrailingWhitespace(input);
+        this.length = input.length();
+
+        this.preamble = TexParser.extractLaTeXPreamble(input);
+
+        LatexLexer lexer = new LatexLexer(input);
+        lexer.setMonitor(monitor);
+        try {
+            lexer.addListener(wordCounter);
+            if (this.preamble != null) {
+                OutlineNode on = new OutlineNode("Preamble",
+                        OutlineNode.TYPE_PREAMBLE,
+                        1, null);
+                parser.parse(lexer, on, checkForMissingSections);
+            } else {
+                parser.parse(lexer, checkForMissingSections);
+            }
+            this.errors = parser.getErrors();
+            this.fatalErrors = parser.isFatalErrors();
+
+            List<ReferenceEntry> labels = parser.getLabels();
+            if (labels.size() > 0) {
+                LineIndex lines = new LineIndex(input);
+                for (ReferenceEntry label : labels) {
+                    label.setLabelInfo(lines);
+                }
+            }
+        } catch (LexerException e) {
+            // we must parse the lexer exception into a suitable format
+            String msg = e.getMessage();
+            int first = msg.indexOf('[');
+            int last = msg.indexOf(']');
+            String numseq = msg.substring(first + 1, last);
+            String[] numbers = numseq.split(",");
+            this.errors = new ArrayList<ParseErrorMessage>(1);
+            this.errors.add(new ParseErrorMessage(Integer.parseInt(numbers[0]),
+                    Integer.parseInt(numbers[1]),
+                    2,
+                    msg.substring(last+2),
+                    IMarker.SEVERITY_ERROR));
+            this.fatalErrors = true;
+            this.lexerError = true;
+        } finally {
+            this.tokenCount = lexer.getTokenCount();
+        }
+    }
+
+    /**
+     * @return The parser holding the results
+     */
+    LatexParser getParser() {
+        return parser;
+    }
+
+    /**
+     * @return The number of tokens read, also if the extraction was
+     *  canceled
+     */
+    public int getTokenCount() {
+        return tokenCount;
+    }
+
+    /**
+     * @return The preamble, or null if the document has none
+     */
+    public String getPreamble() {
+        return preamble;
+    }
+
+    /**
+     * @return The errors
+     */
+    public List<ParseErrorMessage> getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return True if there were fatal errors due to which parsing couldn't be successfully completed
+     */
+    public boolean isFatalErrors() {
+        return fatalErrors;
+    }
+
+    /**
+     * @return True if the document could not be tokenized
+     */
+    public boolean isLexerError() {
+        return lexerError;
+    }
+
+    /**
+     * @return The number of words in the document
+     */
+    public int getWordCount() {
+        return lexerError ? -1 : wordCounter.getWords();
+    }
+
+    /**
+     * @return The outline tree
+     */
+    public ArrayList<OutlineNode> getOutlineTree() {
+        return parser.getOutlineTree();
+    }
+
+    /**
+     * @return The labels
+     */
+    public List<ReferenceEntry> getLabels() {
+        return parser.getLabels();
+    }
+
+    /**
+     * @return Get all \ref -references
+     */
+    public List<DocumentReference> getRefs() {
+        return parser.getRefs();
+    }
+
+    /**
+     * @return The cite-references
+     */
+    public List<DocumentReference> getCites() {
+        return parser.getCites();
+    }
+
+    /**
+     * @return Get user-defined commands
+     */
+    public ArrayList<TexCommandEntry> getCommands() {
+        return parser.getCommands();
+    }
+
+    /**
+     * @return The bibliography files to include
+     */
+    public String[] getBibs() {
+        return parser.getBibs();
+    }
+
+    /**
+     * @return The style of the bibiliography entries
+     */
+    public String getBibstyle() {
+        return parser.getBibstyle();
+    }
+
+    /**
+     * @return Whether Biblatex mode is activated
+     */
+    public boolean isBiblatexMode() {
+        return parser.isBiblatexMode();
+    }
+
+    /**
+     * @return The selected biblatex backend
+     */
+    public String getBiblatexBackend() {
+        return parser.getBiblatexBackend();
+    }
+
+    /**
+     * @return Whether the document contains a bibliography print command
+     */
+    public boolean isLocalBib() {
+        return parser.isLocalBib();
+    }
+
+    /**
+     * @return True if the document has an index, false otherwise
+     */
+    public boolean isIndex() {
+        return parser.isIndex();
+    }
+
+    /**
+     * @return The tasks to mark
+     */
+    public List<ParseErrorMessage> getTasks() {
+        return parser.getTasks();
+    }
+
+    /**
+     * @return The input commands in this document
+     */
+    public List<OutlineNode> getInputs() {
+        return parser.getInputs();
+    }
+
+    /**
+     * Creates the cache key of a document.
+     *
+     * @return The key, or null if the document can't be hashed
+     */
+    private static Key createKey(String input, boolean checkForMissingSections) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+        byte[] buffer = new byte[8192];
+        int length = input.length();
+        for (int i = 0; i < length; ) {
+            int n = 0;
+            for (; n < buffer.length && i < length; i++) {
+                char c = input.charAt(i);
+                buffer[n++] = (byte) (c >>> 8);
+                buffer[n++] = (byte) c;
+            }
+            digest.update(buffer, 0, n);
+        }
+        return new Key(digest.digest(), checkForMissingSections);
+    }
+
+    /**
+     * The cache key: the content hash and the parse options.
+     */
+    private static final class Key {
+
+        final byte[] hash;
+        final boolean checkForMissingSections;
+
+        Key(byte[] hash, boolean checkForMissingSections) {
+            this.hash = hash;
+            this.checkForMissingSections = checkForMissingSections;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return checkForMissingSections == other.checkForMissingSections
+                && Arrays.equals(hash, other.hash);
+        }
+
+        public int hashCode() {
+            return Arrays.hashCode(hash) * 2 + (checkForMissingSections ? 1 : 0);
+        }
+    }
+}
@@ -9,10 +9,12 @@
  */
 package net.sourceforge.texlipse.texparser;
 
+import java.io.IOException;
 import java.io.PushbackReader;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 
-import net.sourceforge.texlipse.texparser.lexer.Lexer;
 import net.sourceforge.texlipse.texparser.lexer.LexerException;
 import net.sourceforge.texlipse.texparser.node.EOF;
 import net.sourceforge.texlipse.texparser.node.TArgument;
@@ -29,13 +31,17 @@ import net.sourceforge.texlipse.texparser.node.TWhitespace;
 import net.sourceforge.texlipse.texparser.node.Token;
 
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
 /**
  * Lexer for LaTeX -files. Implements tokenizing curly brace-enclosed
- * areas and verb and verbatim environments.
+ * areas and verb and verbatim environments. The lexer can either scan
+ * a text directly (preferred) or read it from a reader.
  * 
  * @author Oskar Ojala
  */
-public class LatexLexer extends Lexer {
+public class LatexLexer extends CharSequenceLexer {
     
     /**
      * Counter for braces
@@ -44,7 +50,7 @@ public class LatexLexer extends Lexer {
     
     private Token argStart;
     //private Token verbStart;
-    private StringBuffer text;
+    private StringBuilder text;
     
     /**
      * Terminator char for \verb
@@ -56,6 +62,16 @@ public class LatexLexer extends Lexer {
     private HashSet<String> defCommands;
     private boolean commandDef;
     
+    private List<LatexTokenListener> listeners;
+    
+    /**
+     * The number of tokens returned between two checks for cancellation
+     */
+    private static final int CANCEL_CHECK_INTERVAL = 256;
+    
+    private IProgressMonitor monitor;
+    private int tokenCount;
+    
     /**
      * Creates a new lexer.
      * 
@@ -67,6 +83,67 @@ public class LatexLexer extends Lexer {
         commandDef = false;
     }
     
+    /**
+     * Creates a new lexer.
+     * 
+     * @param input The text to tokenize
+     */
+    public LatexLexer(CharSequence input) {
+        super(input);
+        defCommands = new HashSet<String>();
+        commandDef = false;
+    }
+    
+    /**
+     * Adds a listener that gets each token returned by <code>next()</code>.
+     * 
+     * @param listener The listener to add
+     */
+    public void addListener(LatexTokenListener listener) {
+        if (listeners == null) {
+            listeners = new ArrayList<LatexTokenListener>(2);
+        }
+        listeners.add(listener);
+    }
+    
+    /**
+     * Sets the monitor that is checked for cancellation while tokenizing.
+     * When the monitor is canceled, <code>next()</code> throws an
+     * <code>OperationCanceledException</code> within a few hundred tokens,
+     * so that the parser reading the tokens stops as well.
+     * 
+     * @param monitor The monitor, or null to never cancel
+     */
+    public void setMonitor(IProgressMonitor monitor) {
+        this.monitor = monitor;
+    }
+    
+    /**
+     * @return The number of tokens returned so far
+     */
+    public int getTokenCount() {
+        return tokenCount;
+    }
+    
+    /**
+     * Returns the next token and passes it to the listeners.
+     * 
+     * @throws OperationCanceledException If the monitor has been canceled
+     */
+    public Token next() throws LexerException, IOException {
+        if (++tokenCount % CANCEL_CHECK_INTERVAL == 0
+                && monitor != null && monitor.isCanceled()) {
+            throw new OperationCanceledException();
+        }
+        Token t = super.next();
+        if (listeners != null) {
+            for (LatexTokenListener listener : listeners) {
+                listener.token(t);
+            }
+        }
+        return t;
+    }
+    
     /**
      * We define a filter that recognizes braced strings and verbatims
      */
@@ -91,7 +168,7 @@ public class LatexLexer extends Lexer {
             // if we are just entering this state
             if (argStart == null) {                
                 argStart = token;
-                text = new StringBuffer("");
+                text = new StringBuilder();
                 count = 1;
                 token = null; // continue to scan the input.
             } else {
@@ -125,7 +202,7 @@ public class LatexLexer extends Lexer {
         } else if (state.equals(State.OPTCAPT)) {
             if (argStart == null) {
                 argStart = token;
-                text = new StringBuffer("");
+                text = new StringBuilder();
                 count = 0;
                 token = null; // continue to scan the input.
             } else {
@@ -160,7 +237,7 @@ public class LatexLexer extends Lexer {
             // we store some contents to be able to code fold
             if (token instanceof TBverbatim) {
                 argStart = token;
-                text = new StringBuffer(token.getText());
+                text = new StringBuilder(token.getText());
                 vline = token.getLine();
                 vpos = token.getPos();
             } else if (token instanceof TVtext || token instanceof TWhitespace) {
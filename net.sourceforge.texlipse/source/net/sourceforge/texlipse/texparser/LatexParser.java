@@ -150,6 +150,10 @@ public class LatexParser {
     private boolean index;
     private boolean fatalErrors;
     
+    private HashMap<String, Integer> sectioning;
+    // lines of commands whose effect is not limited to the surrounding section
+    private List<Integer> scopeLines;
+    
     /**
      * Initializes the internal datastructures that are exported after parsing.
      */
@@ -171,6 +175,7 @@ public class LatexParser {
         this.localBib = false;
         this.index = false;
         this.fatalErrors = false;
+        this.scopeLines = new ArrayList<Integer>();
     }
 
     /**
@@ -332,8 +337,40 @@ public class LatexParser {
     public void parse(final LatexLexer lexer,
             final OutlineNode preamble,
             final boolean checkForMissingSections)
+    throws LexerException, IOException {
+        parse(lexer, preamble, checkForMissingSections, new HashMap<String, Integer>());
+    }
+
+    /**
+     * Parses a fragment of a document that has already been parsed by
+     * <code>context</code>. The commands defined in the context are known
+     * to the lexer and the parser, so the fragment is tokenized the same
+     * way it was in the complete document.
+     * 
+     * @param lexer The lexer to use for extracting the fragment tokens
+     * @param context The parser holding the results for the whole document
+     * @param checkForMissingSections
+     * @throws LexerException If the given lexer cannot tokenize the fragment
+     * @throws IOException If the fragment is unreadable
+     */
+    public void parseFragment(final LatexLexer lexer,
+            final LatexParser context,
+            final boolean checkForMissingSections)
+    throws LexerException, IOException {
+        for (TexCommandEntry command : context.commands) {
+            lexer.registerCommand(command.key);
+        }
+        parse(lexer, null, checkForMissingSections,
+                new HashMap<String, Integer>(context.sectioning));
+    }
+
+    private void parse(final LatexLexer lexer,
+            final OutlineNode preamble,
+            final boolean checkForMissingSections,
+            final HashMap<String, Integer> sectioning)
     throws LexerException, IOException {
         initializeDatastructs();
+        this.sectioning = sectioning;
         StackUnsynch<OutlineNode> blocks = new StackUnsynch<OutlineNode>();
         StackUnsynch<OutlineNode> envBlocks = new StackUnsynch<OutlineNode>();
         StackUnsynch<Token> braces = new StackUnsynch<Token>();
@@ -348,8 +385,6 @@ public class LatexParser {
         int argCount = 0;
         int nodeType;
         
-        HashMap<String, Integer> sectioning = new HashMap<String, Integer>();
-        
         if (preamble != null) {
             outlineTree.add(preamble);
             blocks.push(preamble);
@@ -365,6 +400,13 @@ public class LatexParser {
         for (; !(t instanceof EOF); t = lexer.next()) { 
             if (expectArg) {
                 if (t instanceof TArgument) {
+                    if (!braces.empty() && (prevToken instanceof TCpart
+                            || prevToken instanceof TCchapter || prevToken instanceof TCsection
+                            || prevToken instanceof TCssection || prevToken instanceof TCsssection
+                            || prevToken instanceof TCparagraph)) {
+                        // a brace group continues over the section boundary
+                        scopeLines.add(prevToken.getLine());
+                    }
                     if (prevToken instanceof TClabel) {
                         //this.labels.add(new ReferenceEntry(t.getText()));
                         ReferenceEntry l = new ReferenceEntry(t.getText());
@@ -409,6 +451,7 @@ public class LatexParser {
                                 prevToken.getText().length() + accumulatedLength + t.getText().length());
                         
                         if ("document".equals(t.getText())) {
+                            scopeLines.add(t.getLine());
                             if (preamble != null) preamble.setEndLine(t.getLine());
                             blocks.clear();
                             documentEnv = on;
@@ -430,6 +473,7 @@ public class LatexParser {
 
                         // check if the document ends
                         if ("document".equals(t.getText())) {
+                            scopeLines.add(endLine);
                             documentEnv.setEndLine(endLine + 1);
                             
                             // terminate open blocks here; check for errors
@@ -522,6 +566,7 @@ public class LatexParser {
                                     IMarker.SEVERITY_WARNING));
                         }
                     } else if (prevToken instanceof TCbib) {
+                        scopeLines.add(t.getLine());
                         if (biblatexMode) {
                             bibs.add(t.getText().trim());
                         }
@@ -542,6 +587,7 @@ public class LatexParser {
                         }
                     } else if (prevToken instanceof TCbibstyle) {
                         this.bibstyle = t.getText();
+                        scopeLines.add(t.getLine());
                         int startLine = prevToken.getLine();
                         while (!blocks.empty()) {
                             OutlineNode prev = blocks.pop();
@@ -572,9 +618,11 @@ public class LatexParser {
                         //currentCommand = new CommandEntry(t.getText().substring(1));
                         currentCommand = new TexCommandEntry(t.getText().substring(1), "", 0);
                         currentCommand.startLine = t.getLine();
+                        scopeLines.add(t.getLine());
                         lexer.registerCommand(currentCommand.key);
                         expectArg2 = true;
                     } else if (prevToken instanceof TCpackage) {
+                        scopeLines.add(t.getLine());
                         if (t.getText().equals("biblatex")) {
                             biblatexMode = true;
                             if (packageOptions != null) {
@@ -595,6 +643,7 @@ public class LatexParser {
                     //currentCommand = new CommandEntry(t.getText().substring(1));
                     currentCommand = new TexCommandEntry(t.getText().substring(1), "", 0);
                     currentCommand.startLine = t.getLine();
+                    scopeLines.add(t.getLine());
                     lexer.registerCommand(currentCommand.key);
                     expectArg2 = true;
                     accumulatedLength = 0;
@@ -721,9 +770,11 @@ public class LatexParser {
                         expectArg = true;
                     }
                 } else if (t instanceof TCpindex) {
+                    scopeLines.add(t.getLine());
                     this.index = true;
                 } else if (t instanceof TCpbib) {
                     int startLine = t.getLine();
+                    scopeLines.add(startLine);
                     while (!blocks.empty()) {
                         OutlineNode prev = blocks.pop();
                         if (prev.getType() == OutlineNode.TYPE_ENVIRONMENT) { // this is an error...
@@ -807,6 +858,264 @@ public class LatexParser {
         }
     }
     
+    /**
+     * Moves entries of an old parse result to their new lines.
+     */
+    private static abstract class LineShifter<E> {
+        abstract int getLine(E entry);
+        abstract E moveTo(E entry, int line);
+    }
+
+    private static final LineShifter<ReferenceEntry> LABEL_SHIFTER = new LineShifter<ReferenceEntry>() {
+        int getLine(ReferenceEntry entry) {
+            return entry.startLine;
+        }
+        ReferenceEntry moveTo(ReferenceEntry entry, int line) {
+            ReferenceEntry moved = (ReferenceEntry) entry.copy();
+            moved.startLine = line;
+            return moved;
+        }
+    };
+
+    private static final LineShifter<DocumentReference> REFERENCE_SHIFTER = new LineShifter<DocumentReference>() {
+        int getLine(DocumentReference entry) {
+            return entry.getLine();
+        }
+        DocumentReference moveTo(DocumentReference entry, int line) {
+            return new DocumentReference(entry.getKey(), line, entry.getPos(), entry.getLength());
+        }
+    };
+
+    private static final LineShifter<TexCommandEntry> COMMAND_SHIFTER = new LineShifter<TexCommandEntry>() {
+        int getLine(TexCommandEntry entry) {
+            return entry.startLine;
+        }
+        TexCommandEntry moveTo(TexCommandEntry entry, int line) {
+            TexCommandEntry moved = new TexCommandEntry(entry);
+            moved.startLine = line;
+            moved.fileName = entry.fileName;
+            return moved;
+        }
+    };
+
+    private static final LineShifter<ParseErrorMessage> MESSAGE_SHIFTER = new LineShifter<ParseErrorMessage>() {
+        int getLine(ParseErrorMessage entry) {
+            return entry.getLine();
+        }
+        ParseErrorMessage moveTo(ParseErrorMessage entry, int line) {
+            return new ParseErrorMessage(line, entry.getPos(), entry.getLength(),
+                    entry.getMsg(), entry.getSeverity());
+        }
+    };
+
+    /**
+     * Replaces the entries of the old list that are on lines
+     * <code>[beginLine, endLine)</code> by the fragment entries. Fragment
+     * entries are moved down by <code>offset</code> lines and the old entries
+     * after the replaced lines by <code>lineDelta</code> lines.
+     */
+    private static <E> List<E> splice(List<E> old, List<E> fragment,
+            int beginLine, int endLine, int offset, int lineDelta,
+            LineShifter<E> shifter) {
+        List<E> result = new ArrayList<E>(old.size() + fragment.size());
+        for (E entry : old) {
+            if (shifter.getLine(entry) < beginLine) {
+                result.add(entry);
+            }
+        }
+        for (E entry : fragment) {
+            result.add(shifter.moveTo(entry, shifter.getLine(entry) + offset));
+        }
+        for (E entry : old) {
+            int line = shifter.getLine(entry);
+            if (line >= endLine) {
+                result.add(lineDelta == 0 ? entry : shifter.moveTo(entry, line + lineDelta));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Moves the given outline subtree by <code>lineDelta</code> lines, copying
+     * the nodes so that the previous outline stays intact.
+     */
+    private static OutlineNode moveNode(OutlineNode node, OutlineNode parent,
+            int lineDelta, List<OutlineNode> inputs) {
+        OutlineNode moved = node.copy(node.getIFile());
+        moved.setBeginLine(node.getBeginLine() + lineDelta);
+        moved.setEndLine(node.getEndLine() + lineDelta);
+        moved.setParent(parent);
+        if (node.getType() == OutlineNode.TYPE_INPUT) {
+            inputs.add(moved);
+        }
+        if (node.getChildren() != null) {
+            for (OutlineNode child : node.getChildren()) {
+                moved.addChild(moveNode(child, moved, lineDelta, inputs));
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Moves the nodes of a freshly parsed fragment down by <code>offset</code>
+     * lines. Nodes that were still open at the end of the fragment end
+     * where the replaced section ends.
+     */
+    private static void moveFragmentNode(OutlineNode node, int offset, int endLine,
+            List<OutlineNode> inputs) {
+        node.setBeginLine(node.getBeginLine() + offset);
+        node.setEndLine(Math.min(node.getEndLine() + offset, endLine));
+        if (node.getType() == OutlineNode.TYPE_INPUT) {
+            inputs.add(node);
+        }
+        if (node.getChildren() != null) {
+            for (OutlineNode child : node.getChildren()) {
+                moveFragmentNode(child, offset, endLine, inputs);
+            }
+        }
+    }
+
+    private static boolean isSectionNode(OutlineNode node) {
+        return node.getType() >= OutlineNode.TYPE_PART
+            && node.getType() <= OutlineNode.TYPE_PARAGRAPH;
+    }
+
+    private static boolean hasErrors(List<ParseErrorMessage> errors) {
+        for (ParseErrorMessage error : errors) {
+            if (error.getSeverity() == IMarker.SEVERITY_ERROR) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the top level section that contains all the given lines and
+     * can be parsed separately from the rest of the document, ie. it is
+     * directly followed by another section and it contains no commands
+     * that affect other parts of the document.
+     * 
+     * @param firstLine The first damaged line
+     * @param lastLine The last damaged line (inclusive)
+     * @return The section node or null if there is no such section
+     */
+    public OutlineNode findSection(int firstLine, int lastLine) {
+        if (outlineTree == null || fatalErrors || hasErrors(errors)) {
+            return null;
+        }
+        for (int i = 0; i < outlineTree.size() - 1; i++) {
+            OutlineNode node = outlineTree.get(i);
+            if (node.getBeginLine() <= firstLine && lastLine < node.getEndLine()) {
+                OutlineNode next = outlineTree.get(i + 1);
+                if (!isSectionNode(node) || !isSectionNode(next)
+                        || next.getBeginLine() != node.getEndLine()) {
+                    return null;
+                }
+                for (int line : scopeLines) {
+                    if (line >= node.getBeginLine() && line <= node.getEndLine()) {
+                        return null;
+                    }
+                }
+                // an earlier node that runs into the section, like an
+                // environment opened before it, would not be re-parsed;
+                // a section ends on the line where the next one begins
+                for (int j = 0; j < i; j++) {
+                    OutlineNode prev = outlineTree.get(j);
+                    int endLine = prev.getEndLine();
+                    if (endLine == 0 || endLine > node.getBeginLine()
+                            || endLine == node.getBeginLine() && !isSectionNode(prev)) {
+                        return null;
+                    }
+                }
+                // nodes on the line of the next section would not be re-parsed
+                for (OutlineNode last = node; last.hasChildren(); ) {
+                    last = last.getChildren().get(last.getChildren().size() - 1);
+                    if (last.getBeginLine() >= node.getEndLine()) {
+                        return null;
+                    }
+                }
+                return node;
+            }
+            if (node.getBeginLine() > firstLine) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replaces a section found by <code>findSection()</code> with the results
+     * of parsing the current text of the section with <code>parseFragment()</code>.
+     * The lists of this parser are replaced by new ones, the previous
+     * results are not modified.
+     * 
+     * @param section The replaced top level section
+     * @param fragment The parser that parsed the new text of the section
+     * @param lineDelta The number of lines added (or removed) to the section
+     * @return False if the fragment is not a single section of the same
+     *  type that can replace the old one, in which case nothing is changed
+     */
+    public boolean replaceSection(OutlineNode section, LatexParser fragment,
+            int lineDelta) {
+        if (fragment.fatalErrors || hasErrors(fragment.errors)
+                || fragment.outlineTree.size() != 1
+                || fragment.outlineTree.get(0).getType() != section.getType()
+                || fragment.outlineTree.get(0).getBeginLine() != 1
+                || !fragment.scopeLines.isEmpty()) {
+            return false;
+        }
+        int index = outlineTree.indexOf(section);
+        if (index == -1) {
+            return false;
+        }
+        int beginLine = section.getBeginLine();
+        int endLine = section.getEndLine();
+        int offset = beginLine - 1;
+
+        List<OutlineNode> newInputs = new ArrayList<OutlineNode>(inputs.size());
+        for (OutlineNode input : inputs) {
+            if (input.getBeginLine() < beginLine) {
+                newInputs.add(input);
+            }
+        }
+        ArrayList<OutlineNode> newTree = new ArrayList<OutlineNode>(outlineTree.size());
+        newTree.addAll(outlineTree.subList(0, index));
+        OutlineNode newSection = fragment.outlineTree.get(0);
+        moveFragmentNode(newSection, offset, endLine + lineDelta, newInputs);
+        newTree.add(newSection);
+        for (OutlineNode node : outlineTree.subList(index + 1, outlineTree.size())) {
+            newTree.add(lineDelta == 0 ? node : moveNode(node, null, lineDelta, newInputs));
+        }
+        if (lineDelta == 0) {
+            for (OutlineNode input : inputs) {
+                if (input.getBeginLine() >= endLine) {
+                    newInputs.add(input);
+                }
+            }
+        }
+
+        List<Integer> newScopeLines = new ArrayList<Integer>(scopeLines.size());
+        for (int line : scopeLines) {
+            newScopeLines.add(line < beginLine ? line : line + lineDelta);
+        }
+
+        this.labels = splice(labels, fragment.labels, beginLine, endLine, offset, lineDelta, LABEL_SHIFTER);
+        this.cites = splice(cites, fragment.cites, beginLine, endLine, offset, lineDelta, REFERENCE_SHIFTER);
+        this.refs = splice(refs, fragment.refs, beginLine, endLine, offset, lineDelta, REFERENCE_SHIFTER);
+        this.commands = new ArrayList<TexCommandEntry>(splice(commands, fragment.commands,
+                beginLine, endLine, offset, lineDelta, COMMAND_SHIFTER));
+        this.tasks = splice(tasks, fragment.tasks, beginLine, endLine, offset, lineDelta, MESSAGE_SHIFTER);
+        this.errors = splice(errors, fragment.errors, beginLine, endLine, offset, lineDelta, MESSAGE_SHIFTER);
+        this.inputs = newInputs;
+        this.outlineTree = newTree;
+        this.scopeLines = newScopeLines;
+        if (documentEnv != null && lineDelta != 0) {
+            documentEnv = documentEnv.copy(documentEnv.getIFile());
+            documentEnv.setEndLine(documentEnv.getEndLine() + lineDelta);
+        }
+        return true;
+    }
+    
     /**
      * @return The labels defined in this document
      */
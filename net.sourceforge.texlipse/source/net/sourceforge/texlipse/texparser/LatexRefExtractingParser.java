@@ -9,11 +9,10 @@
 package net.sourceforge.texlipse.texparser;
 
 import java.io.IOException;
-import java.io.PushbackReader;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 
+import net.sourceforge.texlipse.model.LineIndex;
 import net.sourceforge.texlipse.model.ReferenceEntry;
 import net.sourceforge.texlipse.model.TexCommandEntry;
 import net.sourceforge.texlipse.texparser.lexer.LexerException;
@@ -118,7 +117,8 @@ public class LatexRefExtractingParser {
      */
     public void parse(String input) throws IOException {
         this.extractPreamble(input);
-        LatexLexer lexer = new LatexLexer(new PushbackReader(new StringReader(input), 4096));
+        LineIndex lines = null;
+        LatexLexer lexer = new LatexLexer(input);
         boolean expectArg = false;
         boolean expectArg2 = false;
         Token prevToken = null;
@@ -137,7 +137,10 @@ public class LatexRefExtractingParser {
                             ReferenceEntry l = new ReferenceEntry(t.getText());
                             l.setPosition(t.getPos(), t.getText().length());
                             l.startLine = t.getLine();
-                            l.setLabelInfo(input);
+                            if (lines == null) {
+                                lines = new LineIndex(input);
+                            }
+                            l.setLabelInfo(lines);
                             this.labels.add(l);
                         } else if (prevToken instanceof TCbib) {
                             String[] sBibs = t.getText().split(",");
@@ -0,0 +1,29 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2004-2011 by the TeXlapse Team.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sourceforge.texlipse.texparser;
+
+import net.sourceforge.texlipse.texparser.node.Token;
+
+/**
+ * Receives the tokens of a <code>LatexLexer</code> as they are read, so
+ * that several extractors can share a single pass over a document.
+ * 
+ * @see LatexLexer#addListener(LatexTokenListener)
+ */
+public interface LatexTokenListener {
+
+    /**
+     * Called for each token returned by the lexer, including the
+     * final <code>EOF</code>.
+     * 
+     * @param token The token
+     */
+    public void token(Token token);
+}
@@ -9,8 +9,6 @@
 package net.sourceforge.texlipse.texparser;
 
 import java.io.IOException;
-import java.io.PushbackReader;
-import java.io.StringReader;
 
 import net.sourceforge.texlipse.texparser.lexer.LexerException;
 import net.sourceforge.texlipse.texparser.node.EOF;
@@ -35,11 +33,17 @@ import net.sourceforge.texlipse.texparser.node.Token;
  * the given string, ie. all normal words and the contents of sectioning 
  * commands are counted. Cite-references are counted as one word.
  * 
+ * The counter can also be added as a listener to a lexer that is used
+ * for parsing the document, so the words are counted in the same pass.
+ * 
  * @author Oskar Ojala
  */
-public class LatexWordCounter {
+public class LatexWordCounter implements LatexTokenListener {
 
     private String selection;
+    
+    private int words;
+    private boolean expectArg;
 
     /**
      * Creates new word counter with a string with words to count.
@@ -50,6 +54,13 @@ public class LatexWordCounter {
         this.selection = selection;
     }
 
+    /**
+     * Creates a new word counter that counts the tokens it is given
+     * as a <code>LatexTokenListener</code>.
+     */
+    public LatexWordCounter() {
+    }
+
     /**
      * Counts the number of (LaTeX) words in the string that this
      * object contains.
@@ -58,31 +69,11 @@ public class LatexWordCounter {
      */
     public int countWords() {
         try {
-            LatexLexer lexer = new LatexLexer(new PushbackReader(new StringReader(selection), 4096));
-
-            int words = 0;
-            boolean expectArg = false;
-            for (Token t = lexer.next(); !(t instanceof EOF); t = lexer.next()) {
-                if (expectArg) {
-                    if (t instanceof TArgument) {
-                        words += t.getText().split("\\s+").length;
-                        expectArg = false;
-                    } else if (!(t instanceof TOptargument) && !(t instanceof TWhitespace)
-                            && !(t instanceof TStar) && !(t instanceof TCommentline)) {
-                        // this is an error state, but we'll skip it
-                        expectArg = false;
-                    }
-                } else {
-                    if (t instanceof TWord || t instanceof TCcite) {
-                        if (!"&".equals(t.getText()))
-                            words++;
-                    } else if (t instanceof TWhitespace) { // make the common case fast
-                        continue;
-                    } else if (t instanceof TCpart || t instanceof TCchapter 
-                            || t instanceof TCsection || t instanceof TCssection 
-                            || t instanceof TCsssection || t instanceof TCparagraph)
-                        expectArg = true;
-                }
+            LatexLexer lexer = new LatexLexer(selection);
+            lexer.addListener(this);
+            words = 0;
+            expectArg = false;
+            while (!(lexer.next() instanceof EOF)) {
             }
             return words;
         } catch (IOException e) {
@@ -91,4 +82,34 @@ public class LatexWordCounter {
             return -1;
         }
     }
+
+    /**
+     * @return The number of words in the tokens given so far
+     */
+    public int getWords() {
+        return words;
+    }
+
+    public void token(Token t) {
+        if (expectArg) {
+            if (t instanceof TArgument) {
+                words += t.getText().split("\\s+").length;
+                expectArg = false;
+            } else if (!(t instanceof TOptargument) && !(t instanceof TWhitespace)
+                    && !(t instanceof TStar) && !(t instanceof TCommentline)) {
+                // this is an error state, but we'll skip it
+                expectArg = false;
+            }
+        } else {
+            if (t instanceof TWord || t instanceof TCcite) {
+                if (!"&".equals(t.getText()))
+                    words++;
+            } else if (t instanceof TWhitespace) { // make the common case fast
+                return;
+            } else if (t instanceof TCpart || t instanceof TCchapter 
+                    || t instanceof TCsection || t instanceof TCssection 
+                    || t instanceof TCsssection || t instanceof TCparagraph)
+                expectArg = true;
+        }
+    }
 }
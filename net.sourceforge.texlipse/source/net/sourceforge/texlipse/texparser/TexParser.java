@@ -9,20 +9,22 @@
 package net.sourceforge.texlipse.texparser;
 
 import java.io.IOException;
-import java.io.PushbackReader;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 
 import net.sourceforge.texlipse.model.DocumentReference;
+import net.sourceforge.texlipse.model.LineIndex;
 import net.sourceforge.texlipse.model.OutlineNode;
 import net.sourceforge.texlipse.model.ParseErrorMessage;
 import net.sourceforge.texlipse.model.ReferenceEntry;
 import net.sourceforge.texlipse.model.TexCommandEntry;
 import net.sourceforge.texlipse.texparser.lexer.LexerException;
 
-import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
 import org.eclipse.jface.text.IRegion;
 
 
@@ -44,6 +46,13 @@ public class TexParser {
     private boolean fatalErrors;
     
     private String preamble;
+    
+    // modification stamp of the document text the current results are for
+    private long textStamp;
+    
+    // the tokens read by parses that were canceled
+    private long wastedTokens;
+    private int canceledParses;
 
     /**
      * @param input The string representing the document to parse
@@ -52,29 +61,10 @@ public class TexParser {
     	this.inputDoc = input;
         this.lparser = new LatexParser();
         this.fatalErrors = false;
+        this.textStamp = IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
     }
 
     
-    /**
-     * Removes trailing whitespace from the document. This is needed since
-     * the lexer and Eclipse have a different view of how the positions in
-     * the trailing whitespace work out, so it's best to just remove it.
-     * 
-     * @param input The document to process
-     * @return The document with trailing whitespace removed
-     * 
-     * @see Character.isWhitespace
-     */
-    private String rmTrailingWhitespace(String input) {
-        int lastChar = input.length() - 1;
-        while (lastChar >= 0 && Character.isWhitespace(input.charAt(lastChar)))
-            lastChar--;
-        lastChar++;
-        if (lastChar < input.length())
-            return input.substring(0, lastChar);
-        return input;
-    }
-    
     static String extractLaTeXPreamble(String input) {
         /*if (LatexParserUtils.findCommand(input, "\\documentclass", 0) == -1
                 && LatexParserUtils.findCommand(input, "\\documentstyle", 0) == -1) {
@@ -90,46 +80,115 @@ public class TexParser {
     }
     
     /**
-     * Extracts the preamble (if there is any) and stores a copy of it
-     * in the field <code>preamble</code>. The preamble is assumed to
-     * exist if the string contain the \documentclass command and it ends
-     * where the document-environment begins or at the end of file.
-     * 
-     * The preamble stored will include the \begin{document} -command.
+     * Parses the input
      * 
-     * @param input The document
+     * @throws IOException
      */
-    private void extractPreamble(String input) {
-/*
-        // These regexps lead to stack overflows in the regexp parser in some occasions.
+    public void parseDocument(boolean checkForMissingSections) throws IOException {
+        parseDocument(checkForMissingSections, null);
+    }
 
-        // (?:\r|\n|^)(?:(?:\\%|[^%\r\n])*?(?:\\%|[^\\%]))?\\document(?:class|style)(?:\W|$)
-        Pattern docclass = Pattern.compile("(?:\\r|\\n|^)(?:(?:\\\\%|[^%\\r\\n])*?(?:\\\\%|[^\\\\%]))?\\\\document(?:class|style)(?:\\W|$)");
-        Matcher m = docclass.matcher(input);
-        if (m.find()) {
-            
-            // (?:\r|\n|^)(?:(?:\\%|[^%\r\n])*?(?:\\%|[^\\%]))?\\begin\s*\{document\}
-            Pattern begindoc = Pattern.compile("(?:\\r|\\n|^)(?:(?:\\\\%|[^%\\r\\n])*?(?:\\\\%|[^\\\\%]))?\\\\begin\\s*\\{document\\}");
-            Matcher m2 = begindoc.matcher(input);
-            if (m2.find(m.end() - 1)) {
-                this.preamble = input.substring(0, m2.end());
-                return;
-            }
+    /**
+     * Parses the input. The parse stops when the monitor is canceled.
+     * 
+     * @param checkForMissingSections
+     * @param monitor The monitor to check for cancellation, or null
+     * @throws IOException
+     * @throws OperationCanceledException If the monitor was canceled
+     */
+    private void parseDocument(boolean checkForMissingSections,
+            IProgressMonitor monitor) throws IOException {
+        long stamp = DocumentDamage.getModificationStamp(inputDoc);
+        String input = inputDoc.get();
+        parseDocument(input, checkForMissingSections, monitor);
+        if (stamp == DocumentDamage.getModificationStamp(inputDoc)) {
+            this.textStamp = stamp;
         }
-        this.preamble = null;
-        return;*/
-        
-        this.preamble = extractLaTeXPreamble(input);
     }
 
-    
     /**
-     * Parses the input
+     * Parses the input. If all the changes since the previous parse are
+     * within a single top level section, only that section is parsed
+     * again and the results for the rest of the document are reused. 
+     * Otherwise the whole document is parsed.
      * 
+     * @param damage The changes made to the document since the previous parse
+     * @param checkForMissingSections
      * @throws IOException
      */
-    public void parseDocument(boolean checkForMissingSections) throws IOException {
-        parseDocument(inputDoc.get(), checkForMissingSections);
+    public void parseDocument(DocumentDamage damage,
+            boolean checkForMissingSections) throws IOException {
+        parseDocument(damage, checkForMissingSections, null);
+    }
+
+    /**
+     * Parses the input like <code>parseDocument(DocumentDamage, boolean)</code>,
+     * but stops within a few hundred tokens when the monitor is canceled.
+     * The results of the previous parse are kept in that case.
+     * 
+     * @param damage The changes made to the document since the previous parse
+     * @param checkForMissingSections
+     * @param monitor The monitor to check for cancellation, or null
+     * @throws IOException
+     * @throws OperationCanceledException If the monitor was canceled
+     */
+    public void parseDocument(DocumentDamage damage,
+            boolean checkForMissingSections, IProgressMonitor monitor) throws IOException {
+        if (!parseSection(damage, checkForMissingSections, monitor)) {
+            parseDocument(checkForMissingSections, monitor);
+        }
+    }
+
+    /**
+     * Parses again the top level section that contains the damaged lines.
+     * 
+     * @return True if the results were updated, false if the whole document
+     *  needs to be parsed
+     */
+    private boolean parseSection(DocumentDamage damage,
+            boolean checkForMissingSections, IProgressMonitor monitor) throws IOException {
+        if (fatalErrors || !damage.appliesTo(textStamp)) {
+            return false;
+        }
+        OutlineNode section = lparser.findSection(damage.getFirstLine() + 1,
+                damage.getLastLine() + 1);
+        if (section == null) {
+            return false;
+        }
+        int beginLine = section.getBeginLine();
+        int endLine = section.getEndLine() + damage.getLineDelta();
+        if (endLine <= beginLine) {
+            return false;
+        }
+        String input;
+        try {
+            int offset = inputDoc.getLineOffset(beginLine - 1);
+            input = inputDoc.get(offset, inputDoc.getLineOffset(endLine - 1) - offset);
+        } catch (BadLocationException e) {
+            return false;
+        }
+        // the text must not have changed after the damage was taken
+        if (DocumentDamage.getModificationStamp(inputDoc) != damage.getStamp()) {
+            return false;
+        }
+        
+        LatexParser fragment = new LatexParser();
+        LatexLexer lexer = new LatexLexer(input);
+        lexer.setMonitor(monitor);
+        try {
+            fragment.parseFragment(lexer, lparser, checkForMissingSections);
+        } catch (LexerException e) {
+            return false;
+        } catch (OperationCanceledException e) {
+            parseCanceled(lexer.getTokenCount());
+            throw e;
+        }
+        if (!lparser.replaceSection(section, fragment, damage.getLineDelta())) {
+            return false;
+        }
+        this.errors = lparser.getErrors();
+        this.textStamp = damage.getStamp();
+        return true;
     }
     
     /**
@@ -138,42 +197,46 @@ public class TexParser {
      * @throws IOException
      */
     public void parseDocument(String input, boolean checkForMissingSections) throws IOException {
-        
-        // remove trailing ws (this is because a discrepancy in the lexer's 
-        // and IDocument's line counting for trailing whitespace)
-        input = this.rmTrailingWhitespace(input);
-        
-        this.extractPreamble(input);
-        
+        parseDocument(input, checkForMissingSections, null);
+    }
+
+    private void parseDocument(String input, boolean checkForMissingSections,
+            IProgressMonitor monitor) throws IOException {
+        // the project scan may already have extracted the same text
+        LatexExtractor extractor = new LatexExtractor();
         try {
-            // start the parse
-            LatexLexer lexer = new LatexLexer(new PushbackReader(new StringReader(input), 4096));
-            //LatexLexer lexer = this.getLexer(input); 
-            if (this.preamble != null) {
-                OutlineNode on = new OutlineNode("Preamble",
-                        OutlineNode.TYPE_PREAMBLE,
-                        1, null);
-                lparser.parse(lexer, on, checkForMissingSections);
-            } else {
-                lparser.parse(lexer, checkForMissingSections);
-            }
-            this.errors = lparser.getErrors();
-            this.fatalErrors = lparser.isFatalErrors();
-        } catch (LexerException e) {
-            // we must parse the lexer exception into a suitable format
-            String msg = e.getMessage();
-            int first = msg.indexOf('[');
-            int last = msg.indexOf(']');
-            String numseq = msg.substring(first + 1, last);
-            String[] numbers = numseq.split(",");
-            this.errors = new ArrayList<ParseErrorMessage>(1);
-            this.errors.add(new ParseErrorMessage(Integer.parseInt(numbers[0]),
-                    Integer.parseInt(numbers[1]),
-                    2,
-                    msg.substring(last+2),
-                    IMarker.SEVERITY_ERROR));
-            this.fatalErrors = true;
+            extractor = LatexExtractor.extractOwn(input, checkForMissingSections,
+                    extractor, monitor);
+        } catch (OperationCanceledException e) {
+            // the previous results and their stamp are kept
+            parseCanceled(extractor.getTokenCount());
+            throw e;
         }
+        this.textStamp = IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+        this.lparser = extractor.getParser();
+        this.preamble = extractor.getPreamble();
+        this.errors = extractor.getErrors();
+        this.fatalErrors = extractor.isFatalErrors();
+    }
+
+    private synchronized void parseCanceled(int tokens) {
+        wastedTokens += tokens;
+        canceledParses++;
+    }
+
+    /**
+     * @return The number of tokens read by the parses that were canceled
+     *  before they were finished
+     */
+    public synchronized long getWastedTokens() {
+        return wastedTokens;
+    }
+
+    /**
+     * @return The number of parses that were canceled
+     */
+    public synchronized int getCanceledParses() {
+        return canceledParses;
     }
 
     /**
@@ -188,8 +251,11 @@ public class TexParser {
      */
     public List<ReferenceEntry> getLabels() {
     	List<ReferenceEntry> labels = lparser.getLabels();
-    	for (ReferenceEntry label : labels) {
-    		label.setLabelInfo(inputDoc.get());
+    	if (labels.size() > 0) {
+    	    LineIndex lines = new LineIndex(inputDoc.get());
+    	    for (ReferenceEntry label : labels) {
+    	        label.setLabelInfo(lines);
+    	    }
     	}
         return labels;
     }
@@ -9,10 +9,13 @@
  */
 package net.sourceforge.texlipse.treeview.views;
 
+import java.util.Collections;
+
 import net.sourceforge.texlipse.TexlipsePlugin;
 import net.sourceforge.texlipse.editor.TexEditor;
 import net.sourceforge.texlipse.model.OutlineNode;
 import net.sourceforge.texlipse.model.TexOutlineInput;
+import net.sourceforge.texlipse.outline.OutlineDelta;
 import net.sourceforge.texlipse.outline.TexOutlinePage;
 
 import org.eclipse.jface.text.BadLocationException;
@@ -41,6 +44,8 @@ public class TexOutlineTreeView extends ViewPart implements
 	ISelectionChangedListener, IPartListener { 
     
     private TexOutlinePage outline;
+    // the version of the full outline shown, -1 if not known
+    private int outlineVersion = -1;
 
     /**
      * The constructor.
@@ -79,6 +84,27 @@ public class TexOutlineTreeView extends ViewPart implements
      */
     public void update(TexOutlineInput input) {
     	outline.update(input);
+    	outlineVersion = -1;
+    }
+    
+    /**
+     * Updates the outline with the new input. If the shown outline is
+     * the one the delta was computed from, only the changed nodes are
+     * refreshed.
+     * 
+     * @param input the new input
+     * @param delta the changes to the full outline
+     */
+    public void update(TexOutlineInput input, OutlineDelta delta) {
+        if (delta.getVersion() >= 0 && delta.getVersion() == outlineVersion) {
+            outline.update(input, Collections.<OutlineNode>emptySet());
+        } else if (delta.getPreviousVersion() >= 0
+                && delta.getPreviousVersion() == outlineVersion) {
+            outline.update(input, delta.getChangedNodes());
+        } else {
+            outline.update(input);
+        }
+        outlineVersion = delta.getVersion();
     }
     
     /**
@@ -142,6 +168,7 @@ public class TexOutlineTreeView extends ViewPart implements
      */
     public void projectChanged() {
         outline.reset();
+        outlineVersion = -1;
     }
     
     